@@ -0,0 +1,202 @@
+/*
+ * Copyright (C) 2012-2018 52°North Initiative for Geospatial Open Source
+ * Software GmbH
+ *
+ * This program is free software; you can redistribute it and/or modify it
+ * under the terms of the GNU General Public License version 2 as published
+ * by the Free Software Foundation.
+ *
+ * If the program is linked with libraries which are licensed under one of
+ * the following licenses, the combination of the program with the linked
+ * library is not considered a "derivative work" of the program:
+ *
+ *     - Apache License, version 2.0
+ *     - Apache Software License, version 1.0
+ *     - GNU Lesser General Public License, version 3
+ *     - Mozilla Public License, versions 1.0, 1.1 and 2.0
+ *     - Common Development and Distribution License (CDDL), version 1.0
+ *
+ * Therefore the distribution of the program linked with libraries licensed
+ * under the aforementioned licenses, is permitted by the copyright holders
+ * if the distribution is compliant with both the GNU General Public
+ * License version 2 and the aforementioned licenses.
+ *
+ * This program is distributed in the hope that it will be useful, but
+ * WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the GNU General
+ * Public License for more details.
+ */
+package org.n52.sta.benchmark;
+
+import java.math.BigDecimal;
+import java.util.ArrayList;
+import java.util.Date;
+import java.util.HashSet;
+import java.util.List;
+
+import org.apache.olingo.commons.api.edmx.EdmxReference;
+import org.apache.olingo.server.api.OData;
+import org.apache.olingo.server.api.ServiceMetadata;
+import org.n52.series.db.beans.BooleanDataEntity;
+import org.n52.series.db.beans.CategoryDataEntity;
+import org.n52.series.db.beans.CountDataEntity;
+import org.n52.series.db.beans.DataEntity;
+import org.n52.series.db.beans.GeometryDataEntity;
+import org.n52.series.db.beans.GeometryEntity;
+import org.n52.series.db.beans.QuantityDataEntity;
+import org.n52.series.db.beans.ReferencedDataEntity;
+import org.n52.series.db.beans.TextDataEntity;
+import org.n52.sta.edm.provider.SensorThingsEdmProvider;
+import org.n52.sta.mapping.GeometryMapper;
+import org.n52.sta.mapping.ObservationMapper;
+import org.n52.sta.utils.EntityAnnotator;
+import org.n52.sta.utils.EntityCreationHelper;
+import org.springframework.context.annotation.AnnotationConfigApplicationContext;
+
+import com.vividsolutions.jts.geom.Coordinate;
+import com.vividsolutions.jts.geom.GeometryFactory;
+import com.vividsolutions.jts.geom.Polygon;
+import com.vividsolutions.jts.geom.PrecisionModel;
+
+/**
+ * Synthetic fixtures for the benchmarks. Everything is created in memory, no
+ * database or network access is needed.
+ *
+ * @since 1.0.0
+ */
+public final class BenchmarkFixtures {
+
+    public static final String BASE_URI = "http://localhost:8080/sta";
+
+    private static final long START = 1514764800000L;
+
+    private static final GeometryFactory GEOMETRY_FACTORY = new GeometryFactory(new PrecisionModel(), 4326);
+
+    private BenchmarkFixtures() {
+    }
+
+    /**
+     * Creates a Spring context with the EDM providers, the mappers and the
+     * {@link EntityAnnotator}. The context has to be closed by the caller.
+     *
+     * @return the refreshed context
+     */
+    public static AnnotationConfigApplicationContext createContext() {
+        AnnotationConfigApplicationContext ctx = new AnnotationConfigApplicationContext();
+        ctx.scan("org.n52.sta.edm.provider");
+        ctx.register(EntityCreationHelper.class, GeometryMapper.class, ObservationMapper.class,
+                EntityAnnotator.class);
+        ctx.refresh();
+        return ctx;
+    }
+
+    /**
+     * Creates the {@link ServiceMetadata} for the EDM of the given context
+     *
+     * @param ctx
+     *            the context created by {@link #createContext()}
+     * @return the service metadata
+     */
+    public static ServiceMetadata createServiceMetadata(AnnotationConfigApplicationContext ctx) {
+        return OData.newInstance().createServiceMetadata(ctx.getBean(SensorThingsEdmProvider.class),
+                new ArrayList<EdmxReference>());
+    }
+
+    /**
+     * Creates an observation of the given result type
+     *
+     * @param type
+     *            one of quantity, count, boolean, category, text, geometry or
+     *            referenced
+     * @param id
+     *            the id of the observation
+     * @return the observation
+     */
+    public static DataEntity<?> createObservation(String type, long id) {
+        DataEntity<?> observation;
+        switch (type) {
+            case "quantity":
+                QuantityDataEntity quantity = new QuantityDataEntity();
+                quantity.setValue(BigDecimal.valueOf(id % 1000, 2));
+                observation = quantity;
+                break;
+            case "count":
+                CountDataEntity count = new CountDataEntity();
+                count.setValue((int) id);
+                observation = count;
+                break;
+            case "boolean":
+                BooleanDataEntity bool = new BooleanDataEntity();
+                bool.setValue(id % 2 == 0);
+                observation = bool;
+                break;
+            case "category":
+                CategoryDataEntity category = new CategoryDataEntity();
+                category.setValue("category_" + (id % 10));
+                observation = category;
+                break;
+            case "text":
+                TextDataEntity text = new TextDataEntity();
+                text.setValue("observation text " + id);
+                observation = text;
+                break;
+            case "geometry":
+                GeometryEntity geometry = new GeometryEntity();
+                geometry.setGeometry(GEOMETRY_FACTORY.createPoint(new Coordinate(7.52 + id * 1e-6, 52.7)));
+                GeometryDataEntity geom = new GeometryDataEntity();
+                geom.setValue(geometry);
+                observation = geom;
+                break;
+            case "referenced":
+                ReferencedDataEntity referenced = new ReferencedDataEntity();
+                referenced.setValue("http://example.org/observations/" + id);
+                observation = referenced;
+                break;
+            default:
+                throw new IllegalArgumentException("Unknown observation type: " + type);
+        }
+        observation.setId(id);
+        Date phenomenonTime = new Date(START + id * 60000L);
+        observation.setSamplingTimeStart(phenomenonTime);
+        observation.setSamplingTimeEnd(phenomenonTime);
+        observation.setResultTime(phenomenonTime);
+        observation.setParameters(new HashSet<>());
+        return observation;
+    }
+
+    /**
+     * Creates a list of quantity observations
+     *
+     * @param size
+     *            the number of observations
+     * @return the observations
+     */
+    public static List<DataEntity<?>> createObservations(int size) {
+        List<DataEntity<?>> observations = new ArrayList<>(size);
+        for (int i = 0; i < size; i++) {
+            observations.add(createObservation("quantity", i + 1));
+        }
+        return observations;
+    }
+
+    /**
+     * Creates a closed polygon approximating a circle with the given number
+     * of vertices
+     *
+     * @param vertices
+     *            the number of vertices of the shell
+     * @return the polygon
+     */
+    public static Polygon createPolygon(int vertices) {
+        Coordinate[] shell = new Coordinate[vertices + 1];
+        for (int i = 0; i < vertices; i++) {
+            double angle = 2 * Math.PI * i / vertices;
+            shell[i] = new Coordinate(7.52 + Math.cos(angle), 52.7 + Math.sin(angle));
+        }
+        shell[vertices] = shell[0];
+        Polygon polygon = GEOMETRY_FACTORY.createPolygon(shell);
+        polygon.setSRID(4326);
+        return polygon;
+    }
+
+}
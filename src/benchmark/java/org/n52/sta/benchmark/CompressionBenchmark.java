@@ -0,0 +1,158 @@
+/*
+ * Copyright (C) 2012-2018 52°North Initiative for Geospatial Open Source
+ * Software GmbH
+ *
+ * This program is free software; you can redistribute it and/or modify it
+ * under the terms of the GNU General Public License version 2 as published
+ * by the Free Software Foundation.
+ *
+ * If the program is linked with libraries which are licensed under one of
+ * the following licenses, the combination of the program with the linked
+ * library is not considered a "derivative work" of the program:
+ *
+ *     - Apache License, version 2.0
+ *     - Apache Software License, version 1.0
+ *     - GNU Lesser General Public License, version 3
+ *     - Mozilla Public License, versions 1.0, 1.1 and 2.0
+ *     - Common Development and Distribution License (CDDL), version 1.0
+ *
+ * Therefore the distribution of the program linked with libraries licensed
+ * under the aforementioned licenses, is permitted by the copyright holders
+ * if the distribution is compliant with both the GNU General Public
+ * License version 2 and the aforementioned licenses.
+ *
+ * This program is distributed in the hope that it will be useful, but
+ * WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the GNU General
+ * Public License for more details.
+ */
+package org.n52.sta.benchmark;
+
+import static org.n52.sta.edm.provider.entities.ObservationEntityProvider.ES_OBSERVATIONS_NAME;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.util.concurrent.TimeUnit;
+
+import org.apache.olingo.commons.api.data.ContextURL;
+import org.apache.olingo.commons.api.data.Entity;
+import org.apache.olingo.commons.api.data.EntityCollection;
+import org.apache.olingo.commons.api.edm.EdmEntitySet;
+import org.apache.olingo.commons.api.format.ContentType;
+import org.apache.olingo.server.api.ServiceMetadata;
+import org.apache.olingo.server.api.serializer.EntityCollectionSerializerOptions;
+import org.apache.olingo.server.api.serializer.SerializerException;
+import org.n52.series.db.beans.DataEntity;
+import org.n52.sta.mapping.ObservationMapper;
+import org.n52.sta.service.compression.ContentEncoding;
+import org.n52.sta.service.serializer.SensorThingsSerializer;
+import org.n52.sta.utils.EntityAnnotator;
+import org.openjdk.jmh.annotations.AuxCounters;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.springframework.context.annotation.AnnotationConfigApplicationContext;
+
+/**
+ * Measures the CPU time of compressing a serialized page of observations with
+ * the different content codings and levels. The size of the compressed body
+ * is reported as secondary result (<code>compressedBytes</code>), so the time
+ * can be weighed against the saved bandwidth.
+ *
+ * @since 1.0.0
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+public class CompressionBenchmark {
+
+    @Param({ "100", "1000" })
+    private int size;
+
+    @Param({ "GZIP", "DEFLATE" })
+    private ContentEncoding encoding;
+
+    @Param({ "1", "6", "9" })
+    private int level;
+
+    private byte[] content;
+
+    @Setup
+    public void setup() throws SerializerException, IOException {
+        try (AnnotationConfigApplicationContext ctx = BenchmarkFixtures.createContext()) {
+            ServiceMetadata serviceMetadata = BenchmarkFixtures.createServiceMetadata(ctx);
+            EdmEntitySet entitySet = serviceMetadata.getEdm().getEntityContainer().getEntitySet(ES_OBSERVATIONS_NAME);
+
+            ObservationMapper mapper = ctx.getBean(ObservationMapper.class);
+            EntityAnnotator annotator = ctx.getBean(EntityAnnotator.class);
+            EntityCollection collection = new EntityCollection();
+            for (DataEntity<?> observation : BenchmarkFixtures.createObservations(size)) {
+                Entity entity = mapper.createEntity(observation);
+                annotator.annotateEntity(entity, entitySet.getEntityType(), BenchmarkFixtures.BASE_URI);
+                collection.getEntities().add(entity);
+            }
+
+            EntityCollectionSerializerOptions options = EntityCollectionSerializerOptions.with()
+                    .id(BenchmarkFixtures.BASE_URI + "/" + ES_OBSERVATIONS_NAME)
+                    .contextURL(ContextURL.with().entitySet(entitySet).build())
+                    .build();
+            ByteArrayOutputStream outputStream = new ByteArrayOutputStream();
+            new SensorThingsSerializer(ContentType.JSON_NO_METADATA)
+                    .entityCollectionIntoStream(serviceMetadata, entitySet.getEntityType(), collection, options,
+                            outputStream);
+            content = outputStream.toByteArray();
+        }
+    }
+
+    @Benchmark
+    public long compress(CompressedSize compressedSize) throws IOException {
+        CountingOutputStream counter = new CountingOutputStream();
+        try (OutputStream outputStream = encoding.compress(counter, level)) {
+            outputStream.write(content);
+        }
+        compressedSize.compressedBytes = counter.count;
+        compressedSize.uncompressedBytes = content.length;
+        return counter.count;
+    }
+
+    /**
+     * The sizes of the last compressed body
+     */
+    @State(Scope.Thread)
+    @AuxCounters(AuxCounters.Type.EVENTS)
+    public static class CompressedSize {
+
+        public long compressedBytes;
+
+        public long uncompressedBytes;
+
+        @Setup(Level.Iteration)
+        public void reset() {
+            compressedBytes = 0;
+            uncompressedBytes = 0;
+        }
+    }
+
+    private static final class CountingOutputStream extends OutputStream {
+
+        private long count;
+
+        @Override
+        public void write(int b) {
+            count++;
+        }
+
+        @Override
+        public void write(byte[] b, int off, int len) {
+            count += len;
+        }
+    }
+
+}
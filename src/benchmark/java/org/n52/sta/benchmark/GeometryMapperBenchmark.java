@@ -0,0 +1,74 @@
+/*
+ * Copyright (C) 2012-2018 52°North Initiative for Geospatial Open Source
+ * Software GmbH
+ *
+ * This program is free software; you can redistribute it and/or modify it
+ * under the terms of the GNU General Public License version 2 as published
+ * by the Free Software Foundation.
+ *
+ * If the program is linked with libraries which are licensed under one of
+ * the following licenses, the combination of the program with the linked
+ * library is not considered a "derivative work" of the program:
+ *
+ *     - Apache License, version 2.0
+ *     - Apache Software License, version 1.0
+ *     - GNU Lesser General Public License, version 3
+ *     - Mozilla Public License, versions 1.0, 1.1 and 2.0
+ *     - Common Development and Distribution License (CDDL), version 1.0
+ *
+ * Therefore the distribution of the program linked with libraries licensed
+ * under the aforementioned licenses, is permitted by the copyright holders
+ * if the distribution is compliant with both the GNU General Public
+ * License version 2 and the aforementioned licenses.
+ *
+ * This program is distributed in the hope that it will be useful, but
+ * WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the GNU General
+ * Public License for more details.
+ */
+package org.n52.sta.benchmark;
+
+import java.util.concurrent.TimeUnit;
+
+import org.apache.olingo.commons.api.data.ComplexValue;
+import org.n52.series.db.beans.GeometryEntity;
+import org.n52.sta.mapping.GeometryMapper;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+
+/**
+ * Measures {@link GeometryMapper#resolveGeometry(GeometryEntity)} on
+ * polygons with a growing number of vertices.
+ *
+ * @since 1.0.0
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+public class GeometryMapperBenchmark {
+
+    @Param({ "100", "10000", "100000" })
+    private int vertices;
+
+    private final GeometryMapper mapper = new GeometryMapper();
+
+    private GeometryEntity geometry;
+
+    @Setup
+    public void setup() {
+        geometry = new GeometryEntity();
+        geometry.setGeometry(BenchmarkFixtures.createPolygon(vertices));
+    }
+
+    @Benchmark
+    public ComplexValue resolvePolygon() {
+        return mapper.resolveGeometry(geometry);
+    }
+
+}
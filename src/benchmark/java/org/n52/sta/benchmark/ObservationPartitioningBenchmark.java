@@ -0,0 +1,230 @@
+/*
+ * Copyright (C) 2012-2018 52°North Initiative for Geospatial Open Source
+ * Software GmbH
+ *
+ * This program is free software; you can redistribute it and/or modify it
+ * under the terms of the GNU General Public License version 2 as published
+ * by the Free Software Foundation.
+ *
+ * If the program is linked with libraries which are licensed under one of
+ * the following licenses, the combination of the program with the linked
+ * library is not considered a "derivative work" of the program:
+ *
+ *     - Apache License, version 2.0
+ *     - Apache Software License, version 1.0
+ *     - GNU Lesser General Public License, version 3
+ *     - Mozilla Public License, versions 1.0, 1.1 and 2.0
+ *     - Common Development and Distribution License (CDDL), version 1.0
+ *
+ * Therefore the distribution of the program linked with libraries licensed
+ * under the aforementioned licenses, is permitted by the copyright holders
+ * if the distribution is compliant with both the GNU General Public
+ * License version 2 and the aforementioned licenses.
+ *
+ * This program is distributed in the hope that it will be useful, but
+ * WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the GNU General
+ * Public License for more details.
+ */
+package org.n52.sta.benchmark;
+
+import java.sql.Connection;
+import java.sql.DriverManager;
+import java.sql.PreparedStatement;
+import java.sql.ResultSet;
+import java.sql.SQLException;
+import java.sql.Statement;
+import java.sql.Timestamp;
+import java.time.LocalDateTime;
+import java.time.temporal.ChronoUnit;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+
+/**
+ * Compares an unpartitioned observation table with one partitioned by month
+ * for the queries the {@link org.n52.sta.data.service.ObservationQueryPlanner}
+ * emits. It needs a PostgreSQL 11 database and is therefore excluded from the
+ * default benchmark run:
+ *
+ * <pre>
+ * mvn -P benchmarks verify -Djmh.args="ObservationPartitioningBenchmark -p url=jdbc:postgresql://localhost/sta_benchmark"
+ * </pre>
+ *
+ * The synthetic tables are created in the schema <code>sta_benchmark</code>
+ * with one observation per second and kept for further runs with the same
+ * number of rows. Generating the default 100 million rows takes a while, pass
+ * <code>-p rows=...</code> for a quick run.
+ *
+ * @since 1.0.0
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+public class ObservationPartitioningBenchmark {
+
+    private static final String SCHEMA = "sta_benchmark";
+
+    private static final LocalDateTime START = LocalDateTime.of(2015, 1, 1, 0, 0);
+
+    private static final int DATASETS = 1000;
+
+    @Param("jdbc:postgresql://localhost:5432/sta_benchmark")
+    private String url;
+
+    @Param("postgres")
+    private String user;
+
+    @Param("postgres")
+    private String password;
+
+    @Param("100000000")
+    private long rows;
+
+    @Param({ "plain", "partitioned" })
+    private String layout;
+
+    private Connection connection;
+
+    private String table;
+
+    private PreparedStatement latestPage;
+
+    private PreparedStatement latestPageInWindow;
+
+    private PreparedStatement monthOfDataset;
+
+    private PreparedStatement countMonth;
+
+    @Setup
+    public void setUp() throws SQLException {
+        connection = DriverManager.getConnection(url, user, password);
+        table = SCHEMA + ".observation_" + layout + "_" + rows;
+        if (!exists()) {
+            generate();
+        }
+        latestPage = connection.prepareStatement("SELECT id, sampling_time_start, value FROM " + table
+                + " WHERE dataset_id = ? ORDER BY sampling_time_start DESC LIMIT 100");
+        latestPageInWindow = connection.prepareStatement("SELECT id, sampling_time_start, value FROM " + table
+                + " WHERE dataset_id = ? AND sampling_time_start >= ? ORDER BY sampling_time_start DESC LIMIT 100");
+        monthOfDataset = connection.prepareStatement("SELECT id, sampling_time_start, value FROM " + table
+                + " WHERE dataset_id = ? AND sampling_time_start >= ? AND sampling_time_start < ?"
+                + " ORDER BY sampling_time_start");
+        countMonth = connection.prepareStatement("SELECT count(*) FROM " + table
+                + " WHERE sampling_time_start >= ? AND sampling_time_start < ?");
+    }
+
+    @TearDown
+    public void tearDown() throws SQLException {
+        connection.close();
+    }
+
+    /**
+     * The last page of a Datastream without a time predicate, as queried
+     * before the planner
+     */
+    @Benchmark
+    public int latestPage() throws SQLException {
+        latestPage.setLong(1, randomDataset());
+        return consume(latestPage);
+    }
+
+    /**
+     * The last page of a Datastream restricted to its last month, as probed by
+     * the planner
+     */
+    @Benchmark
+    public int latestPageInLastMonth() throws SQLException {
+        latestPageInWindow.setLong(1, randomDataset());
+        latestPageInWindow.setTimestamp(2, Timestamp.valueOf(lastMonth()));
+        return consume(latestPageInWindow);
+    }
+
+    @Benchmark
+    public int monthOfDataset() throws SQLException {
+        LocalDateTime month = randomMonth();
+        monthOfDataset.setLong(1, randomDataset());
+        monthOfDataset.setTimestamp(2, Timestamp.valueOf(month));
+        monthOfDataset.setTimestamp(3, Timestamp.valueOf(month.plusMonths(1)));
+        return consume(monthOfDataset);
+    }
+
+    @Benchmark
+    public int countMonth() throws SQLException {
+        LocalDateTime month = randomMonth();
+        countMonth.setTimestamp(1, Timestamp.valueOf(month));
+        countMonth.setTimestamp(2, Timestamp.valueOf(month.plusMonths(1)));
+        return consume(countMonth);
+    }
+
+    private boolean exists() throws SQLException {
+        try (PreparedStatement statement = connection.prepareStatement(
+                "SELECT 1 FROM information_schema.tables WHERE table_schema = ? AND table_name = ?")) {
+            statement.setString(1, SCHEMA);
+            statement.setString(2, table.substring(SCHEMA.length() + 1));
+            try (ResultSet result = statement.executeQuery()) {
+                return result.next();
+            }
+        }
+    }
+
+    private void generate() throws SQLException {
+        boolean partitioned = "partitioned".equals(layout);
+        try (Statement statement = connection.createStatement()) {
+            statement.execute("CREATE SCHEMA IF NOT EXISTS " + SCHEMA);
+            statement.execute("CREATE TABLE " + table + " (id bigint NOT NULL, dataset_id bigint NOT NULL,"
+                    + " sampling_time_start timestamp NOT NULL, value numeric(20, 10))"
+                    + (partitioned ? " PARTITION BY RANGE (sampling_time_start)" : ""));
+            if (partitioned) {
+                for (LocalDateTime month = START; !month.isAfter(end()); month = month.plusMonths(1)) {
+                    statement.execute(String.format("CREATE TABLE %s_p%tY_%<tm PARTITION OF %s"
+                            + " FOR VALUES FROM ('%s') TO ('%s')", table, month, table,
+                            Timestamp.valueOf(month), Timestamp.valueOf(month.plusMonths(1))));
+                }
+            }
+            statement.execute("INSERT INTO " + table + " SELECT g, g % " + DATASETS + ","
+                    + " timestamp '" + Timestamp.valueOf(START) + "' + g * interval '1 second',"
+                    + " random() * 100 FROM generate_series(1, " + rows + ") g");
+            statement.execute("CREATE INDEX ON " + table + " (dataset_id, sampling_time_start)");
+            statement.execute("CREATE INDEX ON " + table + " USING brin (sampling_time_start)");
+            statement.execute("ANALYZE " + table);
+        }
+    }
+
+    private LocalDateTime end() {
+        return START.plusSeconds(rows);
+    }
+
+    private LocalDateTime lastMonth() {
+        return end().withDayOfMonth(1).toLocalDate().atStartOfDay();
+    }
+
+    private LocalDateTime randomMonth() {
+        long months = Math.max(1, ChronoUnit.MONTHS.between(START, end()));
+        return START.plusMonths(ThreadLocalRandom.current().nextLong(months));
+    }
+
+    private static long randomDataset() {
+        return ThreadLocalRandom.current().nextInt(DATASETS);
+    }
+
+    private static int consume(PreparedStatement statement) throws SQLException {
+        int count = 0;
+        try (ResultSet result = statement.executeQuery()) {
+            while (result.next()) {
+                count++;
+            }
+        }
+        return count;
+    }
+
+}
@@ -0,0 +1,114 @@
+/*
+ * Copyright (C) 2012-2018 52°North Initiative for Geospatial Open Source
+ * Software GmbH
+ *
+ * This program is free software; you can redistribute it and/or modify it
+ * under the terms of the GNU General Public License version 2 as published
+ * by the Free Software Foundation.
+ *
+ * If the program is linked with libraries which are licensed under one of
+ * the following licenses, the combination of the program with the linked
+ * library is not considered a "derivative work" of the program:
+ *
+ *     - Apache License, version 2.0
+ *     - Apache Software License, version 1.0
+ *     - GNU Lesser General Public License, version 3
+ *     - Mozilla Public License, versions 1.0, 1.1 and 2.0
+ *     - Common Development and Distribution License (CDDL), version 1.0
+ *
+ * Therefore the distribution of the program linked with libraries licensed
+ * under the aforementioned licenses, is permitted by the copyright holders
+ * if the distribution is compliant with both the GNU General Public
+ * License version 2 and the aforementioned licenses.
+ *
+ * This program is distributed in the hope that it will be useful, but
+ * WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the GNU General
+ * Public License for more details.
+ */
+package org.n52.sta.benchmark;
+
+import java.util.concurrent.TimeUnit;
+
+import org.n52.sta.data.query.DatastreamQuerySpecifications;
+import org.n52.sta.data.query.FeatureOfInterestQuerySpecifications;
+import org.n52.sta.data.query.ObservationQuerySpecifications;
+import org.n52.sta.data.query.SensorQuerySpecifications;
+import org.n52.sta.data.query.ThingQuerySpecifications;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.State;
+
+import com.querydsl.core.types.Expression;
+import com.querydsl.jpa.HQLTemplates;
+import com.querydsl.jpa.JPQLSerializer;
+
+/**
+ * Measures building the QueryDSL predicates of the
+ * <code>*QuerySpecifications</code> and rendering them to JPQL, which is what
+ * happens for each request before Hibernate parses the query.
+ *
+ * @since 1.0.0
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+public class QuerySpecificationsBenchmark {
+
+    private final ObservationQuerySpecifications oQS = new ObservationQuerySpecifications();
+
+    private final DatastreamQuerySpecifications dQS = new DatastreamQuerySpecifications();
+
+    private final ThingQuerySpecifications tQS = new ThingQuerySpecifications();
+
+    private final SensorQuerySpecifications sQS = new SensorQuerySpecifications();
+
+    private final FeatureOfInterestQuerySpecifications fQS = new FeatureOfInterestQuerySpecifications();
+
+    private long id = 42L;
+
+    @Benchmark
+    public String observationWithDatastream() {
+        return toJpql(oQS.withDatastream(id));
+    }
+
+    @Benchmark
+    public String observationWithFeatureOfInterest() {
+        return toJpql(oQS.withFeatureOfInterest(id));
+    }
+
+    @Benchmark
+    public String observationIsValid() {
+        return toJpql(oQS.isValidEntity());
+    }
+
+    @Benchmark
+    public String datastreamWithObservation() {
+        return toJpql(dQS.withObservation(id));
+    }
+
+    @Benchmark
+    public String thingWithRelatedDatastream() {
+        return toJpql(tQS.withRelatedDatastream(id));
+    }
+
+    @Benchmark
+    public String sensorWithDatastreamAndValid() {
+        return toJpql(sQS.withDatastream(id).and(sQS.isValidEntity()));
+    }
+
+    @Benchmark
+    public String featureOfInterestWithObservation() {
+        return toJpql(fQS.withObservation(id));
+    }
+
+    private static String toJpql(Expression<?> expression) {
+        JPQLSerializer serializer = new JPQLSerializer(HQLTemplates.DEFAULT);
+        serializer.handle(expression);
+        return serializer.toString();
+    }
+
+}
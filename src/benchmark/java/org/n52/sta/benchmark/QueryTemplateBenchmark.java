@@ -0,0 +1,147 @@
+/*
+ * Copyright (C) 2012-2018 52°North Initiative for Geospatial Open Source
+ * Software GmbH
+ *
+ * This program is free software; you can redistribute it and/or modify it
+ * under the terms of the GNU General Public License version 2 as published
+ * by the Free Software Foundation.
+ *
+ * If the program is linked with libraries which are licensed under one of
+ * the following licenses, the combination of the program with the linked
+ * library is not considered a "derivative work" of the program:
+ *
+ *     - Apache License, version 2.0
+ *     - Apache Software License, version 1.0
+ *     - GNU Lesser General Public License, version 3
+ *     - Mozilla Public License, versions 1.0, 1.1 and 2.0
+ *     - Common Development and Distribution License (CDDL), version 1.0
+ *
+ * Therefore the distribution of the program linked with libraries licensed
+ * under the aforementioned licenses, is permitted by the copyright holders
+ * if the distribution is compliant with both the GNU General Public
+ * License version 2 and the aforementioned licenses.
+ *
+ * This program is distributed in the hope that it will be useful, but
+ * WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the GNU General
+ * Public License for more details.
+ */
+package org.n52.sta.benchmark;
+
+import java.util.concurrent.TimeUnit;
+
+import org.n52.series.db.beans.sta.DatastreamEntity;
+import org.n52.series.db.beans.sta.QDatastreamEntity;
+import org.n52.series.db.beans.sta.QThingEntity;
+import org.n52.series.db.beans.sta.ThingEntity;
+import org.n52.sta.Application;
+import org.n52.sta.data.query.DatastreamQuerySpecifications;
+import org.n52.sta.data.query.ThingQuerySpecifications;
+import org.n52.sta.data.repositories.DatastreamRepository;
+import org.n52.sta.data.repositories.QueryTemplate;
+import org.n52.sta.data.repositories.QueryTemplates;
+import org.n52.sta.data.repositories.ReadQueryExecutor;
+import org.n52.sta.data.repositories.ThingRepository;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.springframework.boot.SpringApplication;
+import org.springframework.boot.WebApplicationType;
+import org.springframework.context.ConfigurableApplicationContext;
+import org.springframework.transaction.PlatformTransactionManager;
+import org.springframework.transaction.support.TransactionTemplate;
+
+/**
+ * Compares the lookups by id, by a related id and the counts of the
+ * repositories with QueryDSL predicates, which build and render the JPQL per
+ * call, against the same lookups with precompiled {@link QueryTemplate}s.
+ * Runs against the empty embedded database of the <code>test</code> profile,
+ * so the difference is the overhead of building, rendering and finding the
+ * parsed query in the Hibernate plan cache.
+ *
+ * @since 1.0.0
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+public class QueryTemplateBenchmark {
+
+    private static final ThingQuerySpecifications T_QS = new ThingQuerySpecifications();
+
+    private static final DatastreamQuerySpecifications D_QS = new DatastreamQuerySpecifications();
+
+    private static final QueryTemplates<ThingEntity> THINGS = QueryTemplates
+            .of(QThingEntity.thingEntity, T_QS::withId)
+            .relation("iot.Datastream", T_QS::withRelatedDatastream);
+
+    private static final QueryTemplates<DatastreamEntity> DATASTREAMS = QueryTemplates
+            .of(QDatastreamEntity.datastreamEntity, D_QS::matchesId)
+            .relation("iot.Thing", D_QS::withThing);
+
+    private ConfigurableApplicationContext context;
+
+    private TransactionTemplate transaction;
+
+    private ThingRepository thingRepository;
+
+    private DatastreamRepository datastreamRepository;
+
+    private ReadQueryExecutor executor;
+
+    private long id = 42L;
+
+    @Setup(Level.Trial)
+    public void setUp() {
+        SpringApplication application = new SpringApplication(Application.class);
+        application.setWebApplicationType(WebApplicationType.NONE);
+        application.setAdditionalProfiles("test");
+        context = application.run();
+        transaction = new TransactionTemplate(context.getBean(PlatformTransactionManager.class));
+        transaction.setReadOnly(true);
+        thingRepository = context.getBean(ThingRepository.class);
+        datastreamRepository = context.getBean(DatastreamRepository.class);
+        executor = context.getBean(ReadQueryExecutor.class);
+    }
+
+    @TearDown(Level.Trial)
+    public void tearDown() {
+        context.close();
+    }
+
+    @Benchmark
+    public Object datastreamByIdDynamic() {
+        return transaction.execute(status -> datastreamRepository.findOne(D_QS.matchesId(id)));
+    }
+
+    @Benchmark
+    public Object datastreamByIdTemplate() {
+        return transaction.execute(status -> executor.findOne(DATASTREAMS.byId(), id));
+    }
+
+    @Benchmark
+    public Object thingExistsWithDatastreamDynamic() {
+        return transaction.execute(status -> thingRepository.exists(T_QS.withRelatedDatastream(id)));
+    }
+
+    @Benchmark
+    public Object thingExistsWithDatastreamTemplate() {
+        return transaction.execute(status -> executor.exists(THINGS.related("iot.Datastream", false), id));
+    }
+
+    @Benchmark
+    public Object datastreamCountOfThingDynamic() {
+        return transaction.execute(status -> datastreamRepository.count(D_QS.withThing(id)));
+    }
+
+    @Benchmark
+    public Object datastreamCountOfThingTemplate() {
+        return transaction.execute(status -> executor.count(DATASTREAMS.related("iot.Thing", false), id));
+    }
+
+}
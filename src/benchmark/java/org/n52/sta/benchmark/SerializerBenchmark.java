@@ -0,0 +1,132 @@
+/*
+ * Copyright (C) 2012-2018 52°North Initiative for Geospatial Open Source
+ * Software GmbH
+ *
+ * This program is free software; you can redistribute it and/or modify it
+ * under the terms of the GNU General Public License version 2 as published
+ * by the Free Software Foundation.
+ *
+ * If the program is linked with libraries which are licensed under one of
+ * the following licenses, the combination of the program with the linked
+ * library is not considered a "derivative work" of the program:
+ *
+ *     - Apache License, version 2.0
+ *     - Apache Software License, version 1.0
+ *     - GNU Lesser General Public License, version 3
+ *     - Mozilla Public License, versions 1.0, 1.1 and 2.0
+ *     - Common Development and Distribution License (CDDL), version 1.0
+ *
+ * Therefore the distribution of the program linked with libraries licensed
+ * under the aforementioned licenses, is permitted by the copyright holders
+ * if the distribution is compliant with both the GNU General Public
+ * License version 2 and the aforementioned licenses.
+ *
+ * This program is distributed in the hope that it will be useful, but
+ * WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the GNU General
+ * Public License for more details.
+ */
+package org.n52.sta.benchmark;
+
+import static org.n52.sta.edm.provider.entities.ObservationEntityProvider.ES_OBSERVATIONS_NAME;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.util.concurrent.TimeUnit;
+
+import org.apache.olingo.commons.api.data.ContextURL;
+import org.apache.olingo.commons.api.data.Entity;
+import org.apache.olingo.commons.api.data.EntityCollection;
+import org.apache.olingo.commons.api.edm.EdmEntitySet;
+import org.apache.olingo.commons.api.format.ContentType;
+import org.apache.olingo.server.api.ServiceMetadata;
+import org.apache.olingo.server.api.serializer.EntityCollectionSerializerOptions;
+import org.apache.olingo.server.api.serializer.SerializerException;
+import org.n52.series.db.beans.DataEntity;
+import org.n52.sta.mapping.ObservationMapper;
+import org.n52.sta.service.serializer.SensorThingsSerializer;
+import org.n52.sta.utils.EntityAnnotator;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.springframework.context.annotation.AnnotationConfigApplicationContext;
+
+/**
+ * Measures {@link SensorThingsSerializer#entityCollection} for collections of
+ * mapped and annotated observations. The serialized content is fully drained
+ * so the benchmark covers the whole response body. The compiled property
+ * writers are compared against the generic property resolution.
+ *
+ * @since 1.0.0
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+public class SerializerBenchmark {
+
+    @Param({ "100", "1000", "10000" })
+    private int size;
+
+    @Param({ "true", "false" })
+    private boolean compiledWriters;
+
+    private AnnotationConfigApplicationContext ctx;
+
+    private ServiceMetadata serviceMetadata;
+
+    private EdmEntitySet entitySet;
+
+    private EntityCollection collection;
+
+    private EntityCollectionSerializerOptions options;
+
+    private final byte[] buffer = new byte[8192];
+
+    @Setup
+    public void setup() {
+        ctx = BenchmarkFixtures.createContext();
+        serviceMetadata = BenchmarkFixtures.createServiceMetadata(ctx);
+        entitySet = serviceMetadata.getEdm().getEntityContainer().getEntitySet(ES_OBSERVATIONS_NAME);
+
+        ObservationMapper mapper = ctx.getBean(ObservationMapper.class);
+        EntityAnnotator annotator = ctx.getBean(EntityAnnotator.class);
+        collection = new EntityCollection();
+        for (DataEntity<?> observation : BenchmarkFixtures.createObservations(size)) {
+            Entity entity = mapper.createEntity(observation);
+            annotator.annotateEntity(entity, entitySet.getEntityType(), BenchmarkFixtures.BASE_URI);
+            collection.getEntities().add(entity);
+        }
+
+        options = EntityCollectionSerializerOptions.with()
+                .id(BenchmarkFixtures.BASE_URI + "/" + ES_OBSERVATIONS_NAME)
+                .contextURL(ContextURL.with().entitySet(entitySet).build())
+                .build();
+    }
+
+    @TearDown
+    public void tearDown() {
+        ctx.close();
+    }
+
+    @Benchmark
+    public long entityCollection() throws SerializerException, IOException {
+        SensorThingsSerializer serializer = new SensorThingsSerializer(ContentType.JSON_NO_METADATA, compiledWriters);
+        try (InputStream content = serializer
+                .entityCollection(serviceMetadata, entitySet.getEntityType(), collection, options)
+                .getContent()) {
+            long length = 0;
+            int read;
+            while ((read = content.read(buffer)) != -1) {
+                length += read;
+            }
+            return length;
+        }
+    }
+
+}
@@ -0,0 +1,63 @@
+/*
+ * Copyright (C) 2012-2018 52°North Initiative for Geospatial Open Source
+ * Software GmbH
+ *
+ * This program is free software; you can redistribute it and/or modify it
+ * under the terms of the GNU General Public License version 2 as published
+ * by the Free Software Foundation.
+ *
+ * If the program is linked with libraries which are licensed under one of
+ * the following licenses, the combination of the program with the linked
+ * library is not considered a "derivative work" of the program:
+ *
+ *     - Apache License, version 2.0
+ *     - Apache Software License, version 1.0
+ *     - GNU Lesser General Public License, version 3
+ *     - Mozilla Public License, versions 1.0, 1.1 and 2.0
+ *     - Common Development and Distribution License (CDDL), version 1.0
+ *
+ * Therefore the distribution of the program linked with libraries licensed
+ * under the aforementioned licenses, is permitted by the copyright holders
+ * if the distribution is compliant with both the GNU General Public
+ * License version 2 and the aforementioned licenses.
+ *
+ * This program is distributed in the hope that it will be useful, but
+ * WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the GNU General
+ * Public License for more details.
+ */
+package org.n52.sta.loadtest;
+
+import org.n52.sta.Application;
+import org.n52.sta.service.SensorThingsController;
+import org.springframework.boot.SpringApplication;
+import org.springframework.context.ConfigurableApplicationContext;
+
+/**
+ * Boots the application with the <code>loadtest</code> profile against an
+ * embedded H2GIS database, populates it with a synthetic dataset and replays
+ * a request mix against the running server. Run with
+ * <code>mvn -P loadtest verify</code>.
+ *
+ * @since 1.0.0
+ */
+public final class LoadTestApplication {
+
+    private LoadTestApplication() {
+    }
+
+    public static void main(String[] args) throws Exception {
+        SpringApplication application = new SpringApplication(Application.class);
+        application.setAdditionalProfiles("loadtest");
+        int exitCode;
+        try (ConfigurableApplicationContext ctx = application.run(args)) {
+            LoadTestDataset dataset = ctx.getBean(LoadTestDataGenerator.class).generate();
+            String port = ctx.getEnvironment().getProperty("local.server.port");
+            String serviceRoot = "http://localhost:" + port + "/" + SensorThingsController.URI + "/";
+            ctx.getBean(LoadTestDriver.class).run(serviceRoot, dataset);
+            exitCode = SpringApplication.exit(ctx);
+        }
+        System.exit(exitCode);
+    }
+
+}
@@ -0,0 +1,291 @@
+/*
+ * Copyright (C) 2012-2018 52°North Initiative for Geospatial Open Source
+ * Software GmbH
+ *
+ * This program is free software; you can redistribute it and/or modify it
+ * under the terms of the GNU General Public License version 2 as published
+ * by the Free Software Foundation.
+ *
+ * If the program is linked with libraries which are licensed under one of
+ * the following licenses, the combination of the program with the linked
+ * library is not considered a "derivative work" of the program:
+ *
+ *     - Apache License, version 2.0
+ *     - Apache Software License, version 1.0
+ *     - GNU Lesser General Public License, version 3
+ *     - Mozilla Public License, versions 1.0, 1.1 and 2.0
+ *     - Common Development and Distribution License (CDDL), version 1.0
+ *
+ * Therefore the distribution of the program linked with libraries licensed
+ * under the aforementioned licenses, is permitted by the copyright holders
+ * if the distribution is compliant with both the GNU General Public
+ * License version 2 and the aforementioned licenses.
+ *
+ * This program is distributed in the hope that it will be useful, but
+ * WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the GNU General
+ * Public License for more details.
+ */
+package org.n52.sta.loadtest;
+
+import java.math.BigDecimal;
+import java.util.Collections;
+import java.util.Date;
+import java.util.HashSet;
+import java.util.Random;
+
+import javax.persistence.EntityManager;
+import javax.persistence.PersistenceContext;
+
+import org.n52.series.db.beans.CategoryEntity;
+import org.n52.series.db.beans.FeatureEntity;
+import org.n52.series.db.beans.FormatEntity;
+import org.n52.series.db.beans.OfferingEntity;
+import org.n52.series.db.beans.PhenomenonEntity;
+import org.n52.series.db.beans.ProcedureEntity;
+import org.n52.series.db.beans.QuantityDataEntity;
+import org.n52.series.db.beans.QuantityDatasetEntity;
+import org.n52.series.db.beans.UnitEntity;
+import org.n52.series.db.beans.sta.DatastreamEntity;
+import org.n52.series.db.beans.sta.LocationEncodingEntity;
+import org.n52.series.db.beans.sta.LocationEntity;
+import org.n52.series.db.beans.sta.ThingEntity;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.context.annotation.Profile;
+import org.springframework.stereotype.Component;
+import org.springframework.transaction.PlatformTransactionManager;
+import org.springframework.transaction.support.TransactionTemplate;
+
+import com.vividsolutions.jts.geom.Coordinate;
+import com.vividsolutions.jts.geom.GeometryFactory;
+import com.vividsolutions.jts.geom.Point;
+import com.vividsolutions.jts.geom.PrecisionModel;
+
+/**
+ * Populates the database with a synthetic dataset of
+ * <code>things</code> Things, each with one Location and
+ * <code>datastreams-per-thing</code> Datastreams of
+ * <code>observations-per-datastream</code> quantity Observations.
+ *
+ * @since 1.0.0
+ */
+@Component
+@Profile("loadtest")
+public class LoadTestDataGenerator {
+
+    private static final Logger LOG = LoggerFactory.getLogger(LoadTestDataGenerator.class);
+
+    private static final int FLUSH_SIZE = 500;
+
+    private static final int SENSORS = 10;
+
+    private static final int OBSERVED_PROPERTIES = 10;
+
+    private static final long START = 1514764800000L;
+
+    private static final String OM_MEASUREMENT =
+            "http://www.opengis.net/def/observationType/OGC-OM/2.0/OM_Measurement";
+
+    @PersistenceContext
+    private EntityManager entityManager;
+
+    @Autowired
+    private PlatformTransactionManager transactionManager;
+
+    @Value("${loadtest.dataset.things:100}")
+    private int things;
+
+    @Value("${loadtest.dataset.datastreams-per-thing:5}")
+    private int datastreamsPerThing;
+
+    @Value("${loadtest.dataset.observations-per-datastream:1000}")
+    private int observationsPerDatastream;
+
+    private final GeometryFactory geometryFactory = new GeometryFactory(new PrecisionModel(), 4326);
+
+    private final Random random = new Random(52L);
+
+    /**
+     * Creates the dataset. Every Thing with its Datastreams and Observations
+     * is written in its own transaction to keep the persistence context
+     * small.
+     *
+     * @return the ids of the created entities
+     */
+    public LoadTestDataset generate() {
+        LoadTestDataset dataset = new LoadTestDataset();
+        TransactionTemplate tx = new TransactionTemplate(transactionManager);
+        long start = System.currentTimeMillis();
+
+        Shared shared = tx.execute(status -> createShared(dataset));
+        for (int t = 0; t < things; t++) {
+            final int thing = t;
+            tx.execute(status -> {
+                createThing(thing, shared, dataset);
+                return null;
+            });
+        }
+        LOG.info("Created {} things, {} datastreams and {} observations in {} ms", dataset.getThingIds().size(),
+                dataset.getDatastreamIds().size(), dataset.getObservationCount(),
+                System.currentTimeMillis() - start);
+        return dataset;
+    }
+
+    private Shared createShared(LoadTestDataset dataset) {
+        Shared shared = new Shared();
+        shared.observationType = persist(new FormatEntity().setFormat(OM_MEASUREMENT));
+        shared.sensorFormat = persist(new FormatEntity().setFormat("application/pdf"));
+        shared.featureType = persist(new FormatEntity().setFormat(
+                "http://www.opengis.net/def/samplingFeatureType/OGC-OM/2.0/SF_SamplingPoint"));
+        LocationEncodingEntity encoding = new LocationEncodingEntity();
+        encoding.setEncodingType("application/vnd.geo+json");
+        shared.locationEncoding = persist(encoding);
+
+        UnitEntity unit = new UnitEntity();
+        unit.setUnit("degC");
+        unit.setName("degree Celsius");
+        unit.setLink("http://unitsofmeasure.org/ucum.html#para-30");
+        shared.unit = persist(unit);
+
+        CategoryEntity category = new CategoryEntity();
+        category.setIdentifier("loadtest");
+        category.setName("loadtest");
+        shared.category = persist(category);
+
+        shared.sensors = new ProcedureEntity[SENSORS];
+        for (int i = 0; i < SENSORS; i++) {
+            ProcedureEntity sensor = new ProcedureEntity();
+            sensor.setIdentifier("sensor_" + i);
+            sensor.setName("Sensor " + i);
+            sensor.setDescription("Synthetic sensor " + i);
+            sensor.setDescriptionFile("http://example.org/sensors/" + i + ".pdf");
+            sensor.setFormat(shared.sensorFormat);
+            shared.sensors[i] = persist(sensor);
+            dataset.addSensor(sensor.getId());
+        }
+        shared.offerings = new OfferingEntity[SENSORS];
+        for (int i = 0; i < SENSORS; i++) {
+            OfferingEntity offering = new OfferingEntity();
+            offering.setIdentifier("offering_" + i);
+            offering.setName("Offering " + i);
+            shared.offerings[i] = persist(offering);
+        }
+
+        shared.observedProperties = new PhenomenonEntity[OBSERVED_PROPERTIES];
+        for (int i = 0; i < OBSERVED_PROPERTIES; i++) {
+            PhenomenonEntity phenomenon = new PhenomenonEntity();
+            phenomenon.setIdentifier("http://example.org/properties/" + i);
+            phenomenon.setName("Observed property " + i);
+            phenomenon.setDescription("Synthetic observed property " + i);
+            shared.observedProperties[i] = persist(phenomenon);
+            dataset.addObservedProperty(phenomenon.getId());
+        }
+        return shared;
+    }
+
+    private void createThing(int t, Shared shared, LoadTestDataset dataset) {
+        Point point = geometryFactory.createPoint(
+                new Coordinate(7.0 + random.nextDouble() * 3, 51.0 + random.nextDouble() * 3));
+
+        LocationEntity location = new LocationEntity();
+        location.setName("Location " + t);
+        location.setDescription("Location of thing " + t);
+        location.setGeometry(point);
+        location.setLocationEncoding(shared.locationEncoding);
+        persist(location);
+        dataset.addLocation(location.getId());
+
+        ThingEntity thing = new ThingEntity();
+        thing.setName("Thing " + t);
+        thing.setDescription("Synthetic thing " + t);
+        thing.setProperties("{\"index\":" + t + "}");
+        thing.setLocationEntities(new HashSet<>(Collections.singleton(location)));
+        persist(thing);
+        dataset.addThing(thing.getId());
+
+        FeatureEntity feature = new FeatureEntity();
+        feature.setIdentifier("feature_" + t);
+        feature.setName("Feature " + t);
+        feature.setDescription("Feature of interest of thing " + t);
+        feature.setGeometry(point);
+        feature.setFeatureType(shared.featureType);
+        persist(feature);
+        dataset.addFeature(feature.getId());
+
+        for (int d = 0; d < datastreamsPerThing; d++) {
+            int index = t * datastreamsPerThing + d;
+            ProcedureEntity sensor = shared.sensors[index % SENSORS];
+            PhenomenonEntity observedProperty = shared.observedProperties[d % OBSERVED_PROPERTIES];
+
+            QuantityDatasetEntity series = new QuantityDatasetEntity();
+            series.setProcedure(sensor);
+            series.setOffering(shared.offerings[index % SENSORS]);
+            series.setPhenomenon(observedProperty);
+            series.setCategory(shared.category);
+            series.setFeature(feature);
+            series.setUnit(shared.unit);
+            series.setPublished(true);
+            persist(series);
+
+            Date first = new Date(START);
+            Date last = new Date(START + (observationsPerDatastream - 1) * 60000L);
+            DatastreamEntity datastream = new DatastreamEntity();
+            datastream.setName("Datastream " + index);
+            datastream.setDescription("Datastream " + d + " of thing " + t);
+            datastream.setObservationType(shared.observationType);
+            datastream.setUnitOfMeasurement(shared.unit);
+            datastream.setThing(thing);
+            datastream.setProcedure(sensor);
+            datastream.setObservableProperty(observedProperty);
+            datastream.setDatasets(new HashSet<>(Collections.singleton(series)));
+            datastream.setSamplingTimeStart(first);
+            datastream.setSamplingTimeEnd(last);
+            datastream.setResultTimeStart(first);
+            datastream.setResultTimeEnd(last);
+            persist(datastream);
+            dataset.addDatastream(datastream.getId());
+
+            for (int o = 0; o < observationsPerDatastream; o++) {
+                Date time = new Date(START + o * 60000L);
+                QuantityDataEntity observation = new QuantityDataEntity();
+                observation.setDataset(series);
+                observation.setValue(BigDecimal.valueOf(random.nextInt(40000) - 10000, 3));
+                observation.setSamplingTimeStart(time);
+                observation.setSamplingTimeEnd(time);
+                observation.setResultTime(time);
+                observation.setParameters(new HashSet<>());
+                entityManager.persist(observation);
+                dataset.addObservation(observation.getId());
+                if ((o + 1) % FLUSH_SIZE == 0) {
+                    entityManager.flush();
+                }
+            }
+        }
+        entityManager.flush();
+        entityManager.clear();
+    }
+
+    private <T> T persist(T entity) {
+        entityManager.persist(entity);
+        return entity;
+    }
+
+    /**
+     * Entities shared by all Things
+     */
+    private static final class Shared {
+        private FormatEntity observationType;
+        private FormatEntity sensorFormat;
+        private FormatEntity featureType;
+        private LocationEncodingEntity locationEncoding;
+        private UnitEntity unit;
+        private CategoryEntity category;
+        private ProcedureEntity[] sensors;
+        private OfferingEntity[] offerings;
+        private PhenomenonEntity[] observedProperties;
+    }
+
+}
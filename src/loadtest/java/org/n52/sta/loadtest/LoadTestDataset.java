@@ -0,0 +1,124 @@
+/*
+ * Copyright (C) 2012-2018 52°North Initiative for Geospatial Open Source
+ * Software GmbH
+ *
+ * This program is free software; you can redistribute it and/or modify it
+ * under the terms of the GNU General Public License version 2 as published
+ * by the Free Software Foundation.
+ *
+ * If the program is linked with libraries which are licensed under one of
+ * the following licenses, the combination of the program with the linked
+ * library is not considered a "derivative work" of the program:
+ *
+ *     - Apache License, version 2.0
+ *     - Apache Software License, version 1.0
+ *     - GNU Lesser General Public License, version 3
+ *     - Mozilla Public License, versions 1.0, 1.1 and 2.0
+ *     - Common Development and Distribution License (CDDL), version 1.0
+ *
+ * Therefore the distribution of the program linked with libraries licensed
+ * under the aforementioned licenses, is permitted by the copyright holders
+ * if the distribution is compliant with both the GNU General Public
+ * License version 2 and the aforementioned licenses.
+ *
+ * This program is distributed in the hope that it will be useful, but
+ * WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the GNU General
+ * Public License for more details.
+ */
+package org.n52.sta.loadtest;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+
+/**
+ * Ids of the entities created by the {@link LoadTestDataGenerator}. Used by
+ * the {@link LoadTestDriver} to build request URLs that hit existing entities.
+ *
+ * @since 1.0.0
+ */
+public class LoadTestDataset {
+
+    private final List<Long> thingIds = new ArrayList<>();
+
+    private final List<Long> datastreamIds = new ArrayList<>();
+
+    private final List<Long> sensorIds = new ArrayList<>();
+
+    private final List<Long> observedPropertyIds = new ArrayList<>();
+
+    private final List<Long> featureIds = new ArrayList<>();
+
+    private final List<Long> locationIds = new ArrayList<>();
+
+    private long minObservationId = Long.MAX_VALUE;
+
+    private long maxObservationId = Long.MIN_VALUE;
+
+    public List<Long> getThingIds() {
+        return Collections.unmodifiableList(thingIds);
+    }
+
+    public List<Long> getDatastreamIds() {
+        return Collections.unmodifiableList(datastreamIds);
+    }
+
+    public List<Long> getSensorIds() {
+        return Collections.unmodifiableList(sensorIds);
+    }
+
+    public List<Long> getObservedPropertyIds() {
+        return Collections.unmodifiableList(observedPropertyIds);
+    }
+
+    public List<Long> getFeatureIds() {
+        return Collections.unmodifiableList(featureIds);
+    }
+
+    public List<Long> getLocationIds() {
+        return Collections.unmodifiableList(locationIds);
+    }
+
+    public long getMinObservationId() {
+        return minObservationId;
+    }
+
+    public long getMaxObservationId() {
+        return maxObservationId;
+    }
+
+    public long getObservationCount() {
+        return maxObservationId < minObservationId ? 0 : maxObservationId - minObservationId + 1;
+    }
+
+    void addThing(Long id) {
+        thingIds.add(id);
+    }
+
+    void addDatastream(Long id) {
+        datastreamIds.add(id);
+    }
+
+    void addSensor(Long id) {
+        sensorIds.add(id);
+    }
+
+    void addObservedProperty(Long id) {
+        observedPropertyIds.add(id);
+    }
+
+    void addFeature(Long id) {
+        featureIds.add(id);
+    }
+
+    void addLocation(Long id) {
+        locationIds.add(id);
+    }
+
+    void addObservation(Long id) {
+        minObservationId = Math.min(minObservationId, id);
+        maxObservationId = Math.max(maxObservationId, id);
+    }
+
+}
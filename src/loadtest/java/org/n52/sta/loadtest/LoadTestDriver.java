@@ -0,0 +1,294 @@
+/*
+ * Copyright (C) 2012-2018 52°North Initiative for Geospatial Open Source
+ * Software GmbH
+ *
+ * This program is free software; you can redistribute it and/or modify it
+ * under the terms of the GNU General Public License version 2 as published
+ * by the Free Software Foundation.
+ *
+ * If the program is linked with libraries which are licensed under one of
+ * the following licenses, the combination of the program with the linked
+ * library is not considered a "derivative work" of the program:
+ *
+ *     - Apache License, version 2.0
+ *     - Apache Software License, version 1.0
+ *     - GNU Lesser General Public License, version 3
+ *     - Mozilla Public License, versions 1.0, 1.1 and 2.0
+ *     - Common Development and Distribution License (CDDL), version 1.0
+ *
+ * Therefore the distribution of the program linked with libraries licensed
+ * under the aforementioned licenses, is permitted by the copyright holders
+ * if the distribution is compliant with both the GNU General Public
+ * License version 2 and the aforementioned licenses.
+ *
+ * This program is distributed in the hope that it will be useful, but
+ * WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the GNU General
+ * Public License for more details.
+ */
+package org.n52.sta.loadtest;
+
+import static org.n52.sta.loadtest.LoadTestEndpoint.any;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.PrintWriter;
+import java.net.HttpURLConnection;
+import java.net.URL;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+import java.util.Random;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.LongAdder;
+
+import org.HdrHistogram.ConcurrentHistogram;
+import org.HdrHistogram.Histogram;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.context.annotation.Profile;
+import org.springframework.stereotype.Component;
+
+/**
+ * Replays a weighted mix of collection, navigation and paging requests with
+ * a number of concurrent clients and reports the latency percentiles and the
+ * throughput per endpoint.
+ *
+ * @since 1.0.0
+ */
+@Component
+@Profile("loadtest")
+public class LoadTestDriver {
+
+    private static final Logger LOG = LoggerFactory.getLogger(LoadTestDriver.class);
+
+    private static final long MAX_LATENCY = TimeUnit.MINUTES.toNanos(5);
+
+    private static final double NANOS_PER_MILLI = 1_000_000d;
+
+    private static final List<LoadTestEndpoint> ENDPOINTS = Arrays.asList(
+            new LoadTestEndpoint("Things", 5,
+                    (d, r) -> "Things"),
+            new LoadTestEndpoint("Things?$top&$skip", 5,
+                    (d, r) -> "Things?$top=10&$skip=" + r.nextInt(Math.max(1, d.getThingIds().size()))),
+            new LoadTestEndpoint("Things(id)", 10,
+                    (d, r) -> "Things(" + any(d.getThingIds(), r) + ")"),
+            new LoadTestEndpoint("Things(id)/Datastreams", 10,
+                    (d, r) -> "Things(" + any(d.getThingIds(), r) + ")/Datastreams"),
+            new LoadTestEndpoint("Things(id)/Locations", 5,
+                    (d, r) -> "Things(" + any(d.getThingIds(), r) + ")/Locations"),
+            new LoadTestEndpoint("Datastreams?$orderby", 5,
+                    (d, r) -> "Datastreams?$orderby=name%20desc&$top=20"),
+            new LoadTestEndpoint("Datastreams(id)", 10,
+                    (d, r) -> "Datastreams(" + any(d.getDatastreamIds(), r) + ")"),
+            new LoadTestEndpoint("Datastreams(id)/Observations", 15,
+                    (d, r) -> "Datastreams(" + any(d.getDatastreamIds(), r) + ")/Observations?$top=100"),
+            new LoadTestEndpoint("Datastreams(id)/Observations?$orderby", 10,
+                    (d, r) -> "Datastreams(" + any(d.getDatastreamIds(), r)
+                            + ")/Observations?$orderby=phenomenonTime%20desc&$top=10"),
+            new LoadTestEndpoint("Observations?$top&$skip", 10,
+                    (d, r) -> "Observations?$top=100&$skip="
+                            + r.nextInt((int) Math.min(Integer.MAX_VALUE, Math.max(1, d.getObservationCount())))),
+            new LoadTestEndpoint("Observations(id)/Datastream", 5,
+                    (d, r) -> "Observations(" + (d.getMinObservationId() + r.nextInt(
+                            (int) Math.min(Integer.MAX_VALUE, Math.max(1, d.getObservationCount())))) + ")/Datastream"),
+            new LoadTestEndpoint("Sensors", 3,
+                    (d, r) -> "Sensors"),
+            new LoadTestEndpoint("ObservedProperties(id)/Datastreams", 3,
+                    (d, r) -> "ObservedProperties(" + any(d.getObservedPropertyIds(), r) + ")/Datastreams"),
+            new LoadTestEndpoint("FeaturesOfInterest(id)", 2,
+                    (d, r) -> "FeaturesOfInterest(" + any(d.getFeatureIds(), r) + ")"),
+            new LoadTestEndpoint("Locations", 2,
+                    (d, r) -> "Locations"));
+
+    @Value("${loadtest.concurrency:16}")
+    private int concurrency;
+
+    @Value("${loadtest.warmup:10}")
+    private int warmup;
+
+    @Value("${loadtest.duration:60}")
+    private int duration;
+
+    @Value("${loadtest.report:target/loadtest-report.csv}")
+    private String report;
+
+    /**
+     * Runs the warmup and the measured phase against the given service root
+     * and writes the report
+     *
+     * @param serviceRoot
+     *            the service root, e.g. <code>http://localhost:8080/sta/</code>
+     * @param dataset
+     *            the generated dataset
+     * @return the statistics per endpoint
+     * @throws InterruptedException
+     *             if interrupted while waiting for the clients
+     * @throws IOException
+     *             if the report could not be written
+     */
+    public Map<String, EndpointStatistics> run(String serviceRoot, LoadTestDataset dataset)
+            throws InterruptedException, IOException {
+        LOG.info("Warming up for {} s with {} clients", warmup, concurrency);
+        drive(serviceRoot, dataset, warmup);
+        LOG.info("Measuring for {} s with {} clients", duration, concurrency);
+        Map<String, EndpointStatistics> statistics = drive(serviceRoot, dataset, duration);
+        log(statistics);
+        write(statistics);
+        return statistics;
+    }
+
+    private Map<String, EndpointStatistics> drive(String serviceRoot, LoadTestDataset dataset, int seconds)
+            throws InterruptedException {
+        Map<String, EndpointStatistics> statistics = new LinkedHashMap<>();
+        ENDPOINTS.forEach(e -> statistics.put(e.getName(), new EndpointStatistics(e.getName(), seconds)));
+        int totalWeight = ENDPOINTS.stream().mapToInt(LoadTestEndpoint::getWeight).sum();
+        long deadline = System.nanoTime() + TimeUnit.SECONDS.toNanos(seconds);
+
+        ExecutorService clients = Executors.newFixedThreadPool(concurrency);
+        for (int c = 0; c < concurrency; c++) {
+            final Random random = new Random(c);
+            clients.execute(() -> {
+                byte[] buffer = new byte[8192];
+                while (System.nanoTime() < deadline) {
+                    LoadTestEndpoint endpoint = pick(random.nextInt(totalWeight));
+                    String url = serviceRoot + endpoint.createPath(dataset, random);
+                    statistics.get(endpoint.getName()).record(request(url, buffer));
+                }
+            });
+        }
+        clients.shutdown();
+        clients.awaitTermination(seconds + 60L, TimeUnit.SECONDS);
+        return statistics;
+    }
+
+    private LoadTestEndpoint pick(int value) {
+        int sum = 0;
+        for (LoadTestEndpoint endpoint : ENDPOINTS) {
+            sum += endpoint.getWeight();
+            if (value < sum) {
+                return endpoint;
+            }
+        }
+        return ENDPOINTS.get(ENDPOINTS.size() - 1);
+    }
+
+    /**
+     * Executes a GET request and reads the whole response body
+     *
+     * @return the latency in nanoseconds, negative if the request failed
+     */
+    private long request(String url, byte[] buffer) {
+        long start = System.nanoTime();
+        HttpURLConnection connection = null;
+        try {
+            connection = (HttpURLConnection) new URL(url).openConnection();
+            connection.setRequestProperty("Accept", "application/json");
+            int status = connection.getResponseCode();
+            InputStream body = status < 400 ? connection.getInputStream() : connection.getErrorStream();
+            if (body != null) {
+                try (InputStream in = body) {
+                    while (in.read(buffer) != -1) {
+                        // drain the response
+                    }
+                }
+            }
+            long latency = System.nanoTime() - start;
+            if (status >= 400) {
+                LOG.debug("{} returned {}", url, status);
+                return -latency;
+            }
+            return latency;
+        } catch (IOException e) {
+            LOG.debug("Request {} failed", url, e);
+            return -(System.nanoTime() - start);
+        }
+    }
+
+    private void log(Map<String, EndpointStatistics> statistics) {
+        StringBuilder sb = new StringBuilder(String.format("%n%-45s %9s %7s %9s %9s %9s %9s%n", "endpoint",
+                "requests", "errors", "req/s", "p50 ms", "p99 ms", "max ms"));
+        statistics.values().forEach(s -> sb.append(String.format("%-45s %9d %7d %9.1f %9.2f %9.2f %9.2f%n",
+                s.getName(), s.getRequests(), s.getErrors(), s.getThroughput(), s.getPercentile(50),
+                s.getPercentile(99), s.getMax())));
+        LOG.info(sb.toString());
+    }
+
+    private void write(Map<String, EndpointStatistics> statistics) throws IOException {
+        Path path = Paths.get(report);
+        if (path.getParent() != null) {
+            Files.createDirectories(path.getParent());
+        }
+        List<String> lines = new ArrayList<>();
+        lines.add("endpoint,requests,errors,rps,p50_ms,p99_ms,max_ms");
+        statistics.values().forEach(s -> lines.add(String.format(Locale.ROOT,
+                "\"%s\",%d,%d,%.1f,%.3f,%.3f,%.3f", s.getName(), s.getRequests(), s.getErrors(),
+                s.getThroughput(), s.getPercentile(50), s.getPercentile(99), s.getMax())));
+        try (PrintWriter writer = new PrintWriter(Files.newBufferedWriter(path, StandardCharsets.UTF_8))) {
+            lines.forEach(writer::println);
+        }
+        LOG.info("Report written to {}", path.toAbsolutePath());
+    }
+
+    /**
+     * Latencies and throughput of a single endpoint
+     */
+    public static final class EndpointStatistics {
+
+        private final String name;
+
+        private final int seconds;
+
+        private final Histogram latencies = new ConcurrentHistogram(MAX_LATENCY, 3);
+
+        private final LongAdder errors = new LongAdder();
+
+        EndpointStatistics(String name, int seconds) {
+            this.name = name;
+            this.seconds = seconds;
+        }
+
+        void record(long latency) {
+            if (latency < 0) {
+                errors.increment();
+            } else {
+                latencies.recordValue(Math.min(latency, MAX_LATENCY));
+            }
+        }
+
+        public String getName() {
+            return name;
+        }
+
+        public long getRequests() {
+            return latencies.getTotalCount() + errors.sum();
+        }
+
+        public long getErrors() {
+            return errors.sum();
+        }
+
+        public double getThroughput() {
+            return seconds > 0 ? (double) latencies.getTotalCount() / seconds : 0;
+        }
+
+        public double getPercentile(double percentile) {
+            return latencies.getValueAtPercentile(percentile) / NANOS_PER_MILLI;
+        }
+
+        public double getMax() {
+            return latencies.getMaxValue() / NANOS_PER_MILLI;
+        }
+    }
+
+}
@@ -0,0 +1,80 @@
+/*
+ * Copyright (C) 2012-2018 52°North Initiative for Geospatial Open Source
+ * Software GmbH
+ *
+ * This program is free software; you can redistribute it and/or modify it
+ * under the terms of the GNU General Public License version 2 as published
+ * by the Free Software Foundation.
+ *
+ * If the program is linked with libraries which are licensed under one of
+ * the following licenses, the combination of the program with the linked
+ * library is not considered a "derivative work" of the program:
+ *
+ *     - Apache License, version 2.0
+ *     - Apache Software License, version 1.0
+ *     - GNU Lesser General Public License, version 3
+ *     - Mozilla Public License, versions 1.0, 1.1 and 2.0
+ *     - Common Development and Distribution License (CDDL), version 1.0
+ *
+ * Therefore the distribution of the program linked with libraries licensed
+ * under the aforementioned licenses, is permitted by the copyright holders
+ * if the distribution is compliant with both the GNU General Public
+ * License version 2 and the aforementioned licenses.
+ *
+ * This program is distributed in the hope that it will be useful, but
+ * WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the GNU General
+ * Public License for more details.
+ */
+package org.n52.sta.loadtest;
+
+import java.util.List;
+import java.util.Random;
+import java.util.function.BiFunction;
+
+/**
+ * A request of the replayed URL mix. The name groups the latencies in the
+ * report, the weight is the relative frequency of the request in the mix.
+ *
+ * @since 1.0.0
+ */
+public class LoadTestEndpoint {
+
+    private final String name;
+
+    private final int weight;
+
+    private final BiFunction<LoadTestDataset, Random, String> path;
+
+    public LoadTestEndpoint(String name, int weight, BiFunction<LoadTestDataset, Random, String> path) {
+        this.name = name;
+        this.weight = weight;
+        this.path = path;
+    }
+
+    public String getName() {
+        return name;
+    }
+
+    public int getWeight() {
+        return weight;
+    }
+
+    /**
+     * Creates the path of a concrete request, relative to the service root
+     *
+     * @param dataset
+     *            the generated dataset
+     * @param random
+     *            the random of the calling client
+     * @return the path including the query string
+     */
+    public String createPath(LoadTestDataset dataset, Random random) {
+        return path.apply(dataset, random);
+    }
+
+    static Long any(List<Long> ids, Random random) {
+        return ids.get(random.nextInt(ids.size()));
+    }
+
+}
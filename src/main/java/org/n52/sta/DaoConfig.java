@@ -48,6 +48,7 @@ import org.n52.series.db.AnnotationBasedDataRepositoryFactory;
 import org.n52.series.db.DataRepositoryTypeFactory;
 import org.n52.series.db.old.dao.DbQueryFactory;
 import org.n52.series.db.old.dao.DefaultDbQueryFactory;
+import org.n52.sta.data.replica.ReplicaRouting;
 import org.springframework.beans.factory.annotation.Value;
 import org.springframework.boot.autoconfigure.orm.jpa.JpaProperties;
 import org.springframework.context.ApplicationContext;
@@ -82,13 +83,13 @@ public class DaoConfig {
     }
     
     @Bean
-    public EntityManagerFactory entityManagerFactory(DataSource datasource, JpaProperties properties)
-            throws IOException {
+    public EntityManagerFactory entityManagerFactory(DataSource datasource, JpaProperties properties,
+            ReplicaRouting replicaRouting) throws IOException {
         LocalContainerEntityManagerFactoryBean emf = new LocalContainerEntityManagerFactoryBean();
         emf.setJpaVendorAdapter(new HibernateJpaVendorAdapter());
         emf.setJpaPropertyMap(addCustomTypes(properties));
         emf.setPersistenceXmlLocation(persistenceXmlLocation);
-        emf.setDataSource(datasource);
+        emf.setDataSource(replicaRouting.route(datasource));
         emf.afterPropertiesSet();
         return emf.getNativeEntityManagerFactory();
     }
@@ -70,4 +70,8 @@ public class DatastreamQuerySpecifications extends EntityQuerySpecifications {
                                           .where(qobservation.id.eq(observationId))
                                           .select(qobservation.dataset.id));
     }
+
+    public BooleanExpression withDataset(Long datasetId) {
+        return qdatastream.datasets.any().id.eq(datasetId);
+    }
 }
@@ -51,6 +51,13 @@ public class FeatureOfInterestQuerySpecifications extends EntityQuerySpecificati
                                                     .select(qobservation.dataset.id)))
                               .select(qdataset.feature.id));
     }
+
+    public BooleanExpression withDataset(Long datasetId) {
+        return qfeature.id.in(JPAExpressions
+                              .selectFrom(qdataset)
+                              .where(qdataset.id.eq(datasetId))
+                              .select(qdataset.feature.id));
+    }
     
     /**
      * Assures that Entity is valid.
@@ -50,9 +50,10 @@ public class ObservationQuerySpecifications extends EntityQuerySpecifications {
     
     public BooleanExpression withDatastream(Long datastreamId) {
         return qobservation.dataset.id.in(JPAExpressions
-                                          .selectFrom(qdatastream)
-                                          .where(qdatastream.datasets.any().id.eq(datastreamId))
-                                          .select(qdatastream.datasets.any().id));
+                                          .select(qdataset.id)
+                                          .from(qdatastream)
+                                          .join(qdatastream.datasets, qdataset)
+                                          .where(qdatastream.id.eq(datastreamId)));
     }
     
     /**
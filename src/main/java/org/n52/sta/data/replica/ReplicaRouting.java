@@ -0,0 +1,207 @@
+/*
+ * Copyright (C) 2012-2018 52°North Initiative for Geospatial Open Source
+ * Software GmbH
+ *
+ * This program is free software; you can redistribute it and/or modify it
+ * under the terms of the GNU General Public License version 2 as published
+ * by the Free Software Foundation.
+ *
+ * If the program is linked with libraries which are licensed under one of
+ * the following licenses, the combination of the program with the linked
+ * library is not considered a "derivative work" of the program:
+ *
+ *     - Apache License, version 2.0
+ *     - Apache Software License, version 1.0
+ *     - GNU Lesser General Public License, version 3
+ *     - Mozilla Public License, versions 1.0, 1.1 and 2.0
+ *     - Common Development and Distribution License (CDDL), version 1.0
+ *
+ * Therefore the distribution of the program linked with libraries licensed
+ * under the aforementioned licenses, is permitted by the copyright holders
+ * if the distribution is compliant with both the GNU General Public
+ * License version 2 and the aforementioned licenses.
+ *
+ * This program is distributed in the hope that it will be useful, but
+ * WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the GNU General
+ * Public License for more details.
+ */
+package org.n52.sta.data.replica;
+
+import java.io.Closeable;
+import java.io.IOException;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ScheduledThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+
+import javax.sql.DataSource;
+
+import org.n52.sta.data.replica.ReplicaRoutingDataSource.Replica;
+import org.n52.sta.data.replica.ReplicaRoutingDataSource.Selection;
+import org.n52.sta.data.service.ObservationCreationEvent;
+import org.springframework.beans.factory.DisposableBean;
+import org.springframework.beans.factory.ObjectProvider;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.boot.jdbc.DataSourceBuilder;
+import org.springframework.context.event.ContextRefreshedEvent;
+import org.springframework.context.event.EventListener;
+import org.springframework.stereotype.Component;
+import org.springframework.transaction.event.TransactionalEventListener;
+import org.springframework.util.StringUtils;
+
+import io.micrometer.core.instrument.Gauge;
+import io.micrometer.core.instrument.MeterRegistry;
+
+/**
+ * Sends the read only transactions to the read replicas configured with
+ * <code>database.replicas.urls</code>, see {@link ReplicaRoutingDataSource}.
+ * <p>
+ * The lag of the replicas is checked every
+ * <code>database.replicas.lag-check-interval</code> milliseconds. Replicas
+ * lagging more than <code>database.replicas.max-lag</code> milliseconds
+ * behind are not used until they caught up.
+ * <p>
+ * The only writes of the service are created Observations, mostly ingested
+ * via MQTT by clients that do not read through the same connection, so
+ * there is no client to pin to. Instead, for
+ * <code>database.replicas.pin-duration</code> milliseconds after an
+ * Observation was created all reads go to replicas that replayed it, or to
+ * the primary. The decision is taken when a connection is requested, so it
+ * also holds for count queries running on other threads.
+ *
+ * @since 1.0.0
+ */
+@Component
+public class ReplicaRouting implements DisposableBean {
+
+    private static final String AVAILABLE_GAUGE = "sta.replica.available";
+
+    private static final String LAG_GAUGE = "sta.replica.lag";
+
+    // the replay lag, or no lag if everything received was replayed (PostgreSQL 10+)
+    private static final String POSTGRES_LAG_QUERY = "SELECT CASE"
+            + " WHEN pg_last_wal_receive_lsn() = pg_last_wal_replay_lsn() THEN 0"
+            + " ELSE COALESCE(EXTRACT(EPOCH FROM now() - pg_last_xact_replay_timestamp()) * 1000, 0) END";
+
+    @Value("${database.replicas.urls:}")
+    private String[] urls;
+
+    @Value("${database.replicas.username:${spring.datasource.username:}}")
+    private String username;
+
+    @Value("${database.replicas.password:${spring.datasource.password:}}")
+    private String password;
+
+    @Value("${database.replicas.selection:round-robin}")
+    private String selection;
+
+    @Value("${database.replicas.max-lag:5000}")
+    private long maxLag;
+
+    @Value("${database.replicas.lag-check-interval:1000}")
+    private long lagCheckInterval;
+
+    @Value("${database.replicas.lag-query:" + POSTGRES_LAG_QUERY + "}")
+    private String lagQuery;
+
+    @Value("${database.replicas.pin-duration:10000}")
+    private long pinDuration;
+
+    // resolved once the context is refreshed, the routing is needed to create the entity manager factory
+    @Autowired
+    private ObjectProvider<MeterRegistry> registry;
+
+    private final AtomicBoolean started = new AtomicBoolean();
+
+    private ReplicaRoutingDataSource routingDataSource;
+
+    private ScheduledExecutorService executor;
+
+    /**
+     * Routes the connections of the data source, returns the data source
+     * itself if no replicas are configured.
+     *
+     * @param primary
+     *            the data source of the primary database
+     * @return the routing data source
+     */
+    public synchronized DataSource route(DataSource primary) {
+        Map<String, DataSource> replicas = new LinkedHashMap<>();
+        for (String url : urls) {
+            if (StringUtils.hasText(url)) {
+                replicas.put(url.trim(), DataSourceBuilder.create()
+                        .url(url.trim())
+                        .username(username)
+                        .password(password)
+                        .build());
+            }
+        }
+        if (replicas.isEmpty()) {
+            return primary;
+        }
+        routingDataSource = new ReplicaRoutingDataSource(primary, replicas, Selection.fromString(selection));
+        ScheduledThreadPoolExecutor scheduler = new ScheduledThreadPoolExecutor(1, r -> {
+            Thread thread = new Thread(r, "sta-replica-lag");
+            thread.setDaemon(true);
+            return thread;
+        });
+        scheduler.setExecuteExistingDelayedTasksAfterShutdownPolicy(false);
+        executor = scheduler;
+        return routingDataSource.lazy();
+    }
+
+    @Override
+    public void destroy() throws IOException {
+        if (executor != null) {
+            executor.shutdownNow();
+        }
+        if (routingDataSource != null) {
+            for (Replica replica : routingDataSource.getReplicas()) {
+                if (replica.getDataSource() instanceof Closeable) {
+                    ((Closeable) replica.getDataSource()).close();
+                }
+            }
+        }
+    }
+
+    /**
+     * Starts checking the lag, reads go to the primary until a replica
+     * passed the first check.
+     */
+    @EventListener(ContextRefreshedEvent.class)
+    public void start() {
+        if (executor == null || !started.compareAndSet(false, true)) {
+            return;
+        }
+        MeterRegistry meterRegistry = registry.getObject();
+        for (Replica replica : routingDataSource.getReplicas()) {
+            Gauge.builder(AVAILABLE_GAUGE, replica, r -> r.isAvailable() ? 1 : 0)
+                    .tag("replica", replica.getName())
+                    .register(meterRegistry);
+            Gauge.builder(LAG_GAUGE, replica, Replica::getLag)
+                    .tag("replica", replica.getName())
+                    .register(meterRegistry);
+        }
+        executor.scheduleWithFixedDelay(() -> routingDataSource.checkLag(lagQuery, maxLag), 0,
+                Math.max(lagCheckInterval, 100), TimeUnit.MILLISECONDS);
+    }
+
+    /**
+     * Sends the reads to the replicas that replayed the Observation for the
+     * pin duration.
+     *
+     * @param event
+     *            the creation event
+     */
+    @TransactionalEventListener(fallbackExecution = true)
+    public void onObservationCreation(ObservationCreationEvent event) {
+        if (routingDataSource != null && pinDuration > 0) {
+            routingDataSource.pin(pinDuration);
+        }
+    }
+
+}
@@ -0,0 +1,379 @@
+/*
+ * Copyright (C) 2012-2018 52°North Initiative for Geospatial Open Source
+ * Software GmbH
+ *
+ * This program is free software; you can redistribute it and/or modify it
+ * under the terms of the GNU General Public License version 2 as published
+ * by the Free Software Foundation.
+ *
+ * If the program is linked with libraries which are licensed under one of
+ * the following licenses, the combination of the program with the linked
+ * library is not considered a "derivative work" of the program:
+ *
+ *     - Apache License, version 2.0
+ *     - Apache Software License, version 1.0
+ *     - GNU Lesser General Public License, version 3
+ *     - Mozilla Public License, versions 1.0, 1.1 and 2.0
+ *     - Common Development and Distribution License (CDDL), version 1.0
+ *
+ * Therefore the distribution of the program linked with libraries licensed
+ * under the aforementioned licenses, is permitted by the copyright holders
+ * if the distribution is compliant with both the GNU General Public
+ * License version 2 and the aforementioned licenses.
+ *
+ * This program is distributed in the hope that it will be useful, but
+ * WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the GNU General
+ * Public License for more details.
+ */
+package org.n52.sta.data.replica;
+
+import java.lang.reflect.InvocationHandler;
+import java.lang.reflect.InvocationTargetException;
+import java.lang.reflect.Method;
+import java.lang.reflect.Proxy;
+import java.sql.Connection;
+import java.sql.ResultSet;
+import java.sql.SQLException;
+import java.sql.Statement;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.function.Supplier;
+
+import javax.sql.DataSource;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.jdbc.datasource.AbstractDataSource;
+import org.springframework.jdbc.datasource.ConnectionProxy;
+import org.springframework.jdbc.datasource.LazyConnectionDataSourceProxy;
+import org.springframework.transaction.support.TransactionSynchronizationManager;
+
+/**
+ * Hands out connections of a read replica inside of read only transactions
+ * and connections of the primary database otherwise.
+ * <p>
+ * The decision is made when the connection is requested, so the data source
+ * has to be wrapped with {@link #lazy()}: transaction managers request the
+ * connection before the transaction is marked read only, the lazy proxy
+ * defers this until the first statement.
+ * <p>
+ * Replicas are only used while they are available, i.e. the last
+ * {@link #checkLag(String, long)} succeeded and reported a lag below the
+ * limit. A replica failing to hand out a connection is ejected until the next
+ * check. Without an available replica all connections come from the primary.
+ * <p>
+ * After a write is {@link #pin(long) pinned}, replicas are only used once a
+ * check started after the write minus the measured lag, i.e. the replica
+ * replayed the write, until the pin expires.
+ *
+ * @since 1.0.0
+ */
+public class ReplicaRoutingDataSource extends AbstractDataSource {
+
+    private static final Logger LOGGER = LoggerFactory.getLogger(ReplicaRoutingDataSource.class);
+
+    private static final ThreadLocal<Boolean> PRIMARY = new ThreadLocal<>();
+
+    private final DataSource primary;
+
+    private final List<Replica> replicas;
+
+    private final Selection selection;
+
+    private final AtomicInteger next = new AtomicInteger();
+
+    private volatile long lastWrite = Long.MIN_VALUE;
+
+    private volatile long pinnedUntil = Long.MIN_VALUE;
+
+    /**
+     * How a replica is chosen among the available ones
+     */
+    public enum Selection {
+        ROUND_ROBIN, LEAST_LOADED;
+
+        /**
+         * @param value
+         *            the configured value, e.g. <code>least-loaded</code>
+         * @return the selection
+         */
+        public static Selection fromString(String value) {
+            return valueOf(value.trim().toUpperCase().replace('-', '_'));
+        }
+    }
+
+    /**
+     * @param primary
+     *            the primary database receiving the writes
+     * @param replicas
+     *            the replicas by their name
+     * @param selection
+     *            how a replica is chosen
+     */
+    public ReplicaRoutingDataSource(DataSource primary, Map<String, DataSource> replicas, Selection selection) {
+        this.primary = primary;
+        List<Replica> list = new ArrayList<>(replicas.size());
+        replicas.forEach((name, dataSource) -> list.add(new Replica(name, dataSource)));
+        this.replicas = Collections.unmodifiableList(list);
+        this.selection = selection;
+    }
+
+    /**
+     * Runs the work with connections of the primary database, even in read
+     * only transactions. Used to let clients read their own writes.
+     *
+     * @param work
+     *            the work
+     * @return the result of the work
+     */
+    public static <T> T onPrimary(Supplier<T> work) {
+        Boolean previous = PRIMARY.get();
+        PRIMARY.set(Boolean.TRUE);
+        try {
+            return work.get();
+        } finally {
+            if (previous == null) {
+                PRIMARY.remove();
+            } else {
+                PRIMARY.set(previous);
+            }
+        }
+    }
+
+    /**
+     * @return if the current thread runs its work with connections of the
+     *         primary database, see {@link #onPrimary(Supplier)}
+     */
+    public static boolean isOnPrimary() {
+        return PRIMARY.get() != null;
+    }
+
+    /**
+     * Lets reads see a write that was just committed: for the given duration
+     * only the replicas that replayed the write are used.
+     *
+     * @param duration
+     *            the duration in milliseconds
+     */
+    public void pin(long duration) {
+        long now = System.currentTimeMillis();
+        lastWrite = now;
+        pinnedUntil = now + duration;
+    }
+
+    /**
+     * @return a proxy requesting the connection from this data source on
+     *         the first statement
+     */
+    public DataSource lazy() {
+        return new LazyConnectionDataSourceProxy(this);
+    }
+
+    /**
+     * @return the replicas
+     */
+    public List<Replica> getReplicas() {
+        return replicas;
+    }
+
+    /**
+     * Queries the replication lag of each replica and makes the replicas
+     * available whose lag does not exceed the limit.
+     *
+     * @param lagQuery
+     *            a query returning the lag in milliseconds
+     * @param maxLag
+     *            the maximal lag in milliseconds
+     */
+    public void checkLag(String lagQuery, long maxLag) {
+        for (Replica replica : replicas) {
+            long start = System.currentTimeMillis();
+            try (Connection connection = replica.dataSource.getConnection();
+                    Statement statement = connection.createStatement();
+                    ResultSet result = statement.executeQuery(lagQuery)) {
+                long lag = result.next() ? result.getLong(1) : Long.MAX_VALUE;
+                replica.lag = lag;
+                replica.replayed = lag == Long.MAX_VALUE ? Long.MIN_VALUE : start - lag;
+                replica.setAvailable(lag <= maxLag, "lag of " + lag + " ms");
+            } catch (SQLException | RuntimeException e) {
+                replica.lag = -1;
+                replica.setAvailable(false, e.getMessage());
+            }
+        }
+    }
+
+    @Override
+    public Connection getConnection() throws SQLException {
+        Replica replica = selectReplica();
+        if (replica != null) {
+            try {
+                return replica.getConnection();
+            } catch (SQLException | RuntimeException e) {
+                replica.setAvailable(false, e.getMessage());
+            }
+        }
+        return primary.getConnection();
+    }
+
+    @Override
+    public Connection getConnection(String username, String password) throws SQLException {
+        return primary.getConnection(username, password);
+    }
+
+    private Replica selectReplica() {
+        if (replicas.isEmpty() || PRIMARY.get() != null
+                || !TransactionSynchronizationManager.isCurrentTransactionReadOnly()) {
+            return null;
+        }
+        // replicas need to have replayed the last write while it is pinned
+        long replayed = System.currentTimeMillis() < pinnedUntil ? lastWrite : Long.MIN_VALUE;
+        if (selection == Selection.LEAST_LOADED) {
+            Replica selected = null;
+            for (Replica replica : replicas) {
+                if (replica.isUsable(replayed)
+                        && (selected == null || replica.active.get() < selected.active.get())) {
+                    selected = replica;
+                }
+            }
+            return selected;
+        }
+        int start = Math.floorMod(next.getAndIncrement(), replicas.size());
+        for (int i = 0; i < replicas.size(); i++) {
+            Replica replica = replicas.get((start + i) % replicas.size());
+            if (replica.isUsable(replayed)) {
+                return replica;
+            }
+        }
+        return null;
+    }
+
+    /**
+     * A read replica with its state
+     */
+    public static final class Replica {
+
+        private final String name;
+
+        private final DataSource dataSource;
+
+        private final AtomicInteger active = new AtomicInteger();
+
+        private volatile boolean available;
+
+        private volatile long lag = -1;
+
+        // the time up to which the replica replayed the primary
+        private volatile long replayed = Long.MIN_VALUE;
+
+        Replica(String name, DataSource dataSource) {
+            this.name = name;
+            this.dataSource = dataSource;
+        }
+
+        /**
+         * @return the name of the replica
+         */
+        public String getName() {
+            return name;
+        }
+
+        /**
+         * @return the data source of the replica
+         */
+        public DataSource getDataSource() {
+            return dataSource;
+        }
+
+        /**
+         * @return if reads are sent to the replica
+         */
+        public boolean isAvailable() {
+            return available;
+        }
+
+        /**
+         * @return the lag in milliseconds measured by the last check, -1 if
+         *         the check failed
+         */
+        public long getLag() {
+            return lag;
+        }
+
+        /**
+         * @return the number of connections in use
+         */
+        public int getActiveConnections() {
+            return active.get();
+        }
+
+        private boolean isUsable(long write) {
+            return available && replayed >= write;
+        }
+
+        private void setAvailable(boolean available, String reason) {
+            if (this.available != available) {
+                if (available) {
+                    LOGGER.info("Sending reads to replica {}", name);
+                } else {
+                    LOGGER.warn("Ejecting replica {}: {}", name, reason);
+                }
+            }
+            this.available = available;
+        }
+
+        private Connection getConnection() throws SQLException {
+            Connection connection = dataSource.getConnection();
+            active.incrementAndGet();
+            return (Connection) Proxy.newProxyInstance(ConnectionProxy.class.getClassLoader(),
+                    new Class<?>[] { ConnectionProxy.class }, new CountingInvocationHandler(connection, active));
+        }
+    }
+
+    /**
+     * Decrements the number of active connections of a replica when the
+     * connection is closed.
+     */
+    private static final class CountingInvocationHandler implements InvocationHandler {
+
+        private final Connection target;
+
+        private final AtomicInteger active;
+
+        private final AtomicBoolean closed = new AtomicBoolean();
+
+        CountingInvocationHandler(Connection target, AtomicInteger active) {
+            this.target = target;
+            this.active = active;
+        }
+
+        @Override
+        public Object invoke(Object proxy, Method method, Object[] args) throws Throwable {
+            switch (method.getName()) {
+            case "getTargetConnection":
+                return target;
+            case "equals":
+                return proxy == args[0];
+            case "hashCode":
+                return System.identityHashCode(proxy);
+            case "close":
+                if (closed.compareAndSet(false, true)) {
+                    active.decrementAndGet();
+                }
+                break;
+            default:
+                break;
+            }
+            try {
+                return method.invoke(target, args);
+            } catch (InvocationTargetException e) {
+                throw e.getTargetException();
+            }
+        }
+    }
+
+}
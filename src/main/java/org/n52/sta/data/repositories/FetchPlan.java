@@ -0,0 +1,116 @@
+/*
+ * Copyright (C) 2012-2018 52°North Initiative for Geospatial Open Source
+ * Software GmbH
+ *
+ * This program is free software; you can redistribute it and/or modify it
+ * under the terms of the GNU General Public License version 2 as published
+ * by the Free Software Foundation.
+ *
+ * If the program is linked with libraries which are licensed under one of
+ * the following licenses, the combination of the program with the linked
+ * library is not considered a "derivative work" of the program:
+ *
+ *     - Apache License, version 2.0
+ *     - Apache Software License, version 1.0
+ *     - GNU Lesser General Public License, version 3
+ *     - Mozilla Public License, versions 1.0, 1.1 and 2.0
+ *     - Common Development and Distribution License (CDDL), version 1.0
+ *
+ * Therefore the distribution of the program linked with libraries licensed
+ * under the aforementioned licenses, is permitted by the copyright holders
+ * if the distribution is compliant with both the GNU General Public
+ * License version 2 and the aforementioned licenses.
+ *
+ * This program is distributed in the hope that it will be useful, but
+ * WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the GNU General
+ * Public License for more details.
+ */
+package org.n52.sta.data.repositories;
+
+import java.util.Collections;
+import java.util.LinkedHashMap;
+import java.util.LinkedHashSet;
+import java.util.Map;
+import java.util.Set;
+
+import javax.persistence.EntityGraph;
+import javax.persistence.EntityManager;
+
+/**
+ * Describes which associations of a database entity are read by its mapper
+ * and have to be fetched together with the entity to avoid lazy loading each
+ * of them per row. The associations are registered per STA property. The
+ * whole plan is applied regardless of <code>$select</code>, as the mappers
+ * read all properties of the entity.
+ * <p>
+ * Only single valued associations should be registered. Collections are
+ * loaded in batches (<code>hibernate.default_batch_fetch_size</code>) as
+ * fetching them with the entity breaks the database side paging.
+ *
+ * @since 1.0.0
+ */
+public final class FetchPlan<T> {
+
+    private final Class<T> type;
+
+    private final Map<String, String> attributes;
+
+    private FetchPlan(Class<T> type, Map<String, String> attributes) {
+        this.type = type;
+        this.attributes = attributes;
+    }
+
+    /**
+     * Creates an empty {@link FetchPlan} for the given entity type
+     *
+     * @param type
+     *            the database entity type
+     * @return the empty plan
+     */
+    public static <T> FetchPlan<T> of(Class<T> type) {
+        return new FetchPlan<>(type, Collections.emptyMap());
+    }
+
+    /**
+     * Creates a new {@link FetchPlan} that additionally fetches the given
+     * attribute read for the given property
+     *
+     * @param property
+     *            the STA property
+     * @param attribute
+     *            the attribute of the database entity read for the property
+     * @return the new plan
+     */
+    public FetchPlan<T> fetch(String property, String attribute) {
+        Map<String, String> fetched = new LinkedHashMap<>(attributes);
+        fetched.put(property, attribute);
+        return new FetchPlan<>(type, Collections.unmodifiableMap(fetched));
+    }
+
+    /**
+     * Get the attributes fetched by this plan
+     *
+     * @return the attributes of the database entity
+     */
+    public Set<String> getAttributes() {
+        return new LinkedHashSet<>(attributes.values());
+    }
+
+    /**
+     * Creates the JPA {@link EntityGraph} for this plan
+     *
+     * @param entityManager
+     *            the {@link EntityManager} to create the graph with
+     * @return the graph or <code>null</code> if nothing has to be fetched
+     */
+    public EntityGraph<T> createEntityGraph(EntityManager entityManager) {
+        if (attributes.isEmpty()) {
+            return null;
+        }
+        EntityGraph<T> graph = entityManager.createEntityGraph(type);
+        getAttributes().forEach(graph::addAttributeNodes);
+        return graph;
+    }
+
+}
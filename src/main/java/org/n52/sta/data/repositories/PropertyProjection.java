@@ -0,0 +1,136 @@
+/*
+ * Copyright (C) 2012-2018 52°North Initiative for Geospatial Open Source
+ * Software GmbH
+ *
+ * This program is free software; you can redistribute it and/or modify it
+ * under the terms of the GNU General Public License version 2 as published
+ * by the Free Software Foundation.
+ *
+ * If the program is linked with libraries which are licensed under one of
+ * the following licenses, the combination of the program with the linked
+ * library is not considered a "derivative work" of the program:
+ *
+ *     - Apache License, version 2.0
+ *     - Apache Software License, version 1.0
+ *     - GNU Lesser General Public License, version 3
+ *     - Mozilla Public License, versions 1.0, 1.1 and 2.0
+ *     - Common Development and Distribution License (CDDL), version 1.0
+ *
+ * Therefore the distribution of the program linked with libraries licensed
+ * under the aforementioned licenses, is permitted by the copyright holders
+ * if the distribution is compliant with both the GNU General Public
+ * License version 2 and the aforementioned licenses.
+ *
+ * This program is distributed in the hope that it will be useful, but
+ * WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the GNU General
+ * Public License for more details.
+ */
+package org.n52.sta.data.repositories;
+
+import java.util.Collections;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+
+import com.querydsl.core.types.Expression;
+import com.querydsl.core.types.dsl.EntityPathBase;
+import com.querydsl.core.types.dsl.PathBuilder;
+
+/**
+ * Describes the STA properties of an entity that are mapped one to one from a
+ * single attribute of the database entity. These properties can be read by
+ * selecting the attribute instead of loading and mapping the whole entity,
+ * e.g. for <code>/Things(1)/name</code> or
+ * <code>/Datastreams(1)/unitOfMeasurement/symbol/$value</code>.
+ * <p>
+ * Properties of complex types are registered by their path, e.g.
+ * <code>unitOfMeasurement/symbol</code>. Only properties with a value that is
+ * mapped as is, without any conversion or default, may be registered.
+ *
+ * @since 1.0.0
+ */
+public final class PropertyProjection<T> {
+
+    /**
+     * Separator of the segments of a property path
+     */
+    public static final String PATH_SEPARATOR = "/";
+
+    private static final String ATTRIBUTE_SEPARATOR = "\\.";
+
+    private final EntityPathBase<T> root;
+
+    private final Map<String, String> attributes;
+
+    private PropertyProjection(EntityPathBase<T> root, Map<String, String> attributes) {
+        this.root = root;
+        this.attributes = attributes;
+    }
+
+    /**
+     * Creates an empty {@link PropertyProjection} for the given entity
+     *
+     * @param root
+     *            the QueryDSL path of the database entity
+     * @return the empty projection
+     */
+    public static <T> PropertyProjection<T> of(EntityPathBase<T> root) {
+        return new PropertyProjection<>(root, Collections.emptyMap());
+    }
+
+    /**
+     * Creates a new {@link PropertyProjection} that additionally reads the
+     * given property from the given attribute
+     *
+     * @param propertyPath
+     *            the path of the STA property
+     * @param attribute
+     *            the attribute of the database entity, associations are
+     *            separated by <code>.</code>
+     * @return the new projection
+     */
+    public PropertyProjection<T> column(String propertyPath, String attribute) {
+        Map<String, String> columns = new LinkedHashMap<>(attributes);
+        columns.put(propertyPath, attribute);
+        return new PropertyProjection<>(root, Collections.unmodifiableMap(columns));
+    }
+
+    /**
+     * Checks if all the given properties can be read from a single attribute
+     *
+     * @param propertyPaths
+     *            the paths of the STA properties
+     * @return true if all properties are registered
+     */
+    public boolean supports(List<String> propertyPaths) {
+        return !propertyPaths.isEmpty() && attributes.keySet().containsAll(propertyPaths);
+    }
+
+    /**
+     * Get the QueryDSL path of the database entity
+     *
+     * @return the path of the entity
+     */
+    public EntityPathBase<T> getRoot() {
+        return root;
+    }
+
+    /**
+     * Creates the expression selecting the attribute of the given property
+     *
+     * @param path
+     *            the path of the database entity
+     * @param propertyPath
+     *            the path of the registered STA property
+     * @return the expression of the attribute
+     */
+    Expression<?> getAttribute(PathBuilder<T> path, String propertyPath) {
+        PathBuilder<?> attribute = path;
+        for (String segment : attributes.get(propertyPath).split(ATTRIBUTE_SEPARATOR)) {
+            attribute = attribute.get(segment);
+        }
+        return attribute;
+    }
+
+}
@@ -0,0 +1,189 @@
+/*
+ * Copyright (C) 2012-2018 52°North Initiative for Geospatial Open Source
+ * Software GmbH
+ *
+ * This program is free software; you can redistribute it and/or modify it
+ * under the terms of the GNU General Public License version 2 as published
+ * by the Free Software Foundation.
+ *
+ * If the program is linked with libraries which are licensed under one of
+ * the following licenses, the combination of the program with the linked
+ * library is not considered a "derivative work" of the program:
+ *
+ *     - Apache License, version 2.0
+ *     - Apache Software License, version 1.0
+ *     - GNU Lesser General Public License, version 3
+ *     - Mozilla Public License, versions 1.0, 1.1 and 2.0
+ *     - Common Development and Distribution License (CDDL), version 1.0
+ *
+ * Therefore the distribution of the program linked with libraries licensed
+ * under the aforementioned licenses, is permitted by the copyright holders
+ * if the distribution is compliant with both the GNU General Public
+ * License version 2 and the aforementioned licenses.
+ *
+ * This program is distributed in the hope that it will be useful, but
+ * WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the GNU General
+ * Public License for more details.
+ */
+package org.n52.sta.data.repositories;
+
+import java.util.Map;
+import java.util.function.BiFunction;
+import java.util.function.Function;
+
+import javax.persistence.Query;
+
+import com.querydsl.core.QueryMetadata;
+import com.querydsl.core.types.Predicate;
+import com.querydsl.core.types.dsl.EntityPathBase;
+import com.querydsl.core.types.dsl.PathBuilder;
+import com.querydsl.jpa.HQLTemplates;
+import com.querydsl.jpa.JPQLSerializer;
+import com.querydsl.jpa.impl.JPAQuery;
+
+/**
+ * A read query of a fixed shape whose JPQL is rendered once. The filter is
+ * created by the <code>*QuerySpecifications</code> with placeholder ids, the
+ * actual ids are bound as parameters on each execution. This saves building
+ * and rendering the QueryDSL expressions per request, and Hibernate finds the
+ * parsed query by the same string in its plan cache.
+ * <p>
+ * The template is rendered as select, id select and count statement, see
+ * {@link ReadQueryExecutor}.
+ *
+ * @since 1.0.0
+ */
+public final class QueryTemplate<T> {
+
+    // placeholder of the n-th argument, no real id takes these values
+    private static final long PLACEHOLDER = Long.MIN_VALUE;
+
+    private static final String ID = "id";
+
+    private final Class<? extends T> type;
+
+    private final Statement select;
+
+    private final Statement ids;
+
+    private final Statement count;
+
+    private QueryTemplate(EntityPathBase<T> root, Predicate filter) {
+        PathBuilder<T> path = new PathBuilder<T>(root.getType(), root.getMetadata());
+        this.type = root.getType();
+        this.select = new Statement(new JPAQuery<T>().select(root).from(root).where(filter).getMetadata(), false);
+        this.ids = new Statement(new JPAQuery<T>().select(path.getNumber(ID, Long.class)).from(root).where(filter)
+                .getMetadata(), false);
+        this.count = new Statement(new JPAQuery<T>().select(root).from(root).where(filter).getMetadata(), true);
+    }
+
+    /**
+     * Creates a template with a single id parameter
+     *
+     * @param root
+     *            the QueryDSL path of the queried entity
+     * @param filter
+     *            creates the filter for an id
+     * @return the template
+     */
+    public static <T> QueryTemplate<T> of(EntityPathBase<T> root, Function<Long, ? extends Predicate> filter) {
+        return new QueryTemplate<>(root, filter.apply(placeholder(0)));
+    }
+
+    /**
+     * Creates a template with two id parameters
+     *
+     * @param root
+     *            the QueryDSL path of the queried entity
+     * @param filter
+     *            creates the filter for two ids
+     * @return the template
+     */
+    public static <T> QueryTemplate<T> of(EntityPathBase<T> root, BiFunction<Long, Long, ? extends Predicate> filter) {
+        return new QueryTemplate<>(root, filter.apply(placeholder(0), placeholder(1)));
+    }
+
+    Class<? extends T> getType() {
+        return type;
+    }
+
+    Statement getSelect() {
+        return select;
+    }
+
+    Statement getIds() {
+        return ids;
+    }
+
+    Statement getCount() {
+        return count;
+    }
+
+    private static Long placeholder(int index) {
+        return Long.valueOf(PLACEHOLDER + index);
+    }
+
+    /**
+     * A rendered statement and the values of its positional parameters
+     */
+    static final class Statement {
+
+        private final String jpql;
+
+        private final Object[] values;
+
+        private final int[] arguments;
+
+        Statement(QueryMetadata metadata, boolean forCount) {
+            JPQLSerializer serializer = new JPQLSerializer(HQLTemplates.DEFAULT);
+            serializer.serialize(metadata, forCount, null);
+            this.jpql = serializer.toString();
+            Map<Object, String> constants = serializer.getConstantToLabel();
+            this.values = new Object[constants.size()];
+            this.arguments = new int[constants.size()];
+            for (Map.Entry<Object, String> constant : constants.entrySet()) {
+                int position = Integer.parseInt(constant.getValue()) - 1;
+                values[position] = constant.getKey();
+                arguments[position] = argumentIndex(constant.getKey());
+            }
+        }
+
+        String getJpql() {
+            return jpql;
+        }
+
+        /**
+         * Binds the constants of the filter and the arguments in place of
+         * the placeholders
+         *
+         * @param query
+         *            the query created from the JPQL
+         * @param args
+         *            the ids
+         * @return the query
+         */
+        <Q extends Query> Q bind(Q query, Long... args) {
+            for (int i = 0; i < values.length; i++) {
+                query.setParameter(i + 1, arguments[i] < 0 ? values[i] : args[arguments[i]]);
+            }
+            return query;
+        }
+
+        private static int argumentIndex(Object constant) {
+            if (constant instanceof Long) {
+                long index = (Long) constant - PLACEHOLDER;
+                if (index >= 0 && index < 2) {
+                    return (int) index;
+                }
+            }
+            return -1;
+        }
+    }
+
+    @Override
+    public String toString() {
+        return select.getJpql();
+    }
+
+}
@@ -0,0 +1,126 @@
+/*
+ * Copyright (C) 2012-2018 52°North Initiative for Geospatial Open Source
+ * Software GmbH
+ *
+ * This program is free software; you can redistribute it and/or modify it
+ * under the terms of the GNU General Public License version 2 as published
+ * by the Free Software Foundation.
+ *
+ * If the program is linked with libraries which are licensed under one of
+ * the following licenses, the combination of the program with the linked
+ * library is not considered a "derivative work" of the program:
+ *
+ *     - Apache License, version 2.0
+ *     - Apache Software License, version 1.0
+ *     - GNU Lesser General Public License, version 3
+ *     - Mozilla Public License, versions 1.0, 1.1 and 2.0
+ *     - Common Development and Distribution License (CDDL), version 1.0
+ *
+ * Therefore the distribution of the program linked with libraries licensed
+ * under the aforementioned licenses, is permitted by the copyright holders
+ * if the distribution is compliant with both the GNU General Public
+ * License version 2 and the aforementioned licenses.
+ *
+ * This program is distributed in the hope that it will be useful, but
+ * WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the GNU General
+ * Public License for more details.
+ */
+package org.n52.sta.data.repositories;
+
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.function.Function;
+
+import com.querydsl.core.types.ExpressionUtils;
+import com.querydsl.core.types.Predicate;
+import com.querydsl.core.types.dsl.EntityPathBase;
+
+/**
+ * The {@link QueryTemplate}s of the frequent lookups of an entity: by id and
+ * by the id of a related entity, optionally restricted to an id. Services
+ * keep them in a constant and fall back to dynamic QueryDSL predicates for
+ * shapes without a template.
+ *
+ * @since 1.0.0
+ */
+public final class QueryTemplates<T> {
+
+    private final EntityPathBase<T> root;
+
+    private final Function<Long, ? extends Predicate> byId;
+
+    private final QueryTemplate<T> byIdTemplate;
+
+    private final Map<String, QueryTemplate<T>> related;
+
+    private final Map<String, QueryTemplate<T>> relatedWithId;
+
+    private QueryTemplates(EntityPathBase<T> root, Function<Long, ? extends Predicate> byId,
+            QueryTemplate<T> byIdTemplate, Map<String, QueryTemplate<T>> related,
+            Map<String, QueryTemplate<T>> relatedWithId) {
+        this.root = root;
+        this.byId = byId;
+        this.byIdTemplate = byIdTemplate;
+        this.related = related;
+        this.relatedWithId = relatedWithId;
+    }
+
+    /**
+     * Creates the templates of an entity without relations
+     *
+     * @param root
+     *            the QueryDSL path of the database entity
+     * @param byId
+     *            creates the filter by id
+     * @return the templates
+     */
+    public static <T> QueryTemplates<T> of(EntityPathBase<T> root, Function<Long, ? extends Predicate> byId) {
+        return new QueryTemplates<>(root, byId, QueryTemplate.of(root, byId), Collections.emptyMap(),
+                Collections.emptyMap());
+    }
+
+    /**
+     * Creates new templates that additionally look up the entities related
+     * to an entity of the given type
+     *
+     * @param sourceType
+     *            the full qualified name of the related entity type, e.g.
+     *            <code>iot.Datastream</code>
+     * @param filter
+     *            creates the filter by the id of the related entity
+     * @return the new templates
+     */
+    public QueryTemplates<T> relation(String sourceType, Function<Long, ? extends Predicate> filter) {
+        Map<String, QueryTemplate<T>> withRelated = new HashMap<>(related);
+        withRelated.put(sourceType, QueryTemplate.of(root, filter));
+        Map<String, QueryTemplate<T>> withRelatedAndId = new HashMap<>(relatedWithId);
+        withRelatedAndId.put(sourceType, QueryTemplate.of(root,
+                (Long sourceId, Long id) -> ExpressionUtils.and(filter.apply(sourceId), byId.apply(id))));
+        return new QueryTemplates<>(root, byId, byIdTemplate, Collections.unmodifiableMap(withRelated),
+                Collections.unmodifiableMap(withRelatedAndId));
+    }
+
+    /**
+     * @return the template of the lookup by id
+     */
+    public QueryTemplate<T> byId() {
+        return byIdTemplate;
+    }
+
+    /**
+     * Get the template of the lookup by the id of a related entity
+     *
+     * @param sourceType
+     *            the full qualified name of the related entity type
+     * @param withId
+     *            if the template is additionally restricted by the id of the
+     *            entity, passed as second argument
+     * @return the template or <code>null</code> if the relation has none
+     */
+    public QueryTemplate<T> related(String sourceType, boolean withId) {
+        return withId ? relatedWithId.get(sourceType) : related.get(sourceType);
+    }
+
+}
@@ -0,0 +1,213 @@
+/*
+ * Copyright (C) 2012-2018 52°North Initiative for Geospatial Open Source
+ * Software GmbH
+ *
+ * This program is free software; you can redistribute it and/or modify it
+ * under the terms of the GNU General Public License version 2 as published
+ * by the Free Software Foundation.
+ *
+ * If the program is linked with libraries which are licensed under one of
+ * the following licenses, the combination of the program with the linked
+ * library is not considered a "derivative work" of the program:
+ *
+ *     - Apache License, version 2.0
+ *     - Apache Software License, version 1.0
+ *     - GNU Lesser General Public License, version 3
+ *     - Mozilla Public License, versions 1.0, 1.1 and 2.0
+ *     - Common Development and Distribution License (CDDL), version 1.0
+ *
+ * Therefore the distribution of the program linked with libraries licensed
+ * under the aforementioned licenses, is permitted by the copyright holders
+ * if the distribution is compliant with both the GNU General Public
+ * License version 2 and the aforementioned licenses.
+ *
+ * This program is distributed in the hope that it will be useful, but
+ * WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the GNU General
+ * Public License for more details.
+ */
+package org.n52.sta.data.repositories;
+
+import java.util.List;
+import java.util.Optional;
+
+import javax.persistence.EntityGraph;
+import javax.persistence.EntityManager;
+import javax.persistence.PersistenceContext;
+
+import org.hibernate.annotations.QueryHints;
+import org.springframework.dao.IncorrectResultSizeDataAccessException;
+import org.springframework.data.domain.Pageable;
+import org.springframework.data.jpa.repository.support.Querydsl;
+import org.springframework.stereotype.Component;
+
+import com.querydsl.core.Tuple;
+import com.querydsl.core.types.Expression;
+import com.querydsl.core.types.Predicate;
+import com.querydsl.core.types.dsl.EntityPathBase;
+import com.querydsl.core.types.dsl.PathBuilder;
+import com.querydsl.jpa.impl.JPAQuery;
+
+/**
+ * Executes the paged read queries of the entity services. In contrast to the
+ * Spring Data repositories the associations of a {@link FetchPlan} are loaded
+ * with the entities in the same statement and the entities are loaded read
+ * only.
+ *
+ * @since 1.0.0
+ */
+@Component
+public class ReadQueryExecutor {
+
+    /**
+     * JPA hint to load the attributes of the graph eagerly and all other
+     * attributes as mapped
+     */
+    public static final String FETCH_GRAPH_HINT = "javax.persistence.fetchgraph";
+
+    private static final String ID = "id";
+
+    @PersistenceContext
+    private EntityManager entityManager;
+
+    /**
+     * Queries a page of entities
+     *
+     * @param root
+     *            the QueryDSL path of the queried entity
+     * @param filter
+     *            the filter, may be <code>null</code>
+     * @param pageable
+     *            offset, limit and sorting
+     * @param fetchPlan
+     *            the associations to fetch with the entities, may be
+     *            <code>null</code>
+     * @return the entities of the page
+     */
+    public <T> List<T> findAll(EntityPathBase<T> root, Predicate filter, Pageable pageable, FetchPlan<T> fetchPlan) {
+        JPAQuery<T> query = new JPAQuery<T>(entityManager).select(root).from(root);
+        if (filter != null) {
+            query.where(filter);
+        }
+        new Querydsl(entityManager, new PathBuilder<T>(root.getType(), root.getMetadata()))
+                .applyPagination(pageable, query);
+        // the entities are only mapped, so Hibernate needs no snapshots to
+        // detect changes, and the whole page is transferred in one round trip
+        query.setHint(QueryHints.READ_ONLY, true);
+        query.setHint(QueryHints.FETCH_SIZE, pageable.getPageSize());
+        EntityGraph<T> graph = fetchPlan != null ? fetchPlan.createEntityGraph(entityManager) : null;
+        if (graph != null) {
+            query.setHint(FETCH_GRAPH_HINT, graph);
+        }
+        return query.fetch();
+    }
+
+    /**
+     * Queries only the ids of a page of entities, e.g. to write references.
+     * The entities are neither loaded into the persistence context nor
+     * mapped.
+     *
+     * @param root
+     *            the QueryDSL path of the queried entity
+     * @param filter
+     *            the filter, may be <code>null</code>
+     * @param pageable
+     *            offset, limit and sorting
+     * @return the ids of the page in the requested order
+     */
+    public <T> long[] findIds(EntityPathBase<T> root, Predicate filter, Pageable pageable) {
+        PathBuilder<T> path = new PathBuilder<T>(root.getType(), root.getMetadata());
+        JPAQuery<Long> query = new JPAQuery<T>(entityManager).select(path.getNumber(ID, Long.class)).from(root);
+        if (filter != null) {
+            query.where(filter);
+        }
+        new Querydsl(entityManager, path).applyPagination(pageable, query);
+        query.setHint(QueryHints.FETCH_SIZE, pageable.getPageSize());
+        return query.fetch().stream().mapToLong(Long::longValue).toArray();
+    }
+
+    /**
+     * Queries only the attributes of the given properties of a single entity
+     *
+     * @param projection
+     *            the {@link PropertyProjection} of the entity
+     * @param id
+     *            the id of the entity
+     * @param filter
+     *            further restriction of the entity, e.g. to valid entities,
+     *            may be <code>null</code>
+     * @param propertyPaths
+     *            the paths of the STA properties supported by the projection
+     * @return the values of the properties in the given order or an empty
+     *         {@link Optional} if no entity with the id matches the filter
+     */
+    public <T> Optional<Object[]> findProperties(PropertyProjection<T> projection, Long id, Predicate filter,
+            List<String> propertyPaths) {
+        EntityPathBase<T> root = projection.getRoot();
+        PathBuilder<T> path = new PathBuilder<T>(root.getType(), root.getMetadata());
+        Expression<?>[] attributes = propertyPaths.stream()
+                .map(propertyPath -> projection.getAttribute(path, propertyPath))
+                .toArray(Expression<?>[]::new);
+        Tuple row = new JPAQuery<T>(entityManager).select(attributes)
+                .from(root)
+                .where(path.getNumber(ID, Long.class).eq(id), filter)
+                .fetchFirst();
+        return row != null ? Optional.of(row.toArray()) : Optional.empty();
+    }
+
+    /**
+     * Queries the single entity matching the template
+     *
+     * @param template
+     *            the {@link QueryTemplate}
+     * @param args
+     *            the ids bound to the template
+     * @return the entity or an empty {@link Optional} if none matches
+     * @throws IncorrectResultSizeDataAccessException
+     *             if more than one entity matches
+     */
+    public <T> Optional<T> findOne(QueryTemplate<T> template, Long... args) {
+        List<? extends T> result = template.getSelect()
+                .bind(entityManager.createQuery(template.getSelect().getJpql(), template.getType()), args)
+                .setMaxResults(2)
+                .getResultList();
+        if (result.size() > 1) {
+            throw new IncorrectResultSizeDataAccessException(1, result.size());
+        }
+        return result.isEmpty() ? Optional.empty() : Optional.of(result.get(0));
+    }
+
+    /**
+     * Checks if an entity matches the template. Only the id of the first
+     * match is selected instead of counting all matches.
+     *
+     * @param template
+     *            the {@link QueryTemplate}
+     * @param args
+     *            the ids bound to the template
+     * @return if an entity matches
+     */
+    public boolean exists(QueryTemplate<?> template, Long... args) {
+        return !template.getIds()
+                .bind(entityManager.createQuery(template.getIds().getJpql(), Long.class), args)
+                .setMaxResults(1)
+                .getResultList()
+                .isEmpty();
+    }
+
+    /**
+     * Counts the entities matching the template
+     *
+     * @param template
+     *            the {@link QueryTemplate}
+     * @param args
+     *            the ids bound to the template
+     * @return the number of matching entities
+     */
+    public long count(QueryTemplate<?> template, Long... args) {
+        return template.getCount()
+                .bind(entityManager.createQuery(template.getCount().getJpql(), Long.class), args)
+                .getSingleResult();
+    }
+
+}
@@ -5,8 +5,11 @@
  */
 package org.n52.sta.data.service;
 
+import static org.n52.sta.edm.provider.entities.ObservationEntityProvider.ET_OBSERVATION_FQN;
 import java.util.List;
+import java.util.Optional;
 import java.util.OptionalLong;
+import java.util.function.Supplier;
 import java.util.stream.Collectors;
 
 import org.apache.olingo.commons.api.data.Entity;
@@ -14,6 +17,7 @@ import org.apache.olingo.commons.api.data.EntityCollection;
 import org.apache.olingo.commons.api.edm.EdmEntityType;
 import org.apache.olingo.commons.api.edm.EdmEnumType;
 import org.apache.olingo.commons.api.edm.EdmType;
+import org.apache.olingo.commons.api.edm.FullQualifiedName;
 import org.apache.olingo.server.api.ODataApplicationException;
 import org.apache.olingo.server.api.uri.UriInfoResource;
 import org.apache.olingo.server.api.uri.UriResource;
@@ -28,12 +32,27 @@ import org.apache.olingo.server.api.uri.queryoption.expression.Member;
 import org.apache.olingo.server.api.uri.queryoption.expression.MethodKind;
 import org.apache.olingo.server.api.uri.queryoption.expression.UnaryOperatorKind;
 import org.n52.sta.data.OffsetLimitBasedPageRequest;
+import org.n52.sta.data.repositories.FetchPlan;
+import org.n52.sta.data.repositories.PropertyProjection;
+import org.n52.sta.data.repositories.QueryTemplate;
+import org.n52.sta.data.repositories.QueryTemplates;
+import org.n52.sta.data.repositories.ReadQueryExecutor;
+import org.n52.sta.mapping.AbstractMapper;
+import org.n52.sta.metrics.PipelineMetrics;
+import org.n52.sta.metrics.PipelineStage;
 import org.n52.sta.service.query.QueryOptions;
+import org.springframework.beans.factory.annotation.Autowired;
 import org.springframework.data.domain.PageRequest;
+import org.springframework.data.domain.Pageable;
 import org.springframework.data.domain.Sort;
 import org.springframework.data.domain.Sort.Direction;
 import org.springframework.data.jpa.repository.JpaRepository;
 
+import com.querydsl.core.types.Predicate;
+import com.querydsl.core.types.dsl.BooleanExpression;
+import com.querydsl.core.types.dsl.EntityPathBase;
+import com.querydsl.core.types.dsl.NumberPath;
+
 import aj.org.objectweb.asm.Type;
 
 /**
@@ -45,6 +64,18 @@ public abstract class AbstractSensorThingsEntityService<T extends JpaRepository<
 
     private T repository;
 
+    @Autowired
+    private ReadQueryExecutor readQueryExecutor;
+
+    @Autowired
+    private PageRequestCache pageRequestCache;
+
+    @Autowired
+    private RelationGraph relationGraph;
+
+    @Autowired
+    private ObservationArchive archive;
+
     public AbstractSensorThingsEntityService(T repository) {
         this.repository = repository;
     }
@@ -72,6 +103,32 @@ public abstract class AbstractSensorThingsEntityService<T extends JpaRepository<
     public abstract EntityCollection getRelatedEntityCollection(Long sourceId, EdmEntityType sourceEntityType,
             QueryOptions queryOptions);
 
+    /**
+     * Requests the IDs of the full EntityCollection without loading and
+     * mapping the entities, e.g. for references
+     *
+     * @param queryOptions
+     *            the {@link QueryOptions} of the request
+     * @return the IDs of the requested page
+     */
+    public abstract long[] getEntityCollectionIds(QueryOptions queryOptions);
+
+    /**
+     * Requests the IDs of the EntityCollection that is related to a single
+     * Entity with the given ID and type without loading and mapping the
+     * entities
+     *
+     * @param sourceId
+     *            the ID of the Entity the EntityCollection is related to
+     * @param sourceEntityType
+     *            EntityType of the related Entity
+     * @param queryOptions
+     *            the {@link QueryOptions} of the request
+     * @return the IDs of the requested page
+     */
+    public abstract long[] getRelatedEntityCollectionIds(Long sourceId, EdmEntityType sourceEntityType,
+            QueryOptions queryOptions);
+
     /**
      * Request the count for the EntityCollection that is related to a single
      * Entity with the given ID and type
@@ -192,6 +249,64 @@ public abstract class AbstractSensorThingsEntityService<T extends JpaRepository<
      */
     public abstract Entity getRelatedEntity(Long sourceId, EdmEntityType sourceEntityType, Long targetId);
 
+    /**
+     * Checks if the given properties of an Entity can be requested without
+     * loading and mapping the Entity
+     *
+     * @param propertyPaths
+     *            the paths of the properties, e.g.
+     *            <code>unitOfMeasurement/symbol</code>
+     * @return true if the properties can be requested by
+     *         {@link #getEntityPropertyValues(Long, List)}
+     */
+    public boolean supportsPropertyProjection(List<String> propertyPaths) {
+        PropertyProjection<?> projection = getPropertyProjection();
+        return projection != null && projection.supports(propertyPaths);
+    }
+
+    /**
+     * Requests the values of the given properties of the Entity with the
+     * given ID without loading and mapping the Entity
+     *
+     * @param id
+     *            the ID of the Entity
+     * @param propertyPaths
+     *            the paths of the properties, all have to be supported
+     * @return the values in the order of the paths or an empty
+     *         {@link Optional} if the Entity does not exist
+     */
+    public Optional<Object[]> getEntityPropertyValues(Long id, List<String> propertyPaths) {
+        return findProperties(id, null, propertyPaths);
+    }
+
+    /**
+     * Queries the values of the given properties of the Entity with the
+     * given ID if it matches the filter
+     *
+     * @param id
+     *            the ID of the Entity
+     * @param filter
+     *            the restriction of the Entity, may be <code>null</code>
+     * @param propertyPaths
+     *            the paths of the properties, all have to be supported
+     * @return the values in the order of the paths or an empty
+     *         {@link Optional} if the Entity does not match
+     */
+    protected Optional<Object[]> findProperties(Long id, Predicate filter, List<String> propertyPaths) {
+        return readQueryExecutor.findProperties(getPropertyProjection(), id, filter, propertyPaths);
+    }
+
+    /**
+     * Get the properties of the Entity that are read from a single database
+     * attribute
+     *
+     * @return the {@link PropertyProjection} or <code>null</code> if no
+     *         property can be requested without loading the Entity
+     */
+    protected PropertyProjection<?> getPropertyProjection() {
+        return null;
+    }
+
     /**
      * Get the {@link JpaRepository} for this
      * {@link AbstractSensorThingsEntityService}
@@ -214,13 +329,204 @@ public abstract class AbstractSensorThingsEntityService<T extends JpaRepository<
     }
 
     /**
-     * Create {@link PageRequest}
+     * Maps a database entity to an {@link Entity} and accounts the time as
+     * {@link PipelineStage#MAPPING}
+     *
+     * @param mapper
+     *            the mapper for the entity
+     * @param entity
+     *            the database entity
+     * @return the mapped {@link Entity}
+     */
+    protected <S> Entity mapEntity(AbstractMapper<S> mapper, S entity) {
+        PipelineMetrics.enter(PipelineStage.MAPPING);
+        try {
+            return mapper.createEntity(entity);
+        } finally {
+            PipelineMetrics.exit();
+        }
+    }
+
+    /**
+     * Queries the page of entities requested by the {@link QueryOptions} and
+     * fetches the associations of the {@link FetchPlan} read by the mapper
+     * with them.
+     *
+     * @param root
+     *            the QueryDSL path of the queried entity
+     * @param filter
+     *            the filter, may be <code>null</code>
+     * @param queryOptions
+     *            the {@link QueryOptions} of the request
+     * @param fetchPlan
+     *            the {@link FetchPlan} of the entity, may be <code>null</code>
+     * @return the entities of the requested page
+     */
+    protected <E> List<E> findAll(EntityPathBase<E> root, Predicate filter, QueryOptions queryOptions,
+            FetchPlan<E> fetchPlan) {
+        return readQueryExecutor.findAll(root, filter, createPageableRequest(queryOptions), fetchPlan);
+    }
+
+    /**
+     * Queries a page of entities without fetching associations
+     *
+     * @param root
+     *            the QueryDSL path of the queried entity
+     * @param filter
+     *            the filter, may be <code>null</code>
+     * @param pageable
+     *            the requested page
+     * @return the entities of the page
+     */
+    protected <E> List<E> findAll(EntityPathBase<E> root, Predicate filter, Pageable pageable) {
+        return readQueryExecutor.findAll(root, filter, pageable, null);
+    }
+
+    /**
+     * Queries the IDs of the page of entities requested by the
+     * {@link QueryOptions}
+     *
+     * @param root
+     *            the QueryDSL path of the queried entity
+     * @param filter
+     *            the filter, may be <code>null</code>
+     * @param queryOptions
+     *            the {@link QueryOptions} of the request
+     * @return the IDs of the requested page
+     */
+    protected <E> long[] findIds(EntityPathBase<E> root, Predicate filter, QueryOptions queryOptions) {
+        return readQueryExecutor.findIds(root, filter, createPageableRequest(queryOptions));
+    }
+
+    /**
+     * Get the precompiled {@link QueryTemplate} of the entities related to
+     * the source entity
+     *
+     * @param templates
+     *            the templates of the queried entity
+     * @param sourceEntityType
+     *            the type of the source entity
+     * @param targetId
+     *            the ID of the queried entity, may be <code>null</code>
+     * @return the template, taking the source ID and the target ID if given,
+     *         or <code>null</code> if the relation has no template
+     */
+    protected <E> QueryTemplate<E> getRelatedTemplate(QueryTemplates<E> templates, EdmEntityType sourceEntityType,
+            Long targetId) {
+        return templates.related(sourceEntityType.getFullQualifiedName().getFullQualifiedNameAsString(),
+                targetId != null);
+    }
+
+    /**
+     * Queries the single entity matching the precompiled
+     * {@link QueryTemplate}
+     *
+     * @param template
+     *            the template
+     * @param args
+     *            the IDs bound to the template
+     * @return the entity or an empty {@link Optional}
+     */
+    protected <E> Optional<E> findOne(QueryTemplate<E> template, Long... args) {
+        return readQueryExecutor.findOne(template, args);
+    }
+
+    /**
+     * Checks if an entity matches the precompiled {@link QueryTemplate}
+     *
+     * @param template
+     *            the template
+     * @param args
+     *            the IDs bound to the template
+     * @return true if an entity matches
+     */
+    protected boolean exists(QueryTemplate<?> template, Long... args) {
+        return readQueryExecutor.exists(template, args);
+    }
+
+    /**
+     * Counts the entities matching the precompiled {@link QueryTemplate}
+     *
+     * @param template
+     *            the template
+     * @param args
+     *            the IDs bound to the template
+     * @return the number of matching entities
+     */
+    protected long count(QueryTemplate<?> template, Long... args) {
+        return readQueryExecutor.count(template, args);
+    }
+
+    /**
+     * Resolves the IDs of the entities of the given type related to the
+     * source entity from the {@link RelationGraph}
+     *
+     * @param sourceId
+     *            the ID of the source entity
+     * @param sourceEntityType
+     *            the type of the source entity
+     * @param targetType
+     *            the type of the related entities
+     * @return the sorted IDs of the related entities or <code>null</code> if
+     *         the relation has to be queried
+     */
+    protected long[] getRelatedIds(Long sourceId, EdmEntityType sourceEntityType, FullQualifiedName targetType) {
+        return relationGraph.getRelatedIds(sourceId, sourceEntityType, targetType);
+    }
+
+    /**
+     * Restricts a query to the entities related to the source entity by their
+     * IDs from the {@link RelationGraph}, or by the given join if the graph
+     * can not answer
+     *
+     * @param sourceId
+     *            the ID of the source entity
+     * @param sourceEntityType
+     *            the type of the source entity
+     * @param targetType
+     *            the type of the queried entities
+     * @param path
+     *            the ID path of the queried entities
+     * @param join
+     *            supplies the join based filter
+     * @return the filter
+     */
+    protected BooleanExpression withRelated(Long sourceId, EdmEntityType sourceEntityType,
+            FullQualifiedName targetType, NumberPath<Long> path, Supplier<BooleanExpression> join) {
+        return relationGraph.withRelated(sourceId, sourceEntityType, targetType, path, join);
+    }
+
+    /**
+     * Resolves the Dataset of an Observation moved to the
+     * {@link ObservationArchive}, entities related to it have to be queried
+     * by the Dataset as the Observation is no longer in the table
+     *
+     * @param sourceId
+     *            the ID of the source entity
+     * @param sourceEntityType
+     *            the type of the source entity
+     * @return the ID of the Dataset or an empty {@link OptionalLong} if the
+     *         source entity is not an archived Observation
+     */
+    protected OptionalLong getArchivedDataset(Long sourceId, EdmEntityType sourceEntityType) {
+        return ET_OBSERVATION_FQN.equals(sourceEntityType.getFullQualifiedName())
+                ? archive.getDatasetId(sourceId)
+                : OptionalLong.empty();
+    }
+
+    /**
+     * Create {@link PageRequest}, repeated options are served from the
+     * {@link PageRequestCache}
      * 
      * @param queryOptions
      *            {@link QueryOptions} to create {@link PageRequest}
      * @return {@link PageRequest} of type {@link OffsetLimitBasedPageRequest}
      */
     protected OffsetLimitBasedPageRequest createPageableRequest(QueryOptions queryOptions) {
+        return pageRequestCache.get(this, queryOptions, this::buildPageableRequest);
+    }
+
+    private OffsetLimitBasedPageRequest buildPageableRequest(QueryOptions queryOptions) {
         int offset = queryOptions.hasSkipOption() ? queryOptions.getSkipOption().getValue() : 0;
         Sort sort = Sort.by(Direction.ASC, "id");
         if (queryOptions.hasOrderByOption()) {
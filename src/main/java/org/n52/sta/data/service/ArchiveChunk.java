@@ -0,0 +1,762 @@
+/*
+ * Copyright (C) 2012-2018 52°North Initiative for Geospatial Open Source
+ * Software GmbH
+ *
+ * This program is free software; you can redistribute it and/or modify it
+ * under the terms of the GNU General Public License version 2 as published
+ * by the Free Software Foundation.
+ *
+ * If the program is linked with libraries which are licensed under one of
+ * the following licenses, the combination of the program with the linked
+ * library is not considered a "derivative work" of the program:
+ *
+ *     - Apache License, version 2.0
+ *     - Apache Software License, version 1.0
+ *     - GNU Lesser General Public License, version 3
+ *     - Mozilla Public License, versions 1.0, 1.1 and 2.0
+ *     - Common Development and Distribution License (CDDL), version 1.0
+ *
+ * Therefore the distribution of the program linked with libraries licensed
+ * under the aforementioned licenses, is permitted by the copyright holders
+ * if the distribution is compliant with both the GNU General Public
+ * License version 2 and the aforementioned licenses.
+ *
+ * This program is distributed in the hope that it will be useful, but
+ * WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the GNU General
+ * Public License for more details.
+ */
+package org.n52.sta.data.service;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.LongBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.time.YearMonth;
+import java.util.Arrays;
+
+import org.n52.series.db.beans.DataEntity;
+import org.n52.series.db.beans.QDataEntity;
+import org.roaringbitmap.longlong.Roaring64NavigableMap;
+
+/**
+ * A compressed columnar file with the archived Observations of one Dataset
+ * in one month, ordered by phenomenonTime and id. The files are
+ * memory-mapped and decoded column by column.
+ * <p>
+ * After a header with the bounds of the columns follow the bit-packed
+ * columns:
+ * <ul>
+ * <li>the phenomenonTime, the resultTime as offset to the phenomenonTime, the
+ * id and the scale of the result as delta-of-delta values, i.e. one bit per
+ * row for regular intervals,</li>
+ * <li>the unscaled value of the result XORed with the previous value, i.e.
+ * one bit per repeated value and only the changed bits otherwise.</li>
+ * </ul>
+ * This is the compression of timestamps and values of the Gorilla time series
+ * database, applied to the exact decimal representation of the results.
+ * <p>
+ * The ids are kept in a compressed bitmap while the chunk is mapped, so that
+ * Observations are looked up by id without decoding the chunk.
+ * <p>
+ * A chunk may have a <code>.pending</code> file next to it with the ids of
+ * Observations that are still in the observation table, written before the
+ * archival deletes them there. If the deletion is not committed, the
+ * Observations stay pending and are excluded from the count, the lookups by
+ * id and the rows of the chunk until the next archival run confirms them.
+ *
+ * @since 1.0.0
+ */
+final class ArchiveChunk {
+
+    static final String SUFFIX = ".chunk";
+
+    static final String PENDING_SUFFIX = ".pending";
+
+    private static final int MAGIC = 0x53544143;
+
+    private static final byte VERSION = 1;
+
+    private static final int COLUMNS = 5;
+
+    private static final int HEADER_BYTES = Integer.BYTES + 1 + Long.BYTES + Integer.BYTES * 2 + Long.BYTES * 6
+            + Integer.BYTES * COLUMNS;
+
+    /**
+     * The sortable properties of archived Observations. A missing time is
+     * ordered after all others, as PostgreSQL orders <code>NULL</code>.
+     */
+    enum Key {
+        ID(QDataEntity.dataEntity.id),
+        PHENOMENON_TIME(QDataEntity.dataEntity.samplingTimeStart),
+        RESULT_TIME(QDataEntity.dataEntity.resultTime),
+        VALID_TIME(QDataEntity.dataEntity.validTimeStart);
+
+        private final String property;
+
+        Key(com.querydsl.core.types.Path<?> path) {
+            this.property = path.getMetadata().getName();
+        }
+
+        /**
+         * @param property
+         *            the sorted property of {@link DataEntity}
+         * @return the key or <code>null</code> if archived Observations can
+         *         not be ordered by the property
+         */
+        static Key of(String property) {
+            for (Key key : values()) {
+                if (key.property.equals(property)) {
+                    return key;
+                }
+            }
+            return null;
+        }
+
+        long of(DataEntity<?> observation) {
+            switch (this) {
+            case ID:
+                return observation.getId();
+            case PHENOMENON_TIME:
+                return observation.getSamplingTimeStart().getTime();
+            case RESULT_TIME:
+                return observation.getResultTime() != null ? observation.getResultTime().getTime() : Long.MAX_VALUE;
+            default:
+                return observation.getValidTimeStart() != null ? observation.getValidTimeStart().getTime()
+                        : Long.MAX_VALUE;
+            }
+        }
+
+        long of(Columns columns, int row) {
+            switch (this) {
+            case ID:
+                return columns.ids[row];
+            case PHENOMENON_TIME:
+                return columns.phenomenonTimes[row];
+            case RESULT_TIME:
+                return columns.resultTimes[row] != ObservationRingBuffer.NO_TIME ? columns.resultTimes[row]
+                        : Long.MAX_VALUE;
+            default:
+                return Long.MAX_VALUE;
+            }
+        }
+
+        long min(ArchiveChunk chunk) {
+            switch (this) {
+            case ID:
+                return chunk.minId;
+            case PHENOMENON_TIME:
+                return chunk.minPhenomenonTime;
+            case RESULT_TIME:
+                return chunk.minResultTime;
+            default:
+                return Long.MAX_VALUE;
+            }
+        }
+
+        long max(ArchiveChunk chunk) {
+            switch (this) {
+            case ID:
+                return chunk.maxId;
+            case PHENOMENON_TIME:
+                return chunk.maxPhenomenonTime;
+            case RESULT_TIME:
+                return chunk.maxResultTime;
+            default:
+                return Long.MAX_VALUE;
+            }
+        }
+    }
+
+    private final Path path;
+
+    private final long datasetId;
+
+    private final YearMonth month;
+
+    private final int count;
+
+    private final long minPhenomenonTime;
+
+    private final long maxPhenomenonTime;
+
+    private final long minResultTime;
+
+    private final long maxResultTime;
+
+    private final long minId;
+
+    private final long maxId;
+
+    private final int[] columnOffsets = new int[COLUMNS];
+
+    private final ByteBuffer memory;
+
+    private final Roaring64NavigableMap ids;
+
+    private final Roaring64NavigableMap pending;
+
+    private ArchiveChunk(Path path, ByteBuffer memory, long[] pendingIds) throws IOException {
+        this.path = path;
+        this.memory = memory;
+        if (memory.capacity() < HEADER_BYTES || memory.getInt(0) != MAGIC || memory.get(4) != VERSION) {
+            throw new IOException("Not an observation archive chunk: " + path);
+        }
+        int position = 5;
+        datasetId = memory.getLong(position);
+        position += Long.BYTES;
+        int months = memory.getInt(position);
+        month = YearMonth.of(months / 12, months % 12 + 1);
+        position += Integer.BYTES;
+        count = memory.getInt(position);
+        position += Integer.BYTES;
+        long[] bounds = new long[6];
+        for (int i = 0; i < bounds.length; i++) {
+            bounds[i] = memory.getLong(position);
+            position += Long.BYTES;
+        }
+        minPhenomenonTime = bounds[0];
+        maxPhenomenonTime = bounds[1];
+        minResultTime = bounds[2];
+        maxResultTime = bounds[3];
+        minId = bounds[4];
+        maxId = bounds[5];
+        int offset = HEADER_BYTES;
+        for (int i = 0; i < COLUMNS; i++) {
+            columnOffsets[i] = offset;
+            offset += memory.getInt(position);
+            position += Integer.BYTES;
+        }
+        if (offset > memory.capacity()) {
+            throw new IOException("Truncated observation archive chunk: " + path);
+        }
+        long[] decodedIds = new long[count];
+        decodeDeltaOfDelta(new BitInput(memory, columnOffsets[2]), decodedIds);
+        ids = Roaring64NavigableMap.bitmapOf(decodedIds);
+        ids.runOptimize();
+        pending = Roaring64NavigableMap.bitmapOf(pendingIds);
+        pending.and(ids);
+    }
+
+    /**
+     * Maps an archive file into memory together with its pending ids.
+     *
+     * @param path
+     *            the file
+     * @return the chunk
+     * @throws IOException
+     *             if the file can not be read or is no chunk
+     */
+    static ArchiveChunk open(Path path) throws IOException {
+        Path pendingPath = getPendingPath(path);
+        long[] pendingIds = new long[0];
+        if (Files.exists(pendingPath)) {
+            LongBuffer buffer = ByteBuffer.wrap(Files.readAllBytes(pendingPath)).asLongBuffer();
+            pendingIds = new long[buffer.remaining()];
+            buffer.get(pendingIds);
+        }
+        try (FileChannel channel = FileChannel.open(path, StandardOpenOption.READ)) {
+            return new ArchiveChunk(path, channel.map(FileChannel.MapMode.READ_ONLY, 0, channel.size()), pendingIds);
+        }
+    }
+
+    /**
+     * Writes the ids of Observations that are about to be deleted from the
+     * observation table.
+     *
+     * @param path
+     *            the chunk file
+     * @param ids
+     *            the ids
+     * @throws IOException
+     *             if the file can not be written
+     */
+    static void writePending(Path path, long[] ids) throws IOException {
+        ByteBuffer buffer = ByteBuffer.allocate(ids.length * Long.BYTES);
+        buffer.asLongBuffer().put(ids);
+        try (FileChannel channel = FileChannel.open(getPendingPath(path), StandardOpenOption.CREATE,
+                StandardOpenOption.WRITE, StandardOpenOption.TRUNCATE_EXISTING)) {
+            Writer.writeFully(channel, buffer);
+            channel.force(true);
+        }
+    }
+
+    /**
+     * @param path
+     *            the chunk file
+     * @return the file with the pending ids of the chunk
+     */
+    static Path getPendingPath(Path path) {
+        return path.resolveSibling(path.getFileName() + PENDING_SUFFIX);
+    }
+
+    Path getPath() {
+        return path;
+    }
+
+    long getDatasetId() {
+        return datasetId;
+    }
+
+    YearMonth getMonth() {
+        return month;
+    }
+
+    /**
+     * @return the number of Observations without the pending ones
+     */
+    int getCount() {
+        return count - (int) pending.getLongCardinality();
+    }
+
+    /**
+     * @return the ids of the Observations that may still be in the
+     *         observation table
+     */
+    long[] getPendingIds() {
+        return pending.toArray();
+    }
+
+    /**
+     * @param id
+     *            the id of an Observation of the chunk
+     * @return if the Observation may still be in the observation table
+     */
+    boolean isPending(long id) {
+        return pending.contains(id);
+    }
+
+    /**
+     * @param id
+     *            the id of an Observation
+     * @return if the id is within the ids of the chunk
+     */
+    boolean mayContain(long id) {
+        return count > 0 && id >= minId && id <= maxId;
+    }
+
+    /**
+     * @param id
+     *            the id of an Observation
+     * @return if the Observation is in the chunk and not pending
+     */
+    boolean contains(long id) {
+        return mayContain(id) && ids.contains(id) && !pending.contains(id);
+    }
+
+    /**
+     * Decodes all columns, including the rows of pending Observations.
+     *
+     * @return the columns
+     */
+    Columns decode() {
+        long[] phenomenonTimes = new long[count];
+        long[] resultTimes = new long[count];
+        long[] ids = new long[count];
+        long[] values = new long[count];
+        long[] scales = new long[count];
+        decodeDeltaOfDelta(new BitInput(memory, columnOffsets[0]), phenomenonTimes);
+        decodeDeltaOfDelta(new BitInput(memory, columnOffsets[1]), resultTimes);
+        for (int i = 0; i < count; i++) {
+            if (resultTimes[i] != ObservationRingBuffer.NO_TIME) {
+                resultTimes[i] += phenomenonTimes[i];
+            }
+        }
+        decodeDeltaOfDelta(new BitInput(memory, columnOffsets[2]), ids);
+        decodeXor(new BitInput(memory, columnOffsets[3]), values);
+        decodeDeltaOfDelta(new BitInput(memory, columnOffsets[4]), scales);
+        return new Columns(phenomenonTimes, resultTimes, ids, values, scales);
+    }
+
+    private static void decodeDeltaOfDelta(BitInput in, long[] values) {
+        if (values.length == 0) {
+            return;
+        }
+        long value = in.read(Long.SIZE);
+        long delta = 0;
+        values[0] = value;
+        for (int i = 1; i < values.length; i++) {
+            int prefix = 0;
+            while (prefix < 5 && in.read(1) == 1) {
+                prefix++;
+            }
+            switch (prefix) {
+            case 0:
+                break;
+            case 1:
+                delta += in.readSigned(7);
+                break;
+            case 2:
+                delta += in.readSigned(9);
+                break;
+            case 3:
+                delta += in.readSigned(12);
+                break;
+            case 4:
+                delta += in.readSigned(32);
+                break;
+            default:
+                delta += in.read(Long.SIZE);
+                break;
+            }
+            value += delta;
+            values[i] = value;
+        }
+    }
+
+    private static void decodeXor(BitInput in, long[] values) {
+        if (values.length == 0) {
+            return;
+        }
+        long value = in.read(Long.SIZE);
+        values[0] = value;
+        int leading = 0;
+        int trailing = 0;
+        for (int i = 1; i < values.length; i++) {
+            if (in.read(1) == 1) {
+                if (in.read(1) == 1) {
+                    leading = (int) in.read(6);
+                    trailing = Long.SIZE - leading - ((int) in.read(6) + 1);
+                }
+                value ^= in.read(Long.SIZE - leading - trailing) << trailing;
+            }
+            values[i] = value;
+        }
+    }
+
+    /**
+     * The decoded columns of a chunk.
+     */
+    static final class Columns {
+
+        private final long[] phenomenonTimes;
+
+        private final long[] resultTimes;
+
+        private final long[] ids;
+
+        private final long[] values;
+
+        private final long[] scales;
+
+        private Columns(long[] phenomenonTimes, long[] resultTimes, long[] ids, long[] values, long[] scales) {
+            this.phenomenonTimes = phenomenonTimes;
+            this.resultTimes = resultTimes;
+            this.ids = ids;
+            this.values = values;
+            this.scales = scales;
+        }
+
+        int size() {
+            return ids.length;
+        }
+
+        long getId(int row) {
+            return ids[row];
+        }
+
+        /**
+         * @return the row of the Observation or -1 if it is not in the chunk
+         */
+        int indexOf(long id) {
+            for (int row = 0; row < ids.length; row++) {
+                if (ids[row] == id) {
+                    return row;
+                }
+            }
+            return -1;
+        }
+
+        /**
+         * Compares the row to an Observation in the order of the chunk.
+         */
+        int compare(int row, long phenomenonTime, long id) {
+            int comparison = Long.compare(phenomenonTimes[row], phenomenonTime);
+            return comparison != 0 ? comparison : Long.compare(ids[row], id);
+        }
+
+        DataEntity<?> toObservation(int row) {
+            return ObservationRingBuffer.restore(ids[row], phenomenonTimes[row], resultTimes[row], values[row],
+                    (int) scales[row]);
+        }
+
+        void copyTo(Writer writer, int row) {
+            writer.add(phenomenonTimes[row], resultTimes[row], ids[row], values[row], (int) scales[row]);
+        }
+    }
+
+    /**
+     * Encodes the Observations of a chunk, they have to be added in the order
+     * of phenomenonTime and id.
+     */
+    static final class Writer {
+
+        private final long datasetId;
+
+        private final YearMonth month;
+
+        private final DeltaOfDeltaEncoder phenomenonTimes = new DeltaOfDeltaEncoder();
+
+        private final DeltaOfDeltaEncoder resultTimes = new DeltaOfDeltaEncoder();
+
+        private final DeltaOfDeltaEncoder ids = new DeltaOfDeltaEncoder();
+
+        private final XorEncoder values = new XorEncoder();
+
+        private final DeltaOfDeltaEncoder scales = new DeltaOfDeltaEncoder();
+
+        private int count;
+
+        private long minResultTime = Long.MAX_VALUE;
+
+        private long maxResultTime = Long.MIN_VALUE;
+
+        private long minId = Long.MAX_VALUE;
+
+        private long maxId = Long.MIN_VALUE;
+
+        private long minPhenomenonTime;
+
+        private long maxPhenomenonTime;
+
+        Writer(long datasetId, YearMonth month) {
+            this.datasetId = datasetId;
+            this.month = month;
+        }
+
+        void add(long phenomenonTime, long resultTime, long id, long unscaledValue, int scale) {
+            if (count == 0) {
+                minPhenomenonTime = phenomenonTime;
+            }
+            maxPhenomenonTime = phenomenonTime;
+            long sortedResultTime = resultTime != ObservationRingBuffer.NO_TIME ? resultTime : Long.MAX_VALUE;
+            minResultTime = Math.min(minResultTime, sortedResultTime);
+            maxResultTime = Math.max(maxResultTime, sortedResultTime);
+            minId = Math.min(minId, id);
+            maxId = Math.max(maxId, id);
+            phenomenonTimes.add(phenomenonTime);
+            resultTimes.add(resultTime != ObservationRingBuffer.NO_TIME ? resultTime - phenomenonTime : resultTime);
+            ids.add(id);
+            values.add(unscaledValue);
+            scales.add(scale);
+            count++;
+        }
+
+        int size() {
+            return count;
+        }
+
+        /**
+         * Writes the chunk file.
+         *
+         * @param path
+         *            the file, it is replaced if it exists
+         * @throws IOException
+         *             if the file can not be written
+         */
+        void write(Path path) throws IOException {
+            BitOutput[] columns = { phenomenonTimes.out, resultTimes.out, ids.out, values.out, scales.out };
+            ByteBuffer header = ByteBuffer.allocate(HEADER_BYTES);
+            header.putInt(MAGIC).put(VERSION).putLong(datasetId).putInt(month.getYear() * 12 + month.getMonthValue() - 1)
+                    .putInt(count)
+                    .putLong(minPhenomenonTime).putLong(maxPhenomenonTime)
+                    .putLong(minResultTime).putLong(maxResultTime)
+                    .putLong(minId).putLong(maxId);
+            for (BitOutput column : columns) {
+                header.putInt(column.getByteLength());
+            }
+            header.flip();
+            try (FileChannel channel = FileChannel.open(path, StandardOpenOption.CREATE, StandardOpenOption.WRITE,
+                    StandardOpenOption.TRUNCATE_EXISTING)) {
+                writeFully(channel, header);
+                for (BitOutput column : columns) {
+                    writeFully(channel, column.toByteBuffer());
+                }
+                channel.force(true);
+            }
+        }
+
+        private static void writeFully(FileChannel channel, ByteBuffer buffer) throws IOException {
+            while (buffer.hasRemaining()) {
+                channel.write(buffer);
+            }
+        }
+    }
+
+    /**
+     * Encodes the difference between consecutive deltas into buckets of 0,
+     * 7, 9, 12, 32 or 64 bits with a prefix of up to five bits.
+     */
+    private static final class DeltaOfDeltaEncoder {
+
+        private final BitOutput out = new BitOutput();
+
+        private boolean first = true;
+
+        private long previous;
+
+        private long previousDelta;
+
+        void add(long value) {
+            if (first) {
+                out.write(value, Long.SIZE);
+                first = false;
+            } else {
+                long delta = value - previous;
+                long deltaOfDelta = delta - previousDelta;
+                if (deltaOfDelta == 0) {
+                    out.write(0, 1);
+                } else if (fits(deltaOfDelta, 7)) {
+                    out.write(0b10, 2);
+                    out.write(deltaOfDelta, 7);
+                } else if (fits(deltaOfDelta, 9)) {
+                    out.write(0b110, 3);
+                    out.write(deltaOfDelta, 9);
+                } else if (fits(deltaOfDelta, 12)) {
+                    out.write(0b1110, 4);
+                    out.write(deltaOfDelta, 12);
+                } else if (fits(deltaOfDelta, 32)) {
+                    out.write(0b11110, 5);
+                    out.write(deltaOfDelta, 32);
+                } else {
+                    out.write(0b11111, 5);
+                    out.write(deltaOfDelta, Long.SIZE);
+                }
+                previousDelta = delta;
+            }
+            previous = value;
+        }
+
+        private static boolean fits(long value, int bits) {
+            long limit = 1L << (bits - 1);
+            return value >= -limit && value < limit;
+        }
+    }
+
+    /**
+     * Encodes a value as XOR with the previous one: a zero bit if it is
+     * unchanged, otherwise the changed bits within the window of leading and
+     * trailing zeros of the previous XOR or a new window.
+     */
+    private static final class XorEncoder {
+
+        private final BitOutput out = new BitOutput();
+
+        private boolean first = true;
+
+        private long previous;
+
+        private int leading = -1;
+
+        private int trailing;
+
+        void add(long value) {
+            if (first) {
+                out.write(value, Long.SIZE);
+                first = false;
+            } else {
+                long xor = value ^ previous;
+                if (xor == 0) {
+                    out.write(0, 1);
+                } else {
+                    int newLeading = Long.numberOfLeadingZeros(xor);
+                    int newTrailing = Long.numberOfTrailingZeros(xor);
+                    out.write(1, 1);
+                    if (leading >= 0 && newLeading >= leading && newTrailing >= trailing) {
+                        out.write(0, 1);
+                        out.write(xor >>> trailing, Long.SIZE - leading - trailing);
+                    } else {
+                        int meaningful = Long.SIZE - newLeading - newTrailing;
+                        out.write(1, 1);
+                        out.write(newLeading, 6);
+                        out.write(meaningful - 1, 6);
+                        out.write(xor >>> newTrailing, meaningful);
+                        leading = newLeading;
+                        trailing = newTrailing;
+                    }
+                }
+            }
+            previous = value;
+        }
+    }
+
+    /**
+     * Writes bits from the most significant bit on.
+     */
+    private static final class BitOutput {
+
+        private long[] words = new long[16];
+
+        private long length;
+
+        void write(long value, int bits) {
+            if (bits == 0) {
+                return;
+            }
+            long masked = bits == Long.SIZE ? value : value & ((1L << bits) - 1);
+            int index = (int) (length >>> 6);
+            if (index + 1 >= words.length) {
+                words = Arrays.copyOf(words, words.length * 2);
+            }
+            int free = Long.SIZE - (int) (length & 63);
+            if (bits <= free) {
+                words[index] |= masked << (free - bits);
+            } else {
+                words[index] |= masked >>> (bits - free);
+                words[index + 1] |= masked << (Long.SIZE - (bits - free));
+            }
+            length += bits;
+        }
+
+        int getByteLength() {
+            return (int) ((length + 7) >>> 3);
+        }
+
+        ByteBuffer toByteBuffer() {
+            ByteBuffer buffer = ByteBuffer.allocate(((int) (length >>> 6) + 1) * Long.BYTES);
+            buffer.asLongBuffer().put(words, 0, (int) (length >>> 6) + 1);
+            buffer.limit(getByteLength());
+            return buffer;
+        }
+    }
+
+    /**
+     * Reads bits from a position of a buffer on, without changing the buffer.
+     */
+    private static final class BitInput {
+
+        private final ByteBuffer buffer;
+
+        private final int offset;
+
+        private long position;
+
+        BitInput(ByteBuffer buffer, int offset) {
+            this.buffer = buffer;
+            this.offset = offset;
+        }
+
+        long read(int bits) {
+            long result = 0;
+            int remaining = bits;
+            while (remaining > 0) {
+                int bitOffset = (int) (position & 7);
+                int available = 8 - bitOffset;
+                int taken = Math.min(available, remaining);
+                int current = buffer.get(offset + (int) (position >>> 3)) & 0xFF;
+                result = (result << taken) | ((current >>> (available - taken)) & ((1 << taken) - 1));
+                position += taken;
+                remaining -= taken;
+            }
+            return result;
+        }
+
+        long readSigned(int bits) {
+            return (read(bits) << (Long.SIZE - bits)) >> (Long.SIZE - bits);
+        }
+    }
+
+}
@@ -0,0 +1,230 @@
+/*
+ * Copyright (C) 2012-2018 52°North Initiative for Geospatial Open Source
+ * Software GmbH
+ *
+ * This program is free software; you can redistribute it and/or modify it
+ * under the terms of the GNU General Public License version 2 as published
+ * by the Free Software Foundation.
+ *
+ * If the program is linked with libraries which are licensed under one of
+ * the following licenses, the combination of the program with the linked
+ * library is not considered a "derivative work" of the program:
+ *
+ *     - Apache License, version 2.0
+ *     - Apache Software License, version 1.0
+ *     - GNU Lesser General Public License, version 3
+ *     - Mozilla Public License, versions 1.0, 1.1 and 2.0
+ *     - Common Development and Distribution License (CDDL), version 1.0
+ *
+ * Therefore the distribution of the program linked with libraries licensed
+ * under the aforementioned licenses, is permitted by the copyright holders
+ * if the distribution is compliant with both the GNU General Public
+ * License version 2 and the aforementioned licenses.
+ *
+ * This program is distributed in the hope that it will be useful, but
+ * WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the GNU General
+ * Public License for more details.
+ */
+package org.n52.sta.data.service;
+
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.FutureTask;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.function.LongSupplier;
+import java.util.function.Supplier;
+
+import org.n52.sta.data.replica.ReplicaRoutingDataSource;
+import org.n52.sta.metrics.PipelineMetrics;
+import org.n52.sta.metrics.PipelineStage;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.beans.factory.DisposableBean;
+import org.springframework.beans.factory.InitializingBean;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.stereotype.Component;
+import org.springframework.transaction.PlatformTransactionManager;
+import org.springframework.transaction.support.TransactionTemplate;
+
+/**
+ * Runs the count queries of collection requests concurrently to the page
+ * query. Each count runs in its own read only transaction and therefore on a
+ * separate pooled connection.
+ * <p>
+ * At most <code>database.concurrent-count.max-concurrent</code> counts run at
+ * the same time. If no slot is free the count runs sequentially on the
+ * request thread, so a request never waits for another request's count.
+ * Every concurrent count needs a connection in addition to the one of its
+ * request, so the limit is capped to the connections left over by the
+ * requests (<code>spring.datasource.hikari.maximum-pool-size</code> minus
+ * <code>database.concurrent-count.request-concurrency</code>). A count that
+ * did not finish within <code>database.concurrent-count.timeout</code>
+ * milliseconds, e.g. because it still waits for a connection, is cancelled
+ * and run on the request's own connection instead.
+ * <p>
+ * A count submitted by work running on the primary database, see
+ * {@link ReplicaRoutingDataSource#onPrimary(Supplier)}, runs on the primary as
+ * well, so it counts the same rows as the page query.
+ *
+ * @since 1.0.0
+ */
+@Component
+public class CountExecutor implements InitializingBean, DisposableBean {
+
+    private static final Logger LOGGER = LoggerFactory.getLogger(CountExecutor.class);
+
+    @Value("${database.concurrent-count.enabled:false}")
+    private boolean enabled;
+
+    @Value("${database.concurrent-count.max-concurrent:4}")
+    private int maxConcurrent;
+
+    @Value("${database.concurrent-count.timeout:1000}")
+    private long timeout;
+
+    @Value("${spring.datasource.hikari.maximum-pool-size:10}")
+    private int poolSize;
+
+    @Value("${database.concurrent-count.request-concurrency:${server.tomcat.max-threads:200}}")
+    private int requestConcurrency;
+
+    @Autowired
+    private PlatformTransactionManager transactionManager;
+
+    private TransactionTemplate transaction;
+
+    private ExecutorService executor;
+
+    private Semaphore permits;
+
+    @Override
+    public void afterPropertiesSet() {
+        if (!enabled || maxConcurrent <= 0) {
+            return;
+        }
+        int concurrent = Math.min(maxConcurrent, poolSize - requestConcurrency);
+        if (concurrent <= 0) {
+            LOGGER.warn("Not running count queries concurrently: the {} requests may use all {} pooled connections",
+                    requestConcurrency, poolSize);
+            return;
+        }
+        transaction = new TransactionTemplate(transactionManager);
+        transaction.setReadOnly(true);
+        // abandoned counts must not hold their connection much longer than the request waits
+        transaction.setTimeout((int) Math.max(1, TimeUnit.MILLISECONDS.toSeconds(timeout * 2)));
+        permits = new Semaphore(concurrent);
+        AtomicInteger threads = new AtomicInteger();
+        executor = new ThreadPoolExecutor(concurrent, concurrent, 0L, TimeUnit.MILLISECONDS,
+                new LinkedBlockingQueue<>(), r -> {
+                    Thread thread = new Thread(r, "sta-count-" + threads.incrementAndGet());
+                    thread.setDaemon(true);
+                    return thread;
+                });
+        LOGGER.info("Running count queries concurrently with at most {} at a time", concurrent);
+    }
+
+    @Override
+    public void destroy() {
+        if (executor != null) {
+            executor.shutdownNow();
+        }
+    }
+
+    /**
+     * Starts the given count. It runs on a separate thread if concurrent
+     * counts are enabled and a slot is free, otherwise it runs when
+     * {@link PendingCount#get()} is called.
+     *
+     * @param count
+     *            the count query
+     * @return the pending count
+     */
+    public PendingCount submit(LongSupplier count) {
+        if (executor == null || !permits.tryAcquire()) {
+            return new PendingCount(null, count, 0L);
+        }
+        // the routing is bound to the submitting thread
+        boolean onPrimary = ReplicaRoutingDataSource.isOnPrimary();
+        FutureTask<long[]> future = new FutureTask<long[]>(() -> {
+            long start = System.nanoTime();
+            Supplier<Long> work = () -> transaction.execute(status -> count.getAsLong());
+            long value = onPrimary ? ReplicaRoutingDataSource.onPrimary(work) : work.get();
+            return new long[] { value, System.nanoTime() - start };
+        }) {
+
+            @Override
+            public void run() {
+                // a cancelled count still reaches the worker, which returns at once
+                try {
+                    super.run();
+                } finally {
+                    permits.release();
+                }
+            }
+        };
+        try {
+            executor.execute(future);
+            return new PendingCount(future, count, timeout);
+        } catch (RuntimeException e) {
+            permits.release();
+            throw e;
+        }
+    }
+
+    /**
+     * A count that is running or is run on demand
+     */
+    public static final class PendingCount {
+
+        private final FutureTask<long[]> future;
+
+        private final LongSupplier count;
+
+        private final long timeout;
+
+        private PendingCount(FutureTask<long[]> future, LongSupplier count, long timeout) {
+            this.future = future;
+            this.count = count;
+            this.timeout = timeout;
+        }
+
+        /**
+         * Waits for the count. If it did not finish in time it is cancelled and
+         * run on the calling thread. The time of the count query is accounted
+         * as {@link PipelineStage#COUNT}.
+         *
+         * @return the result of the count
+         */
+        public long get() {
+            if (future == null) {
+                return PipelineMetrics.time(PipelineStage.COUNT, count::getAsLong);
+            }
+            try {
+                long[] result = future.get(timeout, TimeUnit.MILLISECONDS);
+                PipelineMetrics.record(PipelineStage.COUNT, result[1]);
+                return result[0];
+            } catch (TimeoutException e) {
+                future.cancel(true);
+                LOGGER.debug("Count did not finish within {} ms, counting on the request thread", timeout);
+                return PipelineMetrics.time(PipelineStage.COUNT, count::getAsLong);
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+                future.cancel(true);
+                throw new IllegalStateException("Interrupted while waiting for the count", e);
+            } catch (ExecutionException e) {
+                if (e.getCause() instanceof RuntimeException) {
+                    throw (RuntimeException) e.getCause();
+                }
+                throw new IllegalStateException("Error while counting", e.getCause());
+            }
+        }
+    }
+
+}
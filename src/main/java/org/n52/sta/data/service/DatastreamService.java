@@ -28,6 +28,12 @@
  */
 package org.n52.sta.data.service;
 
+import static org.n52.sta.edm.provider.entities.AbstractSensorThingsEntityProvider.PROP_DESCRIPTION;
+import static org.n52.sta.edm.provider.entities.AbstractSensorThingsEntityProvider.PROP_NAME;
+import static org.n52.sta.edm.provider.entities.AbstractSensorThingsEntityProvider.PROP_OBSERVATION_TYPE;
+import static org.n52.sta.edm.provider.entities.AbstractSensorThingsEntityProvider.PROP_UOM;
+import static org.n52.sta.edm.provider.entities.DatastreamEntityProvider.ET_DATASTREAM_FQN;
+
 import java.util.Optional;
 import java.util.OptionalLong;
 
@@ -35,8 +41,14 @@ import org.apache.olingo.commons.api.data.Entity;
 import org.apache.olingo.commons.api.data.EntityCollection;
 import org.apache.olingo.commons.api.edm.EdmEntityType;
 import org.n52.series.db.beans.sta.DatastreamEntity;
+import org.n52.series.db.beans.sta.QDatastreamEntity;
 import org.n52.sta.data.query.DatastreamQuerySpecifications;
+import org.n52.sta.data.repositories.PropertyProjection;
+import org.n52.sta.data.repositories.FetchPlan;
 import org.n52.sta.data.repositories.DatastreamRepository;
+import org.n52.sta.data.repositories.QueryTemplate;
+import org.n52.sta.data.repositories.QueryTemplates;
+import org.n52.sta.edm.provider.complextypes.UnitOfMeasurementComplexType;
 import org.n52.sta.mapping.DatastreamMapper;
 import org.n52.sta.service.query.QueryOptions;
 import org.springframework.stereotype.Component;
@@ -54,6 +66,28 @@ public class DatastreamService extends AbstractSensorThingsEntityService<Datastr
 
     private final static DatastreamQuerySpecifications dQS = new DatastreamQuerySpecifications();
 
+    private static final FetchPlan<DatastreamEntity> FETCH_PLAN = FetchPlan.of(DatastreamEntity.class)
+            .fetch(PROP_OBSERVATION_TYPE, "observationType")
+            .fetch(PROP_UOM, "unitOfMeasurement");
+
+    private static final PropertyProjection<DatastreamEntity> PROPERTY_PROJECTION = PropertyProjection.of(QDatastreamEntity.datastreamEntity)
+            .column(PROP_NAME, "name")
+            .column(PROP_DESCRIPTION, "description")
+            .column(PROP_OBSERVATION_TYPE, "observationType.format")
+            .column(uomPath(UnitOfMeasurementComplexType.PROP_NAME), "unitOfMeasurement.name")
+            .column(uomPath(UnitOfMeasurementComplexType.PROP_SYMBOL), "unitOfMeasurement.symbol")
+            .column(uomPath(UnitOfMeasurementComplexType.PROP_DEFINITION), "unitOfMeasurement.link");
+
+    private static final QueryTemplates<DatastreamEntity> QUERY_TEMPLATES = QueryTemplates.of(QDatastreamEntity.datastreamEntity, dQS::matchesId)
+            .relation("iot.Thing", dQS::withThing)
+            .relation("iot.Sensor", dQS::withSensor)
+            .relation("iot.ObservedProperty", dQS::withObservedProperty)
+            .relation("iot.Observation", dQS::withObservation);
+
+    // relations of Observations moved to the ObservationArchive, bound to the ID of their Dataset
+    private static final QueryTemplates<DatastreamEntity> ARCHIVED_TEMPLATES = QueryTemplates.of(QDatastreamEntity.datastreamEntity, dQS::matchesId)
+            .relation("iot.Observation", dQS::withDataset);
+
     public DatastreamService(DatastreamRepository repository, DatastreamMapper mapper) {
         super(repository);
         this.mapper = mapper;
@@ -62,33 +96,50 @@ public class DatastreamService extends AbstractSensorThingsEntityService<Datastr
     @Override
     public EntityCollection getEntityCollection(QueryOptions queryOptions) {
         EntityCollection retEntitySet = new EntityCollection();
-        getRepository().findAll(createPageableRequest(queryOptions)).forEach(t -> retEntitySet.getEntities().add(mapper.createEntity(t)));
+        findAll(QDatastreamEntity.datastreamEntity, null, queryOptions, FETCH_PLAN).forEach(t -> retEntitySet.getEntities().add(mapEntity(mapper, t)));
         return retEntitySet;
     }
 
+    @Override
+    public long[] getEntityCollectionIds(QueryOptions queryOptions) {
+        return findIds(QDatastreamEntity.datastreamEntity, null, queryOptions);
+    }
+
     @Override
     public Entity getEntity(Long id) {
-        Optional<DatastreamEntity> entity = getRepository().findOne(byId(id));
-        return entity.isPresent() ? mapper.createEntity(entity.get()) : null;
+        Optional<DatastreamEntity> entity = findOne(QUERY_TEMPLATES.byId(), id);
+        return entity.isPresent() ? mapEntity(mapper, entity.get()) : null;
     }
 
     @Override
     public EntityCollection getRelatedEntityCollection(Long sourceId, EdmEntityType sourceEntityType, QueryOptions queryOptions) {
-        Iterable<DatastreamEntity> datastreams = getRepository().findAll(getFilter(sourceId, sourceEntityType), createPageableRequest(queryOptions));
+        Iterable<DatastreamEntity> datastreams = findAll(QDatastreamEntity.datastreamEntity, getFilter(sourceId, sourceEntityType), queryOptions, FETCH_PLAN);
 
         EntityCollection retEntitySet = new EntityCollection();
-        datastreams.forEach(t -> retEntitySet.getEntities().add(mapper.createEntity(t)));
+        datastreams.forEach(t -> retEntitySet.getEntities().add(mapEntity(mapper, t)));
         return retEntitySet;
     }
     
+    @Override
+    public long[] getRelatedEntityCollectionIds(Long sourceId, EdmEntityType sourceEntityType, QueryOptions queryOptions) {
+        return findIds(QDatastreamEntity.datastreamEntity, getFilter(sourceId, sourceEntityType), queryOptions);
+    }
+
     @Override
     public long getRelatedEntityCollectionCount(Long sourceId, EdmEntityType sourceEntityType) {
+        QueryTemplate<DatastreamEntity> template = getRelatedTemplate(QUERY_TEMPLATES, sourceEntityType, null);
+        if (template != null && getRelatedIds(sourceId, sourceEntityType, ET_DATASTREAM_FQN) == null) {
+            OptionalLong dataset = getArchivedDataset(sourceId, sourceEntityType);
+            return dataset.isPresent()
+                    ? count(getRelatedTemplate(ARCHIVED_TEMPLATES, sourceEntityType, null), dataset.getAsLong())
+                    : count(template, sourceId);
+        }
         return getRepository().count(getFilter(sourceId, sourceEntityType));
     }
     
     @Override
     public boolean existsEntity(Long id) {
-        return getRepository().exists(byId(id));
+        return exists(QUERY_TEMPLATES.byId(), id);
     }
 
     @Override
@@ -98,14 +149,18 @@ public class DatastreamService extends AbstractSensorThingsEntityService<Datastr
 
     @Override
     public boolean existsRelatedEntity(Long sourceId, EdmEntityType sourceEntityType, Long targetId) {
-        BooleanExpression filter = getFilter(sourceId, sourceEntityType);
-        if (filter == null) {
-            return false;
+        if (RelationGraph.isRelated(getRelatedIds(sourceId, sourceEntityType, ET_DATASTREAM_FQN), targetId)) {
+            return true;
         }
-        if (targetId != null) {
-            filter = filter.and(dQS.matchesId(targetId));
+        QueryTemplate<DatastreamEntity> template = getRelatedTemplate(QUERY_TEMPLATES, sourceEntityType, targetId);
+        if (template == null) {
+            return false;
+        } else if (exists(template, sourceId, targetId)) {
+            return true;
         }
-        return getRepository().exists(filter);
+        OptionalLong dataset = getArchivedDataset(sourceId, sourceEntityType);
+        return dataset.isPresent() && exists(getRelatedTemplate(ARCHIVED_TEMPLATES, sourceEntityType, targetId),
+                dataset.getAsLong(), targetId);
     }
 
     @Override
@@ -115,6 +170,10 @@ public class DatastreamService extends AbstractSensorThingsEntityService<Datastr
 
     @Override
     public OptionalLong getIdForRelatedEntity(Long sourceId, EdmEntityType sourceEntityType, Long targetId) {
+        OptionalLong related = RelationGraph.getRelatedId(getRelatedIds(sourceId, sourceEntityType, ET_DATASTREAM_FQN), targetId);
+        if (related.isPresent()) {
+            return related;
+        }
         Optional<DatastreamEntity> thing = this.getRelatedEntityRaw(sourceId, sourceEntityType, targetId);
         if (thing.isPresent()) {
             return OptionalLong.of(thing.get().getId());
@@ -132,7 +191,7 @@ public class DatastreamService extends AbstractSensorThingsEntityService<Datastr
     public Entity getRelatedEntity(Long sourceId, EdmEntityType sourceEntityType, Long targetId) {
         Optional<DatastreamEntity> thing = this.getRelatedEntityRaw(sourceId, sourceEntityType, targetId);
         if (thing.isPresent()) {
-            return mapper.createEntity(thing.get());
+            return mapEntity(mapper, thing.get());
         } else {
             return null;
         }
@@ -153,6 +212,7 @@ public class DatastreamService extends AbstractSensorThingsEntityService<Datastr
     /**
      * Retrieves Datastream Entity with Relation to sourceEntity from Database.
      * Returns empty if Entity is not found or Entities are not related.
+     * Archived Observations are related by their Dataset.
      * 
      * @param sourceId Id of the Source Entity
      * @param sourceEntityType Type of the Source Entity
@@ -160,15 +220,17 @@ public class DatastreamService extends AbstractSensorThingsEntityService<Datastr
      * @return Optional<DatastreamEntity> Requested Entity
      */
     private Optional<DatastreamEntity> getRelatedEntityRaw(Long sourceId, EdmEntityType sourceEntityType, Long targetId) {
-        BooleanExpression filter = getFilter(sourceId, sourceEntityType);
-        if (filter == null) {
+        QueryTemplate<DatastreamEntity> template = getRelatedTemplate(QUERY_TEMPLATES, sourceEntityType, targetId);
+        if (template == null) {
             return Optional.empty();
         }
-
-        if (targetId != null) {
-            filter = filter.and(dQS.matchesId(targetId));
-        }
-        return getRepository().findOne(filter);
+        Optional<DatastreamEntity> datastream = findOne(template, sourceId, targetId);
+        OptionalLong dataset = datastream.isPresent()
+                ? OptionalLong.empty()
+                : getArchivedDataset(sourceId, sourceEntityType);
+        return dataset.isPresent()
+                ? findOne(getRelatedTemplate(ARCHIVED_TEMPLATES, sourceEntityType, targetId), dataset.getAsLong(), targetId)
+                : datastream;
     }
 
     /**
@@ -179,6 +241,11 @@ public class DatastreamService extends AbstractSensorThingsEntityService<Datastr
      * @return BooleanExpression Filter
      */
     private BooleanExpression getFilter(Long sourceId, EdmEntityType sourceEntityType) {
+        return withRelated(sourceId, sourceEntityType, ET_DATASTREAM_FQN, QDatastreamEntity.datastreamEntity.id,
+                () -> getJoinFilter(sourceId, sourceEntityType));
+    }
+
+    private BooleanExpression getJoinFilter(Long sourceId, EdmEntityType sourceEntityType) {
         BooleanExpression filter;
         switch(sourceEntityType.getFullQualifiedName().getFullQualifiedNameAsString()) {
         case "iot.Thing": {
@@ -194,7 +261,8 @@ public class DatastreamService extends AbstractSensorThingsEntityService<Datastr
             break;
         }
         case "iot.Observation": {
-            filter = dQS.withObservation(sourceId);
+            OptionalLong dataset = getArchivedDataset(sourceId, sourceEntityType);
+            filter = dataset.isPresent() ? dQS.withDataset(dataset.getAsLong()) : dQS.withObservation(sourceId);
             break;
         }
         default: return null;
@@ -202,13 +270,12 @@ public class DatastreamService extends AbstractSensorThingsEntityService<Datastr
         return filter;
     }
 
-    /**
-     * Constructs SQL Expression to request Entity by ID.
-     * 
-     * @param id id of the requested entity
-     * @return BooleanExpression evaluating to true if Entity is found and valid
-     */
-    private BooleanExpression byId(Long id) {
-        return dQS.matchesId(id);
+    @Override
+    protected PropertyProjection<?> getPropertyProjection() {
+        return PROPERTY_PROJECTION;
+    }
+
+    private static String uomPath(String property) {
+        return String.join(PropertyProjection.PATH_SEPARATOR, PROP_UOM, property);
     }
 }
@@ -36,9 +36,13 @@ import org.apache.olingo.commons.api.data.EntityCollection;
 import org.apache.olingo.commons.api.edm.EdmEntityType;
 import org.n52.series.db.FeatureRepository;
 import org.n52.series.db.beans.FeatureEntity;
+import org.n52.series.db.beans.QFeatureEntity;
 import org.n52.sta.data.query.FeatureOfInterestQuerySpecifications;
+import org.n52.sta.data.repositories.QueryTemplate;
+import org.n52.sta.data.repositories.QueryTemplates;
 import org.n52.sta.mapping.FeatureOfInterestMapper;
 import org.n52.sta.service.query.QueryOptions;
+import org.springframework.beans.factory.annotation.Autowired;
 import org.springframework.stereotype.Component;
 
 import com.querydsl.core.types.dsl.BooleanExpression;
@@ -56,6 +60,19 @@ public class FeatureOfInterestService extends AbstractSensorThingsEntityService<
 
     private final static FeatureOfInterestQuerySpecifications foiQS = new FeatureOfInterestQuerySpecifications();
 
+    private static final QueryTemplates<FeatureEntity> QUERY_TEMPLATES = QueryTemplates.of(QFeatureEntity.featureEntity, foiQS::withId)
+            .relation("iot.Observation", foiQS::withObservation);
+
+    // relations of Observations moved to the ObservationArchive, bound to the ID of their Dataset
+    private static final QueryTemplates<FeatureEntity> ARCHIVED_TEMPLATES = QueryTemplates.of(QFeatureEntity.featureEntity, foiQS::withId)
+            .relation("iot.Observation", foiQS::withDataset);
+
+    private static final QueryTemplate<FeatureEntity> VALID_BY_ID = QueryTemplate.of(QFeatureEntity.featureEntity,
+            (Long id) -> foiQS.withId(id).and(foiQS.isValidEntity()));
+
+    @Autowired
+    private ValidityIndex validityIndex;
+
     public FeatureOfInterestService(FeatureRepository repository, FeatureOfInterestMapper mapper) {
         super(repository);
         this.mapper = mapper;
@@ -64,15 +81,20 @@ public class FeatureOfInterestService extends AbstractSensorThingsEntityService<
     @Override
     public EntityCollection getEntityCollection(QueryOptions queryOptions) {
         EntityCollection retEntitySet = new EntityCollection();
-        getRepository().findAll(foiQS.isValidEntity(), createPageableRequest(queryOptions))
-                .forEach(t -> retEntitySet.getEntities().add(mapper.createEntity(t)));
+        findAll(QFeatureEntity.featureEntity, validEntities(), queryOptions, null)
+                .forEach(t -> retEntitySet.getEntities().add(mapEntity(mapper, t)));
         return retEntitySet;
     }
 
+    @Override
+    public long[] getEntityCollectionIds(QueryOptions queryOptions) {
+        return findIds(QFeatureEntity.featureEntity, validEntities(), queryOptions);
+    }
+
     @Override
     public Entity getEntity(Long id) {
-        Optional<FeatureEntity> entity = getRepository().findOne(byId(id));
-        return entity.isPresent() ? mapper.createEntity(entity.get()) : null;
+        Optional<FeatureEntity> entity = findOne(byId(id), id);
+        return entity.isPresent() ? mapEntity(mapper, entity.get()) : null;
     }
 
     @Override
@@ -80,9 +102,14 @@ public class FeatureOfInterestService extends AbstractSensorThingsEntityService<
         return null;
     }
 
+    @Override
+    public long[] getRelatedEntityCollectionIds(Long sourceId, EdmEntityType sourceEntityType, QueryOptions queryOptions) {
+        return new long[0];
+    }
+
     @Override
     public boolean existsEntity(Long id) {
-        return getRepository().exists(byId(id));
+        return exists(byId(id), id);
     }
 
     @Override
@@ -92,16 +119,15 @@ public class FeatureOfInterestService extends AbstractSensorThingsEntityService<
 
     @Override
     public boolean existsRelatedEntity(Long sourceId, EdmEntityType sourceEntityType, Long targetId) {
-        switch(sourceEntityType.getFullQualifiedName().getFullQualifiedNameAsString()) {
-        case "iot.Observation": {
-            BooleanExpression filter = foiQS.withObservation(sourceId);
-            if (targetId != null) {
-                filter = filter.and(foiQS.withId(targetId));
-            }
-            return getRepository().exists(filter);
-        }
-        default: return false;
+        QueryTemplate<FeatureEntity> template = getRelatedTemplate(QUERY_TEMPLATES, sourceEntityType, targetId);
+        if (template == null) {
+            return false;
+        } else if (exists(template, sourceId, targetId)) {
+            return true;
         }
+        OptionalLong dataset = getArchivedDataset(sourceId, sourceEntityType);
+        return dataset.isPresent() && exists(getRelatedTemplate(ARCHIVED_TEMPLATES, sourceEntityType, targetId),
+                dataset.getAsLong(), targetId);
     }
 
     @Override
@@ -128,7 +154,7 @@ public class FeatureOfInterestService extends AbstractSensorThingsEntityService<
     public Entity getRelatedEntity(Long sourceId, EdmEntityType sourceEntityType, Long targetId) {
         Optional<FeatureEntity> feature = this.getRelatedEntityRaw(sourceId, sourceEntityType, targetId);
         if (feature.isPresent()) {
-            return mapper.createEntity(feature.get());
+            return mapEntity(mapper, feature.get());
         } else {
             return null;
         }
@@ -137,6 +163,7 @@ public class FeatureOfInterestService extends AbstractSensorThingsEntityService<
     /**
      * Retrieves FeatureOfInterest Entity (aka Feature Entity) with Relation to sourceEntity from Database.
      * Returns empty if Feature is not found or Entities are not related.
+     * Archived Observations are related by their Dataset.
      * 
      * @param sourceId Id of the Source Entity
      * @param sourceEntityType Type of the Source Entity
@@ -144,28 +171,36 @@ public class FeatureOfInterestService extends AbstractSensorThingsEntityService<
      * @return Optional<FeatureEntity> Requested Entity
      */
     private Optional<FeatureEntity> getRelatedEntityRaw(Long sourceId, EdmEntityType sourceEntityType, Long targetId) {
-        BooleanExpression filter;
-        switch(sourceEntityType.getFullQualifiedName().getFullQualifiedNameAsString()) {
-        case "iot.Observation": {
-            filter = foiQS.withObservation(sourceId);
-            break;
-        }
-        default: return Optional.empty();
+        QueryTemplate<FeatureEntity> template = getRelatedTemplate(QUERY_TEMPLATES, sourceEntityType, targetId);
+        if (template == null) {
+            return Optional.empty();
         }
-
-        if (targetId != null) {
-            filter = filter.and(foiQS.withId(targetId));
-        }
-        return getRepository().findOne(filter);
+        Optional<FeatureEntity> feature = findOne(template, sourceId, targetId);
+        OptionalLong dataset = feature.isPresent()
+                ? OptionalLong.empty()
+                : getArchivedDataset(sourceId, sourceEntityType);
+        return dataset.isPresent()
+                ? findOne(getRelatedTemplate(ARCHIVED_TEMPLATES, sourceEntityType, targetId), dataset.getAsLong(), targetId)
+                : feature;
     }
 
     /**
-     * Constructs SQL Expression to request Entity by ID.
+     * Selects the template to request Entity by ID, the validity is only
+     * queried if the {@link ValidityIndex} does not know the Entity to be valid.
      * 
      * @param id id of the requested entity
-     * @return BooleanExpression evaluating to true if Entity is found and valid
+     * @return QueryTemplate finding the Entity if it is valid
+     */
+    private QueryTemplate<FeatureEntity> byId(Long id) {
+        return validityIndex.isValid(ValidityIndex.Kind.FEATURE, id) ? QUERY_TEMPLATES.byId() : VALID_BY_ID;
+    }
+
+    /**
+     * Constructs SQL Expression to restrict a request to valid Entities.
+     * 
+     * @return BooleanExpression evaluating to true if Entity is valid
      */
-    private BooleanExpression byId(Long id) {
-        return foiQS.isValidEntity().and(foiQS.withId(id));
+    private BooleanExpression validEntities() {
+        return validityIndex.validEntities(ValidityIndex.Kind.FEATURE, QFeatureEntity.featureEntity.id, foiQS::isValidEntity);
     }
 }
@@ -28,6 +28,8 @@
  */
 package org.n52.sta.data.service;
 
+import static org.n52.sta.edm.provider.entities.HistoricalLocationEntityProvider.ET_HISTORICAL_LOCATION_FQN;
+
 import java.util.Optional;
 import java.util.OptionalLong;
 
@@ -35,8 +37,11 @@ import org.apache.olingo.commons.api.data.Entity;
 import org.apache.olingo.commons.api.data.EntityCollection;
 import org.apache.olingo.commons.api.edm.EdmEntityType;
 import org.n52.series.db.beans.sta.HistoricalLocationEntity;
+import org.n52.series.db.beans.sta.QHistoricalLocationEntity;
 import org.n52.sta.data.query.HistoricalLocationQuerySpecifications;
 import org.n52.sta.data.repositories.HistoricalLocationRepository;
+import org.n52.sta.data.repositories.QueryTemplate;
+import org.n52.sta.data.repositories.QueryTemplates;
 import org.n52.sta.mapping.HistoricalLocationMapper;
 import org.n52.sta.service.query.QueryOptions;
 import org.springframework.stereotype.Component;
@@ -52,7 +57,11 @@ public class HistoricalLocationService extends AbstractSensorThingsEntityService
 
     private HistoricalLocationMapper mapper;
 
-    private HistoricalLocationQuerySpecifications hlQS = new HistoricalLocationQuerySpecifications();
+    private final static HistoricalLocationQuerySpecifications hlQS = new HistoricalLocationQuerySpecifications();
+
+    private static final QueryTemplates<HistoricalLocationEntity> QUERY_TEMPLATES = QueryTemplates.of(QHistoricalLocationEntity.historicalLocationEntity, hlQS::withId)
+            .relation("iot.Location", hlQS::withRelatedLocation)
+            .relation("iot.Thing", hlQS::withRelatedThing);
 
     public HistoricalLocationService(HistoricalLocationRepository repository, HistoricalLocationMapper mapper) {
         super(repository);
@@ -62,33 +71,53 @@ public class HistoricalLocationService extends AbstractSensorThingsEntityService
     @Override
     public EntityCollection getEntityCollection(QueryOptions queryOptions) {
         EntityCollection retEntitySet = new EntityCollection();
-        getRepository().findAll(createPageableRequest(queryOptions)).forEach(t -> retEntitySet.getEntities().add(mapper.createEntity(t)));
+        findAll(QHistoricalLocationEntity.historicalLocationEntity, null, queryOptions, null).forEach(t -> retEntitySet.getEntities().add(mapEntity(mapper, t)));
         return retEntitySet;
     }
 
+    @Override
+    public long[] getEntityCollectionIds(QueryOptions queryOptions) {
+        return findIds(QHistoricalLocationEntity.historicalLocationEntity, null, queryOptions);
+    }
+
     @Override
     public Entity getEntity(Long id) {
-        Optional<HistoricalLocationEntity> entity = getRepository().findOne(byId(id));
-        return entity.isPresent() ? mapper.createEntity(entity.get()) : null;
+        Optional<HistoricalLocationEntity> entity = findOne(QUERY_TEMPLATES.byId(), id);
+        return entity.isPresent() ? mapEntity(mapper, entity.get()) : null;
     }
 
     @Override
     public EntityCollection getRelatedEntityCollection(Long sourceId, EdmEntityType sourceEntityType, QueryOptions queryOptions) {
         BooleanExpression filter = getFilter(sourceId, sourceEntityType);
 
-        Iterable<HistoricalLocationEntity> locations = getRepository().findAll(filter, createPageableRequest(queryOptions));
+        Iterable<HistoricalLocationEntity> locations = findAll(QHistoricalLocationEntity.historicalLocationEntity, filter, queryOptions, null);
         EntityCollection retEntitySet = new EntityCollection();
-        locations.forEach(t -> retEntitySet.getEntities().add(mapper.createEntity(t)));
+        locations.forEach(t -> retEntitySet.getEntities().add(mapEntity(mapper, t)));
         return retEntitySet;
     }
     
+    @Override
+    public long[] getRelatedEntityCollectionIds(Long sourceId, EdmEntityType sourceEntityType, QueryOptions queryOptions) {
+        return findIds(QHistoricalLocationEntity.historicalLocationEntity, getFilter(sourceId, sourceEntityType), queryOptions);
+    }
+
     @Override
     public long getRelatedEntityCollectionCount(Long sourceId, EdmEntityType sourceEntityType) {
+        QueryTemplate<HistoricalLocationEntity> template = getRelatedTemplate(QUERY_TEMPLATES, sourceEntityType, null);
+        if (template != null && getRelatedIds(sourceId, sourceEntityType, ET_HISTORICAL_LOCATION_FQN) == null) {
+            return count(template, sourceId);
+        }
         BooleanExpression filter = getFilter(sourceId, sourceEntityType);
         return getRepository().count(filter);
     }
 
     public BooleanExpression getFilter(Long sourceId, EdmEntityType sourceEntityType) {
+        return withRelated(sourceId, sourceEntityType, ET_HISTORICAL_LOCATION_FQN,
+                QHistoricalLocationEntity.historicalLocationEntity.id,
+                () -> getJoinFilter(sourceId, sourceEntityType));
+    }
+
+    private BooleanExpression getJoinFilter(Long sourceId, EdmEntityType sourceEntityType) {
         BooleanExpression filter;
         switch (sourceEntityType.getFullQualifiedName().getFullQualifiedNameAsString()) {
         case "iot.Location": {
@@ -107,7 +136,7 @@ public class HistoricalLocationService extends AbstractSensorThingsEntityService
 
     @Override
     public boolean existsEntity(Long id) {
-        return getRepository().exists(byId(id));
+        return exists(QUERY_TEMPLATES.byId(), id);
     }
 
     @Override
@@ -117,23 +146,11 @@ public class HistoricalLocationService extends AbstractSensorThingsEntityService
 
     @Override
     public boolean existsRelatedEntity(Long sourceId, EdmEntityType sourceEntityType, Long targetId) {
-        BooleanExpression filter;
-        switch(sourceEntityType.getFullQualifiedName().getFullQualifiedNameAsString()) {
-        case "iot.Location": {
-            filter = hlQS.withRelatedLocation(sourceId);
-            break;
-        }
-        case "iot.Thing": {
-            filter = hlQS.withRelatedThing(sourceId);
-            break;
-        }
-
-        default: return false;
-        }
-        if (targetId != null) {
-            filter = filter.and(hlQS.withId(targetId));
+        if (RelationGraph.isRelated(getRelatedIds(sourceId, sourceEntityType, ET_HISTORICAL_LOCATION_FQN), targetId)) {
+            return true;
         }
-        return getRepository().exists(filter);
+        QueryTemplate<HistoricalLocationEntity> template = getRelatedTemplate(QUERY_TEMPLATES, sourceEntityType, targetId);
+        return template != null && exists(template, sourceId, targetId);
     }
 
     @Override
@@ -143,6 +160,10 @@ public class HistoricalLocationService extends AbstractSensorThingsEntityService
 
     @Override
     public OptionalLong getIdForRelatedEntity(Long sourceId, EdmEntityType sourceEntityType, Long targetId) {
+        OptionalLong related = RelationGraph.getRelatedId(getRelatedIds(sourceId, sourceEntityType, ET_HISTORICAL_LOCATION_FQN), targetId);
+        if (related.isPresent()) {
+            return related;
+        }
         Optional<HistoricalLocationEntity> historicalLocation = this.getRelatedEntityRaw(sourceId, sourceEntityType, targetId);
         if (historicalLocation.isPresent()) {
             return OptionalLong.of(historicalLocation.get().getId());
@@ -160,7 +181,7 @@ public class HistoricalLocationService extends AbstractSensorThingsEntityService
     public Entity getRelatedEntity(Long sourceId, EdmEntityType sourceEntityType, Long targetId) {
         Optional<HistoricalLocationEntity> location = this.getRelatedEntityRaw(sourceId, sourceEntityType, targetId);
         if (location.isPresent()) {
-            return mapper.createEntity(location.get());
+            return mapEntity(mapper, location.get());
         } else {
             return null;
         }
@@ -176,32 +197,7 @@ public class HistoricalLocationService extends AbstractSensorThingsEntityService
      * @return Optional<HistoricalLocationEntity> Requested Entity
      */
     private Optional<HistoricalLocationEntity> getRelatedEntityRaw(Long sourceId, EdmEntityType sourceEntityType, Long targetId) {
-        BooleanExpression filter;
-        switch(sourceEntityType.getFullQualifiedName().getFullQualifiedNameAsString()) {
-        case "iot.Location": {
-            filter = hlQS.withRelatedLocation(sourceId);
-            break;
-        }
-        case "iot.Thing": {
-            filter = hlQS.withRelatedThing(sourceId);
-            break;
-        }
-        default: return Optional.empty();
-        }
-
-        if (targetId != null) {
-            filter = filter.and(hlQS.withId(targetId));
-        }
-        return getRepository().findOne(filter);
-    }
-
-    /**
-     * Constructs SQL Expression to request Entity by ID.
-     * 
-     * @param id id of the requested entity
-     * @return BooleanExpression evaluating to true if Entity is found and valid
-     */
-    private BooleanExpression byId(Long id) {
-        return hlQS.withId(id);
+        QueryTemplate<HistoricalLocationEntity> template = getRelatedTemplate(QUERY_TEMPLATES, sourceEntityType, targetId);
+        return template != null ? findOne(template, sourceId, targetId) : Optional.empty();
     }
 }
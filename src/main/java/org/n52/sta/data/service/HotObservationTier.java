@@ -0,0 +1,544 @@
+/*
+ * Copyright (C) 2012-2018 52°North Initiative for Geospatial Open Source
+ * Software GmbH
+ *
+ * This program is free software; you can redistribute it and/or modify it
+ * under the terms of the GNU General Public License version 2 as published
+ * by the Free Software Foundation.
+ *
+ * If the program is linked with libraries which are licensed under one of
+ * the following licenses, the combination of the program with the linked
+ * library is not considered a "derivative work" of the program:
+ *
+ *     - Apache License, version 2.0
+ *     - Apache Software License, version 1.0
+ *     - GNU Lesser General Public License, version 3
+ *     - Mozilla Public License, versions 1.0, 1.1 and 2.0
+ *     - Common Development and Distribution License (CDDL), version 1.0
+ *
+ * Therefore the distribution of the program linked with libraries licensed
+ * under the aforementioned licenses, is permitted by the copyright holders
+ * if the distribution is compliant with both the GNU General Public
+ * License version 2 and the aforementioned licenses.
+ *
+ * This program is distributed in the hope that it will be useful, but
+ * WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the GNU General
+ * Public License for more details.
+ */
+package org.n52.sta.data.service;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ScheduledThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicLong;
+
+import javax.persistence.EntityManager;
+import javax.persistence.PersistenceContext;
+
+import org.hibernate.annotations.QueryHints;
+import org.n52.series.db.beans.DataEntity;
+import org.n52.series.db.beans.QDataEntity;
+import org.n52.series.db.beans.QDatasetEntity;
+import org.n52.series.db.beans.sta.QDatastreamEntity;
+import org.n52.sta.data.query.ObservationQuerySpecifications;
+import org.n52.sta.data.service.ObservationRingBuffer.Append;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.beans.factory.DisposableBean;
+import org.springframework.beans.factory.InitializingBean;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.context.event.ContextRefreshedEvent;
+import org.springframework.context.event.EventListener;
+import org.springframework.data.domain.Pageable;
+import org.springframework.data.domain.Sort;
+import org.springframework.stereotype.Component;
+import org.springframework.transaction.PlatformTransactionManager;
+import org.springframework.transaction.event.TransactionalEventListener;
+import org.springframework.transaction.support.TransactionTemplate;
+
+import com.querydsl.core.Tuple;
+import com.querydsl.jpa.impl.JPAQuery;
+
+import io.micrometer.core.instrument.Counter;
+import io.micrometer.core.instrument.Gauge;
+import io.micrometer.core.instrument.MeterRegistry;
+
+/**
+ * Keeps the newest Observations of the recently read Datastreams in
+ * {@link ObservationRingBuffer}s, so that pages of
+ * <code>/Datastreams(x)/Observations</code> ordered by phenomenonTime are
+ * served from memory without a query.
+ * <p>
+ * The buffer of a Datastream is loaded in the background when its
+ * Observations are first read, with the newest
+ * <code>database.hot-tier.capacity</code> Observations within
+ * <code>database.hot-tier.retention</code> milliseconds of the newest one.
+ * Observations created through the API are appended after the commit, those
+ * inserted by other applications are tailed from the observation table every
+ * <code>database.hot-tier.tail-interval</code> milliseconds by their ids. The
+ * last <code>database.hot-tier.tail-window</code> ids are read again on every
+ * tail, so that Observations committed after ones with larger ids are not
+ * missed. Buffers are loaded again every
+ * <code>database.hot-tier.reload-interval</code> milliseconds to pick up
+ * Observations committed later than that and Observations updated or deleted
+ * by other applications, buffers not read since are dropped instead.
+ * <p>
+ * A page ordered by descending phenomenonTime is served if the buffer holds
+ * it completely, ascending pages and the count only if the buffer holds all
+ * Observations of the Datastream, none of them archived by the
+ * {@link ObservationArchive}. All buffers together use at most
+ * <code>database.hot-tier.max-memory</code> bytes, the least recently read
+ * ones are dropped to load or grow others. An Observation that can not be
+ * buffered (see {@link ObservationRingBuffer#isSupported(DataEntity)})
+ * empties the buffer of its Datastream, an Observation older than the
+ * buffered ones drops it.
+ *
+ * @since 1.0.0
+ */
+@Component
+public class HotObservationTier implements InitializingBean, DisposableBean {
+
+    public static final String MEMORY_GAUGE = "sta.hot-tier.memory";
+
+    public static final String DATASTREAMS_GAUGE = "sta.hot-tier.datastreams";
+
+    public static final String REQUESTS_COUNTER = "sta.hot-tier.requests";
+
+    private static final Logger LOGGER = LoggerFactory.getLogger(HotObservationTier.class);
+
+    private static final QDataEntity qobservation = QDataEntity.dataEntity;
+
+    private static final QDatastreamEntity qdatastream = QDatastreamEntity.datastreamEntity;
+
+    private static final QDatasetEntity qdataset = QDatasetEntity.datasetEntity;
+
+    private static final ObservationQuerySpecifications oQS = new ObservationQuerySpecifications();
+
+    private static final String PHENOMENON_TIME = qobservation.samplingTimeStart.getMetadata().getName();
+
+    private static final int MIN_CAPACITY = 64;
+
+    private static final int TAIL_BATCH_SIZE = 1000;
+
+    @Value("${database.hot-tier.enabled:false}")
+    private boolean enabled;
+
+    @Value("${database.hot-tier.capacity:10000}")
+    private int capacity;
+
+    @Value("${database.hot-tier.retention:86400000}")
+    private long retention;
+
+    @Value("${database.hot-tier.max-memory:67108864}")
+    private long maxMemory;
+
+    @Value("${database.hot-tier.tail-interval:1000}")
+    private long tailInterval;
+
+    @Value("${database.hot-tier.tail-window:1000}")
+    private long tailWindow;
+
+    @Value("${database.hot-tier.reload-interval:300000}")
+    private long reloadInterval;
+
+    @PersistenceContext
+    private EntityManager entityManager;
+
+    @Autowired
+    private PlatformTransactionManager transactionManager;
+
+    @Autowired
+    private MeterRegistry registry;
+
+    @Autowired
+    private ObservationArchive archive;
+
+    private final Map<Long, ObservationRingBuffer> buffers = new ConcurrentHashMap<>();
+
+    private final Set<Long> loading = ConcurrentHashMap.newKeySet();
+
+    private final AtomicLong memory = new AtomicLong();
+
+    private final AtomicBoolean started = new AtomicBoolean();
+
+    private TransactionTemplate transaction;
+
+    private ScheduledExecutorService executor;
+
+    private Counter hits;
+
+    private Counter misses;
+
+    @Override
+    public void afterPropertiesSet() {
+        if (!enabled || capacity <= 0 || maxMemory < ObservationRingBuffer.getBytes(MIN_CAPACITY)) {
+            return;
+        }
+        transaction = new TransactionTemplate(transactionManager);
+        transaction.setReadOnly(true);
+        // all buffers are written by this thread only
+        ScheduledThreadPoolExecutor scheduler = new ScheduledThreadPoolExecutor(1, r -> {
+            Thread thread = new Thread(r, "sta-hot-tier");
+            thread.setDaemon(true);
+            return thread;
+        });
+        scheduler.setExecuteExistingDelayedTasksAfterShutdownPolicy(false);
+        executor = scheduler;
+        Gauge.builder(MEMORY_GAUGE, memory, AtomicLong::get).baseUnit("bytes").register(registry);
+        Gauge.builder(DATASTREAMS_GAUGE, buffers, Map::size).register(registry);
+        hits = Counter.builder(REQUESTS_COUNTER).tag("result", "hit").register(registry);
+        misses = Counter.builder(REQUESTS_COUNTER).tag("result", "miss").register(registry);
+    }
+
+    @Override
+    public void destroy() {
+        if (executor != null) {
+            executor.shutdownNow();
+        }
+        buffers.clear();
+    }
+
+    /**
+     * Starts tailing the observation table once the database is ready.
+     */
+    @EventListener(ContextRefreshedEvent.class)
+    public void start() {
+        if (executor == null || !started.compareAndSet(false, true)) {
+            return;
+        }
+        executor.scheduleWithFixedDelay(this::update, tailInterval, Math.max(tailInterval, 1),
+                TimeUnit.MILLISECONDS);
+    }
+
+    /**
+     * Reads a page of the Observations of a Datastream from its buffer. The
+     * buffer is loaded if the page is ordered by phenomenonTime and there is
+     * none yet.
+     *
+     * @param datastreamId
+     *            the ID of the Datastream
+     * @param pageable
+     *            the requested page
+     * @return the Observations of the page or <code>null</code> if the page
+     *         has to be queried
+     */
+    public List<DataEntity<?>> find(Long datastreamId, Pageable pageable) {
+        Sort.Order order = getOrder(pageable);
+        ObservationRingBuffer buffer = order != null ? getBuffer(datastreamId) : null;
+        return record(buffer != null
+                ? buffer.read(order.isDescending(), pageable.getOffset(), pageable.getPageSize())
+                : null);
+    }
+
+    /**
+     * Reads the ids of a page of the Observations of a Datastream from its
+     * buffer.
+     *
+     * @param datastreamId
+     *            the ID of the Datastream
+     * @param pageable
+     *            the requested page
+     * @return the ids of the page or <code>null</code> if the page has to be
+     *         queried
+     * @see #find(Long, Pageable)
+     */
+    public long[] findIds(Long datastreamId, Pageable pageable) {
+        Sort.Order order = getOrder(pageable);
+        ObservationRingBuffer buffer = order != null ? getBuffer(datastreamId) : null;
+        return record(buffer != null
+                ? buffer.readIds(order.isDescending(), pageable.getOffset(), pageable.getPageSize())
+                : null);
+    }
+
+    /**
+     * Counts the Observations of a Datastream if its buffer holds all of
+     * them. The count does not load a buffer.
+     *
+     * @param datastreamId
+     *            the ID of the Datastream
+     * @return the number of Observations or -1 if they have to be counted
+     */
+    public long count(Long datastreamId) {
+        ObservationRingBuffer buffer = executor != null && datastreamId != null ? buffers.get(datastreamId) : null;
+        return buffer != null && !buffer.isUpdatePending() ? buffer.count() : -1;
+    }
+
+    /**
+     * Appends an Observation created through the API to the buffer of its
+     * Datastream after the creating transaction has been committed.
+     *
+     * @param event
+     *            the creation event
+     */
+    @TransactionalEventListener(fallbackExecution = true)
+    public void onObservationCreation(ObservationCreationEvent event) {
+        ObservationRingBuffer buffer = executor != null && event.getDatastreamId() != null
+                ? buffers.get(event.getDatastreamId())
+                : null;
+        DataEntity<?> observation = event.getObservation();
+        if (buffer == null || observation == null) {
+            return;
+        }
+        buffer.beginUpdate();
+        try {
+            executor.execute(() -> {
+                try {
+                    append(event.getDatastreamId(), buffer, observation);
+                } finally {
+                    buffer.endUpdate();
+                }
+            });
+        } catch (RejectedExecutionException e) {
+            buffer.endUpdate();
+        }
+    }
+
+    /**
+     * Only a sort by the phenomenonTime alone matches the order of the
+     * buffers, any further order decides between equal phenomenonTimes.
+     */
+    private Sort.Order getOrder(Pageable pageable) {
+        Iterator<Sort.Order> orders = pageable.getSort().iterator();
+        if (executor == null || !orders.hasNext()) {
+            return null;
+        }
+        Sort.Order order = orders.next();
+        return PHENOMENON_TIME.equals(order.getProperty()) && !orders.hasNext() ? order : null;
+    }
+
+    private ObservationRingBuffer getBuffer(Long datastreamId) {
+        if (datastreamId == null) {
+            return null;
+        }
+        ObservationRingBuffer buffer = buffers.get(datastreamId);
+        if (buffer == null) {
+            load(datastreamId);
+            return null;
+        }
+        return buffer.isUpdatePending() ? null : buffer;
+    }
+
+    private <T> T record(T page) {
+        (page != null ? hits : misses).increment();
+        return page;
+    }
+
+    private void load(Long datastreamId) {
+        if (!loading.add(datastreamId)) {
+            return;
+        }
+        try {
+            executor.execute(() -> {
+                try {
+                    if (!buffers.containsKey(datastreamId)) {
+                        transaction.execute(status -> {
+                            doLoad(datastreamId);
+                            return null;
+                        });
+                    }
+                } catch (RuntimeException e) {
+                    LOGGER.warn("Could not load the Observations of Datastream {}", datastreamId, e);
+                } finally {
+                    loading.remove(datastreamId);
+                }
+            });
+        } catch (RejectedExecutionException e) {
+            loading.remove(datastreamId);
+        }
+    }
+
+    /**
+     * Loads the newest supported Observations within the retention, replacing
+     * the current buffer of the Datastream.
+     */
+    private void doLoad(Long datastreamId) {
+        ObservationRingBuffer previous = buffers.get(datastreamId);
+        Long maxId = new JPAQuery<Void>(entityManager).select(qobservation.id.max()).from(qobservation).fetchOne();
+        List<DataEntity<?>> newest = new JPAQuery<DataEntity<?>>(entityManager)
+                .select(qobservation)
+                .from(qobservation)
+                .where(oQS.withDatastream(datastreamId))
+                .orderBy(qobservation.samplingTimeStart.desc(), qobservation.id.desc())
+                .limit(capacity + 1)
+                .setHint(QueryHints.READ_ONLY, true)
+                .fetch();
+        List<DataEntity<?>> rows = new ArrayList<>(Math.min(newest.size(), capacity));
+        for (DataEntity<?> observation : newest) {
+            if (rows.size() == capacity || !ObservationRingBuffer.isSupported(observation)
+                    || isExpired(observation, newest.get(0))) {
+                break;
+            }
+            rows.add(observation);
+        }
+        int initialCapacity = Math.min(capacity, Math.max(MIN_CAPACITY, rows.size() * 2));
+        ObservationRingBuffer buffer = new ObservationRingBuffer(initialCapacity, retention);
+        if (previous != null) {
+            drop(datastreamId, previous);
+        }
+        if (!reserve(buffer.getAllocatedBytes(), null)) {
+            LOGGER.debug("No memory left to buffer the Observations of Datastream {}", datastreamId);
+            return;
+        }
+        Collections.reverse(rows);
+        rows.forEach(observation -> buffer.append(observation, false));
+        if (rows.size() == newest.size() && archive.getChunksOfDatastream(datastreamId).isEmpty()) {
+            buffer.markComplete();
+        }
+        buffer.setLastId(maxId != null ? maxId : 0);
+        buffers.put(datastreamId, buffer);
+    }
+
+    private boolean isExpired(DataEntity<?> observation, DataEntity<?> newest) {
+        return retention > 0 && observation.getSamplingTimeStart().getTime()
+                < newest.getSamplingTimeStart().getTime() - retention;
+    }
+
+    private void update() {
+        reload();
+        tail();
+    }
+
+    /**
+     * Loads the buffers older than the reload interval again if they were read
+     * since, otherwise drops them.
+     */
+    private void reload() {
+        if (reloadInterval <= 0) {
+            return;
+        }
+        long expired = System.nanoTime() - TimeUnit.MILLISECONDS.toNanos(reloadInterval);
+        new HashMap<>(buffers).forEach((datastreamId, buffer) -> {
+            if (buffer.getCreated() - expired > 0) {
+                return;
+            }
+            if (buffer.getLastAccess() - expired <= 0) {
+                drop(datastreamId, buffer);
+                return;
+            }
+            try {
+                transaction.execute(status -> {
+                    doLoad(datastreamId);
+                    return null;
+                });
+            } catch (RuntimeException e) {
+                LOGGER.warn("Could not reload the Observations of Datastream {}", datastreamId, e);
+                drop(datastreamId, buffer);
+            }
+        });
+    }
+
+    /**
+     * Appends the Observations inserted since the last tail to the buffers.
+     * The buffers are dropped if the tail fails, they are loaded again on the
+     * next read.
+     */
+    private void tail() {
+        if (buffers.isEmpty()) {
+            return;
+        }
+        Map<Long, ObservationRingBuffer> tailed = new HashMap<>(buffers);
+        try {
+            transaction.execute(status -> {
+                tail(tailed);
+                return null;
+            });
+        } catch (RuntimeException e) {
+            LOGGER.warn("Could not tail the observation table, dropping the buffers", e);
+            tailed.forEach(this::drop);
+        }
+    }
+
+    private void tail(Map<Long, ObservationRingBuffer> tailed) {
+        long from = Math.max(0, tailed.values().stream().mapToLong(ObservationRingBuffer::getLastId).min()
+                .getAsLong() - tailWindow);
+        List<Tuple> rows;
+        do {
+            rows = new JPAQuery<Void>(entityManager)
+                    .select(qdatastream.id, qobservation)
+                    .from(qobservation, qdatastream)
+                    .innerJoin(qdatastream.datasets, qdataset)
+                    .where(qobservation.dataset.id.eq(qdataset.id),
+                            qdatastream.id.in(tailed.keySet()),
+                            qobservation.id.gt(from))
+                    .orderBy(qobservation.id.asc())
+                    .limit(TAIL_BATCH_SIZE)
+                    .setHint(QueryHints.READ_ONLY, true)
+                    .fetch();
+            for (Tuple row : rows) {
+                Long datastreamId = row.get(qdatastream.id);
+                DataEntity<?> observation = row.get(qobservation);
+                ObservationRingBuffer buffer = tailed.get(datastreamId);
+                if (observation.getId() > buffer.getLastId()) {
+                    append(datastreamId, buffer, observation);
+                } else if (observation.getId() > buffer.getLastId() - tailWindow && buffer.isMissing(observation)) {
+                    // committed after Observations with larger ids were tailed
+                    append(datastreamId, buffer, observation);
+                }
+                from = observation.getId();
+            }
+        } while (rows.size() == TAIL_BATCH_SIZE);
+    }
+
+    private void append(Long datastreamId, ObservationRingBuffer buffer, DataEntity<?> observation) {
+        if (buffers.get(datastreamId) != buffer) {
+            return;
+        }
+        if (!ObservationRingBuffer.isSupported(observation)) {
+            buffer.clear();
+            buffer.setLastId(observation.getId() != null ? observation.getId() : 0);
+            return;
+        }
+        Append result = buffer.append(observation, false);
+        if (result == Append.FULL) {
+            int grown = Math.min(capacity, buffer.getCapacity() * 2);
+            if (grown > buffer.getCapacity() && reserve(
+                    ObservationRingBuffer.getBytes(grown) - buffer.getAllocatedBytes(), buffer)) {
+                buffer.grow(grown);
+            }
+            buffer.append(observation, true);
+        } else if (result == Append.OUT_OF_ORDER) {
+            drop(datastreamId, buffer);
+        }
+    }
+
+    /**
+     * Reserves memory for a buffer, the least recently read buffers are
+     * dropped until it fits into the budget.
+     */
+    private boolean reserve(long bytes, ObservationRingBuffer keep) {
+        while (memory.get() + bytes > maxMemory) {
+            Map.Entry<Long, ObservationRingBuffer> leastRecentlyRead = null;
+            for (Map.Entry<Long, ObservationRingBuffer> entry : buffers.entrySet()) {
+                if (entry.getValue() != keep && (leastRecentlyRead == null
+                        || entry.getValue().getLastAccess() < leastRecentlyRead.getValue().getLastAccess())) {
+                    leastRecentlyRead = entry;
+                }
+            }
+            if (leastRecentlyRead == null) {
+                return false;
+            }
+            drop(leastRecentlyRead.getKey(), leastRecentlyRead.getValue());
+        }
+        memory.addAndGet(bytes);
+        return true;
+    }
+
+    private void drop(Long datastreamId, ObservationRingBuffer buffer) {
+        if (buffers.remove(datastreamId, buffer)) {
+            memory.addAndGet(-buffer.getAllocatedBytes());
+        }
+    }
+
+}
@@ -28,6 +28,10 @@
  */
 package org.n52.sta.data.service;
 
+import static org.n52.sta.edm.provider.entities.AbstractSensorThingsEntityProvider.PROP_DESCRIPTION;
+import static org.n52.sta.edm.provider.entities.AbstractSensorThingsEntityProvider.PROP_NAME;
+import static org.n52.sta.edm.provider.entities.LocationEntityProvider.ET_LOCATION_FQN;
+
 import java.util.Optional;
 import java.util.OptionalLong;
 
@@ -35,8 +39,12 @@ import org.apache.olingo.commons.api.data.Entity;
 import org.apache.olingo.commons.api.data.EntityCollection;
 import org.apache.olingo.commons.api.edm.EdmEntityType;
 import org.n52.series.db.beans.sta.LocationEntity;
+import org.n52.series.db.beans.sta.QLocationEntity;
 import org.n52.sta.data.query.LocationQuerySpecifications;
+import org.n52.sta.data.repositories.PropertyProjection;
 import org.n52.sta.data.repositories.LocationRepository;
+import org.n52.sta.data.repositories.QueryTemplate;
+import org.n52.sta.data.repositories.QueryTemplates;
 import org.n52.sta.mapping.LocationMapper;
 import org.n52.sta.service.query.QueryOptions;
 import org.springframework.stereotype.Component;
@@ -55,6 +63,14 @@ public class LocationService extends AbstractSensorThingsEntityService<LocationR
 
     private final static LocationQuerySpecifications lQS= new LocationQuerySpecifications();
 
+    private static final PropertyProjection<LocationEntity> PROPERTY_PROJECTION = PropertyProjection.of(QLocationEntity.locationEntity)
+            .column(PROP_NAME, "name")
+            .column(PROP_DESCRIPTION, "description");
+
+    private static final QueryTemplates<LocationEntity> QUERY_TEMPLATES = QueryTemplates.of(QLocationEntity.locationEntity, lQS::withId)
+            .relation("iot.Thing", lQS::withRelatedThing)
+            .relation("iot.HistoricalLocation", lQS::withRelatedHistoricalLocation);
+
     public LocationService(LocationRepository repository, LocationMapper mapper) {
         super(repository);
         this.mapper = mapper;
@@ -63,14 +79,19 @@ public class LocationService extends AbstractSensorThingsEntityService<LocationR
     @Override
     public EntityCollection getEntityCollection(QueryOptions queryOptions) {
         EntityCollection retEntitySet = new EntityCollection();
-        getRepository().findAll(createPageableRequest(queryOptions)).forEach(t -> retEntitySet.getEntities().add(mapper.createEntity(t)));
+        findAll(QLocationEntity.locationEntity, null, queryOptions, null).forEach(t -> retEntitySet.getEntities().add(mapEntity(mapper, t)));
         return retEntitySet;
     }
 
+    @Override
+    public long[] getEntityCollectionIds(QueryOptions queryOptions) {
+        return findIds(QLocationEntity.locationEntity, null, queryOptions);
+    }
+
     @Override
     public Entity getEntity(Long id) {
-        Optional<LocationEntity> entity = getRepository().findOne(byId(id));
-        return entity.isPresent() ? mapper.createEntity(entity.get()) : null;
+        Optional<LocationEntity> entity = findOne(QUERY_TEMPLATES.byId(), id);
+        return entity.isPresent() ? mapEntity(mapper, entity.get()) : null;
     }
 
     @Override
@@ -78,18 +99,32 @@ public class LocationService extends AbstractSensorThingsEntityService<LocationR
         BooleanExpression filter = getFilter(sourceId, sourceEntityType);
 
         EntityCollection retEntitySet = new EntityCollection();
-        Iterable<LocationEntity> locations = getRepository().findAll(filter, createPageableRequest(queryOptions));
-        locations.forEach(t -> retEntitySet.getEntities().add(mapper.createEntity(t)));
+        Iterable<LocationEntity> locations = findAll(QLocationEntity.locationEntity, filter, queryOptions, null);
+        locations.forEach(t -> retEntitySet.getEntities().add(mapEntity(mapper, t)));
         return retEntitySet;
     }
 
+    @Override
+    public long[] getRelatedEntityCollectionIds(Long sourceId, EdmEntityType sourceEntityType, QueryOptions queryOptions) {
+        return findIds(QLocationEntity.locationEntity, getFilter(sourceId, sourceEntityType), queryOptions);
+    }
+
     @Override
     public long getRelatedEntityCollectionCount(Long sourceId, EdmEntityType sourceEntityType) {
+        QueryTemplate<LocationEntity> template = getRelatedTemplate(QUERY_TEMPLATES, sourceEntityType, null);
+        if (template != null && getRelatedIds(sourceId, sourceEntityType, ET_LOCATION_FQN) == null) {
+            return count(template, sourceId);
+        }
         BooleanExpression filter = getFilter(sourceId, sourceEntityType);
         return getRepository().count(filter);
     }
 
     private BooleanExpression getFilter(Long sourceId, EdmEntityType sourceEntityType) {
+        return withRelated(sourceId, sourceEntityType, ET_LOCATION_FQN, QLocationEntity.locationEntity.id,
+                () -> getJoinFilter(sourceId, sourceEntityType));
+    }
+
+    private BooleanExpression getJoinFilter(Long sourceId, EdmEntityType sourceEntityType) {
         BooleanExpression filter;
         switch (sourceEntityType.getFullQualifiedName().getFullQualifiedNameAsString()) {
         case "iot.HistoricalLocation": {
@@ -108,7 +143,7 @@ public class LocationService extends AbstractSensorThingsEntityService<LocationR
 
     @Override
     public boolean existsEntity(Long id) {
-        return getRepository().exists(byId(id));
+        return exists(QUERY_TEMPLATES.byId(), id);
     }
 
     @Override
@@ -118,22 +153,11 @@ public class LocationService extends AbstractSensorThingsEntityService<LocationR
 
     @Override
     public boolean existsRelatedEntity(Long sourceId, EdmEntityType sourceEntityType, Long targetId) {
-        BooleanExpression filter;
-        switch(sourceEntityType.getFullQualifiedName().getFullQualifiedNameAsString()) {
-        case "iot.Thing": {
-            filter = lQS.withRelatedThing(sourceId);
-            break;
-        }
-        case "iot.HistoricalLocation": {
-            filter = lQS.withRelatedHistoricalLocation(sourceId);
-            break;
+        if (RelationGraph.isRelated(getRelatedIds(sourceId, sourceEntityType, ET_LOCATION_FQN), targetId)) {
+            return true;
         }
-        default: return false;
-        }
-        if (targetId != null) {
-            filter = filter.and(lQS.withId(targetId));
-        }
-        return getRepository().exists(filter);
+        QueryTemplate<LocationEntity> template = getRelatedTemplate(QUERY_TEMPLATES, sourceEntityType, targetId);
+        return template != null && exists(template, sourceId, targetId);
     }
 
     @Override
@@ -143,6 +167,10 @@ public class LocationService extends AbstractSensorThingsEntityService<LocationR
 
     @Override
     public OptionalLong getIdForRelatedEntity(Long sourceId, EdmEntityType sourceEntityType, Long targetId) {
+        OptionalLong related = RelationGraph.getRelatedId(getRelatedIds(sourceId, sourceEntityType, ET_LOCATION_FQN), targetId);
+        if (related.isPresent()) {
+            return related;
+        }
         Optional<LocationEntity> location = this.getRelatedEntityRaw(sourceId, sourceEntityType, targetId);
         if (location.isPresent()) {
             return OptionalLong.of(location.get().getId());
@@ -160,7 +188,7 @@ public class LocationService extends AbstractSensorThingsEntityService<LocationR
     public Entity getRelatedEntity(Long sourceId, EdmEntityType sourceEntityType, Long targetId) {
         Optional<LocationEntity> location = this.getRelatedEntityRaw(sourceId, sourceEntityType, targetId);
         if (location.isPresent()) {
-            return mapper.createEntity(location.get());
+            return mapEntity(mapper, location.get());
         } else {
             return null;
         }
@@ -176,32 +204,12 @@ public class LocationService extends AbstractSensorThingsEntityService<LocationR
      * @return Optional<ThingEntity> Requested Entity
      */
     private Optional<LocationEntity> getRelatedEntityRaw(Long sourceId, EdmEntityType sourceEntityType, Long targetId) {
-        BooleanExpression filter;
-        switch(sourceEntityType.getFullQualifiedName().getFullQualifiedNameAsString()) {
-        case "iot.HistoricalLocation": {
-            filter = lQS.withRelatedHistoricalLocation(sourceId);
-            break;
-        }
-        case "iot.Thing": {
-            filter = lQS.withRelatedThing(sourceId);
-            break;
-        }
-        default: return Optional.empty();
-        }
-
-        if (targetId != null) {
-            filter = filter.and(lQS.withId(targetId));
-        }
-        return getRepository().findOne(filter);
+        QueryTemplate<LocationEntity> template = getRelatedTemplate(QUERY_TEMPLATES, sourceEntityType, targetId);
+        return template != null ? findOne(template, sourceId, targetId) : Optional.empty();
     }
 
-    /**
-     * Constructs SQL Expression to request Entity by ID.
-     * 
-     * @param id id of the requested entity
-     * @return BooleanExpression evaluating to true if Entity is found and valid
-     */
-    private BooleanExpression byId(Long id) {
-        return lQS.withId(id);
+    @Override
+    protected PropertyProjection<?> getPropertyProjection() {
+        return PROPERTY_PROJECTION;
     }
 }
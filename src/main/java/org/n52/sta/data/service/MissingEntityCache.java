@@ -0,0 +1,206 @@
+/*
+ * Copyright (C) 2012-2018 52°North Initiative for Geospatial Open Source
+ * Software GmbH
+ *
+ * This program is free software; you can redistribute it and/or modify it
+ * under the terms of the GNU General Public License version 2 as published
+ * by the Free Software Foundation.
+ *
+ * If the program is linked with libraries which are licensed under one of
+ * the following licenses, the combination of the program with the linked
+ * library is not considered a "derivative work" of the program:
+ *
+ *     - Apache License, version 2.0
+ *     - Apache Software License, version 1.0
+ *     - GNU Lesser General Public License, version 3
+ *     - Mozilla Public License, versions 1.0, 1.1 and 2.0
+ *     - Common Development and Distribution License (CDDL), version 1.0
+ *
+ * Therefore the distribution of the program linked with libraries licensed
+ * under the aforementioned licenses, is permitted by the copyright holders
+ * if the distribution is compliant with both the GNU General Public
+ * License version 2 and the aforementioned licenses.
+ *
+ * This program is distributed in the hope that it will be useful, but
+ * WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the GNU General
+ * Public License for more details.
+ */
+package org.n52.sta.data.service;
+
+import static org.n52.sta.edm.provider.entities.FeatureOfInterestEntityProvider.ET_FEATURE_OF_INTEREST_NAME;
+import static org.n52.sta.edm.provider.entities.ObservationEntityProvider.ET_OBSERVATION_NAME;
+
+import java.util.concurrent.TimeUnit;
+import java.util.function.BooleanSupplier;
+import java.util.function.Supplier;
+
+import org.n52.series.db.beans.DataEntity;
+import org.springframework.beans.factory.InitializingBean;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.context.event.ContextRefreshedEvent;
+import org.springframework.context.event.EventListener;
+import org.springframework.stereotype.Component;
+import org.springframework.transaction.event.TransactionalEventListener;
+
+import com.github.benmanes.caffeine.cache.Cache;
+import com.github.benmanes.caffeine.cache.Caffeine;
+
+import io.micrometer.core.instrument.MeterRegistry;
+import io.micrometer.core.instrument.binder.cache.CaffeineCacheMetrics;
+
+/**
+ * Remembers the entities requested by id that were not found, so that
+ * clients repeating requests like <code>/Datastreams(99999)/Observations</code>
+ * are answered with 404 without querying the database again.
+ * <p>
+ * An entry expires <code>database.missing-entity-cache.ttl</code>
+ * milliseconds after the lookup, which bounds how long entities inserted
+ * into the database by other applications are reported as missing. At most
+ * <code>database.missing-entity-cache.max-size</code> entries are kept.
+ * Entities created through the API are removed from the cache immediately.
+ * <p>
+ * Only Observations are created through the API, all other entities are
+ * inserted by other applications and are reported as missing until the
+ * entry expires. The cache is therefore disabled by default and meant for
+ * deployments whose metadata entities change rarely.
+ *
+ * @since 1.0.0
+ */
+@Component
+public class MissingEntityCache implements InitializingBean {
+
+    public static final String CACHE_NAME = "sta.missing-entity.cache";
+
+    @Value("${database.missing-entity-cache.enabled:false}")
+    private boolean enabled;
+
+    @Value("${database.missing-entity-cache.ttl:30000}")
+    private long ttl;
+
+    @Value("${database.missing-entity-cache.max-size:10000}")
+    private long maxSize;
+
+    @Autowired
+    private MeterRegistry registry;
+
+    private Cache<String, Boolean> cache;
+
+    @Override
+    public void afterPropertiesSet() {
+        if (!enabled || ttl <= 0) {
+            return;
+        }
+        cache = Caffeine.newBuilder()
+                .expireAfterWrite(ttl, TimeUnit.MILLISECONDS)
+                .maximumSize(maxSize)
+                .recordStats()
+                .build();
+        CaffeineCacheMetrics.monitor(registry, cache, CACHE_NAME);
+    }
+
+    /**
+     * Checks if the entity exists, entities known to be missing are not
+     * looked up.
+     *
+     * @param entityType
+     *            the name of the entity type
+     * @param id
+     *            the id of the entity
+     * @param lookup
+     *            checks the existence in the database
+     * @return if the entity exists
+     */
+    public boolean exists(String entityType, Long id, BooleanSupplier lookup) {
+        if (cache == null || id == null) {
+            return lookup.getAsBoolean();
+        }
+        String key = createKey(entityType, id);
+        if (cache.getIfPresent(key) != null) {
+            return false;
+        }
+        boolean exists = lookup.getAsBoolean();
+        if (!exists) {
+            cache.put(key, Boolean.TRUE);
+        }
+        return exists;
+    }
+
+    /**
+     * Gets the entity, entities known to be missing are not looked up.
+     *
+     * @param entityType
+     *            the name of the entity type
+     * @param id
+     *            the id of the entity
+     * @param lookup
+     *            loads the entity from the database, returns
+     *            <code>null</code> if it is missing
+     * @return the entity or <code>null</code> if it is missing
+     */
+    public <E> E get(String entityType, Long id, Supplier<E> lookup) {
+        if (cache == null || id == null) {
+            return lookup.get();
+        }
+        String key = createKey(entityType, id);
+        if (cache.getIfPresent(key) != null) {
+            return null;
+        }
+        E entity = lookup.get();
+        if (entity == null) {
+            cache.put(key, Boolean.TRUE);
+        }
+        return entity;
+    }
+
+    /**
+     * Removes a created entity from the cache.
+     *
+     * @param entityType
+     *            the name of the entity type
+     * @param id
+     *            the id of the entity
+     */
+    public void invalidate(String entityType, Long id) {
+        if (cache != null && id != null) {
+            cache.invalidate(createKey(entityType, id));
+        }
+    }
+
+    /**
+     * A created Observation exists, and so does its FeatureOfInterest now,
+     * which is only valid if it has Observations in a Datastream. The entries
+     * are removed after the commit, so that a lookup racing with the
+     * transaction can not leave a stale entry behind.
+     *
+     * @param event
+     *            the creation event
+     */
+    @TransactionalEventListener(fallbackExecution = true)
+    public void onObservationCreation(ObservationCreationEvent event) {
+        DataEntity<?> observation = event.getObservation();
+        if (observation == null) {
+            return;
+        }
+        invalidate(ET_OBSERVATION_NAME, observation.getId());
+        if (observation.getDataset() != null && observation.getDataset().getFeature() != null) {
+            invalidate(ET_FEATURE_OF_INTEREST_NAME, observation.getDataset().getFeature().getId());
+        }
+    }
+
+    /**
+     * Removes all entries
+     */
+    @EventListener(ContextRefreshedEvent.class)
+    public void invalidateAll() {
+        if (cache != null) {
+            cache.invalidateAll();
+        }
+    }
+
+    private static String createKey(String entityType, long id) {
+        return entityType + '(' + id + ')';
+    }
+
+}
@@ -0,0 +1,924 @@
+/*
+ * Copyright (C) 2012-2018 52°North Initiative for Geospatial Open Source
+ * Software GmbH
+ *
+ * This program is free software; you can redistribute it and/or modify it
+ * under the terms of the GNU General Public License version 2 as published
+ * by the Free Software Foundation.
+ *
+ * If the program is linked with libraries which are licensed under one of
+ * the following licenses, the combination of the program with the linked
+ * library is not considered a "derivative work" of the program:
+ *
+ *     - Apache License, version 2.0
+ *     - Apache Software License, version 1.0
+ *     - GNU Lesser General Public License, version 3
+ *     - Mozilla Public License, versions 1.0, 1.1 and 2.0
+ *     - Common Development and Distribution License (CDDL), version 1.0
+ *
+ * Therefore the distribution of the program linked with libraries licensed
+ * under the aforementioned licenses, is permitted by the copyright holders
+ * if the distribution is compliant with both the GNU General Public
+ * License version 2 and the aforementioned licenses.
+ *
+ * This program is distributed in the hope that it will be useful, but
+ * WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the GNU General
+ * Public License for more details.
+ */
+package org.n52.sta.data.service;
+
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.math.BigDecimal;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.nio.file.StandardCopyOption;
+import java.time.Instant;
+import java.time.YearMonth;
+import java.time.ZoneOffset;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.Date;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Optional;
+import java.util.OptionalLong;
+import java.util.PriorityQueue;
+import java.util.Set;
+import java.util.TreeMap;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ScheduledThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.function.Function;
+import java.util.function.LongFunction;
+import java.util.stream.Collectors;
+import java.util.stream.IntStream;
+import java.util.stream.LongStream;
+import java.util.stream.Stream;
+
+import javax.persistence.EntityManager;
+import javax.persistence.PersistenceContext;
+
+import org.n52.series.db.beans.DataEntity;
+import org.n52.series.db.beans.QDataEntity;
+import org.n52.series.db.beans.QDatasetEntity;
+import org.n52.series.db.beans.QQuantityDataEntity;
+import org.n52.series.db.beans.sta.QDatastreamEntity;
+import org.n52.sta.data.OffsetLimitBasedPageRequest;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.beans.factory.DisposableBean;
+import org.springframework.beans.factory.InitializingBean;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.context.event.ContextRefreshedEvent;
+import org.springframework.context.event.EventListener;
+import org.springframework.data.domain.Pageable;
+import org.springframework.data.domain.Sort;
+import org.springframework.stereotype.Component;
+import org.springframework.transaction.PlatformTransactionManager;
+import org.springframework.transaction.support.TransactionTemplate;
+
+import com.mysema.commons.lang.CloseableIterator;
+import com.querydsl.core.Tuple;
+import com.querydsl.core.types.dsl.BooleanExpression;
+import com.querydsl.core.types.dsl.DateTimeExpression;
+import com.querydsl.jpa.JPAExpressions;
+import com.querydsl.jpa.impl.JPADeleteClause;
+import com.querydsl.jpa.impl.JPAQuery;
+
+import io.micrometer.core.instrument.Gauge;
+import io.micrometer.core.instrument.MeterRegistry;
+
+/**
+ * Moves Observations older than <code>database.archive.age</code>
+ * milliseconds out of the observation table into {@link ArchiveChunk} files,
+ * one per Dataset and month below <code>database.archive.directory</code>,
+ * and merges them back into the Observation queries.
+ * <p>
+ * A page of Observations is first queried from the table. It is the
+ * requested page if all archived Observations are ordered after it, which is
+ * the case for recent Observations ordered by descending time. Otherwise the
+ * offset of the page is split into the Observations of the table and of the
+ * archive ordered before it by counting the archived Observations before
+ * probed rows of the table, and only the page following both offsets is
+ * merged. The <code>$skip</code> stays in the SQL query, chunks ordered
+ * entirely before or after a probe are counted by their bounds.
+ * <p>
+ * Only Observations that can be restored exactly from the columns of a chunk
+ * are archived, see {@link ObservationRingBuffer#isSupported(DataEntity)},
+ * all others stay in the table. The chunks found at startup are mapped even
+ * if the archival is disabled, so that archived Observations stay visible.
+ * <p>
+ * The archival runs every <code>database.archive.check-interval</code>
+ * milliseconds. A month of a Dataset is archived in one transaction: the
+ * Observations of the table are merged with those already archived into a
+ * new chunk, deleted from the table, and the chunk replaces the previous one
+ * before the commit. The ids of the moved Observations are written to the
+ * pending file of the chunk before and removed after the commit. If the
+ * commit fails, the pending Observations stay in the table and are hidden in
+ * the chunk, so that they are neither counted nor returned twice, until the
+ * next run deletes them from the table.
+ *
+ * @since 1.0.0
+ */
+@Component
+public class ObservationArchive implements InitializingBean, DisposableBean {
+
+    public static final String CHUNKS_GAUGE = "sta.archive.chunks";
+
+    public static final String OBSERVATIONS_GAUGE = "sta.archive.observations";
+
+    private static final Logger LOGGER = LoggerFactory.getLogger(ObservationArchive.class);
+
+    private static final QDataEntity qobservation = QDataEntity.dataEntity;
+
+    private static final QQuantityDataEntity qquantity = QQuantityDataEntity.quantityDataEntity;
+
+    private static final QDatastreamEntity qdatastream = QDatastreamEntity.datastreamEntity;
+
+    private static final QDatasetEntity qdataset = QDatasetEntity.datasetEntity;
+
+    private static final String TEMPORARY_SUFFIX = ".tmp";
+
+    /**
+     * Quantities with a phenomenonTime instant, without validTime and
+     * parameters
+     */
+    private static final BooleanExpression ARCHIVABLE = qquantity.validTimeStart.isNull()
+            .and(qquantity.validTimeEnd.isNull())
+            .and(qquantity.samplingTimeEnd.isNull().or(qquantity.samplingTimeEnd.eq(qquantity.samplingTimeStart)))
+            .and(qquantity.parameters.isEmpty());
+
+    @Value("${database.archive.enabled:false}")
+    private boolean enabled;
+
+    @Value("${database.archive.directory:archive}")
+    private String directory;
+
+    @Value("${database.archive.age:31536000000}")
+    private long age;
+
+    @Value("${database.archive.check-interval:86400000}")
+    private long checkInterval;
+
+    @Value("${database.archive.batch-size:1000}")
+    private int batchSize;
+
+    @PersistenceContext
+    private EntityManager entityManager;
+
+    @Autowired
+    private PlatformTransactionManager transactionManager;
+
+    @Autowired
+    private MeterRegistry registry;
+
+    private final AtomicBoolean started = new AtomicBoolean();
+
+    private volatile Catalog catalog = Catalog.EMPTY;
+
+    private Path root;
+
+    private TransactionTemplate readOnly;
+
+    private TransactionTemplate readWrite;
+
+    private ScheduledExecutorService executor;
+
+    @Override
+    public void afterPropertiesSet() throws IOException {
+        root = Paths.get(directory);
+        if (Files.isDirectory(root)) {
+            catalog = load(root);
+            LOGGER.info("Mapped {} archived Observations in {} chunks", catalog.observations, catalog.all.size());
+        }
+        Gauge.builder(CHUNKS_GAUGE, this, archive -> archive.catalog.all.size()).register(registry);
+        Gauge.builder(OBSERVATIONS_GAUGE, this, archive -> archive.catalog.observations).register(registry);
+        if (!enabled || age <= 0) {
+            return;
+        }
+        Files.createDirectories(root);
+        readOnly = new TransactionTemplate(transactionManager);
+        readOnly.setReadOnly(true);
+        readWrite = new TransactionTemplate(transactionManager);
+        ScheduledThreadPoolExecutor scheduler = new ScheduledThreadPoolExecutor(1, r -> {
+            Thread thread = new Thread(r, "sta-observation-archive");
+            thread.setDaemon(true);
+            return thread;
+        });
+        scheduler.setExecuteExistingDelayedTasksAfterShutdownPolicy(false);
+        executor = scheduler;
+    }
+
+    @Override
+    public void destroy() {
+        if (executor != null) {
+            executor.shutdownNow();
+        }
+    }
+
+    /**
+     * Starts archiving once the database is ready.
+     */
+    @EventListener(ContextRefreshedEvent.class)
+    public void start() {
+        if (executor == null || !started.compareAndSet(false, true)) {
+            return;
+        }
+        if (checkInterval > 0) {
+            executor.scheduleWithFixedDelay(this::archive, 0, checkInterval, TimeUnit.MILLISECONDS);
+        } else {
+            executor.execute(this::archive);
+        }
+    }
+
+    /**
+     * @return all chunks
+     */
+    List<ArchiveChunk> getChunks() {
+        return catalog.all;
+    }
+
+    /**
+     * @param datastreamId
+     *            the ID of a Datastream
+     * @return the chunks of the Datasets of the Datastream
+     */
+    List<ArchiveChunk> getChunksOfDatastream(Long datastreamId) {
+        Catalog current = catalog;
+        if (current.all.isEmpty() || datastreamId == null) {
+            return Collections.emptyList();
+        }
+        return current.of(new JPAQuery<Void>(entityManager)
+                .select(qdataset.id)
+                .from(qdatastream)
+                .join(qdatastream.datasets, qdataset)
+                .where(qdatastream.id.eq(datastreamId))
+                .fetch());
+    }
+
+    /**
+     * @param featureId
+     *            the ID of a FeatureOfInterest
+     * @return the chunks of the Datasets of the Feature
+     */
+    List<ArchiveChunk> getChunksOfFeature(Long featureId) {
+        Catalog current = catalog;
+        if (current.all.isEmpty() || featureId == null) {
+            return Collections.emptyList();
+        }
+        return current.of(new JPAQuery<Void>(entityManager)
+                .select(qdataset.id)
+                .from(qdataset)
+                .where(qdataset.feature.id.eq(featureId))
+                .fetch());
+    }
+
+    /**
+     * @param chunks
+     *            the chunks
+     * @return the number of Observations in the chunks
+     */
+    long count(List<ArchiveChunk> chunks) {
+        return chunks.stream().mapToLong(ArchiveChunk::getCount).sum();
+    }
+
+    /**
+     * @param chunks
+     *            the chunks to search
+     * @param id
+     *            the ID of the Observation
+     * @return the archived Observation or an empty {@link Optional}
+     */
+    Optional<DataEntity<?>> findById(List<ArchiveChunk> chunks, Long id) {
+        if (id != null) {
+            for (ArchiveChunk chunk : chunks) {
+                if (chunk.contains(id)) {
+                    ArchiveChunk.Columns columns = chunk.decode();
+                    return Optional.of(columns.toObservation(columns.indexOf(id)));
+                }
+            }
+        }
+        return Optional.empty();
+    }
+
+    /**
+     * @param observationId
+     *            the ID of an Observation
+     * @return the ID of the Dataset of the Observation if it is archived
+     */
+    OptionalLong getDatasetId(Long observationId) {
+        if (observationId != null) {
+            for (ArchiveChunk chunk : catalog.all) {
+                if (chunk.contains(observationId)) {
+                    return OptionalLong.of(chunk.getDatasetId());
+                }
+            }
+        }
+        return OptionalLong.empty();
+    }
+
+    /**
+     * Queries a page of Observations from the table and merges the archived
+     * Observations of the chunks into it.
+     * <p>
+     * The page is the requested page of the table if it is full and all
+     * archived Observations are ordered after it. Otherwise the number of
+     * Observations of the table ordered before the page is searched by
+     * probing single rows of the table, see
+     * {@link #findTableOffset(ArchivedRows, long, LongFunction)}, and the
+     * page is merged from the Observations of the table and of the chunks
+     * following it. Neither side holds more than a page in memory.
+     *
+     * @param chunks
+     *            the chunks of the queried Observations
+     * @param pageable
+     *            the requested page
+     * @param table
+     *            queries a page from the table
+     * @return the Observations of the page
+     */
+    List<DataEntity<?>> find(List<ArchiveChunk> chunks, Pageable pageable,
+            Function<Pageable, List<DataEntity<?>>> table) {
+        List<DataEntity<?>> page = table.apply(pageable);
+        Sort.Order order = pageable.getSort().iterator().hasNext() ? pageable.getSort().iterator().next() : null;
+        ArchiveChunk.Key key = order != null ? ArchiveChunk.Key.of(order.getProperty()) : null;
+        if (chunks.isEmpty() || key == null || pageable.getPageSize() == 0) {
+            return page;
+        }
+        boolean descending = order.isDescending();
+        if (!page.isEmpty() && page.size() == pageable.getPageSize()
+                && isBefore(key.of(page.get(page.size() - 1)), chunks, key, descending)) {
+            return page;
+        }
+        ArchivedRows archived = new ArchivedRows(chunks, key, descending);
+        long offset = pageable.getOffset();
+        long tableOffset = findTableOffset(archived, offset, probe -> {
+            List<DataEntity<?>> row = table.apply(new OffsetLimitBasedPageRequest((int) probe, 1, pageable.getSort()));
+            return row.isEmpty() ? null : row.get(0);
+        });
+        List<DataEntity<?>> tablePage = tableOffset == offset
+                ? page
+                : table.apply(new OffsetLimitBasedPageRequest((int) tableOffset, pageable.getPageSize(),
+                        pageable.getSort()));
+        return merge(tablePage, archived.select(offset - tableOffset, pageable.getPageSize()), archived,
+                pageable.getPageSize());
+    }
+
+    /**
+     * Checks if all archived Observations are ordered after the key.
+     */
+    private static boolean isBefore(long last, List<ArchiveChunk> chunks, ArchiveChunk.Key key, boolean descending) {
+        for (ArchiveChunk chunk : chunks) {
+            if (descending ? key.max(chunk) >= last : key.min(chunk) <= last) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    /**
+     * Searches the number of Observations of the table ordered before the
+     * page, i.e. the smallest offset into the table whose row is not ordered
+     * before the offset into the merged Observations. The rank of the row at
+     * a table offset in the merged Observations is the offset plus the number
+     * of archived Observations before the row. It grows by at least one per
+     * row, so the page starts at least <code>d</code> rows after a row ranked
+     * <code>d</code> before it. The probes
+     * alternate between this lower bound, which is the answer if the archive
+     * is ordered entirely before or after the table, and a bisection.
+     *
+     * @param archived
+     *            the archived Observations
+     * @param offset
+     *            the offset into the merged Observations
+     * @param tableRow
+     *            queries the row of the table at an offset or
+     *            <code>null</code> if there is none
+     * @return the offset into the table
+     */
+    private static long findTableOffset(ArchivedRows archived, long offset, LongFunction<DataEntity<?>> tableRow) {
+        long low = Math.max(0, offset - archived.size());
+        long high = offset;
+        boolean bisect = false;
+        while (low < high) {
+            long probe = bisect ? low + (high - low) / 2 : low;
+            bisect = !bisect;
+            DataEntity<?> row = tableRow.apply(probe);
+            long rank = row != null ? probe + archived.countBefore(row) : Long.MAX_VALUE;
+            if (rank >= offset) {
+                high = probe;
+            } else {
+                low = Math.min(high, probe + offset - rank);
+            }
+        }
+        return low;
+    }
+
+    /**
+     * Merges the Observations of the table and of the archive following the
+     * offset of the page. An Observation in both, archived by a run whose
+     * commit failed, is taken once.
+     */
+    private static List<DataEntity<?>> merge(List<DataEntity<?>> table, List<DataEntity<?>> archived,
+            ArchivedRows order, int limit) {
+        List<DataEntity<?>> page = new ArrayList<>(limit);
+        Set<Long> merged = new HashSet<>();
+        int i = 0;
+        int j = 0;
+        while (page.size() < limit && (i < table.size() || j < archived.size())) {
+            DataEntity<?> next = j >= archived.size()
+                    || i < table.size() && order.compare(table.get(i), archived.get(j)) <= 0
+                            ? table.get(i++)
+                            : archived.get(j++);
+            if (merged.add(next.getId())) {
+                page.add(next);
+            }
+        }
+        return page;
+    }
+
+    private void archive() {
+        try {
+            confirmPending();
+            YearMonth cutoff = YearMonth.from(Instant.now().minusMillis(age).atZone(ZoneOffset.UTC));
+            Date before = toDate(cutoff);
+            DateTimeExpression<Date> first = qquantity.samplingTimeStart.min();
+            List<Tuple> candidates = readOnly.execute(status -> new JPAQuery<Void>(entityManager)
+                    .select(qquantity.dataset.id, first)
+                    .from(qquantity)
+                    .where(ARCHIVABLE, qquantity.samplingTimeStart.lt(before),
+                            qquantity.dataset.id.in(JPAExpressions.select(qdataset.id)
+                                    .from(qdatastream)
+                                    .join(qdatastream.datasets, qdataset)))
+                    .groupBy(qquantity.dataset.id)
+                    .fetch());
+            for (Tuple candidate : candidates) {
+                Long datasetId = candidate.get(qquantity.dataset.id);
+                YearMonth month = toMonth(candidate.get(first));
+                while (month != null && month.isBefore(cutoff) && !Thread.currentThread().isInterrupted()) {
+                    archive(datasetId, month);
+                    month = getNextMonth(datasetId, month.plusMonths(1), before);
+                }
+            }
+        } catch (IOException | RuntimeException e) {
+            LOGGER.warn("Could not archive the Observations", e);
+        }
+    }
+
+    private YearMonth getNextMonth(Long datasetId, YearMonth from, Date before) {
+        return toMonth(readOnly.execute(status -> new JPAQuery<Void>(entityManager)
+                .select(qquantity.samplingTimeStart.min())
+                .from(qquantity)
+                .where(ARCHIVABLE, qquantity.dataset.id.eq(datasetId),
+                        qquantity.samplingTimeStart.goe(toDate(from)), qquantity.samplingTimeStart.lt(before))
+                .fetchOne()));
+    }
+
+    private void archive(Long datasetId, YearMonth month) throws IOException {
+        ArchiveChunk existing = catalog.get(datasetId, month);
+        Path target = root.resolve(Long.toString(datasetId)).resolve(month + ArchiveChunk.SUFFIX);
+        Path temporary = target.resolveSibling(target.getFileName() + TEMPORARY_SUFFIX);
+        Files.createDirectories(target.getParent());
+        try {
+            Integer archived = readWrite.execute(status -> moveToArchive(datasetId, month, existing, temporary, target));
+            if (archived != null && archived > 0) {
+                Files.deleteIfExists(ArchiveChunk.getPendingPath(target));
+                register(ArchiveChunk.open(target));
+                LOGGER.debug("Archived {} Observations of Dataset {} in {}", archived, datasetId, month);
+            }
+        } catch (UncheckedIOException e) {
+            registerPending(target);
+            throw e.getCause();
+        } catch (RuntimeException e) {
+            registerPending(target);
+            throw e;
+        } finally {
+            Files.deleteIfExists(temporary);
+        }
+    }
+
+    /**
+     * Registers the chunk with its pending Observations after the deletion
+     * from the table failed, the chunk may have been replaced already.
+     */
+    private void registerPending(Path target) throws IOException {
+        if (Files.exists(target) && Files.exists(ArchiveChunk.getPendingPath(target))) {
+            register(ArchiveChunk.open(target));
+        }
+    }
+
+    /**
+     * Deletes the pending Observations of the chunks from the table. They are
+     * left by a run whose deletion was not committed or that stopped before
+     * removing the pending file, the chunk holds them in both cases.
+     */
+    private void confirmPending() throws IOException {
+        for (ArchiveChunk chunk : catalog.all) {
+            Path pending = ArchiveChunk.getPendingPath(chunk.getPath());
+            if (!Files.exists(pending)) {
+                continue;
+            }
+            long[] ids = chunk.getPendingIds();
+            if (ids.length > 0) {
+                readWrite.execute(status -> {
+                    deleteFromTable(ids);
+                    return null;
+                });
+            }
+            Files.delete(pending);
+            register(ArchiveChunk.open(chunk.getPath()));
+        }
+    }
+
+    /**
+     * Writes the chunk with the archived Observations and those of the table,
+     * deletes them from the table and replaces the chunk. The ids of the
+     * Observations of the table are written to the pending file of the chunk
+     * before, it is removed after the commit.
+     *
+     * @return the number of Observations moved from the table
+     */
+    private int moveToArchive(Long datasetId, YearMonth month, ArchiveChunk existing, Path temporary,
+            Path target) {
+        ArchiveChunk.Writer writer = new ArchiveChunk.Writer(datasetId, month);
+        ChunkMerge merge = new ChunkMerge(existing != null ? existing.decode() : null, writer);
+        try (CloseableIterator<Tuple> rows = new JPAQuery<Void>(entityManager)
+                .select(qquantity.id, qquantity.samplingTimeStart, qquantity.resultTime, qquantity.value)
+                .from(qquantity)
+                .where(ARCHIVABLE, qquantity.dataset.id.eq(datasetId),
+                        qquantity.samplingTimeStart.goe(toDate(month)),
+                        qquantity.samplingTimeStart.lt(toDate(month.plusMonths(1))))
+                .orderBy(qquantity.samplingTimeStart.asc(), qquantity.id.asc())
+                .iterate()) {
+            while (rows.hasNext()) {
+                Tuple row = rows.next();
+                BigDecimal value = row.get(qquantity.value);
+                if (!ObservationRingBuffer.isSupported(value)) {
+                    continue;
+                }
+                Date resultTime = row.get(qquantity.resultTime);
+                merge.add(row.get(qquantity.samplingTimeStart).getTime(),
+                        resultTime != null ? resultTime.getTime() : ObservationRingBuffer.NO_TIME,
+                        row.get(qquantity.id), value.unscaledValue().longValue(), value.scale());
+            }
+        }
+        long[] ids = merge.finish();
+        if (ids.length == 0) {
+            return 0;
+        }
+        try {
+            writer.write(temporary);
+            ArchiveChunk.writePending(target, ids);
+            deleteFromTable(ids);
+            Files.move(temporary, target, StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+        } catch (IOException e) {
+            throw new UncheckedIOException(e);
+        }
+        return ids.length;
+    }
+
+    private void deleteFromTable(long[] ids) {
+        for (int from = 0; from < ids.length; from += batchSize) {
+            List<Long> batch = Arrays.stream(ids, from, Math.min(from + batchSize, ids.length))
+                    .boxed()
+                    .collect(Collectors.toList());
+            new JPADeleteClause(entityManager, qobservation).where(qobservation.id.in(batch)).execute();
+        }
+    }
+
+    private void register(ArchiveChunk chunk) {
+        catalog = catalog.with(chunk);
+    }
+
+    private static Catalog load(Path root) throws IOException {
+        List<Path> files;
+        try (Stream<Path> walk = Files.walk(root, 2)) {
+            files = walk.filter(Files::isRegularFile).collect(Collectors.toList());
+        }
+        Map<Long, Map<YearMonth, ArchiveChunk>> chunks = new HashMap<>();
+        for (Path file : files) {
+            String name = file.getFileName().toString();
+            if (name.endsWith(TEMPORARY_SUFFIX)) {
+                Files.delete(file);
+            } else if (name.endsWith(ArchiveChunk.SUFFIX)) {
+                ArchiveChunk chunk = ArchiveChunk.open(file);
+                chunks.computeIfAbsent(chunk.getDatasetId(), id -> new TreeMap<>()).put(chunk.getMonth(), chunk);
+            }
+        }
+        return new Catalog(chunks);
+    }
+
+    private static Date toDate(YearMonth month) {
+        return Date.from(month.atDay(1).atStartOfDay(ZoneOffset.UTC).toInstant());
+    }
+
+    private static YearMonth toMonth(Date date) {
+        return date != null ? YearMonth.from(Instant.ofEpochMilli(date.getTime()).atZone(ZoneOffset.UTC)) : null;
+    }
+
+    /**
+     * Merges the Observations of the table, added in the order of
+     * phenomenonTime and id, into the Observations of a chunk. An Observation
+     * in both, whose deletion from the table was not committed, is written
+     * once.
+     */
+    static final class ChunkMerge {
+
+        private final ArchiveChunk.Columns archived;
+
+        private final ArchiveChunk.Writer writer;
+
+        private final LongStream.Builder moved = LongStream.builder();
+
+        private int next;
+
+        /**
+         * @param archived
+         *            the decoded Observations of the chunk, may be
+         *            <code>null</code> if there is no chunk yet
+         * @param writer
+         *            the writer of the new chunk
+         */
+        ChunkMerge(ArchiveChunk.Columns archived, ArchiveChunk.Writer writer) {
+            this.archived = archived;
+            this.writer = writer;
+        }
+
+        void add(long phenomenonTime, long resultTime, long id, long unscaledValue, int scale) {
+            int archivedCount = archived != null ? archived.size() : 0;
+            while (next < archivedCount && archived.compare(next, phenomenonTime, id) < 0) {
+                archived.copyTo(writer, next++);
+            }
+            if (next < archivedCount && archived.getId(next) == id) {
+                next++;
+            }
+            writer.add(phenomenonTime, resultTime, id, unscaledValue, scale);
+            moved.add(id);
+        }
+
+        /**
+         * Adds the remaining Observations of the chunk.
+         *
+         * @return the ids of the Observations of the table
+         */
+        long[] finish() {
+            int archivedCount = archived != null ? archived.size() : 0;
+            while (next < archivedCount) {
+                archived.copyTo(writer, next++);
+            }
+            return moved.build().toArray();
+        }
+    }
+
+    /**
+     * The archived Observations of a set of chunks in the order of a key and
+     * the id. A chunk is only decoded if its bounds overlap the searched
+     * Observations.
+     */
+    private static final class ArchivedRows {
+
+        private final List<ArchiveChunk> chunks;
+
+        private final ArchiveChunk.Key key;
+
+        private final boolean descending;
+
+        private final long size;
+
+        ArchivedRows(List<ArchiveChunk> chunks, ArchiveChunk.Key key, boolean descending) {
+            this.key = key;
+            this.descending = descending;
+            this.chunks = new ArrayList<>(chunks);
+            this.chunks.sort(descending
+                    ? Comparator.<ArchiveChunk> comparingLong(key::max).reversed()
+                    : Comparator.<ArchiveChunk> comparingLong(key::min));
+            this.size = chunks.stream().mapToLong(ArchiveChunk::getCount).sum();
+        }
+
+        long size() {
+            return size;
+        }
+
+        int compare(DataEntity<?> left, DataEntity<?> right) {
+            return compare(key.of(left), left.getId(), key.of(right), right.getId());
+        }
+
+        int compare(long leftKey, long leftId, long rightKey, long rightId) {
+            int comparison = Long.compare(leftKey, rightKey);
+            if (comparison == 0) {
+                comparison = Long.compare(leftId, rightId);
+            }
+            return descending ? -comparison : comparison;
+        }
+
+        /**
+         * @return the number of archived Observations ordered before the
+         *         Observation
+         */
+        long countBefore(DataEntity<?> observation) {
+            long value = key.of(observation);
+            long id = observation.getId();
+            long count = 0;
+            for (ArchiveChunk chunk : chunks) {
+                if (compareKey(last(chunk), value) < 0) {
+                    count += chunk.getCount();
+                } else if (compareKey(first(chunk), value) <= 0) {
+                    count += new Cursor(chunk).countBefore(value, id);
+                }
+            }
+            return count;
+        }
+
+        /**
+         * Selects the archived Observations following an offset. The chunks
+         * are decoded when the merge reaches their bounds, a chunk ordered
+         * before all others is skipped without decoding.
+         *
+         * @param offset
+         *            the number of skipped Observations
+         * @param limit
+         *            the number of selected Observations
+         * @return the Observations in order
+         */
+        List<DataEntity<?>> select(long offset, int limit) {
+            List<DataEntity<?>> selected = new ArrayList<>(limit);
+            PriorityQueue<Cursor> open = new PriorityQueue<>((left, right) -> compare(left.key(), left.id(),
+                    right.key(), right.id()));
+            long skipped = offset;
+            int next = 0;
+            while (selected.size() < limit) {
+                while (next < chunks.size()
+                        && (open.isEmpty() || compareKey(first(chunks.get(next)), open.peek().key()) <= 0)) {
+                    ArchiveChunk chunk = chunks.get(next++);
+                    if (open.isEmpty() && skipped >= chunk.getCount()
+                            && (next == chunks.size() || compareKey(last(chunk), first(chunks.get(next))) < 0)) {
+                        skipped -= chunk.getCount();
+                    } else if (chunk.getCount() > 0) {
+                        open.add(new Cursor(chunk));
+                    }
+                }
+                Cursor cursor = open.poll();
+                if (cursor == null) {
+                    break;
+                }
+                if (skipped > 0) {
+                    skipped--;
+                } else {
+                    selected.add(cursor.toObservation());
+                }
+                if (cursor.advance()) {
+                    open.add(cursor);
+                }
+            }
+            return selected;
+        }
+
+        private long first(ArchiveChunk chunk) {
+            return descending ? key.max(chunk) : key.min(chunk);
+        }
+
+        private long last(ArchiveChunk chunk) {
+            return descending ? key.min(chunk) : key.max(chunk);
+        }
+
+        private int compareKey(long left, long right) {
+            return descending ? Long.compare(right, left) : Long.compare(left, right);
+        }
+
+        /**
+         * The rows of a decoded chunk in the order, without the pending
+         * Observations.
+         */
+        private final class Cursor {
+
+            private final ArchiveChunk.Columns columns;
+
+            private final int[] rows;
+
+            private int position;
+
+            Cursor(ArchiveChunk chunk) {
+                this.columns = chunk.decode();
+                int[] sorted = sort(columns);
+                this.rows = chunk.getCount() < columns.size()
+                        ? IntStream.of(sorted).filter(row -> !chunk.isPending(columns.getId(row))).toArray()
+                        : sorted;
+            }
+
+            long key() {
+                return key.of(columns, rows[position]);
+            }
+
+            long id() {
+                return columns.getId(rows[position]);
+            }
+
+            DataEntity<?> toObservation() {
+                return columns.toObservation(rows[position]);
+            }
+
+            boolean advance() {
+                return ++position < rows.length;
+            }
+
+            long countBefore(long value, long id) {
+                int low = 0;
+                int high = rows.length;
+                while (low < high) {
+                    int middle = (low + high) >>> 1;
+                    int row = rows[middle];
+                    if (compare(key.of(columns, row), columns.getId(row), value, id) < 0) {
+                        low = middle + 1;
+                    } else {
+                        high = middle;
+                    }
+                }
+                return low;
+            }
+
+            /**
+             * The rows are stored by phenomenonTime and id, other orders are
+             * sorted.
+             */
+            private int[] sort(ArchiveChunk.Columns columns) {
+                int size = columns.size();
+                int[] sorted = new int[size];
+                boolean ordered = true;
+                for (int i = 0; i < size; i++) {
+                    sorted[i] = descending ? size - 1 - i : i;
+                    if (i > 0 && compare(key.of(columns, sorted[i - 1]), columns.getId(sorted[i - 1]),
+                            key.of(columns, sorted[i]), columns.getId(sorted[i])) > 0) {
+                        ordered = false;
+                    }
+                }
+                if (ordered) {
+                    return sorted;
+                }
+                return IntStream.range(0, size)
+                        .boxed()
+                        .sorted((left, right) -> compare(key.of(columns, left), columns.getId(left),
+                                key.of(columns, right), columns.getId(right)))
+                        .mapToInt(Integer::intValue)
+                        .toArray();
+            }
+        }
+    }
+
+    /**
+     * The immutable chunks by Dataset and month. Changes replace the catalog.
+     */
+    private static final class Catalog {
+
+        static final Catalog EMPTY = new Catalog(Collections.emptyMap());
+
+        private final Map<Long, Map<YearMonth, ArchiveChunk>> byDataset;
+
+        private final List<ArchiveChunk> all;
+
+        private final long observations;
+
+        Catalog(Map<Long, Map<YearMonth, ArchiveChunk>> byDataset) {
+            this.byDataset = byDataset;
+            this.all = Collections.unmodifiableList(byDataset.values().stream()
+                    .flatMap(months -> months.values().stream())
+                    .collect(Collectors.toList()));
+            this.observations = all.stream().mapToLong(ArchiveChunk::getCount).sum();
+        }
+
+        ArchiveChunk get(Long datasetId, YearMonth month) {
+            Map<YearMonth, ArchiveChunk> months = byDataset.get(datasetId);
+            return months != null ? months.get(month) : null;
+        }
+
+        List<ArchiveChunk> of(Collection<Long> datasetIds) {
+            List<ArchiveChunk> chunks = new ArrayList<>();
+            for (Long datasetId : datasetIds) {
+                Map<YearMonth, ArchiveChunk> months = byDataset.get(datasetId);
+                if (months != null) {
+                    chunks.addAll(months.values());
+                }
+            }
+            return chunks;
+        }
+
+        Catalog with(ArchiveChunk chunk) {
+            Map<Long, Map<YearMonth, ArchiveChunk>> chunks = new HashMap<>(byDataset);
+            Map<YearMonth, ArchiveChunk> months = new TreeMap<>(chunks.getOrDefault(chunk.getDatasetId(),
+                    Collections.emptyMap()));
+            months.put(chunk.getMonth(), chunk);
+            chunks.put(chunk.getDatasetId(), months);
+            return new Catalog(chunks);
+        }
+    }
+
+}
@@ -0,0 +1,85 @@
+/*
+ * Copyright (C) 2012-2018 52°North Initiative for Geospatial Open Source
+ * Software GmbH
+ *
+ * This program is free software; you can redistribute it and/or modify it
+ * under the terms of the GNU General Public License version 2 as published
+ * by the Free Software Foundation.
+ *
+ * If the program is linked with libraries which are licensed under one of
+ * the following licenses, the combination of the program with the linked
+ * library is not considered a "derivative work" of the program:
+ *
+ *     - Apache License, version 2.0
+ *     - Apache Software License, version 1.0
+ *     - GNU Lesser General Public License, version 3
+ *     - Mozilla Public License, versions 1.0, 1.1 and 2.0
+ *     - Common Development and Distribution License (CDDL), version 1.0
+ *
+ * Therefore the distribution of the program linked with libraries licensed
+ * under the aforementioned licenses, is permitted by the copyright holders
+ * if the distribution is compliant with both the GNU General Public
+ * License version 2 and the aforementioned licenses.
+ *
+ * This program is distributed in the hope that it will be useful, but
+ * WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the GNU General
+ * Public License for more details.
+ */
+package org.n52.sta.data.service;
+
+import org.n52.series.db.beans.DataEntity;
+import org.springframework.context.ApplicationEvent;
+
+/**
+ * Published after a new Observation has been persisted, so that push
+ * mechanisms (e.g. MQTT subscriptions) and in-memory structures can react on
+ * it without polling the database.
+ *
+ * @since 1.0.0
+ */
+public class ObservationCreationEvent extends ApplicationEvent {
+
+    private static final long serialVersionUID = -5318206727452462263L;
+
+    private final Long datastreamId;
+
+    private final transient DataEntity<?> observation;
+
+    private final String ingestTopic;
+
+    public ObservationCreationEvent(Object source, Long datastreamId, DataEntity<?> observation) {
+        this(source, datastreamId, observation, null);
+    }
+
+    public ObservationCreationEvent(Object source, Long datastreamId, DataEntity<?> observation,
+            String ingestTopic) {
+        super(source);
+        this.datastreamId = datastreamId;
+        this.observation = observation;
+        this.ingestTopic = ingestTopic;
+    }
+
+    /**
+     * @return the ID of the Datastream the Observation belongs to
+     */
+    public Long getDatastreamId() {
+        return datastreamId;
+    }
+
+    /**
+     * @return the persisted Observation
+     */
+    public DataEntity<?> getObservation() {
+        return observation;
+    }
+
+    /**
+     * @return the MQTT topic the Observation has been published to or
+     *         <code>null</code> if it was not ingested via MQTT
+     */
+    public String getIngestTopic() {
+        return ingestTopic;
+    }
+
+}
@@ -0,0 +1,196 @@
+/*
+ * Copyright (C) 2012-2018 52°North Initiative for Geospatial Open Source
+ * Software GmbH
+ *
+ * This program is free software; you can redistribute it and/or modify it
+ * under the terms of the GNU General Public License version 2 as published
+ * by the Free Software Foundation.
+ *
+ * If the program is linked with libraries which are licensed under one of
+ * the following licenses, the combination of the program with the linked
+ * library is not considered a "derivative work" of the program:
+ *
+ *     - Apache License, version 2.0
+ *     - Apache Software License, version 1.0
+ *     - GNU Lesser General Public License, version 3
+ *     - Mozilla Public License, versions 1.0, 1.1 and 2.0
+ *     - Common Development and Distribution License (CDDL), version 1.0
+ *
+ * Therefore the distribution of the program linked with libraries licensed
+ * under the aforementioned licenses, is permitted by the copyright holders
+ * if the distribution is compliant with both the GNU General Public
+ * License version 2 and the aforementioned licenses.
+ *
+ * This program is distributed in the hope that it will be useful, but
+ * WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the GNU General
+ * Public License for more details.
+ */
+package org.n52.sta.data.service;
+
+import java.sql.Connection;
+import java.sql.SQLException;
+import java.time.YearMonth;
+import java.time.ZoneOffset;
+import java.time.format.DateTimeFormatter;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ScheduledThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+
+import javax.persistence.EntityManagerFactory;
+import javax.sql.DataSource;
+
+import org.hibernate.engine.spi.SessionFactoryImplementor;
+import org.hibernate.persister.entity.AbstractEntityPersister;
+import org.n52.series.db.beans.DataEntity;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.beans.factory.DisposableBean;
+import org.springframework.beans.factory.InitializingBean;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.context.event.ContextRefreshedEvent;
+import org.springframework.context.event.EventListener;
+import org.springframework.dao.DataAccessException;
+import org.springframework.jdbc.core.JdbcTemplate;
+import org.springframework.stereotype.Component;
+
+/**
+ * Maintains the monthly partitions of the observation table if it is
+ * partitioned by the start of the phenomenonTime with PostgreSQL declarative
+ * partitioning (see <code>db/postgres/observation-partitioning.sql</code>).
+ * <p>
+ * The partitions of the current month and of the following
+ * <code>database.partitioning.months-ahead</code> months are created when the
+ * application starts and then every
+ * <code>database.partitioning.check-interval</code> milliseconds. Other
+ * databases, e.g. the embedded H2 database of the tests, and unpartitioned
+ * tables are used as they are.
+ *
+ * @since 1.0.0
+ */
+@Component
+public class ObservationPartitionManager implements InitializingBean, DisposableBean {
+
+    private static final Logger LOGGER = LoggerFactory.getLogger(ObservationPartitionManager.class);
+
+    private static final DateTimeFormatter PARTITION_SUFFIX = DateTimeFormatter.ofPattern("'_p'yyyy_MM");
+
+    private static final String IS_PARTITIONED = "SELECT count(*) FROM pg_partitioned_table p"
+            + " JOIN pg_class c ON c.oid = p.partrelid"
+            + " JOIN pg_namespace n ON n.oid = c.relnamespace"
+            + " WHERE c.relname = ? AND n.nspname = coalesce(?, current_schema())";
+
+    @Value("${database.partitioning.enabled:false}")
+    private boolean enabled;
+
+    @Value("${database.partitioning.months-ahead:3}")
+    private int monthsAhead;
+
+    @Value("${database.partitioning.check-interval:86400000}")
+    private long checkInterval;
+
+    @Autowired
+    private DataSource dataSource;
+
+    @Autowired
+    private EntityManagerFactory entityManagerFactory;
+
+    private final AtomicBoolean started = new AtomicBoolean();
+
+    private volatile boolean partitioned;
+
+    private JdbcTemplate jdbc;
+
+    private ScheduledExecutorService executor;
+
+    @Override
+    public void afterPropertiesSet() {
+        if (!enabled) {
+            return;
+        }
+        jdbc = new JdbcTemplate(dataSource);
+        ScheduledThreadPoolExecutor scheduler = new ScheduledThreadPoolExecutor(1, r -> {
+            Thread thread = new Thread(r, "sta-partition-manager");
+            thread.setDaemon(true);
+            return thread;
+        });
+        scheduler.setExecuteExistingDelayedTasksAfterShutdownPolicy(false);
+        executor = scheduler;
+    }
+
+    @Override
+    public void destroy() {
+        if (executor != null) {
+            executor.shutdownNow();
+        }
+    }
+
+    /**
+     * Starts maintaining the partitions once the database is ready.
+     */
+    @EventListener(ContextRefreshedEvent.class)
+    public void start() {
+        if (executor == null || !started.compareAndSet(false, true)) {
+            return;
+        }
+        if (!isPostgres()) {
+            LOGGER.info("Partitioning of the observation table is only supported on PostgreSQL");
+            return;
+        }
+        executor.scheduleWithFixedDelay(this::createPartitions, 0, checkInterval, TimeUnit.MILLISECONDS);
+    }
+
+    /**
+     * @return if the observation table is partitioned by month
+     */
+    public boolean isPartitioned() {
+        return partitioned;
+    }
+
+    private void createPartitions() {
+        try {
+            AbstractEntityPersister persister = (AbstractEntityPersister) entityManagerFactory
+                    .unwrap(SessionFactoryImplementor.class)
+                    .getMetamodel()
+                    .entityPersister(DataEntity.class.getName());
+            String qualifiedTable = persister.getTableName();
+            int separator = qualifiedTable.lastIndexOf('.');
+            String schema = separator < 0 ? null : qualifiedTable.substring(0, separator);
+            String table = qualifiedTable.substring(separator + 1);
+            partitioned = jdbc.queryForObject(IS_PARTITIONED, Long.class, table, schema) > 0;
+            if (!partitioned) {
+                LOGGER.debug("The table {} is not partitioned", qualifiedTable);
+                return;
+            }
+            YearMonth month = YearMonth.now(ZoneOffset.UTC);
+            for (int i = 0; i <= monthsAhead; i++) {
+                createPartition(qualifiedTable, month.plusMonths(i));
+            }
+        } catch (DataAccessException | ClassCastException e) {
+            LOGGER.warn("Could not create the partitions of the observation table", e);
+        }
+    }
+
+    private void createPartition(String table, YearMonth month) {
+        String partition = table + month.format(PARTITION_SUFFIX);
+        try {
+            jdbc.execute(String.format("CREATE TABLE IF NOT EXISTS %s PARTITION OF %s FOR VALUES FROM ('%s') TO ('%s')",
+                    partition, table, month.atDay(1), month.plusMonths(1).atDay(1)));
+        } catch (DataAccessException e) {
+            // e.g. the default partition already holds rows of the month
+            LOGGER.warn("Could not create the partition {}", partition, e);
+        }
+    }
+
+    private boolean isPostgres() {
+        try (Connection connection = dataSource.getConnection()) {
+            return "PostgreSQL".equalsIgnoreCase(connection.getMetaData().getDatabaseProductName());
+        } catch (SQLException e) {
+            LOGGER.warn("Could not determine the database", e);
+            return false;
+        }
+    }
+
+}
@@ -0,0 +1,223 @@
+/*
+ * Copyright (C) 2012-2018 52°North Initiative for Geospatial Open Source
+ * Software GmbH
+ *
+ * This program is free software; you can redistribute it and/or modify it
+ * under the terms of the GNU General Public License version 2 as published
+ * by the Free Software Foundation.
+ *
+ * If the program is linked with libraries which are licensed under one of
+ * the following licenses, the combination of the program with the linked
+ * library is not considered a "derivative work" of the program:
+ *
+ *     - Apache License, version 2.0
+ *     - Apache Software License, version 1.0
+ *     - GNU Lesser General Public License, version 3
+ *     - Mozilla Public License, versions 1.0, 1.1 and 2.0
+ *     - Common Development and Distribution License (CDDL), version 1.0
+ *
+ * Therefore the distribution of the program linked with libraries licensed
+ * under the aforementioned licenses, is permitted by the copyright holders
+ * if the distribution is compliant with both the GNU General Public
+ * License version 2 and the aforementioned licenses.
+ *
+ * This program is distributed in the hope that it will be useful, but
+ * WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the GNU General
+ * Public License for more details.
+ */
+package org.n52.sta.data.service;
+
+import java.time.YearMonth;
+import java.time.ZoneOffset;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Date;
+import java.util.Iterator;
+import java.util.List;
+
+import javax.persistence.EntityManager;
+import javax.persistence.PersistenceContext;
+
+import org.n52.series.db.beans.QDataEntity;
+import org.n52.series.db.beans.sta.QDatastreamEntity;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.data.domain.Pageable;
+import org.springframework.data.domain.Sort;
+import org.springframework.stereotype.Component;
+
+import com.querydsl.core.Tuple;
+import com.querydsl.core.types.dsl.BooleanExpression;
+import com.querydsl.core.types.dsl.DateTimePath;
+import com.querydsl.jpa.impl.JPAQuery;
+
+/**
+ * Plans the Observation queries of a Datastream by its time bounds, i.e. the
+ * phenomenonTime and resultTime intervals stored with the Datastream.
+ * <ul>
+ * <li>The first or last Observation by phenomenonTime or resultTime is first
+ * queried with a predicate matching only the Observations at the bound.</li>
+ * <li>If the observation table is partitioned (see
+ * {@link ObservationPartitionManager}), pages ordered by phenomenonTime are
+ * queried in growing windows of whole months starting at the end of the
+ * ordering, so that only the partitions needed for the page are read.</li>
+ * </ul>
+ * Each probe restricts the ordered Observations to a prefix of the ordering,
+ * so a full page of a probe is the requested page. Otherwise the next probe,
+ * and finally the query without a probe, is run.
+ * <p>
+ * The bounds are only used as probes and never restrict the query itself.
+ * They are extended when Observations are created through the API but may
+ * miss Observations inserted by other applications or concurrently, a probe
+ * built from stale bounds returns less than a page and is passed over.
+ *
+ * @since 1.0.0
+ */
+@Component
+public class ObservationQueryPlanner {
+
+    private static final QDataEntity qobservation = QDataEntity.dataEntity;
+
+    private static final QDatastreamEntity qdatastream = QDatastreamEntity.datastreamEntity;
+
+    private static final String PHENOMENON_TIME = qobservation.samplingTimeStart.getMetadata().getName();
+
+    private static final String RESULT_TIME = qobservation.resultTime.getMetadata().getName();
+
+    @Value("${database.observation-planner.enabled:true}")
+    private boolean enabled;
+
+    @PersistenceContext
+    private EntityManager entityManager;
+
+    @Autowired
+    private ObservationPartitionManager partitionManager;
+
+    /**
+     * Plans the query for a page of the Observations of a Datastream.
+     *
+     * @param datastreamId
+     *            the ID of the Datastream
+     * @param pageable
+     *            the requested page
+     * @return the plan
+     */
+    public Plan plan(Long datastreamId, Pageable pageable) {
+        if (!enabled || datastreamId == null) {
+            return Plan.NONE;
+        }
+        Tuple bounds = new JPAQuery<Void>(entityManager)
+                .select(qdatastream.samplingTimeStart, qdatastream.samplingTimeEnd,
+                        qdatastream.resultTimeStart, qdatastream.resultTimeEnd)
+                .from(qdatastream)
+                .where(qdatastream.id.eq(datastreamId))
+                .fetchOne();
+        if (bounds == null) {
+            return Plan.NONE;
+        }
+        return new Plan(createProbes(bounds, pageable), pageable.getPageSize());
+    }
+
+    private List<BooleanExpression> createProbes(Tuple bounds, Pageable pageable) {
+        Iterator<Sort.Order> orders = pageable.getSort().iterator();
+        if (!orders.hasNext()) {
+            return Collections.emptyList();
+        }
+        Sort.Order order = orders.next();
+        List<BooleanExpression> probes = new ArrayList<>();
+        if (PHENOMENON_TIME.equals(order.getProperty())) {
+            Date start = bounds.get(qdatastream.samplingTimeStart);
+            Date end = bounds.get(qdatastream.samplingTimeEnd);
+            if (isFirstOrLast(pageable)) {
+                addBoundProbe(probes, qobservation.samplingTimeStart, order, start, end);
+            }
+            if (start != null && end != null && partitionManager.isPartitioned()) {
+                addMonthProbes(probes, order, start, end);
+            }
+        } else if (RESULT_TIME.equals(order.getProperty()) && isFirstOrLast(pageable)) {
+            addBoundProbe(probes, qobservation.resultTime, order,
+                    bounds.get(qdatastream.resultTimeStart), bounds.get(qdatastream.resultTimeEnd));
+        }
+        return probes;
+    }
+
+    private static boolean isFirstOrLast(Pageable pageable) {
+        return pageable.getOffset() == 0 && pageable.getPageSize() == 1;
+    }
+
+    private void addBoundProbe(List<BooleanExpression> probes, DateTimePath<Date> path, Sort.Order order,
+            Date start, Date end) {
+        if (order.isAscending() && start != null) {
+            probes.add(path.loe(start));
+        } else if (order.isDescending() && end != null) {
+            probes.add(path.goe(end));
+        }
+    }
+
+    /**
+     * Adds windows of 1, 2, 4, ... months from the end of the ordering that
+     * are aligned with the monthly partitions.
+     */
+    private void addMonthProbes(List<BooleanExpression> probes, Sort.Order order, Date start, Date end) {
+        YearMonth first = YearMonth.from(start.toInstant().atZone(ZoneOffset.UTC));
+        YearMonth last = YearMonth.from(end.toInstant().atZone(ZoneOffset.UTC));
+        for (long months = 1; ; months *= 2) {
+            if (order.isAscending()) {
+                YearMonth limit = first.plusMonths(months);
+                if (limit.isAfter(last)) {
+                    return;
+                }
+                probes.add(qobservation.samplingTimeStart.lt(toDate(limit)));
+            } else {
+                YearMonth limit = last.minusMonths(months - 1);
+                if (!limit.isAfter(first)) {
+                    return;
+                }
+                probes.add(qobservation.samplingTimeStart.goe(toDate(limit)));
+            }
+        }
+    }
+
+    private static Date toDate(YearMonth month) {
+        return Date.from(month.atDay(1).atStartOfDay(ZoneOffset.UTC).toInstant());
+    }
+
+    /**
+     * The additional predicates of an Observation query.
+     */
+    public static final class Plan {
+
+        static final Plan NONE = new Plan(Collections.emptyList(), 0);
+
+        private final List<BooleanExpression> probes;
+
+        private final int pageSize;
+
+        private Plan(List<BooleanExpression> probes, int pageSize) {
+            this.probes = probes;
+            this.pageSize = pageSize;
+        }
+
+        /**
+         * @return the predicates to try in order before the query without a
+         *         probe
+         */
+        public List<BooleanExpression> getProbes() {
+            return probes;
+        }
+
+        /**
+         * The probes restrict the ordered Observations to a prefix of the
+         * ordering, so a full page of one is the requested page.
+         *
+         * @param rows
+         *            the number of rows returned for a probe
+         * @return if the page of the probe is the requested page
+         */
+        public boolean isComplete(int rows) {
+            return rows >= pageSize;
+        }
+    }
+
+}
@@ -0,0 +1,468 @@
+/*
+ * Copyright (C) 2012-2018 52°North Initiative for Geospatial Open Source
+ * Software GmbH
+ *
+ * This program is free software; you can redistribute it and/or modify it
+ * under the terms of the GNU General Public License version 2 as published
+ * by the Free Software Foundation.
+ *
+ * If the program is linked with libraries which are licensed under one of
+ * the following licenses, the combination of the program with the linked
+ * library is not considered a "derivative work" of the program:
+ *
+ *     - Apache License, version 2.0
+ *     - Apache Software License, version 1.0
+ *     - GNU Lesser General Public License, version 3
+ *     - Mozilla Public License, versions 1.0, 1.1 and 2.0
+ *     - Common Development and Distribution License (CDDL), version 1.0
+ *
+ * Therefore the distribution of the program linked with libraries licensed
+ * under the aforementioned licenses, is permitted by the copyright holders
+ * if the distribution is compliant with both the GNU General Public
+ * License version 2 and the aforementioned licenses.
+ *
+ * This program is distributed in the hope that it will be useful, but
+ * WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the GNU General
+ * Public License for more details.
+ */
+package org.n52.sta.data.service;
+
+import java.math.BigDecimal;
+import java.nio.ByteBuffer;
+import java.util.ArrayList;
+import java.util.Date;
+import java.util.HashSet;
+import java.util.List;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import org.n52.series.db.beans.DataEntity;
+import org.n52.series.db.beans.QuantityDataEntity;
+
+/**
+ * The newest Observations of a Datastream in a ring buffer of direct
+ * (off-heap) memory, ordered by phenomenonTime and id.
+ * <p>
+ * The buffer is divided into primitive columns of <code>capacity</code>
+ * entries each: the phenomenonTime and resultTime in milliseconds, the id and
+ * the unscaled value and scale of the result. Only Observations that can be
+ * restored exactly from these columns are supported, i.e. quantities with a
+ * phenomenonTime instant, without validTime and without parameters.
+ * <p>
+ * The buffer is written by a single thread, pages are read concurrently.
+ *
+ * @since 1.0.0
+ */
+final class ObservationRingBuffer {
+
+    /**
+     * The bytes per Observation: four long columns and the scale
+     */
+    static final int ROW_BYTES = 4 * Long.BYTES + 1;
+
+    /**
+     * Stored for a missing resultTime
+     */
+    static final long NO_TIME = Long.MIN_VALUE;
+
+    /**
+     * The outcome of an {@link ObservationRingBuffer#append(DataEntity, boolean)}
+     */
+    enum Append {
+        APPENDED,
+        /** the Observation is already buffered */
+        DUPLICATE,
+        /** the buffer is full and the oldest Observation was not overwritten */
+        FULL,
+        /** the Observation is not newer than the buffered ones */
+        OUT_OF_ORDER
+    }
+
+    private final long retention;
+
+    private final AtomicInteger pendingUpdates = new AtomicInteger();
+
+    private ByteBuffer memory;
+
+    private int capacity;
+
+    private int head;
+
+    private int size;
+
+    private boolean complete;
+
+    private long lastId;
+
+    private volatile long lastAccess = System.nanoTime();
+
+    private final long created = lastAccess;
+
+    /**
+     * @param capacity
+     *            the number of Observations kept before the buffer has to
+     *            grow or overwrite the oldest
+     * @param retention
+     *            the milliseconds of phenomenonTime kept before the newest
+     *            Observation, unlimited if not positive
+     */
+    ObservationRingBuffer(int capacity, long retention) {
+        this.retention = retention;
+        allocate(capacity);
+    }
+
+    /**
+     * Checks if the Observation can be restored from the columns of the
+     * buffer.
+     *
+     * @param observation
+     *            the Observation
+     * @return if the Observation can be buffered
+     */
+    static boolean isSupported(DataEntity<?> observation) {
+        if (!(observation instanceof QuantityDataEntity) || observation.getId() == null
+                || observation.getSamplingTimeStart() == null || observation.isSetValidTime()) {
+            return false;
+        }
+        Date end = observation.getSamplingTimeEnd();
+        if (end != null && end.getTime() != observation.getSamplingTimeStart().getTime()) {
+            return false;
+        }
+        if (observation.getParameters() != null && !observation.getParameters().isEmpty()) {
+            return false;
+        }
+        return isSupported(((QuantityDataEntity) observation).getValue());
+    }
+
+    /**
+     * Checks if the result can be stored as an unscaled long and a byte scale.
+     *
+     * @param value
+     *            the result of a quantity
+     * @return if the result can be buffered
+     */
+    static boolean isSupported(BigDecimal value) {
+        return value != null && value.unscaledValue().bitLength() < Long.SIZE
+                && value.scale() >= Byte.MIN_VALUE && value.scale() <= Byte.MAX_VALUE;
+    }
+
+    /**
+     * Restores a buffered Observation from its columns.
+     *
+     * @param id
+     *            the id
+     * @param phenomenonTime
+     *            the phenomenonTime instant in milliseconds
+     * @param resultTime
+     *            the resultTime in milliseconds or {@link #NO_TIME}
+     * @param unscaledValue
+     *            the unscaled value of the result
+     * @param scale
+     *            the scale of the result
+     * @return the Observation
+     */
+    static DataEntity<?> restore(long id, long phenomenonTime, long resultTime, long unscaledValue, int scale) {
+        QuantityDataEntity observation = new QuantityDataEntity();
+        observation.setId(id);
+        observation.setSamplingTimeStart(new Date(phenomenonTime));
+        observation.setSamplingTimeEnd(new Date(phenomenonTime));
+        observation.setResultTime(resultTime != NO_TIME ? new Date(resultTime) : null);
+        observation.setValue(BigDecimal.valueOf(unscaledValue, scale));
+        observation.setParameters(new HashSet<>());
+        return observation;
+    }
+
+    /**
+     * Appends a supported Observation, it has to be newer than the buffered
+     * ones. Observations older than the retention are removed afterwards.
+     *
+     * @param observation
+     *            the Observation
+     * @param overwrite
+     *            if the oldest Observation is overwritten when the buffer is
+     *            full
+     * @return the outcome
+     */
+    synchronized Append append(DataEntity<?> observation, boolean overwrite) {
+        long phenomenonTime = observation.getSamplingTimeStart().getTime();
+        long id = observation.getId();
+        if (size > 0 && compare(phenomenonTime, id, size - 1) <= 0) {
+            return contains(phenomenonTime, id) ? Append.DUPLICATE : Append.OUT_OF_ORDER;
+        }
+        if (size == capacity) {
+            if (!overwrite) {
+                return Append.FULL;
+            }
+            removeOldest();
+        }
+        int row = physical(size++);
+        BigDecimal value = ((QuantityDataEntity) observation).getValue();
+        memory.putLong(phenomenonTimeColumn(row), phenomenonTime);
+        memory.putLong(resultTimeColumn(row),
+                observation.getResultTime() != null ? observation.getResultTime().getTime() : NO_TIME);
+        memory.putLong(idColumn(row), id);
+        memory.putLong(valueColumn(row), value.unscaledValue().longValue());
+        memory.put(scaleColumn(row), (byte) value.scale());
+        lastId = Math.max(lastId, id);
+        if (retention > 0) {
+            while (size > 0 && memory.getLong(phenomenonTimeColumn(head)) < phenomenonTime - retention) {
+                removeOldest();
+            }
+        }
+        return Append.APPENDED;
+    }
+
+    /**
+     * Checks if an Observation that was already tailed past, i.e. committed
+     * after Observations with larger ids, is missing from the buffered ones.
+     * Observations older than the oldest buffered one are only missing from a
+     * complete buffer.
+     *
+     * @param observation
+     *            the Observation
+     * @return if the Observation has to be appended
+     */
+    synchronized boolean isMissing(DataEntity<?> observation) {
+        if (observation.getSamplingTimeStart() == null || observation.getId() == null) {
+            return complete;
+        }
+        long phenomenonTime = observation.getSamplingTimeStart().getTime();
+        long id = observation.getId();
+        if (size == 0 || !complete && compare(phenomenonTime, id, 0) < 0) {
+            return complete;
+        }
+        return !contains(phenomenonTime, id);
+    }
+
+    /**
+     * Moves the buffered Observations into a larger buffer.
+     *
+     * @param newCapacity
+     *            the new capacity, larger than the current
+     */
+    synchronized void grow(int newCapacity) {
+        ByteBuffer oldMemory = memory;
+        int oldCapacity = capacity;
+        int oldHead = head;
+        allocate(newCapacity);
+        for (int i = 0; i < size; i++) {
+            int from = (oldHead + i) % oldCapacity;
+            memory.putLong(i * Long.BYTES, oldMemory.getLong(from * Long.BYTES));
+            memory.putLong((newCapacity + i) * Long.BYTES, oldMemory.getLong((oldCapacity + from) * Long.BYTES));
+            memory.putLong((2 * newCapacity + i) * Long.BYTES,
+                    oldMemory.getLong((2 * oldCapacity + from) * Long.BYTES));
+            memory.putLong((3 * newCapacity + i) * Long.BYTES,
+                    oldMemory.getLong((3 * oldCapacity + from) * Long.BYTES));
+            memory.put(4 * newCapacity * Long.BYTES + i, oldMemory.get(4 * oldCapacity * Long.BYTES + from));
+        }
+    }
+
+    /**
+     * Removes all Observations, e.g. if a newer one is not supported.
+     */
+    synchronized void clear() {
+        head = 0;
+        size = 0;
+        complete = false;
+    }
+
+    /**
+     * Marks the buffer to hold all Observations of the Datastream.
+     */
+    synchronized void markComplete() {
+        complete = true;
+    }
+
+    /**
+     * Reads a page of the Observations ordered by phenomenonTime. A
+     * descending page is covered if the buffer holds all Observations up to
+     * its end, an ascending page only if the buffer is complete.
+     *
+     * @param descending
+     *            if the newest Observations come first
+     * @param offset
+     *            the number of skipped Observations
+     * @param limit
+     *            the page size
+     * @return the Observations of the page or <code>null</code> if the page
+     *         is not covered by the buffer
+     */
+    synchronized List<DataEntity<?>> read(boolean descending, long offset, int limit) {
+        if (!covers(descending, offset, limit)) {
+            return null;
+        }
+        int from = (int) Math.min(offset, size);
+        int to = (int) Math.min(offset + limit, size);
+        List<DataEntity<?>> page = new ArrayList<>(to - from);
+        for (int i = from; i < to; i++) {
+            page.add(createObservation(physical(descending ? size - 1 - i : i)));
+        }
+        return page;
+    }
+
+    /**
+     * Reads the ids of a page of the Observations ordered by phenomenonTime.
+     *
+     * @param descending
+     *            if the newest Observations come first
+     * @param offset
+     *            the number of skipped Observations
+     * @param limit
+     *            the page size
+     * @return the ids of the page or <code>null</code> if the page is not
+     *         covered by the buffer
+     * @see #read(boolean, long, int)
+     */
+    synchronized long[] readIds(boolean descending, long offset, int limit) {
+        if (!covers(descending, offset, limit)) {
+            return null;
+        }
+        int from = (int) Math.min(offset, size);
+        int to = (int) Math.min(offset + limit, size);
+        long[] ids = new long[to - from];
+        for (int i = from; i < to; i++) {
+            ids[i - from] = memory.getLong(idColumn(physical(descending ? size - 1 - i : i)));
+        }
+        return ids;
+    }
+
+    /**
+     * @return the number of Observations of the Datastream or -1 if the
+     *         buffer is not complete
+     */
+    synchronized long count() {
+        lastAccess = System.nanoTime();
+        return complete ? size : -1;
+    }
+
+    synchronized int size() {
+        return size;
+    }
+
+    synchronized int getCapacity() {
+        return capacity;
+    }
+
+    synchronized long getAllocatedBytes() {
+        return getBytes(capacity);
+    }
+
+    /**
+     * @return the largest id appended, Observations up to it are known to
+     *         the buffer
+     */
+    synchronized long getLastId() {
+        return lastId;
+    }
+
+    synchronized void setLastId(long lastId) {
+        this.lastId = Math.max(this.lastId, lastId);
+    }
+
+    /**
+     * @return the {@link System#nanoTime()} of the creation
+     */
+    long getCreated() {
+        return created;
+    }
+
+    /**
+     * @return the {@link System#nanoTime()} of the last read
+     */
+    long getLastAccess() {
+        return lastAccess;
+    }
+
+    /**
+     * Marks an update as pending, so that readers do not miss an Observation
+     * that was just created.
+     */
+    void beginUpdate() {
+        pendingUpdates.incrementAndGet();
+    }
+
+    void endUpdate() {
+        pendingUpdates.decrementAndGet();
+    }
+
+    boolean isUpdatePending() {
+        return pendingUpdates.get() > 0;
+    }
+
+    static long getBytes(int capacity) {
+        return (long) capacity * ROW_BYTES;
+    }
+
+    private boolean covers(boolean descending, long offset, int limit) {
+        lastAccess = System.nanoTime();
+        return complete || descending && offset + limit <= size;
+    }
+
+    private void allocate(int newCapacity) {
+        memory = ByteBuffer.allocateDirect(newCapacity * ROW_BYTES);
+        capacity = newCapacity;
+        head = 0;
+    }
+
+    private void removeOldest() {
+        head = (head + 1) % capacity;
+        size--;
+        complete = false;
+    }
+
+    /**
+     * Binary search for the Observation in the buffered order.
+     */
+    private boolean contains(long phenomenonTime, long id) {
+        int low = 0;
+        int high = size - 1;
+        while (low <= high) {
+            int middle = (low + high) >>> 1;
+            int comparison = compare(phenomenonTime, id, middle);
+            if (comparison == 0) {
+                return true;
+            } else if (comparison > 0) {
+                low = middle + 1;
+            } else {
+                high = middle - 1;
+            }
+        }
+        return false;
+    }
+
+    private int compare(long phenomenonTime, long id, int index) {
+        int row = physical(index);
+        int comparison = Long.compare(phenomenonTime, memory.getLong(phenomenonTimeColumn(row)));
+        return comparison != 0 ? comparison : Long.compare(id, memory.getLong(idColumn(row)));
+    }
+
+    private DataEntity<?> createObservation(int row) {
+        return restore(memory.getLong(idColumn(row)), memory.getLong(phenomenonTimeColumn(row)),
+                memory.getLong(resultTimeColumn(row)), memory.getLong(valueColumn(row)), memory.get(scaleColumn(row)));
+    }
+
+    private int physical(int index) {
+        return (head + index) % capacity;
+    }
+
+    private int phenomenonTimeColumn(int row) {
+        return row * Long.BYTES;
+    }
+
+    private int resultTimeColumn(int row) {
+        return (capacity + row) * Long.BYTES;
+    }
+
+    private int idColumn(int row) {
+        return (2 * capacity + row) * Long.BYTES;
+    }
+
+    private int valueColumn(int row) {
+        return (3 * capacity + row) * Long.BYTES;
+    }
+
+    private int scaleColumn(int row) {
+        return 4 * capacity * Long.BYTES + row;
+    }
+
+}
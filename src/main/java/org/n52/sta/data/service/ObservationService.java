@@ -28,20 +28,37 @@
  */
 package org.n52.sta.data.service;
 
+import static org.n52.sta.edm.provider.entities.DatastreamEntityProvider.ET_DATASTREAM_FQN;
+
+import java.util.Collections;
+import java.util.Date;
+import java.util.List;
 import java.util.Optional;
 import java.util.OptionalLong;
+import java.util.Set;
+import java.util.function.Function;
 
 import org.apache.olingo.commons.api.data.Entity;
 import org.apache.olingo.commons.api.data.EntityCollection;
 import org.apache.olingo.commons.api.edm.EdmEntityType;
 import org.n52.series.db.DataRepository;
 import org.n52.series.db.beans.DataEntity;
+import org.n52.series.db.beans.DatasetEntity;
+import org.n52.series.db.beans.QDataEntity;
+import org.n52.series.db.beans.sta.DatastreamEntity;
 import org.n52.sta.data.OffsetLimitBasedPageRequest;
 import org.n52.sta.data.query.ObservationQuerySpecifications;
+import org.n52.sta.data.repositories.DatastreamRepository;
+import org.n52.sta.data.repositories.QueryTemplate;
+import org.n52.sta.data.repositories.QueryTemplates;
 import org.n52.sta.mapping.ObservationMapper;
 import org.n52.sta.service.query.QueryOptions;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.context.ApplicationEventPublisher;
+import org.springframework.data.domain.Pageable;
 import org.springframework.data.querydsl.QPageRequest;
 import org.springframework.stereotype.Component;
+import org.springframework.transaction.annotation.Transactional;
 
 import com.querydsl.core.types.dsl.BooleanExpression;
 
@@ -54,48 +71,293 @@ public class ObservationService extends AbstractSensorThingsEntityService<DataRe
 
     private ObservationMapper mapper;
 
-    private ObservationQuerySpecifications oQS = new ObservationQuerySpecifications();
+    private DatastreamRepository datastreamRepository;
+
+    private ApplicationEventPublisher eventPublisher;
+
+    private final static ObservationQuerySpecifications oQS = new ObservationQuerySpecifications();
+
+    // the validity restriction by id depends on the state of the ValidityIndex and is not templated
+    private static final QueryTemplates<DataEntity<?>> QUERY_TEMPLATES = QueryTemplates.of(QDataEntity.dataEntity, oQS::withId)
+            .relation("iot.Datastream", oQS::withDatastream)
+            .relation("iot.FeatureOfInterest", oQS::withFeatureOfInterest);
+
+    @Autowired
+    private ValidityIndex validityIndex;
+
+    @Autowired
+    private ObservationQueryPlanner queryPlanner;
 
-    public ObservationService(DataRepository<?> repository, ObservationMapper mapper) {
+    @Autowired
+    private HotObservationTier hotTier;
+
+    @Autowired
+    private ObservationArchive archive;
+
+    public ObservationService(DataRepository<?> repository, ObservationMapper mapper,
+            DatastreamRepository datastreamRepository, ApplicationEventPublisher eventPublisher) {
         super(repository);
         this.mapper = mapper;
+        this.datastreamRepository = datastreamRepository;
+        this.eventPublisher = eventPublisher;
+    }
+
+    /**
+     * Persists a new Observation for the Datastream with the given ID and
+     * publishes an {@link ObservationCreationEvent} for it.
+     *
+     * @param datastreamId
+     *            the ID of the Datastream the Observation belongs to
+     * @param featureId
+     *            the ID of the FeatureOfInterest of the Observation, may be
+     *            <code>null</code> if the Datastream has a single Dataset
+     * @param observation
+     *            the Observation to persist
+     * @return the persisted Observation or <code>null</code> if there is no
+     *         Datastream with the given ID or it has no Dataset for the
+     *         FeatureOfInterest
+     */
+    @Transactional
+    public DataEntity<?> createObservation(Long datastreamId, Long featureId, DataEntity<?> observation) {
+        return createObservation(datastreamId, featureId, dataset -> observation, null);
+    }
+
+    /**
+     * Persists a new Observation for the Datastream with the given ID and
+     * publishes an {@link ObservationCreationEvent} for it. The Observation
+     * is created once the Dataset is resolved, so its type can follow the
+     * value type of the Dataset.
+     *
+     * @param datastreamId
+     *            the ID of the Datastream the Observation belongs to
+     * @param featureId
+     *            the ID of the FeatureOfInterest of the Observation, may be
+     *            <code>null</code> if the Datastream has a single Dataset
+     * @param factory
+     *            creates the Observation for the resolved Dataset, may throw
+     *            an {@link IllegalArgumentException} to reject it
+     * @param ingestTopic
+     *            the MQTT topic the Observation has been published to, may be
+     *            <code>null</code>
+     * @return the persisted Observation or <code>null</code> if there is no
+     *         Datastream with the given ID or it has no Dataset for the
+     *         FeatureOfInterest
+     */
+    @Transactional
+    @SuppressWarnings("unchecked")
+    public DataEntity<?> createObservation(Long datastreamId, Long featureId,
+            Function<DatasetEntity, DataEntity<?>> factory, String ingestTopic) {
+        Optional<DatastreamEntity> datastream = datastreamRepository.findById(datastreamId);
+        Optional<DatasetEntity> dataset = datastream.isPresent()
+                ? getDataset(datastream.get(), featureId)
+                : Optional.empty();
+        if (!dataset.isPresent()) {
+            return null;
+        }
+        DataEntity<?> observation = factory.apply(dataset.get());
+        observation.setDataset(dataset.get());
+        extendTimeBounds(datastream.get(), observation);
+        DataEntity<?> created = ((DataRepository<DataEntity<?>>) getRepository()).save(observation);
+        eventPublisher.publishEvent(new ObservationCreationEvent(this, datastreamId, created, ingestTopic));
+        return created;
+    }
+
+    /**
+     * Selects the Dataset of the Datastream that observes the
+     * FeatureOfInterest. Without a FeatureOfInterest the Datastream has to
+     * have exactly one Dataset, otherwise the series is ambiguous.
+     */
+    private static Optional<DatasetEntity> getDataset(DatastreamEntity datastream, Long featureId) {
+        Set<DatasetEntity> datasets = datastream.getDatasets();
+        if (featureId == null) {
+            return datasets.size() == 1 ? Optional.of(datasets.iterator().next()) : Optional.empty();
+        }
+        return datasets.stream()
+                .filter(dataset -> dataset.getFeature() != null && featureId.equals(dataset.getFeature().getId()))
+                .findFirst();
+    }
+
+    /**
+     * Extends the phenomenonTime and resultTime of the Datastream to cover the
+     * Observation, the {@link ObservationQueryPlanner} probes by them.
+     */
+    private static void extendTimeBounds(DatastreamEntity datastream, DataEntity<?> observation) {
+        Date phenomenonTimeStart = observation.getSamplingTimeStart();
+        Date phenomenonTimeEnd = observation.getSamplingTimeEnd() != null
+                ? observation.getSamplingTimeEnd()
+                : phenomenonTimeStart;
+        if (phenomenonTimeStart != null && (datastream.getSamplingTimeStart() == null
+                || phenomenonTimeStart.before(datastream.getSamplingTimeStart()))) {
+            datastream.setSamplingTimeStart(phenomenonTimeStart);
+        }
+        if (phenomenonTimeEnd != null && (datastream.getSamplingTimeEnd() == null
+                || phenomenonTimeEnd.after(datastream.getSamplingTimeEnd()))) {
+            datastream.setSamplingTimeEnd(phenomenonTimeEnd);
+        }
+        Date resultTime = observation.getResultTime();
+        if (resultTime != null && (datastream.getResultTimeStart() == null
+                || resultTime.before(datastream.getResultTimeStart()))) {
+            datastream.setResultTimeStart(resultTime);
+        }
+        if (resultTime != null && (datastream.getResultTimeEnd() == null
+                || resultTime.after(datastream.getResultTimeEnd()))) {
+            datastream.setResultTimeEnd(resultTime);
+        }
     }
 
     @Override
     public EntityCollection getEntityCollection(QueryOptions queryOptions) {
         EntityCollection retEntitySet = new EntityCollection();
-        getRepository().findAll(createPageableRequest(queryOptions)).forEach(t -> retEntitySet.getEntities().add(mapper.createEntity(t)));
+        archive.find(archive.getChunks(), createPageableRequest(queryOptions),
+                page -> findAll(QDataEntity.dataEntity, null, page))
+                .forEach(t -> retEntitySet.getEntities().add(mapEntity(mapper, t)));
         return retEntitySet;
     }
 
+    @Override
+    public long[] getEntityCollectionIds(QueryOptions queryOptions) {
+        List<ArchiveChunk> chunks = archive.getChunks();
+        if (chunks.isEmpty()) {
+            return findIds(QDataEntity.dataEntity, null, queryOptions);
+        }
+        return toIds(archive.find(chunks, createPageableRequest(queryOptions),
+                page -> findAll(QDataEntity.dataEntity, null, page)));
+    }
+
     @Override
     public Entity getEntity(Long id) {
         //TODO: check if this cast is possible
         Optional<DataEntity<?>> entity = (Optional<DataEntity< ? >>) getRepository().findOne(byId(id));
-        return entity.isPresent() ? mapper.createEntity(entity.get()) : null;
+        if (!entity.isPresent()) {
+            entity = archive.findById(archive.getChunks(), id);
+        }
+        return entity.isPresent() ? mapEntity(mapper, entity.get()) : null;
+    }
+
+    @Override
+    public long getCount() {
+        return super.getCount() + archive.count(archive.getChunks());
     }
 
     @Override
     public EntityCollection getRelatedEntityCollection(Long sourceId, EdmEntityType sourceEntityType, QueryOptions queryOptions) {
-        BooleanExpression filter = getFilter(sourceId, sourceEntityType);
         //TODO: check cast
-        Iterable<DataEntity<?>> observations = (Iterable<DataEntity< ? >>) getRepository().findAll(filter, createPageableRequest(queryOptions));
+        Iterable<DataEntity<?>> observations = findRelated(sourceId, sourceEntityType, queryOptions);
         EntityCollection retEntitySet = new EntityCollection();
-        observations.forEach(t -> retEntitySet.getEntities().add(mapper.createEntity(t)));
+        observations.forEach(t -> retEntitySet.getEntities().add(mapEntity(mapper, t)));
         return retEntitySet;
     }
 
+    @Override
+    public long[] getRelatedEntityCollectionIds(Long sourceId, EdmEntityType sourceEntityType, QueryOptions queryOptions) {
+        BooleanExpression filter = getFilter(sourceId, sourceEntityType);
+        if (isDatastream(sourceEntityType)) {
+            long[] hotIds = hotTier.findIds(sourceId, createPageableRequest(queryOptions));
+            if (hotIds != null) {
+                return hotIds;
+            }
+        }
+        List<ArchiveChunk> chunks = getArchivedChunks(sourceId, sourceEntityType);
+        if (!chunks.isEmpty()) {
+            return toIds(archive.find(chunks, createPageableRequest(queryOptions),
+                    page -> findPlanned(sourceId, sourceEntityType, filter, page)));
+        }
+        if (isDatastream(sourceEntityType)) {
+            ObservationQueryPlanner.Plan plan = queryPlanner.plan(sourceId, createPageableRequest(queryOptions));
+            for (BooleanExpression probe : plan.getProbes()) {
+                long[] ids = findIds(QDataEntity.dataEntity, filter.and(probe), queryOptions);
+                if (plan.isComplete(ids.length)) {
+                    return ids;
+                }
+            }
+            return findIds(QDataEntity.dataEntity, filter, queryOptions);
+        }
+        return findIds(QDataEntity.dataEntity, filter, queryOptions);
+    }
+
     @Override
     public long getRelatedEntityCollectionCount(Long sourceId, EdmEntityType sourceEntityType) {
+        long hotCount = isDatastream(sourceEntityType) ? hotTier.count(sourceId) : -1;
+        if (hotCount >= 0) {
+            return hotCount;
+        }
+        long archived = archive.count(getArchivedChunks(sourceId, sourceEntityType));
+        QueryTemplate<DataEntity<?>> template = getRelatedTemplate(QUERY_TEMPLATES, sourceEntityType, null);
+        if (template != null && getRelatedIds(sourceId, sourceEntityType, RelationGraph.DATASET_FQN) == null) {
+            return archived + count(template, sourceId);
+        }
+        BooleanExpression filter = getFilter(sourceId, sourceEntityType);
+        return archived + getRepository().count(filter);
+    }
+
+    /**
+     * Queries the requested page of the Observations related to the source
+     * entity. The Observations of a Datastream are read from the
+     * {@link HotObservationTier} if it holds the page, otherwise the query is
+     * planned by the {@link ObservationQueryPlanner}. Archived Observations
+     * are merged by the {@link ObservationArchive}.
+     *
+     * @param sourceId Id of the Source Entity
+     * @param sourceEntityType Type of the Source Entity
+     * @param queryOptions the {@link QueryOptions} of the request
+     * @return the Observations of the page
+     */
+    private List<DataEntity<?>> findRelated(Long sourceId, EdmEntityType sourceEntityType, QueryOptions queryOptions) {
+        if (isDatastream(sourceEntityType)) {
+            List<DataEntity<?>> hot = hotTier.find(sourceId, createPageableRequest(queryOptions));
+            if (hot != null) {
+                return hot;
+            }
+        }
         BooleanExpression filter = getFilter(sourceId, sourceEntityType);
-        return getRepository().count(filter);
+        return archive.find(getArchivedChunks(sourceId, sourceEntityType), createPageableRequest(queryOptions),
+                page -> findPlanned(sourceId, sourceEntityType, filter, page));
+    }
+
+    /**
+     * Queries a page of the Observations in the table, planned by the
+     * {@link ObservationQueryPlanner} for a Datastream.
+     */
+    private List<DataEntity<?>> findPlanned(Long sourceId, EdmEntityType sourceEntityType, BooleanExpression filter,
+            Pageable pageable) {
+        if (!isDatastream(sourceEntityType)) {
+            return findAll(QDataEntity.dataEntity, filter, pageable);
+        }
+        ObservationQueryPlanner.Plan plan = queryPlanner.plan(sourceId, pageable);
+        for (BooleanExpression probe : plan.getProbes()) {
+            List<DataEntity<?>> observations = findAll(QDataEntity.dataEntity, filter.and(probe), pageable);
+            if (plan.isComplete(observations.size())) {
+                return observations;
+            }
+        }
+        return findAll(QDataEntity.dataEntity, filter, pageable);
+    }
+
+    private List<ArchiveChunk> getArchivedChunks(Long sourceId, EdmEntityType sourceEntityType) {
+        switch (sourceEntityType.getFullQualifiedName().getFullQualifiedNameAsString()) {
+        case "iot.Datastream":
+            return archive.getChunksOfDatastream(sourceId);
+        case "iot.FeatureOfInterest":
+            return archive.getChunksOfFeature(sourceId);
+        default:
+            return Collections.emptyList();
+        }
+    }
+
+    private static long[] toIds(List<DataEntity<?>> observations) {
+        return observations.stream().mapToLong(DataEntity::getId).toArray();
+    }
+
+    private static boolean isDatastream(EdmEntityType sourceEntityType) {
+        return ET_DATASTREAM_FQN.equals(sourceEntityType.getFullQualifiedName());
     }
     
     private BooleanExpression getFilter(Long sourceId, EdmEntityType sourceEntityType) {
         BooleanExpression filter;
         switch (sourceEntityType.getFullQualifiedName().getFullQualifiedNameAsString()) {
         case "iot.Datastream": {
-            filter = oQS.withDatastream(sourceId);
+            filter = withRelated(sourceId, sourceEntityType, RelationGraph.DATASET_FQN, QDataEntity.dataEntity.dataset.id,
+                    () -> oQS.withDatastream(sourceId));
             break;
         }
         case "iot.FeatureOfInterest": {
@@ -110,7 +372,7 @@ public class ObservationService extends AbstractSensorThingsEntityService<DataRe
 
     @Override
     public boolean existsEntity(Long id) {
-        return getRepository().exists(byId(id));
+        return getRepository().exists(byId(id)) || archive.findById(archive.getChunks(), id).isPresent();
     }
 
     @Override
@@ -120,23 +382,14 @@ public class ObservationService extends AbstractSensorThingsEntityService<DataRe
 
     @Override
     public boolean existsRelatedEntity(Long sourceId, EdmEntityType sourceEntityType, Long targetId) {
-        BooleanExpression filter;
-        switch (sourceEntityType.getFullQualifiedName().getFullQualifiedNameAsString()) {
-        case "iot.Datastream": {
-            filter = oQS.withDatastream(sourceId);
-            break;
-        }
-        case "iot.FeatureOfInterest": {
-            filter = oQS.withFeatureOfInterest(sourceId);
-            break;
-        }
-        default:
+        QueryTemplate<DataEntity<?>> template = getRelatedTemplate(QUERY_TEMPLATES, sourceEntityType, targetId);
+        if (template == null) {
             return false;
+        } else if (exists(template, sourceId, targetId)) {
+            return true;
         }
-        if (targetId != null) {
-            filter = filter.and(oQS.withId(targetId));
-        }
-        return getRepository().exists(filter);
+        List<ArchiveChunk> chunks = getArchivedChunks(sourceId, sourceEntityType);
+        return targetId != null ? archive.findById(chunks, targetId).isPresent() : !chunks.isEmpty();
     }
 
     @Override
@@ -163,7 +416,7 @@ public class ObservationService extends AbstractSensorThingsEntityService<DataRe
     public Entity getRelatedEntity(Long sourceId, EdmEntityType sourceEntityType, Long targetId) {
         Optional<DataEntity<?>> observation = this.getRelatedEntityRaw(sourceId, sourceEntityType, targetId);
         if (observation.isPresent()) {
-            return mapper.createEntity(observation.get());
+            return mapEntity(mapper, observation.get());
         } else {
             return null;
         }
@@ -186,6 +439,7 @@ public class ObservationService extends AbstractSensorThingsEntityService<DataRe
     /**
      * Retrieves Observation Entity with Relation to sourceEntity from Database.
      * Returns empty if Observation is not found or Entities are not related.
+     * Falls back to the Observations archived for the source entity.
      * 
      * @param sourceId Id of the Source Entity
      * @param sourceEntityType Type of the Source Entity
@@ -193,23 +447,14 @@ public class ObservationService extends AbstractSensorThingsEntityService<DataRe
      * @return Optional<DataEntity<?>> Requested Entity
      */
     private Optional<DataEntity<?>> getRelatedEntityRaw(Long sourceId, EdmEntityType sourceEntityType, Long targetId) {
-        BooleanExpression filter;
-        switch(sourceEntityType.getFullQualifiedName().getFullQualifiedNameAsString()) {
-        case "iot.Datastream": {
-            filter = oQS.withDatastream(sourceId);
-            break;
-        }
-        case "iot.FeatureOfInterest": {
-            filter = oQS.withFeatureOfInterest(sourceId);
-            break;
-        }
-        default: return Optional.empty();
-        }
-
-        if (targetId != null) {
-            filter = filter.and(oQS.withId(targetId));
+        QueryTemplate<DataEntity<?>> template = getRelatedTemplate(QUERY_TEMPLATES, sourceEntityType, targetId);
+        if (template == null) {
+            return Optional.empty();
         }
-        return (Optional<DataEntity< ? >>) getRepository().findOne(filter);
+        Optional<DataEntity<?>> observation = findOne(template, sourceId, targetId);
+        return observation.isPresent() || targetId == null
+                ? observation
+                : archive.findById(getArchivedChunks(sourceId, sourceEntityType), targetId);
     }
 
     /**
@@ -219,6 +464,8 @@ public class ObservationService extends AbstractSensorThingsEntityService<DataRe
      * @return BooleanExpression evaluating to true if Entity is found and valid
      */
     private BooleanExpression byId(Long id) {
-        return oQS.isValidEntity().and(oQS.withId(id));
+        return oQS.withId(id).and(validityIndex.validEntities(ValidityIndex.Kind.DATASET,
+                                                              QDataEntity.dataEntity.dataset.id,
+                                                              oQS::isValidEntity));
     }
 }
@@ -28,6 +28,10 @@
  */
 package org.n52.sta.data.service;
 
+import static org.n52.sta.edm.provider.entities.AbstractSensorThingsEntityProvider.PROP_DEFINITION;
+import static org.n52.sta.edm.provider.entities.ObservedPropertyEntityProvider.ET_OBSERVED_PROPERTY_FQN;
+
+import java.util.List;
 import java.util.Optional;
 import java.util.OptionalLong;
 
@@ -37,9 +41,14 @@ import org.apache.olingo.commons.api.edm.EdmEntityType;
 import org.n52.series.db.PhenomenonRepository;
 import org.n52.series.db.beans.DataEntity;
 import org.n52.series.db.beans.PhenomenonEntity;
+import org.n52.series.db.beans.QPhenomenonEntity;
 import org.n52.sta.data.query.ObservedPropertyQuerySpecifications;
+import org.n52.sta.data.repositories.PropertyProjection;
+import org.n52.sta.data.repositories.QueryTemplate;
+import org.n52.sta.data.repositories.QueryTemplates;
 import org.n52.sta.mapping.ObservedPropertyMapper;
 import org.n52.sta.service.query.QueryOptions;
+import org.springframework.beans.factory.annotation.Autowired;
 import org.springframework.stereotype.Component;
 
 import com.querydsl.core.types.dsl.BooleanExpression;
@@ -55,6 +64,18 @@ public class ObservedPropertyService extends AbstractSensorThingsEntityService<P
 
     private final static ObservedPropertyQuerySpecifications oQS = new ObservedPropertyQuerySpecifications();
 
+    @Autowired
+    private ValidityIndex validityIndex;
+
+    private static final PropertyProjection<PhenomenonEntity> PROPERTY_PROJECTION = PropertyProjection.of(QPhenomenonEntity.phenomenonEntity)
+            .column(PROP_DEFINITION, "identifier");
+
+    private static final QueryTemplates<PhenomenonEntity> QUERY_TEMPLATES = QueryTemplates.of(QPhenomenonEntity.phenomenonEntity, oQS::withId)
+            .relation("iot.Datastream", oQS::withDatastream);
+
+    private static final QueryTemplate<PhenomenonEntity> VALID_BY_ID = QueryTemplate.of(QPhenomenonEntity.phenomenonEntity,
+            (Long id) -> oQS.withId(id).and(oQS.isValidEntity()));
+
     public ObservedPropertyService(PhenomenonRepository repository, ObservedPropertyMapper mapper) {
         super(repository);
         this.mapper = mapper;
@@ -63,14 +84,25 @@ public class ObservedPropertyService extends AbstractSensorThingsEntityService<P
     @Override
     public EntityCollection getEntityCollection(QueryOptions queryOptions) {
         EntityCollection retEntitySet = new EntityCollection();
-        getRepository().findAll(oQS.isValidEntity(), createPageableRequest(queryOptions)).forEach(t -> retEntitySet.getEntities().add(mapper.createEntity(t)));
+        findAll(QPhenomenonEntity.phenomenonEntity, validEntities(), queryOptions, null).forEach(t -> retEntitySet.getEntities().add(mapEntity(mapper, t)));
         return retEntitySet;
     }
 
+    @Override
+    public long[] getEntityCollectionIds(QueryOptions queryOptions) {
+        return findIds(QPhenomenonEntity.phenomenonEntity, validEntities(), queryOptions);
+    }
+
     @Override
     public Entity getEntity(Long id) {
-        Optional<PhenomenonEntity> entity = getRepository().findOne(byId(id));
-        return entity.isPresent() ? mapper.createEntity(entity.get()) : null;
+        Optional<PhenomenonEntity> entity = findOne(byId(id), id);
+        return entity.isPresent() ? mapEntity(mapper, entity.get()) : null;
+    }
+
+    @Override
+    public Optional<Object[]> getEntityPropertyValues(Long id, List<String> propertyPaths) {
+        return findProperties(id, validityIndex.isValid(ValidityIndex.Kind.OBSERVED_PROPERTY, id) ? null : oQS.isValidEntity(),
+                propertyPaths);
     }
 
     @Override
@@ -78,9 +110,14 @@ public class ObservedPropertyService extends AbstractSensorThingsEntityService<P
         return null;
     }
 
+    @Override
+    public long[] getRelatedEntityCollectionIds(Long sourceId, EdmEntityType sourceEntityType, QueryOptions queryOptions) {
+        return new long[0];
+    }
+
     @Override
     public boolean existsEntity(Long id) {
-        return getRepository().exists(byId(id));
+        return exists(byId(id), id);
     }
 
     @Override
@@ -90,16 +127,11 @@ public class ObservedPropertyService extends AbstractSensorThingsEntityService<P
 
     @Override
     public boolean existsRelatedEntity(Long sourceId, EdmEntityType sourceEntityType, Long targetId) {
-        switch(sourceEntityType.getFullQualifiedName().getFullQualifiedNameAsString()) {
-        case "iot.Datastream": {
-            BooleanExpression filter = oQS.withDatastream(sourceId);
-            if (targetId != null) {
-                filter = filter.and(oQS.withId(targetId));
-            }
-            return getRepository().exists(filter);
-        }
-        default: return false;
+        if (RelationGraph.isRelated(getRelatedIds(sourceId, sourceEntityType, ET_OBSERVED_PROPERTY_FQN), targetId)) {
+            return true;
         }
+        QueryTemplate<PhenomenonEntity> template = getRelatedTemplate(QUERY_TEMPLATES, sourceEntityType, targetId);
+        return template != null && exists(template, sourceId, targetId);
     }
 
     @Override
@@ -109,6 +141,10 @@ public class ObservedPropertyService extends AbstractSensorThingsEntityService<P
 
     @Override
     public OptionalLong getIdForRelatedEntity(Long sourceId, EdmEntityType sourceEntityType, Long targetId) {
+        OptionalLong related = RelationGraph.getRelatedId(getRelatedIds(sourceId, sourceEntityType, ET_OBSERVED_PROPERTY_FQN), targetId);
+        if (related.isPresent()) {
+            return related;
+        }
         Optional<PhenomenonEntity> sensor = this.getRelatedEntityRaw(sourceId, sourceEntityType, targetId);
         if (sensor.isPresent()) {
             return OptionalLong.of(sensor.get().getId());
@@ -126,7 +162,7 @@ public class ObservedPropertyService extends AbstractSensorThingsEntityService<P
     public Entity getRelatedEntity(Long sourceId, EdmEntityType sourceEntityType, Long targetId) {
         Optional<PhenomenonEntity> sensor = this.getRelatedEntityRaw(sourceId, sourceEntityType, targetId);
         if (sensor.isPresent()) {
-            return mapper.createEntity(sensor.get());
+            return mapEntity(mapper, sensor.get());
         } else {
             return null;
         }
@@ -152,28 +188,32 @@ public class ObservedPropertyService extends AbstractSensorThingsEntityService<P
      * @return Optional<PhenomenonEntity> Requested Entity
      */
     private Optional<PhenomenonEntity> getRelatedEntityRaw(Long sourceId, EdmEntityType sourceEntityType, Long targetId) {
-        BooleanExpression filter;
-        switch(sourceEntityType.getFullQualifiedName().getFullQualifiedNameAsString()) {
-        case "iot.Datastream": {
-            filter = oQS.withDatastream(sourceId);
-            break;
-        }
-        default: return Optional.empty();
-        }
-        
-        if (targetId != null) {
-            filter = filter.and(oQS.withId(targetId));
-        }
-        return getRepository().findOne(filter);
+        QueryTemplate<PhenomenonEntity> template = getRelatedTemplate(QUERY_TEMPLATES, sourceEntityType, targetId);
+        return template != null ? findOne(template, sourceId, targetId) : Optional.empty();
     }
 
     /**
-     * Constructs SQL Expression to request Entity by ID.
+     * Selects the template to request Entity by ID, the validity is only
+     * queried if the {@link ValidityIndex} does not know the Entity to be valid.
      * 
      * @param id id of the requested entity
-     * @return BooleanExpression evaluating to true if Entity is found and valid
+     * @return QueryTemplate finding the Entity if it is valid
      */
-    private BooleanExpression byId(Long id) {
-        return oQS.isValidEntity().and(oQS.withId(id));
+    private QueryTemplate<PhenomenonEntity> byId(Long id) {
+        return validityIndex.isValid(ValidityIndex.Kind.OBSERVED_PROPERTY, id) ? QUERY_TEMPLATES.byId() : VALID_BY_ID;
+    }
+
+    /**
+     * Constructs SQL Expression to restrict a request to valid Entities.
+     * 
+     * @return BooleanExpression evaluating to true if Entity is valid
+     */
+    private BooleanExpression validEntities() {
+        return validityIndex.validEntities(ValidityIndex.Kind.OBSERVED_PROPERTY, QPhenomenonEntity.phenomenonEntity.id, oQS::isValidEntity);
+    }
+
+    @Override
+    protected PropertyProjection<?> getPropertyProjection() {
+        return PROPERTY_PROJECTION;
     }
 }
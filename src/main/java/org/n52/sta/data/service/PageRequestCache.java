@@ -0,0 +1,140 @@
+/*
+ * Copyright (C) 2012-2018 52°North Initiative for Geospatial Open Source
+ * Software GmbH
+ *
+ * This program is free software; you can redistribute it and/or modify it
+ * under the terms of the GNU General Public License version 2 as published
+ * by the Free Software Foundation.
+ *
+ * If the program is linked with libraries which are licensed under one of
+ * the following licenses, the combination of the program with the linked
+ * library is not considered a "derivative work" of the program:
+ *
+ *     - Apache License, version 2.0
+ *     - Apache Software License, version 1.0
+ *     - GNU Lesser General Public License, version 3
+ *     - Mozilla Public License, versions 1.0, 1.1 and 2.0
+ *     - Common Development and Distribution License (CDDL), version 1.0
+ *
+ * Therefore the distribution of the program linked with libraries licensed
+ * under the aforementioned licenses, is permitted by the copyright holders
+ * if the distribution is compliant with both the GNU General Public
+ * License version 2 and the aforementioned licenses.
+ *
+ * This program is distributed in the hope that it will be useful, but
+ * WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the GNU General
+ * Public License for more details.
+ */
+package org.n52.sta.data.service;
+
+import java.util.function.Function;
+
+import org.apache.olingo.server.api.uri.queryoption.OrderByOption;
+import org.n52.sta.data.OffsetLimitBasedPageRequest;
+import org.n52.sta.service.query.QueryOptions;
+import org.springframework.beans.factory.InitializingBean;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.context.event.ContextRefreshedEvent;
+import org.springframework.context.event.EventListener;
+import org.springframework.stereotype.Component;
+
+import com.github.benmanes.caffeine.cache.Cache;
+import com.github.benmanes.caffeine.cache.Caffeine;
+
+import io.micrometer.core.instrument.MeterRegistry;
+import io.micrometer.core.instrument.binder.cache.CaffeineCacheMetrics;
+
+/**
+ * Caches the {@link OffsetLimitBasedPageRequest}s derived from the paging and
+ * ordering options of the requests. Dashboards repeat the same few URLs, so
+ * resolving the <code>$orderby</code> expression against the database
+ * properties of an entity service is done once per distinct combination of
+ * service, <code>$skip</code>, <code>$top</code> and <code>$orderby</code>.
+ * <p>
+ * The page requests are immutable and can be shared by concurrent requests.
+ * The cache is bounded by <code>database.page-request-cache.max-size</code>
+ * entries and cleared whenever the application context, and thereby the EDM,
+ * is refreshed.
+ *
+ * @since 1.0.0
+ */
+@Component
+public class PageRequestCache implements InitializingBean {
+
+    public static final String CACHE_NAME = "sta.page-request.cache";
+
+    private static final char SEPARATOR = '|';
+
+    @Value("${database.page-request-cache.max-size:1024}")
+    private long maxSize;
+
+    @Autowired
+    private MeterRegistry registry;
+
+    private Cache<String, OffsetLimitBasedPageRequest> cache;
+
+    @Override
+    public void afterPropertiesSet() {
+        cache = Caffeine.newBuilder()
+                .maximumSize(maxSize)
+                .recordStats()
+                .build();
+        CaffeineCacheMetrics.monitor(registry, cache, CACHE_NAME);
+    }
+
+    /**
+     * Get the cached page request of the given service for the query options
+     * or create it with the factory
+     *
+     * @param service
+     *            the entity service resolving the sort properties
+     * @param queryOptions
+     *            the {@link QueryOptions} of the request
+     * @param factory
+     *            creates the page request if it is not cached
+     * @return the page request
+     */
+    public OffsetLimitBasedPageRequest get(AbstractSensorThingsEntityService<?> service, QueryOptions queryOptions,
+            Function<QueryOptions, OffsetLimitBasedPageRequest> factory) {
+        String key = createKey(service, queryOptions);
+        if (key == null) {
+            return factory.apply(queryOptions);
+        }
+        return cache.get(key, k -> factory.apply(queryOptions));
+    }
+
+    /**
+     * Removes all cached page requests
+     */
+    @EventListener(ContextRefreshedEvent.class)
+    public void invalidateAll() {
+        if (cache != null) {
+            cache.invalidateAll();
+        }
+    }
+
+    private String createKey(AbstractSensorThingsEntityService<?> service, QueryOptions queryOptions) {
+        StringBuilder key = new StringBuilder(64)
+                .append(service.getClass().getName())
+                .append(SEPARATOR)
+                .append(queryOptions.hasSkipOption() ? queryOptions.getSkipOption().getValue() : 0)
+                .append(SEPARATOR)
+                .append(queryOptions.getTopOption().getValue());
+        if (queryOptions.hasOrderByOption()) {
+            OrderByOption orderBy = queryOptions.getOrderByOption();
+            if (orderBy.getText() == null) {
+                // options that were not parsed from a request are not cached
+                return null;
+            }
+            key.append(SEPARATOR).append(normalize(orderBy.getText()));
+        }
+        return key.toString();
+    }
+
+    private static String normalize(String text) {
+        return text.trim().replaceAll("\\s+", " ");
+    }
+
+}
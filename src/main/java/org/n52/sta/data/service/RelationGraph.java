@@ -0,0 +1,420 @@
+/*
+ * Copyright (C) 2012-2018 52°North Initiative for Geospatial Open Source
+ * Software GmbH
+ *
+ * This program is free software; you can redistribute it and/or modify it
+ * under the terms of the GNU General Public License version 2 as published
+ * by the Free Software Foundation.
+ *
+ * If the program is linked with libraries which are licensed under one of
+ * the following licenses, the combination of the program with the linked
+ * library is not considered a "derivative work" of the program:
+ *
+ *     - Apache License, version 2.0
+ *     - Apache Software License, version 1.0
+ *     - GNU Lesser General Public License, version 3
+ *     - Mozilla Public License, versions 1.0, 1.1 and 2.0
+ *     - Common Development and Distribution License (CDDL), version 1.0
+ *
+ * Therefore the distribution of the program linked with libraries licensed
+ * under the aforementioned licenses, is permitted by the copyright holders
+ * if the distribution is compliant with both the GNU General Public
+ * License version 2 and the aforementioned licenses.
+ *
+ * This program is distributed in the hope that it will be useful, but
+ * WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the GNU General
+ * Public License for more details.
+ */
+package org.n52.sta.data.service;
+
+import static org.n52.sta.edm.provider.entities.DatastreamEntityProvider.ET_DATASTREAM_FQN;
+import static org.n52.sta.edm.provider.entities.HistoricalLocationEntityProvider.ET_HISTORICAL_LOCATION_FQN;
+import static org.n52.sta.edm.provider.entities.LocationEntityProvider.ET_LOCATION_FQN;
+import static org.n52.sta.edm.provider.entities.ObservedPropertyEntityProvider.ET_OBSERVED_PROPERTY_FQN;
+import static org.n52.sta.edm.provider.entities.SensorEntityProvider.ET_SENSOR_FQN;
+import static org.n52.sta.edm.provider.entities.ThingEntityProvider.ET_THING_FQN;
+
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.OptionalLong;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ScheduledThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.function.Supplier;
+import java.util.stream.Collectors;
+import java.util.stream.LongStream;
+
+import javax.persistence.EntityManager;
+import javax.persistence.PersistenceContext;
+
+import org.apache.olingo.commons.api.edm.EdmEntityType;
+import org.apache.olingo.commons.api.edm.FullQualifiedName;
+import org.n52.series.db.beans.QDatasetEntity;
+import org.n52.series.db.beans.sta.QDatastreamEntity;
+import org.n52.series.db.beans.sta.QHistoricalLocationEntity;
+import org.n52.series.db.beans.sta.QLocationEntity;
+import org.n52.series.db.beans.sta.QThingEntity;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.beans.factory.DisposableBean;
+import org.springframework.beans.factory.InitializingBean;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.context.event.ContextRefreshedEvent;
+import org.springframework.context.event.EventListener;
+import org.springframework.stereotype.Component;
+import org.springframework.transaction.PlatformTransactionManager;
+import org.springframework.transaction.support.TransactionTemplate;
+
+import com.mysema.commons.lang.CloseableIterator;
+import com.querydsl.core.Tuple;
+import com.querydsl.core.types.dsl.BooleanExpression;
+import com.querydsl.core.types.dsl.NumberPath;
+import com.querydsl.jpa.impl.JPAQuery;
+
+/**
+ * Keeps the relations between the metadata entities in memory, so that
+ * navigation and existence checks like <code>/Things(1)/Datastreams</code> do
+ * not need a join through the association tables:
+ * <ul>
+ * <li>Thing &harr; Location</li>
+ * <li>Thing &harr; HistoricalLocation</li>
+ * <li>Location &harr; HistoricalLocation</li>
+ * <li>Thing &harr; Datastream</li>
+ * <li>Sensor &harr; Datastream</li>
+ * <li>ObservedProperty &harr; Datastream</li>
+ * <li>Datastream &harr; Dataset</li>
+ * </ul>
+ * Each direction is stored as sorted primitive adjacency arrays. The graph is
+ * rebuilt when the application context is refreshed and then every
+ * <code>database.relation-graph.refresh-interval</code> milliseconds. Only
+ * positive answers of the graph are used: until the first build finished,
+ * for relations that are not kept, for sources without relations in the
+ * graph and for targets that are not related in the graph, the services
+ * fall back to the joins. Collections include the targets created after
+ * the build by the join.
+ * <p>
+ * The graph is eventually consistent. Relations changed or removed by other
+ * applications, e.g. a Thing moved to another Location, are still answered
+ * from the graph until the next rebuild. It is therefore disabled by default
+ * and should only be enabled if the metadata is not changed while the
+ * service runs or if answers that are stale by up to the refresh interval
+ * are acceptable.
+ *
+ * @since 1.0.0
+ */
+@Component
+public class RelationGraph implements InitializingBean, DisposableBean {
+
+    /**
+     * The Datasets of a Datastream, they are not an entity type of the EDM.
+     */
+    public static final FullQualifiedName DATASET_FQN = new FullQualifiedName("n52", "Dataset");
+
+    private static final Logger LOGGER = LoggerFactory.getLogger(RelationGraph.class);
+
+    @Value("${database.relation-graph.enabled:false}")
+    private boolean enabled;
+
+    @Value("${database.relation-graph.refresh-interval:60000}")
+    private long refreshInterval;
+
+    @Value("${database.relation-graph.max-in-list:1000}")
+    private int maxInList;
+
+    @PersistenceContext
+    private EntityManager entityManager;
+
+    @Autowired
+    private PlatformTransactionManager transactionManager;
+
+    private volatile Map<String, Adjacency> relations;
+
+    private final AtomicBoolean started = new AtomicBoolean();
+
+    private TransactionTemplate transaction;
+
+    private ScheduledExecutorService executor;
+
+    @Override
+    public void afterPropertiesSet() {
+        if (!enabled) {
+            return;
+        }
+        transaction = new TransactionTemplate(transactionManager);
+        transaction.setReadOnly(true);
+        ScheduledThreadPoolExecutor scheduler = new ScheduledThreadPoolExecutor(1, r -> {
+            Thread thread = new Thread(r, "sta-relation-graph");
+            thread.setDaemon(true);
+            return thread;
+        });
+        scheduler.setExecuteExistingDelayedTasksAfterShutdownPolicy(false);
+        executor = scheduler;
+    }
+
+    @Override
+    public void destroy() {
+        if (executor != null) {
+            executor.shutdownNow();
+        }
+    }
+
+    /**
+     * Starts loading the graph once the database is ready.
+     */
+    @EventListener(ContextRefreshedEvent.class)
+    public void start() {
+        if (executor == null || !started.compareAndSet(false, true)) {
+            return;
+        }
+        if (refreshInterval > 0) {
+            executor.scheduleWithFixedDelay(this::rebuild, 0, refreshInterval, TimeUnit.MILLISECONDS);
+        } else {
+            executor.execute(this::rebuild);
+        }
+    }
+
+    /**
+     * Resolves the ids of the entities related to the source entity.
+     *
+     * @param sourceId
+     *            the id of the source entity
+     * @param sourceType
+     *            the type of the source entity
+     * @param targetType
+     *            the type of the related entities
+     * @return the sorted ids of the related entities or <code>null</code> if
+     *         the graph can not answer
+     */
+    public long[] getRelatedIds(long sourceId, FullQualifiedName sourceType, FullQualifiedName targetType) {
+        Adjacency adjacency = getAdjacency(sourceType, targetType);
+        return adjacency == null ? null : adjacency.get(sourceId);
+    }
+
+    /**
+     * Resolves the ids of the entities related to the source entity.
+     *
+     * @param sourceId
+     *            the id of the source entity
+     * @param sourceEntityType
+     *            the type of the source entity
+     * @param targetType
+     *            the type of the related entities
+     * @return the sorted ids of the related entities or <code>null</code> if
+     *         the graph can not answer
+     */
+    public long[] getRelatedIds(Long sourceId, EdmEntityType sourceEntityType, FullQualifiedName targetType) {
+        return sourceId == null ? null
+                : getRelatedIds(sourceId, sourceEntityType.getFullQualifiedName(), targetType);
+    }
+
+    /**
+     * Restricts a query to the entities related to the source entity.
+     *
+     * @param sourceId
+     *            the id of the source entity
+     * @param sourceEntityType
+     *            the type of the source entity
+     * @param targetType
+     *            the type of the queried entities
+     * @param path
+     *            the id path of the queried entities
+     * @param join
+     *            supplies the restriction used if the graph can not answer
+     * @return the restriction by the ids of the graph or of the join
+     */
+    public BooleanExpression withRelated(Long sourceId, EdmEntityType sourceEntityType, FullQualifiedName targetType,
+            NumberPath<Long> path, Supplier<BooleanExpression> join) {
+        Adjacency adjacency = getAdjacency(sourceEntityType.getFullQualifiedName(), targetType);
+        long[] ids = adjacency == null || sourceId == null ? null : adjacency.get(sourceId);
+        if (ids == null || ids.length > maxInList) {
+            return join.get();
+        }
+        // targets created after the build are only known to the join
+        long maxTarget = adjacency.maxTarget;
+        List<Long> list = LongStream.of(ids).boxed().collect(Collectors.toList());
+        return path.in(list).or(path.gt(maxTarget).and(join.get()));
+    }
+
+    /**
+     * @param relatedIds
+     *            the sorted ids of the related entities, may be
+     *            <code>null</code> if the graph can not answer
+     * @param targetId
+     *            the id of the target entity, may be <code>null</code>
+     * @return if the target entity, or any entity if no target is given, is
+     *         known to be related. Relations the graph does not know have to
+     *         be checked by a query.
+     */
+    public static boolean isRelated(long[] relatedIds, Long targetId) {
+        if (relatedIds == null) {
+            return false;
+        }
+        return targetId == null ? relatedIds.length > 0 : Arrays.binarySearch(relatedIds, targetId) >= 0;
+    }
+
+    /**
+     * @param relatedIds
+     *            the sorted ids of the related entities, may be
+     *            <code>null</code> if the graph can not answer
+     * @param targetId
+     *            the id of the target entity, may be <code>null</code>
+     * @return the id of the target entity, or of the first related entity if
+     *         no target is given, if it is known to be related
+     */
+    public static OptionalLong getRelatedId(long[] relatedIds, Long targetId) {
+        return isRelated(relatedIds, targetId)
+                ? OptionalLong.of(targetId != null ? targetId : relatedIds[0])
+                : OptionalLong.empty();
+    }
+
+    private Adjacency getAdjacency(FullQualifiedName sourceType, FullQualifiedName targetType) {
+        Map<String, Adjacency> current = relations;
+        return current == null ? null : current.get(key(sourceType, targetType));
+    }
+
+    private void rebuild() {
+        try {
+            long start = System.nanoTime();
+            Map<String, Adjacency> graph = transaction.execute(status -> {
+                QThingEntity qthing = QThingEntity.thingEntity;
+                QLocationEntity qlocation = QLocationEntity.locationEntity;
+                QHistoricalLocationEntity qhistoricallocation = QHistoricalLocationEntity.historicalLocationEntity;
+                QDatastreamEntity qdatastream = QDatastreamEntity.datastreamEntity;
+                QDatasetEntity qdataset = QDatasetEntity.datasetEntity;
+                Map<String, Adjacency> loaded = new HashMap<>();
+                load(loaded, ET_THING_FQN, ET_LOCATION_FQN, query()
+                        .select(qthing.id, qlocation.id)
+                        .from(qthing)
+                        .join(qthing.locationEntities, qlocation));
+                load(loaded, ET_THING_FQN, ET_HISTORICAL_LOCATION_FQN, query()
+                        .select(qhistoricallocation.thingEntity.id, qhistoricallocation.id)
+                        .from(qhistoricallocation));
+                load(loaded, ET_LOCATION_FQN, ET_HISTORICAL_LOCATION_FQN, query()
+                        .select(qlocation.id, qhistoricallocation.id)
+                        .from(qhistoricallocation)
+                        .join(qhistoricallocation.locationEntities, qlocation));
+                load(loaded, ET_THING_FQN, ET_DATASTREAM_FQN, query()
+                        .select(qdatastream.thing.id, qdatastream.id)
+                        .from(qdatastream));
+                load(loaded, ET_SENSOR_FQN, ET_DATASTREAM_FQN, query()
+                        .select(qdatastream.procedure.id, qdatastream.id)
+                        .from(qdatastream));
+                load(loaded, ET_OBSERVED_PROPERTY_FQN, ET_DATASTREAM_FQN, query()
+                        .select(qdatastream.observableProperty.id, qdatastream.id)
+                        .from(qdatastream));
+                load(loaded, ET_DATASTREAM_FQN, DATASET_FQN, query()
+                        .select(qdatastream.id, qdataset.id)
+                        .from(qdatastream)
+                        .join(qdatastream.datasets, qdataset));
+                return loaded;
+            });
+            relations = Collections.unmodifiableMap(graph);
+            LOGGER.debug("Rebuilt the relation graph in {} ms",
+                    TimeUnit.NANOSECONDS.toMillis(System.nanoTime() - start));
+        } catch (RuntimeException e) {
+            LOGGER.warn("Could not rebuild the relation graph, keeping the previous one", e);
+        }
+    }
+
+    private JPAQuery<?> query() {
+        return new JPAQuery<Void>(entityManager);
+    }
+
+    private void load(Map<String, Adjacency> graph, FullQualifiedName sourceType, FullQualifiedName targetType,
+            JPAQuery<Tuple> query) {
+        long[] sources = new long[64];
+        long[] targets = new long[64];
+        int size = 0;
+        try (CloseableIterator<Tuple> rows = query.iterate()) {
+            while (rows.hasNext()) {
+                Tuple row = rows.next();
+                Long source = row.get(0, Long.class);
+                Long target = row.get(1, Long.class);
+                if (source == null || target == null) {
+                    continue;
+                }
+                if (size == sources.length) {
+                    sources = Arrays.copyOf(sources, size * 2);
+                    targets = Arrays.copyOf(targets, size * 2);
+                }
+                sources[size] = source;
+                targets[size] = target;
+                size++;
+            }
+        }
+        graph.put(key(sourceType, targetType), Adjacency.of(sources, targets, size));
+        graph.put(key(targetType, sourceType), Adjacency.of(targets, sources, size));
+    }
+
+    private static String key(FullQualifiedName sourceType, FullQualifiedName targetType) {
+        return sourceType.getFullQualifiedNameAsString() + '>' + targetType.getFullQualifiedNameAsString();
+    }
+
+    /**
+     * One direction of a relation in compressed sparse row layout: the
+     * targets of <code>sources[i]</code> are
+     * <code>targets[offsets[i]]</code> to
+     * <code>targets[offsets[i + 1] - 1]</code>, both in ascending order.
+     */
+    private static final class Adjacency {
+
+        private final long[] sources;
+
+        private final int[] offsets;
+
+        private final long[] targets;
+
+        private final long maxTarget;
+
+        private Adjacency(long[] sources, int[] offsets, long[] targets) {
+            this.sources = sources;
+            this.offsets = offsets;
+            this.targets = targets;
+            this.maxTarget = LongStream.of(targets).max().orElse(0L);
+        }
+
+        static Adjacency of(long[] from, long[] to, int size) {
+            long[] sources = Arrays.copyOf(from, size);
+            Arrays.sort(sources);
+            int distinct = 0;
+            for (int i = 0; i < size; i++) {
+                if (i == 0 || sources[i] != sources[i - 1]) {
+                    sources[distinct++] = sources[i];
+                }
+            }
+            sources = Arrays.copyOf(sources, distinct);
+            int[] offsets = new int[distinct + 1];
+            for (int i = 0; i < size; i++) {
+                offsets[Arrays.binarySearch(sources, from[i]) + 1]++;
+            }
+            for (int i = 0; i < distinct; i++) {
+                offsets[i + 1] += offsets[i];
+            }
+            int[] cursor = Arrays.copyOf(offsets, distinct);
+            long[] targets = new long[size];
+            for (int i = 0; i < size; i++) {
+                targets[cursor[Arrays.binarySearch(sources, from[i])]++] = to[i];
+            }
+            for (int i = 0; i < distinct; i++) {
+                Arrays.sort(targets, offsets[i], offsets[i + 1]);
+            }
+            return new Adjacency(sources, offsets, targets);
+        }
+
+        /**
+         * @return the targets of the source, or <code>null</code> if the source
+         *         has no relation in the graph, e.g. as it is newer
+         */
+        long[] get(long source) {
+            int index = Arrays.binarySearch(sources, source);
+            return index < 0 ? null : Arrays.copyOfRange(targets, offsets[index], offsets[index + 1]);
+        }
+    }
+
+}
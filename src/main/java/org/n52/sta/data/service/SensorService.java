@@ -28,6 +28,10 @@
  */
 package org.n52.sta.data.service;
 
+import static org.n52.sta.edm.provider.entities.AbstractSensorThingsEntityProvider.PROP_ENCODINGTYPE;
+import static org.n52.sta.edm.provider.entities.SensorEntityProvider.ET_SENSOR_FQN;
+
+import java.util.List;
 import java.util.Optional;
 import java.util.OptionalLong;
 
@@ -36,9 +40,15 @@ import org.apache.olingo.commons.api.data.EntityCollection;
 import org.apache.olingo.commons.api.edm.EdmEntityType;
 import org.n52.series.db.ProcedureRepository;
 import org.n52.series.db.beans.ProcedureEntity;
+import org.n52.series.db.beans.QProcedureEntity;
 import org.n52.sta.data.query.SensorQuerySpecifications;
+import org.n52.sta.data.repositories.PropertyProjection;
+import org.n52.sta.data.repositories.FetchPlan;
+import org.n52.sta.data.repositories.QueryTemplate;
+import org.n52.sta.data.repositories.QueryTemplates;
 import org.n52.sta.mapping.SensorMapper;
 import org.n52.sta.service.query.QueryOptions;
+import org.springframework.beans.factory.annotation.Autowired;
 import org.springframework.stereotype.Component;
 
 import com.querydsl.core.types.dsl.BooleanExpression;
@@ -55,6 +65,22 @@ public class SensorService extends AbstractSensorThingsEntityService<ProcedureRe
 
     private final static SensorQuerySpecifications sQS = new SensorQuerySpecifications();
 
+    @Autowired
+    private ValidityIndex validityIndex;
+
+    // the procedure history is read only without description file and is loaded in batches
+    private static final FetchPlan<ProcedureEntity> FETCH_PLAN = FetchPlan.of(ProcedureEntity.class)
+            .fetch(PROP_ENCODINGTYPE, "format");
+
+    private static final PropertyProjection<ProcedureEntity> PROPERTY_PROJECTION = PropertyProjection.of(QProcedureEntity.procedureEntity)
+            .column(PROP_ENCODINGTYPE, "format.format");
+
+    private static final QueryTemplates<ProcedureEntity> QUERY_TEMPLATES = QueryTemplates.of(QProcedureEntity.procedureEntity, sQS::withId)
+            .relation("iot.Datastream", sQS::withDatastream);
+
+    private static final QueryTemplate<ProcedureEntity> VALID_BY_ID = QueryTemplate.of(QProcedureEntity.procedureEntity,
+            (Long id) -> sQS.withId(id).and(sQS.isValidEntity()));
+
     public SensorService(ProcedureRepository repository, SensorMapper mapper) {
         super(repository);
         this.mapper = mapper;
@@ -63,14 +89,25 @@ public class SensorService extends AbstractSensorThingsEntityService<ProcedureRe
     @Override
     public EntityCollection getEntityCollection(QueryOptions queryOptions) {
         EntityCollection retEntitySet = new EntityCollection();
-        getRepository().findAll(sQS.isValidEntity(), createPageableRequest(queryOptions)).forEach(t -> retEntitySet.getEntities().add(mapper.createEntity(t)));
+        findAll(QProcedureEntity.procedureEntity, validEntities(), queryOptions, FETCH_PLAN).forEach(t -> retEntitySet.getEntities().add(mapEntity(mapper, t)));
         return retEntitySet;
     }
 
+    @Override
+    public long[] getEntityCollectionIds(QueryOptions queryOptions) {
+        return findIds(QProcedureEntity.procedureEntity, validEntities(), queryOptions);
+    }
+
     @Override
     public Entity getEntity(Long id) {
-        Optional<ProcedureEntity> entity = getRepository().findOne(byId(id));
-        return entity.isPresent() ? mapper.createEntity(entity.get()) : null;
+        Optional<ProcedureEntity> entity = findOne(byId(id), id);
+        return entity.isPresent() ? mapEntity(mapper, entity.get()) : null;
+    }
+
+    @Override
+    public Optional<Object[]> getEntityPropertyValues(Long id, List<String> propertyPaths) {
+        return findProperties(id, validityIndex.isValid(ValidityIndex.Kind.SENSOR, id) ? null : sQS.isValidEntity(),
+                propertyPaths);
     }
 
     @Override
@@ -78,9 +115,14 @@ public class SensorService extends AbstractSensorThingsEntityService<ProcedureRe
         return null;
     }
 
+    @Override
+    public long[] getRelatedEntityCollectionIds(Long sourceId, EdmEntityType sourceEntityType, QueryOptions queryOptions) {
+        return new long[0];
+    }
+
     @Override
     public boolean existsEntity(Long id) {
-        return getRepository().exists(byId(id));
+        return exists(byId(id), id);
     }
 
     @Override
@@ -90,16 +132,11 @@ public class SensorService extends AbstractSensorThingsEntityService<ProcedureRe
 
     @Override
     public boolean existsRelatedEntity(Long sourceId, EdmEntityType sourceEntityType, Long targetId) {
-        switch(sourceEntityType.getFullQualifiedName().getFullQualifiedNameAsString()) {
-        case "iot.Datastream": {
-            BooleanExpression filter = sQS.withDatastream(sourceId);
-            if (targetId != null) {
-                filter = filter.and(sQS.withId(targetId));
-            }
-            return getRepository().exists(filter);
-        }
-        default: return false;
+        if (RelationGraph.isRelated(getRelatedIds(sourceId, sourceEntityType, ET_SENSOR_FQN), targetId)) {
+            return true;
         }
+        QueryTemplate<ProcedureEntity> template = getRelatedTemplate(QUERY_TEMPLATES, sourceEntityType, targetId);
+        return template != null && exists(template, sourceId, targetId);
     }
 
     @Override
@@ -109,6 +146,10 @@ public class SensorService extends AbstractSensorThingsEntityService<ProcedureRe
 
     @Override
     public OptionalLong getIdForRelatedEntity(Long sourceId, EdmEntityType sourceEntityType, Long targetId) {
+        OptionalLong related = RelationGraph.getRelatedId(getRelatedIds(sourceId, sourceEntityType, ET_SENSOR_FQN), targetId);
+        if (related.isPresent()) {
+            return related;
+        }
         Optional<ProcedureEntity> sensor = this.getRelatedEntityRaw(sourceId, sourceEntityType, targetId);
         if (sensor.isPresent()) {
             return OptionalLong.of(sensor.get().getId());
@@ -126,7 +167,7 @@ public class SensorService extends AbstractSensorThingsEntityService<ProcedureRe
     public Entity getRelatedEntity(Long sourceId, EdmEntityType sourceEntityType, Long targetId) {
         Optional<ProcedureEntity> sensor = this.getRelatedEntityRaw(sourceId, sourceEntityType, targetId);
         if (sensor.isPresent()) {
-            return mapper.createEntity(sensor.get());
+            return mapEntity(mapper, sensor.get());
         } else {
             return null;
         }
@@ -142,28 +183,32 @@ public class SensorService extends AbstractSensorThingsEntityService<ProcedureRe
      * @return Optional<ProcedureEntity> Requested Entity
      */
     private Optional<ProcedureEntity> getRelatedEntityRaw(Long sourceId, EdmEntityType sourceEntityType, Long targetId) {
-        BooleanExpression filter;
-        switch(sourceEntityType.getFullQualifiedName().getFullQualifiedNameAsString()) {
-        case "iot.Datastream": {
-            filter = sQS.withDatastream(sourceId);
-            break;
-        }
-        default: return Optional.empty();
-        }
-
-        if (targetId != null) {
-            filter = filter.and(sQS.withId(targetId));
-        }
-        return getRepository().findOne(filter);
+        QueryTemplate<ProcedureEntity> template = getRelatedTemplate(QUERY_TEMPLATES, sourceEntityType, targetId);
+        return template != null ? findOne(template, sourceId, targetId) : Optional.empty();
     }
 
     /**
-     * Constructs SQL Expression to request Entity by ID.
+     * Selects the template to request Entity by ID, the validity is only
+     * queried if the {@link ValidityIndex} does not know the Entity to be valid.
      * 
      * @param id id of the requested entity
-     * @return BooleanExpression evaluating to true if Entity is found and valid
+     * @return QueryTemplate finding the Entity if it is valid
+     */
+    private QueryTemplate<ProcedureEntity> byId(Long id) {
+        return validityIndex.isValid(ValidityIndex.Kind.SENSOR, id) ? QUERY_TEMPLATES.byId() : VALID_BY_ID;
+    }
+
+    /**
+     * Constructs SQL Expression to restrict a request to valid Entities.
+     * 
+     * @return BooleanExpression evaluating to true if Entity is valid
      */
-    private BooleanExpression byId(Long id) {
-        return sQS.isValidEntity().and(sQS.withId(id));
+    private BooleanExpression validEntities() {
+        return validityIndex.validEntities(ValidityIndex.Kind.SENSOR, QProcedureEntity.procedureEntity.id, sQS::isValidEntity);
+    }
+
+    @Override
+    protected PropertyProjection<?> getPropertyProjection() {
+        return PROPERTY_PROJECTION;
     }
 }
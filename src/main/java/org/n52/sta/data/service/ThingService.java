@@ -28,14 +28,22 @@
  */
 package org.n52.sta.data.service;
 
+import static org.n52.sta.edm.provider.entities.AbstractSensorThingsEntityProvider.PROP_DESCRIPTION;
+import static org.n52.sta.edm.provider.entities.AbstractSensorThingsEntityProvider.PROP_NAME;
+import static org.n52.sta.edm.provider.entities.ThingEntityProvider.ET_THING_FQN;
+
 import java.util.Optional;
 import java.util.OptionalLong;
 
 import org.apache.olingo.commons.api.data.Entity;
 import org.apache.olingo.commons.api.data.EntityCollection;
 import org.apache.olingo.commons.api.edm.EdmEntityType;
+import org.n52.series.db.beans.sta.QThingEntity;
 import org.n52.series.db.beans.sta.ThingEntity;
 import org.n52.sta.data.query.ThingQuerySpecifications;
+import org.n52.sta.data.repositories.PropertyProjection;
+import org.n52.sta.data.repositories.QueryTemplate;
+import org.n52.sta.data.repositories.QueryTemplates;
 import org.n52.sta.data.repositories.ThingRepository;
 import org.n52.sta.mapping.ThingMapper;
 import org.n52.sta.service.query.QueryOptions;
@@ -54,6 +62,15 @@ public class ThingService extends AbstractSensorThingsEntityService<ThingReposit
 
     private final static ThingQuerySpecifications tQS = new ThingQuerySpecifications();
 
+    private static final PropertyProjection<ThingEntity> PROPERTY_PROJECTION = PropertyProjection.of(QThingEntity.thingEntity)
+            .column(PROP_NAME, "name")
+            .column(PROP_DESCRIPTION, "description");
+
+    private static final QueryTemplates<ThingEntity> QUERY_TEMPLATES = QueryTemplates.of(QThingEntity.thingEntity, tQS::withId)
+            .relation("iot.Location", tQS::withRelatedLocation)
+            .relation("iot.HistoricalLocation", tQS::withRelatedHistoricalLocation)
+            .relation("iot.Datastream", tQS::withRelatedDatastream);
+
     public ThingService(ThingRepository repository, ThingMapper mapper) {
         super(repository);
         this.mapper = mapper;
@@ -62,34 +79,53 @@ public class ThingService extends AbstractSensorThingsEntityService<ThingReposit
     @Override
     public EntityCollection getEntityCollection(QueryOptions queryOptions) {
         EntityCollection retEntitySet = new EntityCollection();
-        getRepository().findAll(createPageableRequest(queryOptions)).forEach(t -> retEntitySet.getEntities().add(mapper.createEntity(t)));
+        findAll(QThingEntity.thingEntity, null, queryOptions, null).forEach(t -> retEntitySet.getEntities().add(mapEntity(mapper, t)));
         return retEntitySet;
     }
 
+    @Override
+    public long[] getEntityCollectionIds(QueryOptions queryOptions) {
+        return findIds(QThingEntity.thingEntity, null, queryOptions);
+    }
+
     @Override
     public Entity getEntity(Long id) {
-        Optional<ThingEntity> entity = getRepository().findOne(tQS.withId(id));
-        return entity.isPresent() ? mapper.createEntity(entity.get()) : null;
+        Optional<ThingEntity> entity = findOne(QUERY_TEMPLATES.byId(), id);
+        return entity.isPresent() ? mapEntity(mapper, entity.get()) : null;
     }
 
     @Override
     public EntityCollection getRelatedEntityCollection(Long sourceId, EdmEntityType sourceEntityType, QueryOptions queryOptions) {
-        BooleanExpression filter = tQS.withRelatedLocation(sourceId);
-        Iterable<ThingEntity> things = getRepository().findAll(filter, createPageableRequest(queryOptions));
+        BooleanExpression filter = getFilter(sourceId, sourceEntityType);
+        Iterable<ThingEntity> things = findAll(QThingEntity.thingEntity, filter, queryOptions, null);
 
         EntityCollection retEntitySet = new EntityCollection();
-        things.forEach(t -> retEntitySet.getEntities().add(mapper.createEntity(t)));
+        things.forEach(t -> retEntitySet.getEntities().add(mapEntity(mapper, t)));
         return retEntitySet;
     }
 
+    @Override
+    public long[] getRelatedEntityCollectionIds(Long sourceId, EdmEntityType sourceEntityType, QueryOptions queryOptions) {
+        return findIds(QThingEntity.thingEntity, getFilter(sourceId, sourceEntityType), queryOptions);
+    }
+
     @Override
     public long getRelatedEntityCollectionCount(Long sourceId, EdmEntityType sourceEntityType) {
-        return getRepository().count(tQS.withRelatedLocation(sourceId));
+        QueryTemplate<ThingEntity> template = getRelatedTemplate(QUERY_TEMPLATES, sourceEntityType, null);
+        if (template != null && getRelatedIds(sourceId, sourceEntityType, ET_THING_FQN) == null) {
+            return count(template, sourceId);
+        }
+        return getRepository().count(getFilter(sourceId, sourceEntityType));
+    }
+
+    private BooleanExpression getFilter(Long sourceId, EdmEntityType sourceEntityType) {
+        return withRelated(sourceId, sourceEntityType, ET_THING_FQN, QThingEntity.thingEntity.id,
+                () -> tQS.withRelatedLocation(sourceId));
     }
 
     @Override
     public boolean existsEntity(Long id) {
-        return getRepository().exists(tQS.withId(id));
+        return exists(QUERY_TEMPLATES.byId(), id);
     }
 
     @Override
@@ -99,16 +135,11 @@ public class ThingService extends AbstractSensorThingsEntityService<ThingReposit
 
     @Override
     public boolean existsRelatedEntity(Long sourceId, EdmEntityType sourceEntityType, Long targetId) {
-        switch(sourceEntityType.getFullQualifiedName().getFullQualifiedNameAsString()) {
-        case "iot.Location": {
-            BooleanExpression filter = tQS.withRelatedLocation(sourceId);
-            if (targetId != null) {
-                filter = filter.and(tQS.withId(targetId));
-            }
-            return getRepository().exists(filter);
-        }
-        default: return false;
+        if (RelationGraph.isRelated(getRelatedIds(sourceId, sourceEntityType, ET_THING_FQN), targetId)) {
+            return true;
         }
+        QueryTemplate<ThingEntity> template = getRelatedTemplate(QUERY_TEMPLATES, sourceEntityType, targetId);
+        return template != null && exists(template, sourceId, targetId);
     }
 
     @Override
@@ -118,6 +149,10 @@ public class ThingService extends AbstractSensorThingsEntityService<ThingReposit
 
     @Override
     public OptionalLong getIdForRelatedEntity(Long sourceId, EdmEntityType sourceEntityType, Long targetId) {
+        OptionalLong related = RelationGraph.getRelatedId(getRelatedIds(sourceId, sourceEntityType, ET_THING_FQN), targetId);
+        if (related.isPresent()) {
+            return related;
+        }
         Optional<ThingEntity> thing = this.getRelatedEntityRaw(sourceId, sourceEntityType, targetId);
         if (thing.isPresent()) {
             return OptionalLong.of(thing.get().getId());
@@ -135,7 +170,7 @@ public class ThingService extends AbstractSensorThingsEntityService<ThingReposit
     public Entity getRelatedEntity(Long sourceId, EdmEntityType sourceEntityType, Long targetId) {
         Optional<ThingEntity> thing = this.getRelatedEntityRaw(sourceId, sourceEntityType, targetId);
         if (thing.isPresent()) {
-            return mapper.createEntity(thing.get());
+            return mapEntity(mapper, thing.get());
         } else {
             return null;
         }
@@ -151,26 +186,12 @@ public class ThingService extends AbstractSensorThingsEntityService<ThingReposit
      * @return Optional<ThingEntity> Requested Entity
      */
     private Optional<ThingEntity> getRelatedEntityRaw(Long sourceId, EdmEntityType sourceEntityType, Long targetId) {
-        BooleanExpression filter;
-        switch(sourceEntityType.getFullQualifiedName().getFullQualifiedNameAsString()) {
-        case "iot.HistoricalLocation": {
-            filter = tQS.withRelatedHistoricalLocation(sourceId);
-            break;
-        }
-        case "iot.Datastream": {
-            filter = tQS.withRelatedDatastream(sourceId);
-            break;
-        }
-        case "iot.Location": {
-            filter = tQS.withRelatedLocation(sourceId);
-            break;
-        }
-        default: return Optional.empty();
-        }
+        QueryTemplate<ThingEntity> template = getRelatedTemplate(QUERY_TEMPLATES, sourceEntityType, targetId);
+        return template != null ? findOne(template, sourceId, targetId) : Optional.empty();
+    }
 
-        if (targetId != null) {
-            filter = filter.and(tQS.withId(targetId));
-        }
-        return getRepository().findOne(filter);
+    @Override
+    protected PropertyProjection<?> getPropertyProjection() {
+        return PROPERTY_PROJECTION;
     }
 }
@@ -0,0 +1,458 @@
+/*
+ * Copyright (C) 2012-2018 52°North Initiative for Geospatial Open Source
+ * Software GmbH
+ *
+ * This program is free software; you can redistribute it and/or modify it
+ * under the terms of the GNU General Public License version 2 as published
+ * by the Free Software Foundation.
+ *
+ * If the program is linked with libraries which are licensed under one of
+ * the following licenses, the combination of the program with the linked
+ * library is not considered a "derivative work" of the program:
+ *
+ *     - Apache License, version 2.0
+ *     - Apache Software License, version 1.0
+ *     - GNU Lesser General Public License, version 3
+ *     - Mozilla Public License, versions 1.0, 1.1 and 2.0
+ *     - Common Development and Distribution License (CDDL), version 1.0
+ *
+ * Therefore the distribution of the program linked with libraries licensed
+ * under the aforementioned licenses, is permitted by the copyright holders
+ * if the distribution is compliant with both the GNU General Public
+ * License version 2 and the aforementioned licenses.
+ *
+ * This program is distributed in the hope that it will be useful, but
+ * WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the GNU General
+ * Public License for more details.
+ */
+package org.n52.sta.data.service;
+
+import java.util.Collections;
+import java.util.EnumMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ScheduledThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.function.Supplier;
+import java.util.stream.Collectors;
+import java.util.stream.LongStream;
+
+import javax.persistence.EntityManager;
+import javax.persistence.PersistenceContext;
+
+import org.n52.series.db.beans.DataEntity;
+import org.n52.series.db.beans.DatasetEntity;
+import org.n52.series.db.beans.QDatasetEntity;
+import org.n52.series.db.beans.QFeatureEntity;
+import org.n52.series.db.beans.QPhenomenonEntity;
+import org.n52.series.db.beans.QProcedureEntity;
+import org.n52.series.db.beans.sta.QDatastreamEntity;
+import org.roaringbitmap.longlong.LongIterator;
+import org.roaringbitmap.longlong.Roaring64NavigableMap;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.beans.factory.DisposableBean;
+import org.springframework.beans.factory.InitializingBean;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.context.event.ContextRefreshedEvent;
+import org.springframework.context.event.EventListener;
+import org.springframework.stereotype.Component;
+import org.springframework.transaction.PlatformTransactionManager;
+import org.springframework.transaction.support.TransactionTemplate;
+
+import com.mysema.commons.lang.CloseableIterator;
+import com.querydsl.core.Tuple;
+import com.querydsl.core.types.dsl.BooleanExpression;
+import com.querydsl.core.types.dsl.Expressions;
+import com.querydsl.core.types.dsl.NumberExpression;
+import com.querydsl.core.types.dsl.NumberPath;
+import com.querydsl.jpa.impl.JPAQuery;
+
+import io.micrometer.core.instrument.Gauge;
+import io.micrometer.core.instrument.MeterRegistry;
+
+/**
+ * Keeps the ids of the Sensors, ObservedProperties, Features and Datasets
+ * that are linked to a Datastream in memory, so that the services do not
+ * have to add an <code>IN (SELECT ... FROM datastream)</code> subquery to
+ * every lookup.
+ * <p>
+ * The index is rebuilt from the database when the application context is
+ * refreshed and then every <code>database.validity-index.refresh-interval</code>
+ * milliseconds. In between, the entities of Datastreams created since the
+ * last check are added every <code>database.validity-index.datastream-interval</code>
+ * milliseconds, and the Datasets and Features of created Observations right
+ * away. Until the first build finished the services fall back to the
+ * subqueries.
+ * <p>
+ * Links can also be removed by other applications writing to the database,
+ * e.g. by deleting a Datastream. With every check for created Datastreams
+ * the count and the sum of the distinct valid ids of each type are compared
+ * to the index, and the index is rebuilt right away if they differ. So an
+ * entity unlinked outside of this service is at most
+ * <code>database.validity-index.datastream-interval</code> milliseconds
+ * reported valid.
+ * <p>
+ * Only the valid ids are trusted for single entities: an entity the index
+ * does not know to be valid is queried with the subquery, so entities linked
+ * to a Datastream after the last build are found. A set of entities is
+ * restricted by a list of the invalid ids below the largest known id, or by
+ * a list of the valid ids, whichever has at most
+ * <code>database.validity-index.max-in-list</code> entries, and by the
+ * subquery for the ids above. If both lists are longer, only the subquery is
+ * used.
+ *
+ * @since 1.0.0
+ */
+@Component
+public class ValidityIndex implements InitializingBean, DisposableBean {
+
+    public static final String ENTITIES_GAUGE = "sta.validity-index.entities";
+
+    private static final Logger LOGGER = LoggerFactory.getLogger(ValidityIndex.class);
+
+    private static final QDatastreamEntity qdatastream = QDatastreamEntity.datastreamEntity;
+
+    private static final QDatasetEntity qdataset = QDatasetEntity.datasetEntity;
+
+    /**
+     * The entity types kept in the index.
+     */
+    public enum Kind {
+        SENSOR, OBSERVED_PROPERTY, FEATURE, DATASET;
+
+        private String getTag() {
+            return name().toLowerCase().replace('_', '-');
+        }
+    }
+
+    @Value("${database.validity-index.enabled:true}")
+    private boolean enabled;
+
+    @Value("${database.validity-index.refresh-interval:60000}")
+    private long refreshInterval;
+
+    @Value("${database.validity-index.datastream-interval:5000}")
+    private long datastreamInterval;
+
+    @Value("${database.validity-index.max-in-list:1000}")
+    private int maxInList;
+
+    @PersistenceContext
+    private EntityManager entityManager;
+
+    @Autowired
+    private PlatformTransactionManager transactionManager;
+
+    @Autowired
+    private MeterRegistry registry;
+
+    private final Map<Kind, Entry> entries = Collections.synchronizedMap(new EnumMap<>(Kind.class));
+
+    private final AtomicBoolean started = new AtomicBoolean();
+
+    // only accessed by the single thread of the executor
+    private long maxDatastreamId = -1;
+
+    private TransactionTemplate transaction;
+
+    private ScheduledExecutorService executor;
+
+    @Override
+    public void afterPropertiesSet() {
+        if (!enabled) {
+            return;
+        }
+        transaction = new TransactionTemplate(transactionManager);
+        transaction.setReadOnly(true);
+        ScheduledThreadPoolExecutor scheduler = new ScheduledThreadPoolExecutor(1, r -> {
+            Thread thread = new Thread(r, "sta-validity-index");
+            thread.setDaemon(true);
+            return thread;
+        });
+        scheduler.setExecuteExistingDelayedTasksAfterShutdownPolicy(false);
+        executor = scheduler;
+        for (Kind kind : Kind.values()) {
+            Gauge.builder(ENTITIES_GAUGE, entries, e -> {
+                Entry entry = e.get(kind);
+                return entry == null ? 0 : entry.valid.getLongCardinality();
+            }).tag("kind", kind.getTag()).register(registry);
+        }
+    }
+
+    @Override
+    public void destroy() {
+        if (executor != null) {
+            executor.shutdownNow();
+        }
+    }
+
+    /**
+     * Starts building the index once the database is ready.
+     */
+    @EventListener(ContextRefreshedEvent.class)
+    public void start() {
+        if (executor == null || !started.compareAndSet(false, true)) {
+            return;
+        }
+        if (refreshInterval > 0) {
+            executor.scheduleWithFixedDelay(this::rebuild, 0, refreshInterval, TimeUnit.MILLISECONDS);
+        } else {
+            executor.execute(this::rebuild);
+        }
+        if (datastreamInterval > 0) {
+            executor.scheduleWithFixedDelay(this::addCreatedDatastreams, datastreamInterval, datastreamInterval,
+                    TimeUnit.MILLISECONDS);
+        }
+    }
+
+    /**
+     * Adds the Dataset and the Feature of a created Observation, they are
+     * valid as the Observation was added to a Datastream.
+     *
+     * @param event
+     *            the creation event
+     */
+    @EventListener
+    public void onObservationCreation(ObservationCreationEvent event) {
+        DataEntity<?> observation = event.getObservation();
+        DatasetEntity dataset = observation == null ? null : observation.getDataset();
+        if (dataset == null) {
+            return;
+        }
+        add(Kind.DATASET, dataset.getId());
+        if (dataset.getFeature() != null) {
+            add(Kind.FEATURE, dataset.getFeature().getId());
+        }
+    }
+
+    /**
+     * Checks if the entity is known to be valid, i.e. the index is built and
+     * the entity is linked to a Datastream.
+     *
+     * @param kind
+     *            the entity type
+     * @param id
+     *            the id of the entity
+     * @return <code>true</code> if the entity is valid and the validity has
+     *         not to be queried
+     */
+    public boolean isValid(Kind kind, long id) {
+        Entry entry = entries.get(kind);
+        return entry != null && entry.valid.contains(id);
+    }
+
+    /**
+     * Restricts a query to valid entities.
+     *
+     * @param kind
+     *            the entity type
+     * @param path
+     *            the id path of the queried entities
+     * @param subquery
+     *            supplies the restriction used if the index can not decide
+     * @return the restriction by the ids of the index or of the subquery
+     */
+    public BooleanExpression validEntities(Kind kind, NumberPath<Long> path, Supplier<BooleanExpression> subquery) {
+        Entry entry = entries.get(kind);
+        if (entry == null) {
+            return subquery.get();
+        }
+        // entities created after the build are not known to the index
+        BooleanExpression unknown = path.gt(entry.maxId).and(subquery.get());
+        if (entry.invalidIds != null) {
+            BooleanExpression known = path.loe(entry.maxId);
+            return (entry.invalidIds.isEmpty() ? known : known.and(path.notIn(entry.invalidIds))).or(unknown);
+        }
+        if (entry.validIds != null) {
+            return entry.validIds.isEmpty() ? unknown : path.in(entry.validIds).or(unknown);
+        }
+        return subquery.get();
+    }
+
+    private void rebuild() {
+        try {
+            long start = System.nanoTime();
+            transaction.execute(status -> {
+                // Datastreams created while building are added by the next check
+                Long maxDatastream = query().select(qdatastream.id.max()).from(qdatastream).fetchOne();
+                QProcedureEntity qsensor = QProcedureEntity.procedureEntity;
+                QPhenomenonEntity qobservedProperty = QPhenomenonEntity.phenomenonEntity;
+                QFeatureEntity qfeature = QFeatureEntity.featureEntity;
+                entries.put(Kind.SENSOR, build(
+                        query().select(qsensor.id).from(qsensor),
+                        query().select(qdatastream.procedure.id).from(qdatastream)));
+                entries.put(Kind.OBSERVED_PROPERTY, build(
+                        query().select(qobservedProperty.id).from(qobservedProperty),
+                        query().select(qdatastream.observableProperty.id).from(qdatastream)));
+                entries.put(Kind.FEATURE, build(
+                        query().select(qfeature.id).from(qfeature),
+                        query().select(qdataset.feature.id).from(qdatastream).join(qdatastream.datasets, qdataset)));
+                entries.put(Kind.DATASET, build(
+                        query().select(qdataset.id).from(qdataset),
+                        query().select(qdataset.id).from(qdatastream).join(qdatastream.datasets, qdataset)));
+                maxDatastreamId = maxDatastream == null ? 0 : maxDatastream;
+                return null;
+            });
+            LOGGER.debug("Rebuilt the validity index in {} ms",
+                    TimeUnit.NANOSECONDS.toMillis(System.nanoTime() - start));
+        } catch (RuntimeException e) {
+            LOGGER.warn("Could not rebuild the validity index, keeping the previous one", e);
+        }
+    }
+
+    private void addCreatedDatastreams() {
+        if (maxDatastreamId < 0) {
+            return;
+        }
+        boolean changed;
+        try {
+            changed = transaction.execute(status -> {
+                List<Tuple> created = query()
+                        .select(qdatastream.id, qdatastream.procedure.id, qdatastream.observableProperty.id,
+                                qdataset.id, qdataset.feature.id)
+                        .from(qdatastream)
+                        .leftJoin(qdatastream.datasets, qdataset)
+                        .where(qdatastream.id.gt(maxDatastreamId))
+                        .fetch();
+                for (Tuple row : created) {
+                    add(Kind.SENSOR, row.get(qdatastream.procedure.id));
+                    add(Kind.OBSERVED_PROPERTY, row.get(qdatastream.observableProperty.id));
+                    add(Kind.DATASET, row.get(qdataset.id));
+                    add(Kind.FEATURE, row.get(qdataset.feature.id));
+                    maxDatastreamId = Math.max(maxDatastreamId, row.get(qdatastream.id));
+                }
+                return isChanged(Kind.SENSOR, qdatastream.procedure.id, query().from(qdatastream))
+                        || isChanged(Kind.OBSERVED_PROPERTY, qdatastream.observableProperty.id,
+                                query().from(qdatastream))
+                        || isChanged(Kind.FEATURE, qdataset.feature.id,
+                                query().from(qdatastream).join(qdatastream.datasets, qdataset))
+                        || isChanged(Kind.DATASET, qdataset.id,
+                                query().from(qdatastream).join(qdatastream.datasets, qdataset));
+            });
+        } catch (RuntimeException e) {
+            LOGGER.warn("Could not add the created Datastreams to the validity index", e);
+            return;
+        }
+        if (changed) {
+            LOGGER.debug("Links to Datastreams were removed, rebuilding the validity index");
+            rebuild();
+        }
+    }
+
+    /**
+     * Compares the count and the sum of the distinct valid ids in the
+     * database with the index. Adding links is already covered by the index,
+     * so a difference means a link was removed.
+     */
+    private boolean isChanged(Kind kind, NumberPath<Long> path, JPAQuery<?> valid) {
+        Entry entry = entries.get(kind);
+        if (entry == null) {
+            return false;
+        }
+        Tuple fingerprint = valid.select(path.countDistinct(), sumDistinct(path)).fetchOne();
+        Long count = fingerprint.get(0, Long.class);
+        Long sum = fingerprint.get(1, Long.class);
+        return (count == null ? 0 : count) != entry.valid.getLongCardinality()
+                || (sum == null ? 0 : sum) != entry.validSum;
+    }
+
+    private static NumberExpression<Long> sumDistinct(NumberPath<Long> path) {
+        return Expressions.numberTemplate(Long.class, "sum(distinct {0})", path);
+    }
+
+    private JPAQuery<?> query() {
+        return new JPAQuery<Void>(entityManager);
+    }
+
+    private Entry build(JPAQuery<Long> all, JPAQuery<Long> valid) {
+        Roaring64NavigableMap allIds = toBitmap(all);
+        Roaring64NavigableMap validIds = toBitmap(valid);
+        long maxId = allIds.isEmpty() ? -1 : allIds.select(allIds.getLongCardinality() - 1);
+        return new Entry(allIds, validIds, maxId);
+    }
+
+    private Roaring64NavigableMap toBitmap(JPAQuery<Long> query) {
+        Roaring64NavigableMap bitmap = new Roaring64NavigableMap();
+        try (CloseableIterator<Long> ids = query.iterate()) {
+            while (ids.hasNext()) {
+                Long id = ids.next();
+                if (id != null) {
+                    bitmap.addLong(id);
+                }
+            }
+        }
+        bitmap.runOptimize();
+        return bitmap;
+    }
+
+    private void add(Kind kind, Long id) {
+        if (id == null) {
+            return;
+        }
+        synchronized (entries) {
+            Entry entry = entries.get(kind);
+            if (entry != null && !entry.valid.contains(id)) {
+                entries.put(kind, entry.with(id));
+            }
+        }
+    }
+
+    private List<Long> toList(Roaring64NavigableMap ids) {
+        if (ids.getLongCardinality() > maxInList) {
+            return null;
+        }
+        return Collections.unmodifiableList(LongStream.of(ids.toArray()).boxed().collect(Collectors.toList()));
+    }
+
+    /**
+     * The immutable ids of one entity type. Changes replace the entry.
+     */
+    private final class Entry {
+
+        private final Roaring64NavigableMap all;
+
+        private final Roaring64NavigableMap valid;
+
+        private final long maxId;
+
+        private final long validSum;
+
+        private final List<Long> validIds;
+
+        private final List<Long> invalidIds;
+
+        Entry(Roaring64NavigableMap all, Roaring64NavigableMap valid, long maxId) {
+            this.all = all;
+            this.valid = valid;
+            this.maxId = maxId;
+            long sum = 0;
+            LongIterator ids = valid.getLongIterator();
+            while (ids.hasNext()) {
+                sum += ids.next();
+            }
+            this.validSum = sum;
+            Roaring64NavigableMap invalid = new Roaring64NavigableMap();
+            invalid.or(all);
+            invalid.andNot(valid);
+            this.invalidIds = toList(invalid);
+            this.validIds = invalidIds == null ? toList(valid) : null;
+        }
+
+        Entry with(long id) {
+            Roaring64NavigableMap newAll = new Roaring64NavigableMap();
+            newAll.or(all);
+            newAll.addLong(id);
+            Roaring64NavigableMap newValid = new Roaring64NavigableMap();
+            newValid.or(valid);
+            newValid.addLong(id);
+            // the ids between the largest known id and this one are not known
+            return new Entry(newAll, newValid, maxId);
+        }
+    }
+
+}
@@ -6,6 +6,7 @@
 package org.n52.sta.edm.provider;
 
 import java.util.ArrayList;
+import java.util.Collections;
 import java.util.List;
 import org.apache.olingo.commons.api.edm.FullQualifiedName;
 import org.apache.olingo.commons.api.edm.provider.CsdlAbstractEdmProvider;
@@ -40,8 +41,29 @@ public class SensorThingsEdmProvider extends CsdlAbstractEdmProvider {
     public static final String CONTAINER_NAME = "sensorThingsEntitySets";
     public static final FullQualifiedName CONTAINER = new FullQualifiedName(NAMESPACE, CONTAINER_NAME);
 
+    // the EDM is static after the startup, so the container and the schemas
+    // are only created once
+    private volatile CsdlEntityContainer entityContainer;
+
+    private volatile List<CsdlSchema> schemas;
+
     @Override
     public CsdlEntityContainer getEntityContainer() throws ODataException {
+        if (entityContainer == null) {
+            entityContainer = createEntityContainer();
+        }
+        return entityContainer;
+    }
+
+    @Override
+    public List<CsdlSchema> getSchemas() throws ODataException {
+        if (schemas == null) {
+            schemas = Collections.unmodifiableList(createSchemas());
+        }
+        return schemas;
+    }
+
+    private CsdlEntityContainer createEntityContainer() {
 
         // create EntitySets
         List<CsdlEntitySet> entitySets = new ArrayList<CsdlEntitySet>();
@@ -55,8 +77,7 @@ public class SensorThingsEdmProvider extends CsdlAbstractEdmProvider {
         return entityContainer;
     }
 
-    @Override
-    public List<CsdlSchema> getSchemas() throws ODataException {
+    private List<CsdlSchema> createSchemas() throws ODataException {
         // create Schema
         CsdlSchema schema = new CsdlSchema();
         schema.setNamespace(NAMESPACE);
@@ -0,0 +1,294 @@
+/*
+ * Copyright (C) 2012-2018 52°North Initiative for Geospatial Open Source
+ * Software GmbH
+ *
+ * This program is free software; you can redistribute it and/or modify it
+ * under the terms of the GNU General Public License version 2 as published
+ * by the Free Software Foundation.
+ *
+ * If the program is linked with libraries which are licensed under one of
+ * the following licenses, the combination of the program with the linked
+ * library is not considered a "derivative work" of the program:
+ *
+ *     - Apache License, version 2.0
+ *     - Apache Software License, version 1.0
+ *     - GNU Lesser General Public License, version 3
+ *     - Mozilla Public License, versions 1.0, 1.1 and 2.0
+ *     - Common Development and Distribution License (CDDL), version 1.0
+ *
+ * Therefore the distribution of the program linked with libraries licensed
+ * under the aforementioned licenses, is permitted by the copyright holders
+ * if the distribution is compliant with both the GNU General Public
+ * License version 2 and the aforementioned licenses.
+ *
+ * This program is distributed in the hope that it will be useful, but
+ * WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the GNU General
+ * Public License for more details.
+ */
+package org.n52.sta.metrics;
+
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+import java.util.function.Supplier;
+import java.util.stream.Collectors;
+
+import org.apache.olingo.commons.api.edm.EdmBindingTarget;
+import org.apache.olingo.server.api.uri.UriInfo;
+import org.apache.olingo.server.api.uri.UriResource;
+import org.apache.olingo.server.api.uri.UriResourceEntitySet;
+import org.apache.olingo.server.api.uri.UriResourceNavigation;
+import org.apache.olingo.server.api.uri.queryoption.SystemQueryOption;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.stereotype.Component;
+
+import io.micrometer.core.instrument.MeterRegistry;
+import io.micrometer.core.instrument.Tags;
+import io.micrometer.core.instrument.Timer;
+
+/**
+ * Collects the time spent in the {@link PipelineStage}s of a request and
+ * publishes it as Micrometer timers when the request is finished.
+ * <p>
+ * The measurements are kept in a thread bound context, so the static
+ * {@link #enter(PipelineStage)}/{@link #exit()} methods can be used
+ * everywhere in the pipeline without passing the context around. They are
+ * no-ops outside of a request. Time spent in nested stages is only
+ * accounted for the innermost stage, e.g. lazy loading inside the mapping
+ * counts as mapping and not as query time.
+ *
+ * @since 1.0.0
+ */
+@Component
+public class PipelineMetrics {
+
+    public static final String REQUEST_TIMER = "sta.request";
+
+    public static final String STAGE_TIMER = "sta.request.stage";
+
+    public static final String ENTITIES_COUNTER = "sta.request.entities";
+
+    public static final String TAG_ENTITY_SET = "entitySet";
+
+    public static final String TAG_SHAPE = "shape";
+
+    public static final String TAG_OPTIONS = "options";
+
+    public static final String TAG_STAGE = "stage";
+
+    public static final String TAG_STATUS = "status";
+
+    private static final String NONE = "none";
+
+    private static final ThreadLocal<Context> CONTEXT = new ThreadLocal<>();
+
+    @Autowired
+    private MeterRegistry registry;
+
+    /**
+     * Starts measuring a request on the current thread
+     */
+    public void start() {
+        CONTEXT.set(new Context());
+    }
+
+    /**
+     * Finishes the measurement of the current request and records the timers
+     *
+     * @param status
+     *            the HTTP status of the response
+     */
+    public void finish(int status) {
+        Context context = CONTEXT.get();
+        CONTEXT.remove();
+        if (context == null) {
+            return;
+        }
+        Tags tags = Tags.of(TAG_ENTITY_SET, context.entitySet, TAG_SHAPE, context.shape, TAG_OPTIONS,
+                context.options);
+        Timer.builder(REQUEST_TIMER)
+                .description("Duration of SensorThings API requests")
+                .tags(tags)
+                .tag(TAG_STATUS, Integer.toString(status))
+                .publishPercentileHistogram()
+                .register(registry)
+                .record(System.nanoTime() - context.start, TimeUnit.NANOSECONDS);
+        for (PipelineStage stage : PipelineStage.values()) {
+            long nanos = context.stageNanos[stage.ordinal()];
+            if (nanos > 0) {
+                Timer.builder(STAGE_TIMER)
+                        .description("Time spent in a stage of the OData pipeline")
+                        .tags(tags)
+                        .tag(TAG_STAGE, stage.getTagValue())
+                        .register(registry)
+                        .record(nanos, TimeUnit.NANOSECONDS);
+            }
+        }
+        if (context.entities > 0) {
+            registry.counter(ENTITIES_COUNTER, tags).increment(context.entities);
+        }
+    }
+
+    /**
+     * Describes the current request by its target entity set, shape (e.g.
+     * <code>collection</code>, <code>entity</code>, <code>property</code>) and
+     * the given system query options. The time since the start of the
+     * request is accounted as {@link PipelineStage#URI_PARSING}.
+     *
+     * @param uriInfo
+     *            the parsed request URI
+     * @param shape
+     *            the shape of the request
+     */
+    public static void describe(UriInfo uriInfo, String shape) {
+        Context context = CONTEXT.get();
+        if (context == null) {
+            return;
+        }
+        if (!context.described) {
+            context.stageNanos[PipelineStage.URI_PARSING.ordinal()] = System.nanoTime() - context.start;
+            context.described = true;
+        }
+        context.shape = shape;
+        if (uriInfo != null) {
+            context.entitySet = resolveEntitySet(uriInfo.getUriResourceParts());
+            context.options = describeOptions(uriInfo.getSystemQueryOptions());
+        }
+    }
+
+    /**
+     * Enters a stage. Every call has to be followed by a call of
+     * {@link #exit()}, usually in a finally block.
+     *
+     * @param stage
+     *            the stage to enter
+     */
+    public static void enter(PipelineStage stage) {
+        Context context = CONTEXT.get();
+        if (context != null) {
+            context.enter(stage);
+        }
+    }
+
+    /**
+     * Exits the last entered stage
+     */
+    public static void exit() {
+        Context context = CONTEXT.get();
+        if (context != null) {
+            context.exit();
+        }
+    }
+
+    /**
+     * Measures the given supplier as the given stage
+     *
+     * @param stage
+     *            the stage
+     * @param supplier
+     *            the measured code
+     * @return the result of the supplier
+     */
+    public static <T> T time(PipelineStage stage, Supplier<T> supplier) {
+        enter(stage);
+        try {
+            return supplier.get();
+        } finally {
+            exit();
+        }
+    }
+
+    /**
+     * Accounts time that was measured outside of the request thread, e.g. by
+     * a query running concurrently on another thread.
+     *
+     * @param stage
+     *            the stage
+     * @param nanos
+     *            the measured time
+     */
+    public static void record(PipelineStage stage, long nanos) {
+        Context context = CONTEXT.get();
+        if (context != null) {
+            context.stageNanos[stage.ordinal()] += nanos;
+        }
+    }
+
+    private static String resolveEntitySet(List<UriResource> resourceParts) {
+        EdmBindingTarget target = null;
+        for (UriResource resource : resourceParts) {
+            if (resource instanceof UriResourceEntitySet) {
+                target = ((UriResourceEntitySet) resource).getEntitySet();
+            } else if (resource instanceof UriResourceNavigation && target != null) {
+                target = target.getRelatedBindingTarget(((UriResourceNavigation) resource).getProperty().getName());
+            }
+        }
+        return target == null ? NONE : target.getName();
+    }
+
+    private static String describeOptions(List<SystemQueryOption> options) {
+        if (options == null || options.isEmpty()) {
+            return NONE;
+        }
+        return options.stream()
+                .map(o -> o.getKind().toString())
+                .sorted()
+                .distinct()
+                .collect(Collectors.joining(","));
+    }
+
+    private static final class Context {
+
+        private static final int MAX_DEPTH = 16;
+
+        private final long start = System.nanoTime();
+
+        private final long[] stageNanos = new long[PipelineStage.values().length];
+
+        private final PipelineStage[] stack = new PipelineStage[MAX_DEPTH];
+
+        private final long[] stackStart = new long[MAX_DEPTH];
+
+        private final long[] stackChildren = new long[MAX_DEPTH];
+
+        private int depth;
+
+        private boolean described;
+
+        private long entities;
+
+        private String entitySet = NONE;
+
+        private String shape = NONE;
+
+        private String options = NONE;
+
+        void enter(PipelineStage stage) {
+            if (depth < MAX_DEPTH) {
+                stack[depth] = stage;
+                stackStart[depth] = System.nanoTime();
+                stackChildren[depth] = 0;
+            }
+            depth++;
+        }
+
+        void exit() {
+            if (depth == 0) {
+                return;
+            }
+            depth--;
+            if (depth >= MAX_DEPTH) {
+                return;
+            }
+            long elapsed = System.nanoTime() - stackStart[depth];
+            stageNanos[stack[depth].ordinal()] += elapsed - stackChildren[depth];
+            if (stack[depth] == PipelineStage.MAPPING) {
+                entities++;
+            }
+            if (depth > 0) {
+                stackChildren[depth - 1] += elapsed;
+            }
+        }
+    }
+
+}
@@ -0,0 +1,84 @@
+/*
+ * Copyright (C) 2012-2018 52°North Initiative for Geospatial Open Source
+ * Software GmbH
+ *
+ * This program is free software; you can redistribute it and/or modify it
+ * under the terms of the GNU General Public License version 2 as published
+ * by the Free Software Foundation.
+ *
+ * If the program is linked with libraries which are licensed under one of
+ * the following licenses, the combination of the program with the linked
+ * library is not considered a "derivative work" of the program:
+ *
+ *     - Apache License, version 2.0
+ *     - Apache Software License, version 1.0
+ *     - GNU Lesser General Public License, version 3
+ *     - Mozilla Public License, versions 1.0, 1.1 and 2.0
+ *     - Common Development and Distribution License (CDDL), version 1.0
+ *
+ * Therefore the distribution of the program linked with libraries licensed
+ * under the aforementioned licenses, is permitted by the copyright holders
+ * if the distribution is compliant with both the GNU General Public
+ * License version 2 and the aforementioned licenses.
+ *
+ * This program is distributed in the hope that it will be useful, but
+ * WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the GNU General
+ * Public License for more details.
+ */
+package org.n52.sta.metrics;
+
+/**
+ * Stages of the OData request pipeline that are timed separately
+ *
+ * @since 1.0.0
+ */
+public enum PipelineStage {
+
+    /**
+     * Creating the OData handler and parsing the request URI, measured until
+     * the first processor is invoked
+     */
+    URI_PARSING("uri_parsing"),
+
+    /**
+     * Resolving navigation paths and existence checks of the source entities
+     */
+    NAVIGATION("navigation"),
+
+    /**
+     * Page queries of the entity services (without mapping)
+     */
+    QUERY("query"),
+
+    /**
+     * Count queries of the entity services
+     */
+    COUNT("count"),
+
+    /**
+     * Mapping of database entities to OData entities
+     */
+    MAPPING("mapping"),
+
+    /**
+     * Adding selfLink and navigationLink annotations
+     */
+    ANNOTATION("annotation"),
+
+    /**
+     * Writing the response document
+     */
+    SERIALIZATION("serialization");
+
+    private final String tagValue;
+
+    PipelineStage(String tagValue) {
+        this.tagValue = tagValue;
+    }
+
+    public String getTagValue() {
+        return tagValue;
+    }
+
+}
@@ -0,0 +1,199 @@
+/*
+ * Copyright (C) 2012-2018 52°North Initiative for Geospatial Open Source
+ * Software GmbH
+ *
+ * This program is free software; you can redistribute it and/or modify it
+ * under the terms of the GNU General Public License version 2 as published
+ * by the Free Software Foundation.
+ *
+ * If the program is linked with libraries which are licensed under one of
+ * the following licenses, the combination of the program with the linked
+ * library is not considered a "derivative work" of the program:
+ *
+ *     - Apache License, version 2.0
+ *     - Apache Software License, version 1.0
+ *     - GNU Lesser General Public License, version 3
+ *     - Mozilla Public License, versions 1.0, 1.1 and 2.0
+ *     - Common Development and Distribution License (CDDL), version 1.0
+ *
+ * Therefore the distribution of the program linked with libraries licensed
+ * under the aforementioned licenses, is permitted by the copyright holders
+ * if the distribution is compliant with both the GNU General Public
+ * License version 2 and the aforementioned licenses.
+ *
+ * This program is distributed in the hope that it will be useful, but
+ * WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the GNU General
+ * Public License for more details.
+ */
+package org.n52.sta.mqtt;
+
+import java.io.IOException;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.Properties;
+import java.util.Set;
+import java.util.stream.Collectors;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.beans.factory.DisposableBean;
+import org.springframework.beans.factory.InitializingBean;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.stereotype.Component;
+
+import io.moquette.BrokerConstants;
+import io.moquette.broker.Server;
+import io.moquette.broker.config.MemoryConfig;
+import io.moquette.broker.security.IAuthorizatorPolicy;
+import io.moquette.broker.subscriptions.Topic;
+import io.netty.buffer.Unpooled;
+import io.netty.handler.codec.mqtt.MqttMessageBuilders;
+import io.netty.handler.codec.mqtt.MqttPublishMessage;
+import io.netty.handler.codec.mqtt.MqttQoS;
+
+/**
+ * Embedded MQTT broker of the SensorThings MQTT extension. The broker runs
+ * inside the application, so no external message broker is needed.
+ * <p>
+ * Any client may subscribe, but Observations are only ingested from the
+ * users listed in <code>mqtt.broker.ingest_users</code>, authenticated
+ * against the Moquette <code>mqtt.broker.password_file</code>. Without a
+ * password file usernames can not be trusted and ingest is disabled.
+ *
+ * @since 1.0.0
+ */
+@Component
+public class MqttBroker implements InitializingBean, DisposableBean {
+
+    /**
+     * Client id used for messages published by the service itself
+     */
+    public static final String INTERNAL_CLIENT_ID = "sensorthings-internal";
+
+    private static final Logger LOGGER = LoggerFactory.getLogger(MqttBroker.class);
+
+    @Value("${mqtt.broker.enabled:false}")
+    private boolean enabled;
+
+    @Value("${mqtt.broker.host:127.0.0.1}")
+    private String host;
+
+    @Value("${mqtt.broker.port:1883}")
+    private String port;
+
+    @Value("${mqtt.broker.websocket_port:}")
+    private String websocketPort;
+
+    @Value("${mqtt.broker.persistence_file:}")
+    private String persistenceFile;
+
+    @Value("${mqtt.broker.password_file:}")
+    private String passwordFile;
+
+    @Value("${mqtt.broker.ingest_users:}")
+    private String ingestUsers;
+
+    @Autowired
+    private MqttEventHandler eventHandler;
+
+    private Server server;
+
+    @Override
+    public void afterPropertiesSet() throws IOException {
+        if (!enabled) {
+            LOGGER.info("Embedded MQTT broker is disabled.");
+            return;
+        }
+        Properties properties = new Properties();
+        properties.setProperty(BrokerConstants.HOST_PROPERTY_NAME, host);
+        properties.setProperty(BrokerConstants.PORT_PROPERTY_NAME, port);
+        if (websocketPort != null && !websocketPort.isEmpty()) {
+            properties.setProperty(BrokerConstants.WEB_SOCKET_PORT_PROPERTY_NAME, websocketPort);
+        }
+        // an empty store path keeps sessions in memory
+        properties.setProperty(BrokerConstants.PERSISTENT_STORE_PROPERTY_NAME,
+                persistenceFile == null ? "" : persistenceFile);
+        // anonymous clients may only subscribe, see IngestAuthorizator
+        properties.setProperty(BrokerConstants.ALLOW_ANONYMOUS_PROPERTY_NAME, Boolean.TRUE.toString());
+        Set<String> ingest = Collections.emptySet();
+        if (passwordFile != null && !passwordFile.isEmpty()) {
+            properties.setProperty(BrokerConstants.PASSWORD_FILE_PROPERTY_NAME, passwordFile);
+            ingest = Arrays.stream(ingestUsers.split(","))
+                    .map(String::trim)
+                    .filter(user -> !user.isEmpty())
+                    .collect(Collectors.toSet());
+        }
+        if (ingest.isEmpty()) {
+            LOGGER.info("MQTT Observation ingest is disabled, it needs a password file and ingest users.");
+        }
+
+        Server broker = new Server();
+        broker.startServer(new MemoryConfig(properties), Collections.singletonList(eventHandler), null, null,
+                new IngestAuthorizator(ingest));
+        server = broker;
+        LOGGER.info("Started embedded MQTT broker on {}:{}", host, port);
+    }
+
+    @Override
+    public void destroy() {
+        if (server != null) {
+            server.stopServer();
+            server = null;
+        }
+    }
+
+    /**
+     * @return true if the embedded broker is enabled and running
+     */
+    public boolean isRunning() {
+        return server != null;
+    }
+
+    /**
+     * Publishes a payload to the given topic. The payload array is wrapped
+     * and not copied, so the same array can be published to several topics.
+     *
+     * @param topic
+     *            the topic to publish to
+     * @param payload
+     *            the serialized message
+     */
+    public void publish(String topic, byte[] payload) {
+        if (server == null) {
+            return;
+        }
+        MqttPublishMessage message = MqttMessageBuilders.publish()
+                .topicName(topic)
+                .retained(false)
+                .qos(MqttQoS.AT_MOST_ONCE)
+                .payload(Unpooled.wrappedBuffer(payload))
+                .build();
+        server.internalPublish(message, INTERNAL_CLIENT_ID);
+    }
+
+    /**
+     * Lets everybody subscribe and only the ingest users publish, and only
+     * to the topics accepting Observations.
+     */
+    static final class IngestAuthorizator implements IAuthorizatorPolicy {
+
+        private final Set<String> ingestUsers;
+
+        IngestAuthorizator(Set<String> ingestUsers) {
+            this.ingestUsers = ingestUsers;
+        }
+
+        @Override
+        public boolean canWrite(Topic topic, String user, String client) {
+            return user != null && ingestUsers.contains(user) && MqttEventHandler.isIngestTopic(topic.toString());
+        }
+
+        @Override
+        public boolean canRead(Topic topic, String user, String client) {
+            return true;
+        }
+    }
+
+}
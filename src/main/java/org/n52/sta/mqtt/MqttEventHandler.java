@@ -0,0 +1,378 @@
+/*
+ * Copyright (C) 2012-2018 52°North Initiative for Geospatial Open Source
+ * Software GmbH
+ *
+ * This program is free software; you can redistribute it and/or modify it
+ * under the terms of the GNU General Public License version 2 as published
+ * by the Free Software Foundation.
+ *
+ * If the program is linked with libraries which are licensed under one of
+ * the following licenses, the combination of the program with the linked
+ * library is not considered a "derivative work" of the program:
+ *
+ *     - Apache License, version 2.0
+ *     - Apache Software License, version 1.0
+ *     - GNU Lesser General Public License, version 3
+ *     - Mozilla Public License, versions 1.0, 1.1 and 2.0
+ *     - Common Development and Distribution License (CDDL), version 1.0
+ *
+ * Therefore the distribution of the program linked with libraries licensed
+ * under the aforementioned licenses, is permitted by the copyright holders
+ * if the distribution is compliant with both the GNU General Public
+ * License version 2 and the aforementioned licenses.
+ *
+ * This program is distributed in the hope that it will be useful, but
+ * WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the GNU General
+ * Public License for more details.
+ */
+package org.n52.sta.mqtt;
+
+import java.io.IOException;
+import java.math.BigDecimal;
+import java.nio.charset.StandardCharsets;
+import java.util.Collections;
+import java.util.Date;
+import java.util.HashSet;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
+
+import org.joda.time.DateTime;
+import org.n52.series.db.beans.BooleanDataEntity;
+import org.n52.series.db.beans.CategoryDataEntity;
+import org.n52.series.db.beans.CountDataEntity;
+import org.n52.series.db.beans.DataEntity;
+import org.n52.series.db.beans.QuantityDataEntity;
+import org.n52.series.db.beans.TextDataEntity;
+import org.n52.sta.data.service.ObservationService;
+import org.n52.sta.utils.JsonHelper;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.stereotype.Component;
+
+import com.fasterxml.jackson.databind.JsonNode;
+
+import io.moquette.interception.AbstractInterceptHandler;
+import io.moquette.interception.messages.InterceptConnectionLostMessage;
+import io.moquette.interception.messages.InterceptDisconnectMessage;
+import io.moquette.interception.messages.InterceptPublishMessage;
+import io.moquette.interception.messages.InterceptSubscribeMessage;
+import io.moquette.interception.messages.InterceptUnsubscribeMessage;
+import io.netty.buffer.ByteBuf;
+
+/**
+ * Intercepts the messages of the embedded MQTT broker. Keeps track of the
+ * active topic subscriptions, so Observations are only serialized if
+ * somebody listens, and handles publishes of clients as Observation ingest.
+ *
+ * @since 1.0.0
+ */
+@Component
+public class MqttEventHandler extends AbstractInterceptHandler {
+
+    public static final String TOPIC_PREFIX = "v1.0/";
+
+    private static final Logger LOGGER = LoggerFactory.getLogger(MqttEventHandler.class);
+
+    private static final Pattern OBSERVATIONS_TOPIC = Pattern.compile("^v1\\.0/Observations$");
+
+    private static final Pattern DATASTREAM_OBSERVATIONS_TOPIC =
+            Pattern.compile("^v1\\.0/Datastreams\\((\\d+)\\)/Observations$");
+
+    private static final String QUANTITY = "quantity";
+
+    private static final String COUNT = "count";
+
+    private static final String BOOLEAN = "boolean";
+
+    private static final String CATEGORY = "category";
+
+    private static final String TEXT = "text";
+
+    private static final String MULTI_LEVEL_WILDCARD = "#";
+
+    private static final String SINGLE_LEVEL_WILDCARD = "+";
+
+    private final Map<String, Set<String>> subscriptionsByClient = new ConcurrentHashMap<>();
+
+    private volatile Set<String> topicFilters = Collections.emptySet();
+
+    @Autowired
+    private ObservationService observationService;
+
+    @Autowired
+    private JsonHelper jsonHelper;
+
+    @Override
+    public String getID() {
+        return "SensorThingsMqttEventHandler";
+    }
+
+    @Override
+    public void onSubscribe(InterceptSubscribeMessage msg) {
+        subscriptionsByClient.computeIfAbsent(msg.getClientID(), c -> ConcurrentHashMap.newKeySet())
+                .add(msg.getTopicFilter());
+        updateTopicFilters();
+    }
+
+    @Override
+    public void onUnsubscribe(InterceptUnsubscribeMessage msg) {
+        Set<String> filters = subscriptionsByClient.get(msg.getClientID());
+        if (filters != null) {
+            filters.remove(msg.getTopicFilter());
+            updateTopicFilters();
+        }
+    }
+
+    @Override
+    public void onDisconnect(InterceptDisconnectMessage msg) {
+        removeClient(msg.getClientID());
+    }
+
+    @Override
+    public void onConnectionLost(InterceptConnectionLostMessage msg) {
+        removeClient(msg.getClientID());
+    }
+
+    // declared abstract by InterceptHandler in newer Moquette releases
+    public void onSessionLoopError(Throwable error) {
+        LOGGER.warn("Error in a MQTT session", error);
+    }
+
+    @Override
+    public void onPublish(InterceptPublishMessage msg) {
+        if (MqttBroker.INTERNAL_CLIENT_ID.equals(msg.getClientID())) {
+            return;
+        }
+        String topic = msg.getTopicName();
+        if (!isIngestTopic(topic)) {
+            LOGGER.debug("Ignoring MQTT publish of client {} on topic {}", msg.getClientID(), topic);
+            return;
+        }
+        try {
+            JsonNode payload = readPayload(msg.getPayload());
+            Long datastreamId = getDatastreamId(topic, payload);
+            if (datastreamId == null) {
+                LOGGER.debug("Ignoring Observation without Datastream on topic {}", topic);
+                return;
+            }
+            Long featureId = getFeatureId(payload);
+            if (observationService.createObservation(datastreamId, featureId,
+                    dataset -> createObservation(payload, dataset.getValueType()), topic) == null) {
+                LOGGER.debug("Ignoring Observation for unknown Datastream {} or FeatureOfInterest {}", datastreamId,
+                        featureId);
+            }
+        } catch (IOException | IllegalArgumentException e) {
+            LOGGER.debug("Could not ingest MQTT publish on topic {}: {}", topic, e.getMessage());
+        }
+    }
+
+    /**
+     * Checks if clients publish Observations to the topic.
+     *
+     * @param topic
+     *            the topic a message is published to
+     * @return true for the Observation and Datastream Observation topics
+     */
+    static boolean isIngestTopic(String topic) {
+        return OBSERVATIONS_TOPIC.matcher(topic).matches() || DATASTREAM_OBSERVATIONS_TOPIC.matcher(topic).matches();
+    }
+
+    /**
+     * Resolves the Datastream of a published Observation from the topic or,
+     * on the Observations topic, from the payload.
+     *
+     * @param topic
+     *            the topic the Observation is published to
+     * @param payload
+     *            the Observation
+     * @return the ID of the Datastream or <code>null</code>
+     */
+    static Long getDatastreamId(String topic, JsonNode payload) {
+        Matcher matcher = DATASTREAM_OBSERVATIONS_TOPIC.matcher(topic);
+        if (matcher.matches()) {
+            return Long.valueOf(matcher.group(1));
+        } else if (OBSERVATIONS_TOPIC.matcher(topic).matches()) {
+            return getId(payload.path("Datastream"));
+        }
+        return null;
+    }
+
+    /**
+     * @param payload
+     *            the published Observation
+     * @return the ID of its FeatureOfInterest or <code>null</code>
+     */
+    static Long getFeatureId(JsonNode payload) {
+        return getId(payload.path("FeatureOfInterest"));
+    }
+
+    private static Long getId(JsonNode reference) {
+        JsonNode id = reference.path("@iot.id");
+        if (id.isIntegralNumber() || id.isTextual() && id.asText().matches("\\d+")) {
+            return id.asLong();
+        }
+        return null;
+    }
+
+    /**
+     * Checks if there is at least one active subscription whose topic filter
+     * matches the given topic.
+     *
+     * @param topic
+     *            the topic to check
+     * @return true if somebody is subscribed to the topic
+     */
+    public boolean hasSubscription(String topic) {
+        for (String filter : topicFilters) {
+            if (matches(filter, topic)) {
+                return true;
+            }
+        }
+        return false;
+    }
+
+    /**
+     * Matches a topic against a MQTT topic filter, supporting the single
+     * (+) and multi (#) level wildcards.
+     *
+     * @param filter
+     *            the topic filter of a subscription
+     * @param topic
+     *            the topic a message is published to
+     * @return true if the topic matches the filter
+     */
+    static boolean matches(String filter, String topic) {
+        String[] filterLevels = filter.split("/", -1);
+        String[] topicLevels = topic.split("/", -1);
+        for (int i = 0; i < filterLevels.length; i++) {
+            if (MULTI_LEVEL_WILDCARD.equals(filterLevels[i])) {
+                return true;
+            }
+            if (i >= topicLevels.length) {
+                return false;
+            }
+            if (!SINGLE_LEVEL_WILDCARD.equals(filterLevels[i]) && !filterLevels[i].equals(topicLevels[i])) {
+                return false;
+            }
+        }
+        return filterLevels.length == topicLevels.length;
+    }
+
+    private void removeClient(String clientId) {
+        if (clientId != null && subscriptionsByClient.remove(clientId) != null) {
+            updateTopicFilters();
+        }
+    }
+
+    private synchronized void updateTopicFilters() {
+        Set<String> filters = new HashSet<>();
+        subscriptionsByClient.values().forEach(filters::addAll);
+        topicFilters = Collections.unmodifiableSet(filters);
+    }
+
+    private JsonNode readPayload(ByteBuf payload) throws IOException {
+        byte[] bytes = new byte[payload.readableBytes()];
+        payload.getBytes(payload.readerIndex(), bytes);
+        return jsonHelper.readJsonString(new String(bytes, StandardCharsets.UTF_8));
+    }
+
+    /**
+     * Creates the Observation entity from a published JSON Observation. The
+     * entity type follows the value type of the target Dataset, the result
+     * has to be convertible to it.
+     *
+     * @param payload
+     *            the Observation
+     * @param valueType
+     *            the value type of the Dataset the Observation belongs to
+     * @return the entity, not yet attached to a Dataset
+     * @throws IllegalArgumentException
+     *             if the Observation has no result, a result not matching
+     *             the value type or an invalid time
+     */
+    static DataEntity<?> createObservation(JsonNode payload, String valueType) {
+        JsonNode result = payload.get("result");
+        if (result == null || result.isNull()) {
+            throw new IllegalArgumentException("Observation has no result");
+        }
+        DataEntity<?> observation = createObservation(result, valueType);
+
+        Date[] phenomenonTime = parseTime(payload.path("phenomenonTime").asText(null));
+        observation.setSamplingTimeStart(phenomenonTime[0]);
+        observation.setSamplingTimeEnd(phenomenonTime[1]);
+        observation.setResultTime(payload.hasNonNull("resultTime")
+                ? parseTime(payload.get("resultTime").asText())[0]
+                : phenomenonTime[1]);
+        if (payload.hasNonNull("validTime")) {
+            Date[] validTime = parseTime(payload.get("validTime").asText());
+            observation.setValidTimeStart(validTime[0]);
+            observation.setValidTimeEnd(validTime[1]);
+        }
+        observation.setParameters(new HashSet<>());
+        return observation;
+    }
+
+    private static DataEntity<?> createObservation(JsonNode result, String valueType) {
+        switch (valueType == null ? "" : valueType) {
+            case QUANTITY:
+                QuantityDataEntity quantity = new QuantityDataEntity();
+                quantity.setValue(getScalar(result, valueType).isNumber()
+                        ? result.decimalValue()
+                        : new BigDecimal(result.asText()));
+                return quantity;
+            case COUNT:
+                CountDataEntity count = new CountDataEntity();
+                if (getScalar(result, valueType).isNumber() && !(result.isIntegralNumber() && result.canConvertToInt())) {
+                    throw new IllegalArgumentException("Result is not a count");
+                }
+                count.setValue(result.isNumber() ? result.intValue() : Integer.parseInt(result.asText()));
+                return count;
+            case BOOLEAN:
+                BooleanDataEntity bool = new BooleanDataEntity();
+                String value = getScalar(result, valueType).asText();
+                if (!result.isBoolean() && !"true".equals(value) && !"false".equals(value)) {
+                    throw new IllegalArgumentException("Result is not a boolean");
+                }
+                bool.setValue(Boolean.parseBoolean(value));
+                return bool;
+            case CATEGORY:
+                CategoryDataEntity category = new CategoryDataEntity();
+                category.setValue(getScalar(result, valueType).asText());
+                return category;
+            case TEXT:
+                TextDataEntity text = new TextDataEntity();
+                text.setValue(result.isTextual() ? result.textValue() : result.toString());
+                return text;
+            default:
+                throw new IllegalArgumentException("Observations of value type " + valueType + " are not supported");
+        }
+    }
+
+    private static JsonNode getScalar(JsonNode result, String valueType) {
+        if (!result.isValueNode()) {
+            throw new IllegalArgumentException("Result is no " + valueType + " value");
+        }
+        return result;
+    }
+
+    /**
+     * Parses an ISO 8601 instant or interval (start/end). Missing times
+     * default to now.
+     */
+    private static Date[] parseTime(String time) {
+        if (time == null || time.isEmpty()) {
+            Date now = new Date();
+            return new Date[] { now, now };
+        }
+        String[] split = time.split("/");
+        Date start = DateTime.parse(split[0]).toDate();
+        Date end = split.length > 1 ? DateTime.parse(split[1]).toDate() : start;
+        return new Date[] { start, end };
+    }
+
+}
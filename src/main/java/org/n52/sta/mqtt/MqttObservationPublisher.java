@@ -0,0 +1,159 @@
+/*
+ * Copyright (C) 2012-2018 52°North Initiative for Geospatial Open Source
+ * Software GmbH
+ *
+ * This program is free software; you can redistribute it and/or modify it
+ * under the terms of the GNU General Public License version 2 as published
+ * by the Free Software Foundation.
+ *
+ * If the program is linked with libraries which are licensed under one of
+ * the following licenses, the combination of the program with the linked
+ * library is not considered a "derivative work" of the program:
+ *
+ *     - Apache License, version 2.0
+ *     - Apache Software License, version 1.0
+ *     - GNU Lesser General Public License, version 3
+ *     - Mozilla Public License, versions 1.0, 1.1 and 2.0
+ *     - Common Development and Distribution License (CDDL), version 1.0
+ *
+ * Therefore the distribution of the program linked with libraries licensed
+ * under the aforementioned licenses, is permitted by the copyright holders
+ * if the distribution is compliant with both the GNU General Public
+ * License version 2 and the aforementioned licenses.
+ *
+ * This program is distributed in the hope that it will be useful, but
+ * WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the GNU General
+ * Public License for more details.
+ */
+package org.n52.sta.mqtt;
+
+import static org.n52.sta.edm.provider.entities.DatastreamEntityProvider.ES_DATASTREAMS_NAME;
+import static org.n52.sta.edm.provider.entities.FeatureOfInterestEntityProvider.ES_FEATURES_OF_INTEREST_NAME;
+import static org.n52.sta.edm.provider.entities.ObservationEntityProvider.ES_OBSERVATIONS_NAME;
+import static org.n52.sta.edm.provider.entities.ObservationEntityProvider.ET_OBSERVATION_FQN;
+
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.List;
+
+import org.apache.olingo.commons.api.data.Entity;
+import org.apache.olingo.commons.api.edm.EdmEntityType;
+import org.apache.olingo.commons.api.format.ContentType;
+import org.apache.olingo.server.api.ServiceMetadata;
+import org.apache.olingo.server.api.serializer.EntitySerializerOptions;
+import org.apache.olingo.server.api.serializer.SerializerException;
+import org.n52.series.db.beans.DataEntity;
+import org.n52.sta.data.service.ObservationCreationEvent;
+import org.n52.sta.mapping.ObservationMapper;
+import org.n52.sta.service.SensorThingsServiceMetadata;
+import org.n52.sta.service.serializer.SensorThingsSerializer;
+import org.n52.sta.utils.EntityAnnotator;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.beans.factory.InitializingBean;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.stereotype.Component;
+import org.springframework.transaction.event.TransactionalEventListener;
+import org.springframework.util.StreamUtils;
+
+/**
+ * Pushes newly created Observations to the MQTT topics clients are subscribed
+ * to. Each Observation is serialized once and the same payload is published
+ * to every matching topic.
+ * <p>
+ * The broker forwards an Observation published by an ingest client to the
+ * subscribers of its topic before the Observation is created, and the
+ * authorization policy can not veto the forward without vetoing the ingest.
+ * The created Observation is therefore not published again to that topic.
+ *
+ * @since 1.0.0
+ */
+@Component
+public class MqttObservationPublisher implements InitializingBean {
+
+    private static final Logger LOGGER = LoggerFactory.getLogger(MqttObservationPublisher.class);
+
+    private static final ContentType MQTT_CONTENT_TYPE = ContentType.JSON_NO_METADATA;
+
+    @Value("${server.rootUrl:http://localhost:8080/sta}")
+    private String rootUrl;
+
+    @Autowired
+    private SensorThingsServiceMetadata sensorThingsServiceMetadata;
+
+    @Autowired
+    private MqttBroker broker;
+
+    @Autowired
+    private MqttEventHandler eventHandler;
+
+    @Autowired
+    private ObservationMapper mapper;
+
+    @Autowired
+    private EntityAnnotator entityAnnotator;
+
+    private ServiceMetadata serviceMetadata;
+
+    private EdmEntityType observationType;
+
+    @Override
+    public void afterPropertiesSet() {
+        serviceMetadata = sensorThingsServiceMetadata.getServiceMetadata();
+        observationType = serviceMetadata.getEdm().getEntityType(ET_OBSERVATION_FQN);
+    }
+
+    /**
+     * Publishes the created Observation after the creating transaction has
+     * been committed.
+     *
+     * @param event
+     *            the creation event
+     */
+    @TransactionalEventListener(fallbackExecution = true)
+    public void onObservationCreation(ObservationCreationEvent event) {
+        if (!broker.isRunning()) {
+            return;
+        }
+        List<String> topics = getSubscribedTopics(event);
+        if (topics.isEmpty()) {
+            return;
+        }
+        try {
+            byte[] payload = serialize(event.getObservation());
+            topics.forEach(topic -> broker.publish(topic, payload));
+        } catch (SerializerException | IOException e) {
+            LOGGER.warn("Could not publish Observation {}", event.getObservation().getId(), e);
+        }
+    }
+
+    private List<String> getSubscribedTopics(ObservationCreationEvent event) {
+        List<String> candidates = new ArrayList<>(3);
+        candidates.add(MqttEventHandler.TOPIC_PREFIX + ES_OBSERVATIONS_NAME);
+        candidates.add(MqttEventHandler.TOPIC_PREFIX + ES_DATASTREAMS_NAME
+                + "(" + event.getDatastreamId() + ")/" + ES_OBSERVATIONS_NAME);
+        DataEntity<?> observation = event.getObservation();
+        if (observation.getDataset() != null && observation.getDataset().getFeature() != null) {
+            candidates.add(MqttEventHandler.TOPIC_PREFIX + ES_FEATURES_OF_INTEREST_NAME
+                    + "(" + observation.getDataset().getFeature().getId() + ")/" + ES_OBSERVATIONS_NAME);
+        }
+        List<String> topics = new ArrayList<>(candidates.size());
+        for (String topic : candidates) {
+            if (!topic.equals(event.getIngestTopic()) && eventHandler.hasSubscription(topic)) {
+                topics.add(topic);
+            }
+        }
+        return topics;
+    }
+
+    private byte[] serialize(DataEntity<?> observation) throws SerializerException, IOException {
+        Entity entity = mapper.createEntity(observation);
+        entityAnnotator.annotateEntity(entity, observationType, rootUrl);
+        return StreamUtils.copyToByteArray(new SensorThingsSerializer(MQTT_CONTENT_TYPE)
+                .entity(serviceMetadata, observationType, entity, EntitySerializerOptions.with().build())
+                .getContent());
+    }
+
+}
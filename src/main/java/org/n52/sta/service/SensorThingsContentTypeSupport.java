@@ -0,0 +1,75 @@
+/*
+ * Copyright (C) 2012-2018 52°North Initiative for Geospatial Open Source
+ * Software GmbH
+ *
+ * This program is free software; you can redistribute it and/or modify it
+ * under the terms of the GNU General Public License version 2 as published
+ * by the Free Software Foundation.
+ *
+ * If the program is linked with libraries which are licensed under one of
+ * the following licenses, the combination of the program with the linked
+ * library is not considered a "derivative work" of the program:
+ *
+ *     - Apache License, version 2.0
+ *     - Apache Software License, version 1.0
+ *     - GNU Lesser General Public License, version 3
+ *     - Mozilla Public License, versions 1.0, 1.1 and 2.0
+ *     - Common Development and Distribution License (CDDL), version 1.0
+ *
+ * Therefore the distribution of the program linked with libraries licensed
+ * under the aforementioned licenses, is permitted by the copyright holders
+ * if the distribution is compliant with both the GNU General Public
+ * License version 2 and the aforementioned licenses.
+ *
+ * This program is distributed in the hope that it will be useful, but
+ * WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the GNU General
+ * Public License for more details.
+ */
+package org.n52.sta.service;
+
+import java.util.ArrayList;
+import java.util.EnumSet;
+import java.util.List;
+import java.util.Set;
+
+import org.apache.olingo.commons.api.format.ContentType;
+import org.apache.olingo.server.api.serializer.CustomContentTypeSupport;
+import org.apache.olingo.server.api.serializer.RepresentationType;
+import org.n52.sta.service.serializer.ResponseEncoding;
+import org.springframework.stereotype.Component;
+
+/**
+ * Adds the binary {@link ResponseEncoding}s to the content types Olingo
+ * negotiates for the representations written by the
+ * {@link org.n52.sta.service.serializer.SensorThingsSerializer}.
+ *
+ * @since 1.0.0
+ */
+@Component
+public class SensorThingsContentTypeSupport implements CustomContentTypeSupport {
+
+    private static final Set<RepresentationType> ENCODED_REPRESENTATIONS = EnumSet.of(
+            RepresentationType.ENTITY,
+            RepresentationType.COLLECTION_ENTITY,
+            RepresentationType.PRIMITIVE,
+            RepresentationType.COMPLEX,
+            RepresentationType.REFERENCE,
+            RepresentationType.COLLECTION_REFERENCE);
+
+    @Override
+    public List<ContentType> modifySupportedContentTypes(List<ContentType> defaultContentTypes,
+            RepresentationType type) {
+        if (!ENCODED_REPRESENTATIONS.contains(type)) {
+            return defaultContentTypes;
+        }
+        List<ContentType> contentTypes = new ArrayList<>(defaultContentTypes);
+        for (ResponseEncoding encoding : ResponseEncoding.values()) {
+            if (!contentTypes.contains(encoding.getContentType())) {
+                contentTypes.add(encoding.getContentType());
+            }
+        }
+        return contentTypes;
+    }
+
+}
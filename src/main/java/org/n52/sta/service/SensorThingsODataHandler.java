@@ -0,0 +1,148 @@
+/*
+ * Copyright (C) 2012-2018 52°North Initiative for Geospatial Open Source
+ * Software GmbH
+ *
+ * This program is free software; you can redistribute it and/or modify it
+ * under the terms of the GNU General Public License version 2 as published
+ * by the Free Software Foundation.
+ *
+ * If the program is linked with libraries which are licensed under one of
+ * the following licenses, the combination of the program with the linked
+ * library is not considered a "derivative work" of the program:
+ *
+ *     - Apache License, version 2.0
+ *     - Apache Software License, version 1.0
+ *     - GNU Lesser General Public License, version 3
+ *     - Mozilla Public License, versions 1.0, 1.1 and 2.0
+ *     - Common Development and Distribution License (CDDL), version 1.0
+ *
+ * Therefore the distribution of the program linked with libraries licensed
+ * under the aforementioned licenses, is permitted by the copyright holders
+ * if the distribution is compliant with both the GNU General Public
+ * License version 2 and the aforementioned licenses.
+ *
+ * This program is distributed in the hope that it will be useful, but
+ * WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the GNU General
+ * Public License for more details.
+ */
+package org.n52.sta.service;
+
+import static org.n52.sta.service.SensorThingsController.URI;
+
+import javax.servlet.http.HttpServletRequest;
+import javax.servlet.http.HttpServletRequestWrapper;
+import javax.servlet.http.HttpServletResponse;
+
+import org.apache.olingo.server.api.ODataHttpHandler;
+import org.apache.olingo.server.api.processor.ComplexProcessor;
+import org.apache.olingo.server.api.processor.EntityCollectionProcessor;
+import org.apache.olingo.server.api.processor.EntityProcessor;
+import org.apache.olingo.server.api.processor.ErrorProcessor;
+import org.apache.olingo.server.api.processor.MetadataProcessor;
+import org.apache.olingo.server.api.processor.PrimitiveValueProcessor;
+import org.apache.olingo.server.api.processor.ReferenceCollectionProcessor;
+import org.apache.olingo.server.api.processor.ReferenceProcessor;
+import org.apache.olingo.server.api.processor.ServiceDocumentProcessor;
+import org.apache.olingo.server.api.serializer.CustomContentTypeSupport;
+import org.n52.sta.metrics.PipelineMetrics;
+import org.n52.sta.service.compression.ResponseCompression;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.stereotype.Component;
+
+/**
+ * Runs the Olingo OData pipeline for a single request. Shared by the
+ * synchronous and the asynchronous controller. The request handlers read the
+ * data in read-only transactions of their own, so no connection is held while
+ * the response is serialized and written.
+ *
+ * @since 1.0.0
+ */
+@Component
+public class SensorThingsODataHandler {
+
+    @Autowired
+    private SensorThingsServiceMetadata serviceMetadata;
+
+    @Autowired
+    private MetadataProcessor metadataProcessor;
+
+    @Autowired
+    private ServiceDocumentProcessor serviceDocumentProcessor;
+
+    @Autowired
+    private EntityCollectionProcessor entityCollectionProcessor;
+
+    @Autowired
+    private EntityProcessor entityProcessor;
+
+    @Autowired
+    private PrimitiveValueProcessor primitiveValueProcessor;
+
+    @Autowired
+    private ErrorProcessor errorProcessor;
+
+    @Autowired
+    private ComplexProcessor complexProcessor;
+
+    @Autowired
+    private ReferenceCollectionProcessor referenceCollectionProcessor;
+
+    @Autowired
+    private ReferenceProcessor referenceProcessor;
+
+    @Autowired
+    private CustomContentTypeSupport contentTypeSupport;
+
+    @Autowired
+    private PipelineMetrics pipelineMetrics;
+
+    @Autowired
+    private ResponseCompression responseCompression;
+
+    /**
+     * Processes the request and writes the (compressed) result to the response
+     *
+     * @param request
+     *            the servlet request
+     * @param response
+     *            the servlet response
+     */
+    public void process(HttpServletRequest request, HttpServletResponse response) {
+        responseCompression.process(request, response, this::processMeasured);
+    }
+
+    private void processMeasured(HttpServletRequest request, HttpServletResponse response) {
+        pipelineMetrics.start();
+        try {
+            processRequest(request, response);
+        } finally {
+            pipelineMetrics.finish(response.getStatus());
+        }
+    }
+
+    private void processRequest(HttpServletRequest request, HttpServletResponse response) {
+
+        // create odata handler for the shared metadata and configure it with the processors
+        ODataHttpHandler handler = serviceMetadata.getOData().createHandler(serviceMetadata.getServiceMetadata());
+        handler.register(serviceDocumentProcessor);
+        handler.register(metadataProcessor);
+        handler.register(entityCollectionProcessor);
+        handler.register(entityProcessor);
+        handler.register(errorProcessor);
+        handler.register(primitiveValueProcessor);
+        handler.register(complexProcessor);
+        handler.register(referenceCollectionProcessor);
+        handler.register(referenceProcessor);
+        handler.register(contentTypeSupport);
+
+        // let the handler do the work
+        handler.process(new HttpServletRequestWrapper(request) {
+
+            @Override
+            public String getServletPath() {
+                return URI;
+            }
+        }, response);
+    }
+}
@@ -0,0 +1,191 @@
+/*
+ * Copyright (C) 2012-2018 52°North Initiative for Geospatial Open Source
+ * Software GmbH
+ *
+ * This program is free software; you can redistribute it and/or modify it
+ * under the terms of the GNU General Public License version 2 as published
+ * by the Free Software Foundation.
+ *
+ * If the program is linked with libraries which are licensed under one of
+ * the following licenses, the combination of the program with the linked
+ * library is not considered a "derivative work" of the program:
+ *
+ *     - Apache License, version 2.0
+ *     - Apache Software License, version 1.0
+ *     - GNU Lesser General Public License, version 3
+ *     - Mozilla Public License, versions 1.0, 1.1 and 2.0
+ *     - Common Development and Distribution License (CDDL), version 1.0
+ *
+ * Therefore the distribution of the program linked with libraries licensed
+ * under the aforementioned licenses, is permitted by the copyright holders
+ * if the distribution is compliant with both the GNU General Public
+ * License version 2 and the aforementioned licenses.
+ *
+ * This program is distributed in the hope that it will be useful, but
+ * WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the GNU General
+ * Public License for more details.
+ */
+package org.n52.sta.service;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.util.ArrayList;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+
+import org.apache.olingo.commons.api.edm.provider.CsdlAbstractEdmProvider;
+import org.apache.olingo.commons.api.edmx.EdmxReference;
+import org.apache.olingo.commons.api.format.ContentType;
+import org.apache.olingo.server.api.OData;
+import org.apache.olingo.server.api.ServiceMetadata;
+import org.apache.olingo.server.api.etag.ServiceMetadataETagSupport;
+import org.apache.olingo.server.api.serializer.SerializerException;
+import org.n52.sta.service.compression.PrecompressedDocument;
+import org.n52.sta.service.serializer.SensorThingsSerializer;
+import org.springframework.beans.factory.InitializingBean;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.stereotype.Component;
+import org.springframework.util.StreamUtils;
+
+/**
+ * Holds the {@link OData} instance and the {@link ServiceMetadata} shared by
+ * all requests. The EDM is static after the startup, so the
+ * <code>$metadata</code> document is rendered once at startup and served
+ * with its compressed variants and strong ETags. The service document
+ * contains the base URI of the request and is rendered once per base URI,
+ * with ETags of its own.
+ *
+ * @since 1.0.0
+ */
+@Component
+public class SensorThingsServiceMetadata implements InitializingBean {
+
+    private static final ContentType METADATA_CONTENT_TYPE = ContentType.APPLICATION_XML;
+
+    private static final int MAX_SERVICE_DOCUMENTS = 16;
+
+    @Autowired
+    private CsdlAbstractEdmProvider provider;
+
+    @Value("${http.compression.enabled:true}")
+    private boolean compression;
+
+    @Value("${http.compression.min-size:2048}")
+    private int minSize;
+
+    @Value("${http.compression.level:6}")
+    private int level;
+
+    private final Map<String, PrecompressedDocument> serviceDocuments = new ConcurrentHashMap<>();
+
+    private final DocumentETagSupport eTagSupport = new DocumentETagSupport();
+
+    private OData odata;
+
+    private ServiceMetadata serviceMetadata;
+
+    private PrecompressedDocument metadataDocument;
+
+    @Override
+    public void afterPropertiesSet() throws SerializerException {
+        odata = OData.newInstance();
+        serviceMetadata = odata.createServiceMetadata(provider, new ArrayList<EdmxReference>(), eTagSupport);
+        metadataDocument = new PrecompressedDocument(METADATA_CONTENT_TYPE,
+                read(odata.createSerializer(METADATA_CONTENT_TYPE).metadataDocument(serviceMetadata).getContent()),
+                getMinSize(), level);
+        // Olingo answers conditional requests with this ETag before the
+        // processors are called, the ETags of the compressed variants are
+        // checked by the document. The service document differs per base URI,
+        // so its ETags are only checked by the document.
+        eTagSupport.metadataETag = metadataDocument.getETag();
+    }
+
+    /**
+     * Get the shared {@link OData} instance
+     *
+     * @return the instance
+     */
+    public OData getOData() {
+        return odata;
+    }
+
+    /**
+     * Get the shared {@link ServiceMetadata}
+     *
+     * @return the service metadata
+     */
+    public ServiceMetadata getServiceMetadata() {
+        return serviceMetadata;
+    }
+
+    /**
+     * Get the prerendered <code>$metadata</code> document
+     *
+     * @param contentType
+     *            the requested content type
+     * @return the document or <code>null</code> if the content type is not
+     *         prerendered
+     */
+    public PrecompressedDocument getMetadataDocument(ContentType contentType) {
+        return METADATA_CONTENT_TYPE.isCompatible(contentType) ? metadataDocument : null;
+    }
+
+    /**
+     * Get the rendered service document for the base URI
+     *
+     * @param contentType
+     *            the content type of the document
+     * @param baseUri
+     *            the base URI of the request
+     * @return the document
+     * @throws SerializerException
+     *             if the document could not be rendered
+     */
+    public PrecompressedDocument getServiceDocument(ContentType contentType, String baseUri)
+            throws SerializerException {
+        String key = contentType.toContentTypeString() + " " + baseUri;
+        PrecompressedDocument document = serviceDocuments.get(key);
+        if (document == null) {
+            document = new PrecompressedDocument(contentType,
+                    read(new SensorThingsSerializer(contentType).serviceDocument(serviceMetadata, baseUri).getContent()),
+                    getMinSize(), level);
+            // the base URI is taken from the request, do not let arbitrary
+            // host headers fill the memory
+            if (serviceDocuments.size() < MAX_SERVICE_DOCUMENTS) {
+                serviceDocuments.put(key, document);
+            }
+        }
+        return document;
+    }
+
+    private int getMinSize() {
+        return compression ? minSize : -1;
+    }
+
+    private byte[] read(InputStream content) throws SerializerException {
+        try (InputStream in = content) {
+            return StreamUtils.copyToByteArray(in);
+        } catch (IOException e) {
+            throw new SerializerException("Could not render the document", e,
+                    SerializerException.MessageKeys.IO_EXCEPTION);
+        }
+    }
+
+    private static final class DocumentETagSupport implements ServiceMetadataETagSupport {
+
+        private volatile String metadataETag;
+
+        @Override
+        public String getMetadataETag() {
+            return metadataETag;
+        }
+
+        @Override
+        public String getServiceDocumentETag() {
+            return null;
+        }
+    }
+
+}
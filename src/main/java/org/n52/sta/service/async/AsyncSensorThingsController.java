@@ -0,0 +1,108 @@
+/*
+ * Copyright (C) 2012-2018 52°North Initiative for Geospatial Open Source
+ * Software GmbH
+ *
+ * This program is free software; you can redistribute it and/or modify it
+ * under the terms of the GNU General Public License version 2 as published
+ * by the Free Software Foundation.
+ *
+ * If the program is linked with libraries which are licensed under one of
+ * the following licenses, the combination of the program with the linked
+ * library is not considered a "derivative work" of the program:
+ *
+ *     - Apache License, version 2.0
+ *     - Apache Software License, version 1.0
+ *     - GNU Lesser General Public License, version 3
+ *     - Mozilla Public License, versions 1.0, 1.1 and 2.0
+ *     - Common Development and Distribution License (CDDL), version 1.0
+ *
+ * Therefore the distribution of the program linked with libraries licensed
+ * under the aforementioned licenses, is permitted by the copyright holders
+ * if the distribution is compliant with both the GNU General Public
+ * License version 2 and the aforementioned licenses.
+ *
+ * This program is distributed in the hope that it will be useful, but
+ * WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the GNU General
+ * Public License for more details.
+ */
+package org.n52.sta.service.async;
+
+import static org.n52.sta.service.SensorThingsController.URI;
+
+import javax.servlet.http.HttpServletRequest;
+import javax.servlet.http.HttpServletResponse;
+
+import org.n52.sta.service.SensorThingsODataHandler;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.boot.autoconfigure.condition.ConditionalOnProperty;
+import org.springframework.http.HttpStatus;
+import org.springframework.web.bind.annotation.RequestMapping;
+import org.springframework.web.bind.annotation.RestController;
+import org.springframework.web.context.request.async.DeferredResult;
+import org.springframework.web.server.ResponseStatusException;
+
+/**
+ * Asynchronous variant of the SensorThings controller. The OData pipeline runs
+ * on the {@link Bulkhead} of the requested entity set, which releases the
+ * servlet container thread for the duration of the (blocking) database
+ * access. Requests exceeding the capacity of a bulkhead are answered with
+ * <code>503 Service Unavailable</code>, as are requests timing out after
+ * <code>http.async.timeout</code> milliseconds. A timed out request is not
+ * started anymore if it is still queued, and the output of a running one is
+ * dropped by its {@link GuardedResponse}.
+ *
+ * @since 1.0.0
+ */
+@RestController
+@RequestMapping(value = "/" + URI)
+@ConditionalOnProperty(value = "http.async.enabled", havingValue = "true")
+public class AsyncSensorThingsController {
+
+    @Value("${http.async.timeout:60000}")
+    private long timeout;
+
+    @Autowired
+    private SensorThingsODataHandler odataHandler;
+
+    @Autowired
+    private BulkheadRegistry bulkheadRegistry;
+
+    @RequestMapping("**")
+    public DeferredResult<Void> process(HttpServletRequest request, HttpServletResponse response) {
+        DeferredResult<Void> result = new DeferredResult<>(timeout);
+        GuardedResponse guarded = new GuardedResponse(response);
+        result.onTimeout(() -> {
+            guarded.abandon();
+            result.setErrorResult(new ResponseStatusException(HttpStatus.SERVICE_UNAVAILABLE,
+                    "Request timed out"));
+        });
+        Bulkhead bulkhead = bulkheadRegistry.getBulkhead(getResourcePath(request));
+        boolean admitted = bulkhead.tryExecute(() -> {
+            if (guarded.isAbandoned()) {
+                return;
+            }
+            try {
+                // the handler runs the request in a transaction, so lazy
+                // loading in the mappers works without a bound EntityManager
+                odataHandler.process(request, guarded);
+                result.setResult(null);
+            } catch (RuntimeException e) {
+                result.setErrorResult(e);
+            }
+        });
+        if (!admitted) {
+            result.setErrorResult(new ResponseStatusException(HttpStatus.SERVICE_UNAVAILABLE,
+                    "Too many concurrent requests for " + bulkhead.getName()));
+        }
+        return result;
+    }
+
+    private String getResourcePath(HttpServletRequest request) {
+        String path = request.getRequestURI().substring(request.getContextPath().length());
+        String servicePath = "/" + URI;
+        return path.startsWith(servicePath) ? path.substring(servicePath.length()) : path;
+    }
+
+}
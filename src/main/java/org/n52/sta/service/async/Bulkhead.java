@@ -0,0 +1,116 @@
+/*
+ * Copyright (C) 2012-2018 52°North Initiative for Geospatial Open Source
+ * Software GmbH
+ *
+ * This program is free software; you can redistribute it and/or modify it
+ * under the terms of the GNU General Public License version 2 as published
+ * by the Free Software Foundation.
+ *
+ * If the program is linked with libraries which are licensed under one of
+ * the following licenses, the combination of the program with the linked
+ * library is not considered a "derivative work" of the program:
+ *
+ *     - Apache License, version 2.0
+ *     - Apache Software License, version 1.0
+ *     - GNU Lesser General Public License, version 3
+ *     - Mozilla Public License, versions 1.0, 1.1 and 2.0
+ *     - Common Development and Distribution License (CDDL), version 1.0
+ *
+ * Therefore the distribution of the program linked with libraries licensed
+ * under the aforementioned licenses, is permitted by the copyright holders
+ * if the distribution is compliant with both the GNU General Public
+ * License version 2 and the aforementioned licenses.
+ *
+ * This program is distributed in the hope that it will be useful, but
+ * WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the GNU General
+ * Public License for more details.
+ */
+package org.n52.sta.service.async;
+
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.Semaphore;
+
+/**
+ * Isolates the requests of one entity set: at most
+ * <code>maxConcurrent + queueSize</code> requests are admitted, further
+ * requests are rejected immediately instead of queueing up. At most
+ * <code>maxConcurrent</code> admitted requests run at the same time, also on
+ * an executor without a thread limit like virtual threads, the others wait.
+ *
+ * @since 1.0.0
+ */
+public class Bulkhead {
+
+    private final String name;
+
+    private final ExecutorService executor;
+
+    private final Semaphore permits;
+
+    private final Semaphore running;
+
+    private final int capacity;
+
+    public Bulkhead(String name, ExecutorService executor, int maxConcurrent, int queueSize) {
+        this.name = name;
+        this.executor = executor;
+        this.capacity = maxConcurrent + queueSize;
+        this.permits = new Semaphore(capacity);
+        this.running = new Semaphore(maxConcurrent, true);
+    }
+
+    /**
+     * Executes the task if the bulkhead has capacity left
+     *
+     * @param task
+     *            the task to execute
+     * @return false if the task was rejected
+     */
+    public boolean tryExecute(Runnable task) {
+        if (!permits.tryAcquire()) {
+            return false;
+        }
+        try {
+            executor.execute(() -> {
+                try {
+                    running.acquire();
+                    try {
+                        task.run();
+                    } finally {
+                        running.release();
+                    }
+                } catch (InterruptedException e) {
+                    Thread.currentThread().interrupt();
+                } finally {
+                    permits.release();
+                }
+            });
+            return true;
+        } catch (RejectedExecutionException e) {
+            permits.release();
+            return false;
+        }
+    }
+
+    public String getName() {
+        return name;
+    }
+
+    /**
+     * @return the number of admitted (running or queued) tasks
+     */
+    public int getActiveCount() {
+        return capacity - permits.availablePermits();
+    }
+
+    public int getCapacity() {
+        return capacity;
+    }
+
+    void shutdown() {
+        executor.shutdown();
+    }
+
+}
@@ -0,0 +1,220 @@
+/*
+ * Copyright (C) 2012-2018 52°North Initiative for Geospatial Open Source
+ * Software GmbH
+ *
+ * This program is free software; you can redistribute it and/or modify it
+ * under the terms of the GNU General Public License version 2 as published
+ * by the Free Software Foundation.
+ *
+ * If the program is linked with libraries which are licensed under one of
+ * the following licenses, the combination of the program with the linked
+ * library is not considered a "derivative work" of the program:
+ *
+ *     - Apache License, version 2.0
+ *     - Apache Software License, version 1.0
+ *     - GNU Lesser General Public License, version 3
+ *     - Mozilla Public License, versions 1.0, 1.1 and 2.0
+ *     - Common Development and Distribution License (CDDL), version 1.0
+ *
+ * Therefore the distribution of the program linked with libraries licensed
+ * under the aforementioned licenses, is permitted by the copyright holders
+ * if the distribution is compliant with both the GNU General Public
+ * License version 2 and the aforementioned licenses.
+ *
+ * This program is distributed in the hope that it will be useful, but
+ * WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the GNU General
+ * Public License for more details.
+ */
+package org.n52.sta.service.async;
+
+import static org.n52.sta.edm.provider.entities.DatastreamEntityProvider.ES_DATASTREAMS_NAME;
+import static org.n52.sta.edm.provider.entities.FeatureOfInterestEntityProvider.ES_FEATURES_OF_INTEREST_NAME;
+import static org.n52.sta.edm.provider.entities.HistoricalLocationEntityProvider.ES_HISTORICAL_LOCATIONS_NAME;
+import static org.n52.sta.edm.provider.entities.LocationEntityProvider.ES_LOCATIONS_NAME;
+import static org.n52.sta.edm.provider.entities.ObservationEntityProvider.ES_OBSERVATIONS_NAME;
+import static org.n52.sta.edm.provider.entities.ObservedPropertyEntityProvider.ES_OBSERVED_PROPERTIES_NAME;
+import static org.n52.sta.edm.provider.entities.SensorEntityProvider.ES_SENSORS_NAME;
+import static org.n52.sta.edm.provider.entities.ThingEntityProvider.ES_THINGS_NAME;
+
+import java.lang.reflect.Method;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.beans.factory.DisposableBean;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.stereotype.Component;
+
+/**
+ * Holds one {@link Bulkhead} per entity set, so slow Observation queries can
+ * not starve requests for the other entity sets or the metadata documents.
+ * If configured and available (JDK 21+), the bulkheads run on virtual
+ * threads, the pool size then limits the concurrently running requests.
+ * <p>
+ * Every worker holds a database connection while it runs a request, so the
+ * pool sizes are bounded by <code>spring.datasource.hikari.maximum-pool-size</code>.
+ * Unless configured, the Observations bulkhead gets half of the connections
+ * and every other bulkhead a quarter, so neither the Observations nor a
+ * single other entity set can take all connections.
+ *
+ * @since 1.0.0
+ */
+@Component
+public class BulkheadRegistry implements DisposableBean {
+
+    public static final String METADATA_BULKHEAD = "metadata";
+
+    private static final Logger LOGGER = LoggerFactory.getLogger(BulkheadRegistry.class);
+
+    private static final List<String> ENTITY_SETS = Arrays.asList(ES_THINGS_NAME, ES_LOCATIONS_NAME,
+            ES_HISTORICAL_LOCATIONS_NAME, ES_DATASTREAMS_NAME, ES_SENSORS_NAME, ES_OBSERVED_PROPERTIES_NAME,
+            ES_FEATURES_OF_INTEREST_NAME, ES_OBSERVATIONS_NAME);
+
+    private static final Map<String, String> NAVIGATION_TO_ENTITY_SET = new HashMap<>();
+
+    static {
+        NAVIGATION_TO_ENTITY_SET.put("Thing", ES_THINGS_NAME);
+        NAVIGATION_TO_ENTITY_SET.put("Location", ES_LOCATIONS_NAME);
+        NAVIGATION_TO_ENTITY_SET.put("HistoricalLocation", ES_HISTORICAL_LOCATIONS_NAME);
+        NAVIGATION_TO_ENTITY_SET.put("Datastream", ES_DATASTREAMS_NAME);
+        NAVIGATION_TO_ENTITY_SET.put("Sensor", ES_SENSORS_NAME);
+        NAVIGATION_TO_ENTITY_SET.put("ObservedProperty", ES_OBSERVED_PROPERTIES_NAME);
+        NAVIGATION_TO_ENTITY_SET.put("FeatureOfInterest", ES_FEATURES_OF_INTEREST_NAME);
+        NAVIGATION_TO_ENTITY_SET.put("Observation", ES_OBSERVATIONS_NAME);
+    }
+
+    @Value("${http.async.virtual-threads:false}")
+    private boolean useVirtualThreads;
+
+    @Value("${spring.datasource.hikari.maximum-pool-size:10}")
+    private int connectionPoolSize;
+
+    @Value("${http.async.pool-size:0}")
+    private int poolSize;
+
+    @Value("${http.async.queue-size:32}")
+    private int queueSize;
+
+    @Value("${http.async.observations.pool-size:0}")
+    private int observationsPoolSize;
+
+    @Value("${http.async.observations.queue-size:64}")
+    private int observationsQueueSize;
+
+    private final Map<String, Bulkhead> bulkheads = new ConcurrentHashMap<>();
+
+    /**
+     * Resolves the bulkhead for the requested resource. The resource is
+     * identified by the last entity set or navigation segment of the path,
+     * e.g. <code>Datastreams(1)/Observations</code> runs in the Observations
+     * bulkhead.
+     *
+     * @param resourcePath
+     *            the path relative to the service root
+     * @return the bulkhead for the resource
+     */
+    public Bulkhead getBulkhead(String resourcePath) {
+        return bulkheads.computeIfAbsent(resolveBulkheadName(resourcePath), this::createBulkhead);
+    }
+
+    String resolveBulkheadName(String resourcePath) {
+        String name = METADATA_BULKHEAD;
+        if (resourcePath == null) {
+            return name;
+        }
+        for (String segment : resourcePath.split("/")) {
+            int keyStart = segment.indexOf('(');
+            String segmentName = keyStart > 0 ? segment.substring(0, keyStart) : segment;
+            if (ENTITY_SETS.contains(segmentName)) {
+                name = segmentName;
+            } else if (NAVIGATION_TO_ENTITY_SET.containsKey(segmentName)) {
+                name = NAVIGATION_TO_ENTITY_SET.get(segmentName);
+            }
+        }
+        return name;
+    }
+
+    private Bulkhead createBulkhead(String name) {
+        boolean observations = ES_OBSERVATIONS_NAME.equals(name);
+        int threads = getPoolSize(name, observations ? observationsPoolSize : poolSize, connectionPoolSize,
+                observations ? 2 : 4);
+        int queue = observations ? observationsQueueSize : queueSize;
+        ExecutorService executor = useVirtualThreads ? createVirtualThreadExecutor() : null;
+        if (executor == null) {
+            executor = Executors.newFixedThreadPool(threads, new NamedThreadFactory("sta-" + name));
+        }
+        LOGGER.debug("Created bulkhead {} with {} workers and {} queued requests", name, threads, queue);
+        return new Bulkhead(name, executor, threads, queue);
+    }
+
+    /**
+     * Limits the workers of a bulkhead to the database connections.
+     *
+     * @param name
+     *            the name of the bulkhead
+     * @param configured
+     *            the configured pool size, 0 to derive it
+     * @param connectionPoolSize
+     *            the size of the database connection pool
+     * @param share
+     *            the divisor of the connection pool size for the derived pool
+     *            size
+     * @return the pool size
+     */
+    static int getPoolSize(String name, int configured, int connectionPoolSize, int share) {
+        int connections = Math.max(1, connectionPoolSize);
+        if (configured <= 0) {
+            return Math.max(1, connections / share);
+        }
+        if (configured > connections) {
+            LOGGER.warn("Bulkhead {} is limited to the {} database connections instead of {} workers", name,
+                    connections, configured);
+            return connections;
+        }
+        return configured;
+    }
+
+    private ExecutorService createVirtualThreadExecutor() {
+        try {
+            Method factory = Executors.class.getMethod("newVirtualThreadPerTaskExecutor");
+            return (ExecutorService) factory.invoke(null);
+        } catch (ReflectiveOperationException e) {
+            LOGGER.warn("Virtual threads are not supported by this JVM, falling back to platform threads.");
+            useVirtualThreads = false;
+            return null;
+        }
+    }
+
+    @Override
+    public void destroy() {
+        bulkheads.values().forEach(Bulkhead::shutdown);
+    }
+
+    private static final class NamedThreadFactory implements ThreadFactory {
+
+        private final AtomicInteger counter = new AtomicInteger();
+
+        private final String prefix;
+
+        NamedThreadFactory(String prefix) {
+            this.prefix = prefix;
+        }
+
+        @Override
+        public Thread newThread(Runnable runnable) {
+            Thread thread = new Thread(runnable, prefix + "-" + counter.incrementAndGet());
+            thread.setDaemon(true);
+            return thread;
+        }
+    }
+
+}
@@ -0,0 +1,238 @@
+/*
+ * Copyright (C) 2012-2018 52°North Initiative for Geospatial Open Source
+ * Software GmbH
+ *
+ * This program is free software; you can redistribute it and/or modify it
+ * under the terms of the GNU General Public License version 2 as published
+ * by the Free Software Foundation.
+ *
+ * If the program is linked with libraries which are licensed under one of
+ * the following licenses, the combination of the program with the linked
+ * library is not considered a "derivative work" of the program:
+ *
+ *     - Apache License, version 2.0
+ *     - Apache Software License, version 1.0
+ *     - GNU Lesser General Public License, version 3
+ *     - Mozilla Public License, versions 1.0, 1.1 and 2.0
+ *     - Common Development and Distribution License (CDDL), version 1.0
+ *
+ * Therefore the distribution of the program linked with libraries licensed
+ * under the aforementioned licenses, is permitted by the copyright holders
+ * if the distribution is compliant with both the GNU General Public
+ * License version 2 and the aforementioned licenses.
+ *
+ * This program is distributed in the hope that it will be useful, but
+ * WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the GNU General
+ * Public License for more details.
+ */
+package org.n52.sta.service.compression;
+
+import java.io.IOException;
+import java.io.OutputStream;
+import java.io.OutputStreamWriter;
+import java.io.PrintWriter;
+
+import javax.servlet.ServletOutputStream;
+import javax.servlet.WriteListener;
+import javax.servlet.http.HttpServletResponse;
+import javax.servlet.http.HttpServletResponseWrapper;
+
+import org.springframework.http.HttpHeaders;
+
+/**
+ * Compresses the body of a response on the fly. The first bytes are held back
+ * until the threshold is reached: smaller bodies are written uncompressed with
+ * their length, larger ones are streamed through the compressor. Responses
+ * that already have a <code>Content-Encoding</code> or must not have a body
+ * are passed through.
+ *
+ * @since 1.0.0
+ */
+class CompressingResponseWrapper extends HttpServletResponseWrapper {
+
+    private final ContentEncoding encoding;
+
+    private final int level;
+
+    private final byte[] threshold;
+
+    private CompressingOutputStream outputStream;
+
+    private PrintWriter writer;
+
+    CompressingResponseWrapper(HttpServletResponse response, ContentEncoding encoding, int level, int minSize) {
+        super(response);
+        this.encoding = encoding;
+        this.level = level;
+        this.threshold = new byte[minSize];
+    }
+
+    @Override
+    public ServletOutputStream getOutputStream() throws IOException {
+        if (writer != null) {
+            throw new IllegalStateException("getWriter() has already been called");
+        }
+        if (outputStream == null) {
+            outputStream = new CompressingOutputStream(super.getOutputStream());
+        }
+        return outputStream;
+    }
+
+    @Override
+    public PrintWriter getWriter() throws IOException {
+        if (writer == null) {
+            if (outputStream != null) {
+                throw new IllegalStateException("getOutputStream() has already been called");
+            }
+            outputStream = new CompressingOutputStream(super.getOutputStream());
+            writer = new PrintWriter(new OutputStreamWriter(outputStream, getCharacterEncoding()));
+        }
+        return writer;
+    }
+
+    @Override
+    public void setContentLength(int len) {
+        // the length is set when the body is finished
+    }
+
+    @Override
+    public void setContentLengthLong(long len) {
+        // the length is set when the body is finished
+    }
+
+    @Override
+    public void setHeader(String name, String value) {
+        if (!HttpHeaders.CONTENT_LENGTH.equalsIgnoreCase(name)) {
+            super.setHeader(name, value);
+        }
+    }
+
+    @Override
+    public void addHeader(String name, String value) {
+        if (!HttpHeaders.CONTENT_LENGTH.equalsIgnoreCase(name)) {
+            super.addHeader(name, value);
+        }
+    }
+
+    @Override
+    public void flushBuffer() throws IOException {
+        if (writer != null) {
+            writer.flush();
+        }
+        if (outputStream == null || outputStream.compressor != null) {
+            super.flushBuffer();
+        }
+    }
+
+    /**
+     * Writes the held back bytes or finishes the compression
+     *
+     * @throws IOException
+     *             if the body could not be written
+     */
+    void finish() throws IOException {
+        if (writer != null) {
+            writer.flush();
+        }
+        if (outputStream != null) {
+            outputStream.finish();
+        }
+    }
+
+    private boolean isCompressible() {
+        int status = getStatus();
+        return status != SC_NO_CONTENT && status != SC_NOT_MODIFIED
+                && getHeader(HttpHeaders.CONTENT_ENCODING) == null;
+    }
+
+    private final class CompressingOutputStream extends ServletOutputStream {
+
+        private final ServletOutputStream target;
+
+        private OutputStream compressor;
+
+        private int held;
+
+        private boolean finished;
+
+        CompressingOutputStream(ServletOutputStream target) {
+            this.target = target;
+        }
+
+        @Override
+        public void write(int b) throws IOException {
+            if (compressor != null) {
+                compressor.write(b);
+            } else if (held < threshold.length) {
+                threshold[held++] = (byte) b;
+            } else {
+                startCompression().write(b);
+            }
+        }
+
+        @Override
+        public void write(byte[] b, int off, int len) throws IOException {
+            if (compressor != null) {
+                compressor.write(b, off, len);
+            } else if (held + len <= threshold.length) {
+                System.arraycopy(b, off, threshold, held, len);
+                held += len;
+            } else {
+                startCompression().write(b, off, len);
+            }
+        }
+
+        @Override
+        public void flush() throws IOException {
+            // held back bytes are kept until the threshold is reached
+            if (compressor != null) {
+                compressor.flush();
+            }
+        }
+
+        @Override
+        public void close() throws IOException {
+            finish();
+        }
+
+        @Override
+        public boolean isReady() {
+            return target.isReady();
+        }
+
+        @Override
+        public void setWriteListener(WriteListener writeListener) {
+            target.setWriteListener(writeListener);
+        }
+
+        void finish() throws IOException {
+            if (finished) {
+                return;
+            }
+            finished = true;
+            if (compressor != null) {
+                compressor.close();
+            } else {
+                if (held > 0) {
+                    CompressingResponseWrapper.super.setContentLength(held);
+                    target.write(threshold, 0, held);
+                }
+                target.close();
+            }
+        }
+
+        private OutputStream startCompression() throws IOException {
+            if (isCompressible()) {
+                CompressingResponseWrapper.super.setHeader(HttpHeaders.CONTENT_ENCODING, encoding.getToken());
+                compressor = encoding.compress(target, level);
+            } else {
+                compressor = target;
+            }
+            compressor.write(threshold, 0, held);
+            held = 0;
+            return compressor;
+        }
+    }
+
+}
@@ -0,0 +1,202 @@
+/*
+ * Copyright (C) 2012-2018 52°North Initiative for Geospatial Open Source
+ * Software GmbH
+ *
+ * This program is free software; you can redistribute it and/or modify it
+ * under the terms of the GNU General Public License version 2 as published
+ * by the Free Software Foundation.
+ *
+ * If the program is linked with libraries which are licensed under one of
+ * the following licenses, the combination of the program with the linked
+ * library is not considered a "derivative work" of the program:
+ *
+ *     - Apache License, version 2.0
+ *     - Apache Software License, version 1.0
+ *     - GNU Lesser General Public License, version 3
+ *     - Mozilla Public License, versions 1.0, 1.1 and 2.0
+ *     - Common Development and Distribution License (CDDL), version 1.0
+ *
+ * Therefore the distribution of the program linked with libraries licensed
+ * under the aforementioned licenses, is permitted by the copyright holders
+ * if the distribution is compliant with both the GNU General Public
+ * License version 2 and the aforementioned licenses.
+ *
+ * This program is distributed in the hope that it will be useful, but
+ * WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the GNU General
+ * Public License for more details.
+ */
+package org.n52.sta.service.compression;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.io.UncheckedIOException;
+import java.util.Locale;
+import java.util.zip.Deflater;
+import java.util.zip.DeflaterOutputStream;
+import java.util.zip.GZIPOutputStream;
+
+/**
+ * The content codings the responses can be compressed with. Only codings
+ * with an encoder in the JDK are supported.
+ *
+ * @since 1.0.0
+ */
+public enum ContentEncoding {
+
+    GZIP("gzip") {
+        @Override
+        public OutputStream compress(OutputStream outputStream, int level) throws IOException {
+            return new LeveledGZIPOutputStream(outputStream, level);
+        }
+    },
+
+    DEFLATE("deflate") {
+        @Override
+        public OutputStream compress(OutputStream outputStream, int level) throws IOException {
+            return new LeveledDeflaterOutputStream(outputStream, level);
+        }
+    };
+
+    private static final int BUFFER_SIZE = 8192;
+
+    private static final String IDENTITY = "identity";
+
+    private static final String ANY = "*";
+
+    private final String token;
+
+    ContentEncoding(String token) {
+        this.token = token;
+    }
+
+    /**
+     * Get the token of the coding used in the <code>Content-Encoding</code>
+     * header
+     *
+     * @return the token
+     */
+    public String getToken() {
+        return token;
+    }
+
+    /**
+     * Wraps the given stream in a compressing stream. Closing the returned
+     * stream finishes the compression and closes the given stream.
+     *
+     * @param outputStream
+     *            the target of the compressed bytes
+     * @param level
+     *            the compression level from 1 (fastest) to 9 (smallest)
+     * @return the compressing stream
+     * @throws IOException
+     *             if the header of the coding could not be written
+     */
+    public abstract OutputStream compress(OutputStream outputStream, int level) throws IOException;
+
+    /**
+     * Compresses the given bytes
+     *
+     * @param content
+     *            the uncompressed bytes
+     * @param level
+     *            the compression level from 1 (fastest) to 9 (smallest)
+     * @return the compressed bytes
+     */
+    public byte[] compress(byte[] content, int level) {
+        ByteArrayOutputStream compressed = new ByteArrayOutputStream(content.length / 4 + 64);
+        try (OutputStream outputStream = compress(compressed, level)) {
+            outputStream.write(content);
+        } catch (IOException e) {
+            throw new UncheckedIOException(e);
+        }
+        return compressed.toByteArray();
+    }
+
+    /**
+     * Selects the coding for the given <code>Accept-Encoding</code> header.
+     * Codings with a quality of 0 are excluded, <code>gzip</code> is preferred
+     * if codings have the same quality.
+     *
+     * @param acceptEncoding
+     *            the header value, may be <code>null</code>
+     * @return the coding or <code>null</code> if the response should not be
+     *         compressed
+     */
+    public static ContentEncoding negotiate(String acceptEncoding) {
+        if (acceptEncoding == null || acceptEncoding.isEmpty()) {
+            return null;
+        }
+        ContentEncoding selected = null;
+        float selectedQuality = 0;
+        float anyQuality = -1;
+        float[] qualities = new float[values().length];
+        for (String element : acceptEncoding.split(",")) {
+            String[] parts = element.split(";");
+            String coding = parts[0].trim().toLowerCase(Locale.ROOT);
+            float quality = parseQuality(parts);
+            if (ANY.equals(coding)) {
+                anyQuality = quality;
+            } else if (!IDENTITY.equals(coding)) {
+                for (ContentEncoding encoding : values()) {
+                    if (encoding.token.equals(coding)) {
+                        // 0 marks a coding that is not listed
+                        qualities[encoding.ordinal()] = quality > 0 ? quality : -1;
+                    }
+                }
+            }
+        }
+        for (ContentEncoding encoding : values()) {
+            float quality = qualities[encoding.ordinal()];
+            if (quality == 0) {
+                quality = anyQuality;
+            }
+            if (quality > selectedQuality) {
+                selected = encoding;
+                selectedQuality = quality;
+            }
+        }
+        return selected;
+    }
+
+    private static float parseQuality(String[] parts) {
+        for (int i = 1; i < parts.length; i++) {
+            String parameter = parts[i].trim();
+            if (parameter.startsWith("q=")) {
+                try {
+                    return Float.parseFloat(parameter.substring(2));
+                } catch (NumberFormatException e) {
+                    return 0;
+                }
+            }
+        }
+        return 1;
+    }
+
+    private static final class LeveledGZIPOutputStream extends GZIPOutputStream {
+
+        LeveledGZIPOutputStream(OutputStream outputStream, int level) throws IOException {
+            super(outputStream, BUFFER_SIZE);
+            def.setLevel(level);
+        }
+    }
+
+    private static final class LeveledDeflaterOutputStream extends DeflaterOutputStream {
+
+        LeveledDeflaterOutputStream(OutputStream outputStream, int level) {
+            super(outputStream, new Deflater(level), BUFFER_SIZE);
+        }
+
+        @Override
+        public void close() throws IOException {
+            try {
+                super.close();
+            } finally {
+                // a deflater passed to the constructor is not ended on close
+                def.end();
+            }
+        }
+    }
+
+}
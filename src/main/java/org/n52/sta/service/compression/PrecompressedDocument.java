@@ -0,0 +1,160 @@
+/*
+ * Copyright (C) 2012-2018 52°North Initiative for Geospatial Open Source
+ * Software GmbH
+ *
+ * This program is free software; you can redistribute it and/or modify it
+ * under the terms of the GNU General Public License version 2 as published
+ * by the Free Software Foundation.
+ *
+ * If the program is linked with libraries which are licensed under one of
+ * the following licenses, the combination of the program with the linked
+ * library is not considered a "derivative work" of the program:
+ *
+ *     - Apache License, version 2.0
+ *     - Apache Software License, version 1.0
+ *     - GNU Lesser General Public License, version 3
+ *     - Mozilla Public License, versions 1.0, 1.1 and 2.0
+ *     - Common Development and Distribution License (CDDL), version 1.0
+ *
+ * Therefore the distribution of the program linked with libraries licensed
+ * under the aforementioned licenses, is permitted by the copyright holders
+ * if the distribution is compliant with both the GNU General Public
+ * License version 2 and the aforementioned licenses.
+ *
+ * This program is distributed in the hope that it will be useful, but
+ * WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the GNU General
+ * Public License for more details.
+ */
+package org.n52.sta.service.compression;
+
+import java.io.ByteArrayInputStream;
+import java.util.EnumMap;
+import java.util.Map;
+
+import org.apache.olingo.commons.api.format.ContentType;
+import org.apache.olingo.commons.api.http.HttpHeader;
+import org.apache.olingo.commons.api.http.HttpStatusCode;
+import org.apache.olingo.server.api.ODataRequest;
+import org.apache.olingo.server.api.ODataResponse;
+import org.springframework.http.HttpHeaders;
+import org.springframework.util.DigestUtils;
+
+/**
+ * An immutable, completely rendered response body with its compressed
+ * variants and a strong ETag. The ETag of a compressed variant carries the
+ * coding as suffix (e.g. <code>"...-gzip"</code>), as the variants are
+ * different representations. Used for the documents that only depend on the
+ * EDM, e.g. <code>$metadata</code>.
+ *
+ * @since 1.0.0
+ */
+public class PrecompressedDocument {
+
+    private static final String ANY = "*";
+
+    private final ContentType contentType;
+
+    private final byte[] content;
+
+    private final String eTag;
+
+    private final Map<ContentEncoding, byte[]> variants = new EnumMap<>(ContentEncoding.class);
+
+    /**
+     * @param contentType
+     *            the content type of the document
+     * @param content
+     *            the rendered document
+     * @param minSize
+     *            the minimum size of the document to create compressed
+     *            variants, negative to not compress the document
+     * @param level
+     *            the compression level of the variants
+     */
+    public PrecompressedDocument(ContentType contentType, byte[] content, int minSize, int level) {
+        this.contentType = contentType;
+        this.content = content;
+        this.eTag = DigestUtils.md5DigestAsHex(content);
+        if (minSize >= 0 && content.length >= minSize) {
+            for (ContentEncoding encoding : ContentEncoding.values()) {
+                variants.put(encoding, encoding.compress(content, level));
+            }
+        }
+    }
+
+    /**
+     * Get the strong ETag of the uncompressed document
+     *
+     * @return the quoted ETag
+     */
+    public String getETag() {
+        return getETag(null);
+    }
+
+    /**
+     * Get the strong ETag of the variant of the given coding
+     *
+     * @param encoding
+     *            the coding of the variant, <code>null</code> for the
+     *            uncompressed document
+     * @return the quoted ETag
+     */
+    public String getETag(ContentEncoding encoding) {
+        return encoding == null ? "\"" + eTag + "\"" : "\"" + eTag + "-" + encoding.getToken() + "\"";
+    }
+
+    /**
+     * Writes the document to the response. The body is compressed with the
+     * coding negotiated by the <code>Accept-Encoding</code> header and omitted
+     * with <code>304 Not Modified</code> if the <code>If-None-Match</code>
+     * header matches the ETag.
+     *
+     * @param request
+     *            the request
+     * @param response
+     *            the response
+     */
+    public void write(ODataRequest request, ODataResponse response) {
+        ContentEncoding encoding = ContentEncoding.negotiate(request.getHeader(HttpHeaders.ACCEPT_ENCODING));
+        if (encoding != null && !variants.containsKey(encoding)) {
+            encoding = null;
+        }
+        String variantETag = getETag(encoding);
+        response.setHeader(HttpHeader.ETAG, variantETag);
+        // the document is selected by the negotiated content type
+        response.setHeader(HttpHeaders.VARY, variants.isEmpty()
+                ? HttpHeaders.ACCEPT
+                : HttpHeaders.ACCEPT + ", " + HttpHeaders.ACCEPT_ENCODING);
+        if (matches(request.getHeader(HttpHeader.IF_NONE_MATCH), variantETag)) {
+            response.setStatusCode(HttpStatusCode.NOT_MODIFIED.getStatusCode());
+            return;
+        }
+        byte[] body = content;
+        if (encoding != null) {
+            body = variants.get(encoding);
+            response.setHeader(HttpHeaders.CONTENT_ENCODING, encoding.getToken());
+        }
+        response.setContent(new ByteArrayInputStream(body));
+        response.setStatusCode(HttpStatusCode.OK.getStatusCode());
+        response.setHeader(HttpHeader.CONTENT_TYPE, contentType.toContentTypeString());
+    }
+
+    private boolean matches(String ifNoneMatch, String variantETag) {
+        if (ifNoneMatch == null) {
+            return false;
+        }
+        for (String tag : ifNoneMatch.split(",")) {
+            String candidate = tag.trim();
+            // weak comparison as required for If-None-Match
+            if (candidate.startsWith("W/")) {
+                candidate = candidate.substring(2);
+            }
+            if (ANY.equals(candidate) || variantETag.equals(candidate)) {
+                return true;
+            }
+        }
+        return false;
+    }
+
+}
@@ -0,0 +1,322 @@
+/*
+ * Copyright (C) 2012-2018 52°North Initiative for Geospatial Open Source
+ * Software GmbH
+ *
+ * This program is free software; you can redistribute it and/or modify it
+ * under the terms of the GNU General Public License version 2 as published
+ * by the Free Software Foundation.
+ *
+ * If the program is linked with libraries which are licensed under one of
+ * the following licenses, the combination of the program with the linked
+ * library is not considered a "derivative work" of the program:
+ *
+ *     - Apache License, version 2.0
+ *     - Apache Software License, version 1.0
+ *     - GNU Lesser General Public License, version 3
+ *     - Mozilla Public License, versions 1.0, 1.1 and 2.0
+ *     - Common Development and Distribution License (CDDL), version 1.0
+ *
+ * Therefore the distribution of the program linked with libraries licensed
+ * under the aforementioned licenses, is permitted by the copyright holders
+ * if the distribution is compliant with both the GNU General Public
+ * License version 2 and the aforementioned licenses.
+ *
+ * This program is distributed in the hope that it will be useful, but
+ * WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the GNU General
+ * Public License for more details.
+ */
+package org.n52.sta.service.compression;
+
+import static org.n52.sta.service.SensorThingsController.URI;
+
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.EnumMap;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.function.BiConsumer;
+import java.util.stream.Collectors;
+
+import javax.servlet.http.HttpServletRequest;
+import javax.servlet.http.HttpServletResponse;
+
+import org.n52.sta.data.service.ObservationCreationEvent;
+import org.springframework.beans.factory.InitializingBean;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.http.HttpHeaders;
+import org.springframework.http.HttpMethod;
+import org.springframework.stereotype.Component;
+import org.springframework.transaction.event.TransactionalEventListener;
+
+import com.github.benmanes.caffeine.cache.Cache;
+import com.github.benmanes.caffeine.cache.Caffeine;
+
+import io.micrometer.core.instrument.MeterRegistry;
+import io.micrometer.core.instrument.binder.cache.CaffeineCacheMetrics;
+
+/**
+ * Compresses the responses with the content coding negotiated by the
+ * <code>Accept-Encoding</code> header of the request.
+ * <p>
+ * Bodies below <code>http.compression.min-size</code> bytes are sent
+ * uncompressed, as the framing overhead outweighs the savings. Larger bodies
+ * are compressed while they are written, so large collections are streamed.
+ * <p>
+ * <code>GET</code> requests of the resources listed in
+ * <code>http.compression.cache.paths</code> (relative to the service root)
+ * are answered from a cache for
+ * <code>http.compression.cache.ttl</code> milliseconds. The cache keeps the
+ * body together with its compressed variants, so hits neither touch the
+ * database nor the compressor. The cache is cleared by every request that
+ * may modify data and by created Observations, changes of other applications
+ * are seen after the ttl.
+ *
+ * @since 1.0.0
+ */
+@Component
+public class ResponseCompression implements InitializingBean {
+
+    public static final String CACHE_NAME = "sta.response.cache";
+
+    @Value("${http.compression.enabled:true}")
+    private boolean enabled;
+
+    @Value("${http.compression.min-size:2048}")
+    private int minSize;
+
+    @Value("${http.compression.level:6}")
+    private int level;
+
+    @Value("${http.compression.cache.paths:Things,Sensors}")
+    private String[] cachedPaths;
+
+    @Value("${http.compression.cache.ttl:10000}")
+    private long cacheTtl;
+
+    @Value("${http.compression.cache.max-bytes:16777216}")
+    private long cacheMaxBytes;
+
+    @Autowired
+    private MeterRegistry registry;
+
+    private Set<String> cacheablePaths;
+
+    private Cache<String, CachedResponse> cache;
+
+    // responses rendered before an invalidation must not be cached after it
+    private final AtomicLong generation = new AtomicLong();
+
+    @Override
+    public void afterPropertiesSet() {
+        cacheablePaths = Arrays.stream(cachedPaths).map(String::trim).collect(Collectors.toSet());
+        cache = Caffeine.newBuilder()
+                .expireAfterWrite(cacheTtl, TimeUnit.MILLISECONDS)
+                .maximumWeight(cacheMaxBytes)
+                .weigher((String key, CachedResponse value) -> value.getWeight())
+                .recordStats()
+                .build();
+        CaffeineCacheMetrics.monitor(registry, cache, CACHE_NAME);
+    }
+
+    /**
+     * Removes all cached responses
+     */
+    public void invalidateCache() {
+        generation.incrementAndGet();
+        cache.invalidateAll();
+    }
+
+    /**
+     * Removes all cached responses after a created Observation was committed
+     *
+     * @param event
+     *            the creation event
+     */
+    @TransactionalEventListener(fallbackExecution = true)
+    public void onObservationCreation(ObservationCreationEvent event) {
+        invalidateCache();
+    }
+
+    /**
+     * Processes the request with the given handler and compresses the response
+     *
+     * @param request
+     *            the servlet request
+     * @param response
+     *            the servlet response
+     * @param handler
+     *            the handler writing the uncompressed response
+     */
+    public void process(HttpServletRequest request, HttpServletResponse response,
+            BiConsumer<HttpServletRequest, HttpServletResponse> handler) {
+        if (!isSafe(request)) {
+            try {
+                doProcess(request, response, handler);
+            } finally {
+                invalidateCache();
+            }
+        } else {
+            doProcess(request, response, handler);
+        }
+    }
+
+    private void doProcess(HttpServletRequest request, HttpServletResponse response,
+            BiConsumer<HttpServletRequest, HttpServletResponse> handler) {
+        if (!enabled) {
+            handler.accept(request, response);
+            return;
+        }
+        // the body depends on the header, also if this response is not compressed
+        response.addHeader(HttpHeaders.VARY, HttpHeaders.ACCEPT_ENCODING);
+        ContentEncoding encoding = ContentEncoding.negotiate(request.getHeader(HttpHeaders.ACCEPT_ENCODING));
+        try {
+            if (isCacheable(request)) {
+                processCached(request, response, handler, encoding);
+            } else if (encoding != null) {
+                CompressingResponseWrapper wrapper =
+                        new CompressingResponseWrapper(response, encoding, level, minSize);
+                handler.accept(request, wrapper);
+                wrapper.finish();
+            } else {
+                handler.accept(request, response);
+            }
+        } catch (IOException e) {
+            throw new UncheckedIOException(e);
+        }
+    }
+
+    private void processCached(HttpServletRequest request, HttpServletResponse response,
+            BiConsumer<HttpServletRequest, HttpServletResponse> handler, ContentEncoding encoding)
+            throws IOException {
+        // the self links are built from the requested host
+        String key = request.getRequestURL()
+                .append('?').append(request.getQueryString())
+                .append('|').append(request.getHeader(HttpHeaders.ACCEPT))
+                .toString();
+        CachedResponse cached = cache.getIfPresent(key);
+        if (cached == null) {
+            long rendered = generation.get();
+            CapturingResponseWrapper wrapper = new CapturingResponseWrapper(response);
+            handler.accept(request, wrapper);
+            byte[] content = wrapper.getContent();
+            // already encoded responses, e.g. precompressed documents, are passed through
+            if (wrapper.getStatus() != HttpServletResponse.SC_OK
+                    || wrapper.getHeader(HttpHeaders.CONTENT_ENCODING) != null) {
+                write(response, content, null);
+                return;
+            }
+            cached = new CachedResponse(wrapper, content, minSize, level);
+            cache.put(key, cached);
+            if (generation.get() != rendered) {
+                cache.invalidate(key);
+            }
+        } else {
+            response.setStatus(HttpServletResponse.SC_OK);
+            response.setContentType(cached.getContentType());
+            cached.getHeaders().forEach((name, values) -> values.forEach(value -> response.addHeader(name, value)));
+        }
+        write(response, cached.getContent(encoding), cached.getEncoding(encoding));
+    }
+
+    private void write(HttpServletResponse response, byte[] content, ContentEncoding encoding)
+            throws IOException {
+        if (encoding != null) {
+            response.setHeader(HttpHeaders.CONTENT_ENCODING, encoding.getToken());
+        }
+        response.setContentLength(content.length);
+        response.getOutputStream().write(content);
+    }
+
+    private boolean isSafe(HttpServletRequest request) {
+        return HttpMethod.GET.matches(request.getMethod()) || HttpMethod.HEAD.matches(request.getMethod())
+                || HttpMethod.OPTIONS.matches(request.getMethod());
+    }
+
+    private boolean isCacheable(HttpServletRequest request) {
+        if (!HttpMethod.GET.matches(request.getMethod())) {
+            return false;
+        }
+        String path = request.getRequestURI().substring(request.getContextPath().length());
+        String servicePath = "/" + URI;
+        if (path.startsWith(servicePath)) {
+            path = path.substring(servicePath.length());
+        }
+        if (path.startsWith("/")) {
+            path = path.substring(1);
+        }
+        return cacheablePaths.contains(path);
+    }
+
+    /**
+     * A cached response body with its precompressed variants
+     */
+    private static final class CachedResponse {
+
+        private final String contentType;
+
+        private final Map<String, List<String>> headers = new LinkedHashMap<>();
+
+        private final byte[] content;
+
+        private final Map<ContentEncoding, byte[]> variants = new EnumMap<>(ContentEncoding.class);
+
+        CachedResponse(HttpServletResponse response, byte[] content, int minSize, int level) {
+            // containers do not list the content type as header
+            this.contentType = response.getContentType();
+            for (String name : response.getHeaderNames()) {
+                if (HttpHeaders.VARY.equalsIgnoreCase(name)) {
+                    // Accept-Encoding is added to every response, Accept by the negotiated encodings
+                    List<String> vary = response.getHeaders(name).stream()
+                            .filter(value -> !HttpHeaders.ACCEPT_ENCODING.equalsIgnoreCase(value))
+                            .collect(Collectors.toList());
+                    if (!vary.isEmpty()) {
+                        headers.put(name, vary);
+                    }
+                } else if (!HttpHeaders.CONTENT_LENGTH.equalsIgnoreCase(name)
+                        && !HttpHeaders.CONTENT_TYPE.equalsIgnoreCase(name)) {
+                    headers.put(name, new ArrayList<>(response.getHeaders(name)));
+                }
+            }
+            this.content = content;
+            if (content.length >= minSize) {
+                for (ContentEncoding encoding : ContentEncoding.values()) {
+                    variants.put(encoding, encoding.compress(content, level));
+                }
+            }
+        }
+
+        String getContentType() {
+            return contentType;
+        }
+
+        Map<String, List<String>> getHeaders() {
+            return headers;
+        }
+
+        byte[] getContent(ContentEncoding encoding) {
+            byte[] variant = encoding == null ? null : variants.get(encoding);
+            return variant == null ? content : variant;
+        }
+
+        ContentEncoding getEncoding(ContentEncoding encoding) {
+            return encoding != null && variants.containsKey(encoding) ? encoding : null;
+        }
+
+        int getWeight() {
+            int weight = content.length;
+            for (byte[] variant : variants.values()) {
+                weight += variant.length;
+            }
+            return weight;
+        }
+    }
+
+}
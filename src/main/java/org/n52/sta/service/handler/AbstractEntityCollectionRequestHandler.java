@@ -10,6 +10,7 @@ import org.apache.olingo.server.api.ODataApplicationException;
 import org.apache.olingo.server.api.uri.UriResource;
 import org.n52.sta.service.query.QueryOptions;
 import org.n52.sta.service.response.EntityCollectionResponse;
+import org.n52.sta.service.response.ReferenceCollectionResponse;
 
 /**
  * Abstract class to handle EntityCollection requests
@@ -30,4 +31,20 @@ public interface AbstractEntityCollectionRequestHandler {
     public abstract EntityCollectionResponse handleEntityCollectionRequest(List<UriResource> resourcePaths,
             QueryOptions queryOptions) throws ODataApplicationException;
 
+    /**
+     * Handles a request for the references of a EntityCollection and creates
+     * a response that only contains the IDs of the referenced entities
+     *
+     * @param resourcePaths
+     *            the resource paths of the EntityCollection without the
+     *            $ref segment
+     * @param queryOptions
+     *            the query options of the request
+     * @return response that contains data for the reference collection
+     *         response
+     * @throws ODataApplicationException
+     */
+    public abstract ReferenceCollectionResponse handleReferenceCollectionRequest(List<UriResource> resourcePaths,
+            QueryOptions queryOptions) throws ODataApplicationException;
+
 }
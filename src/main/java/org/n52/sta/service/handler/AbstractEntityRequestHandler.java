@@ -10,6 +10,7 @@ import org.apache.olingo.server.api.ODataApplicationException;
 import org.apache.olingo.server.api.uri.UriInfo;
 import org.apache.olingo.server.api.uri.UriResource;
 import org.n52.sta.service.response.EntityResponse;
+import org.n52.sta.service.response.ReferenceResponse;
 
 /**
  * Abstract class to handle Entity requests
@@ -27,4 +28,15 @@ public interface AbstractEntityRequestHandler {
      */
     public abstract EntityResponse handleEntityCollectionRequest(List<UriResource> resourcePaths) throws ODataApplicationException;
 
+    /**
+     * Handle a request for the reference of a Entity and creates a response
+     * that only contains the ID of the referenced Entity
+     *
+     * @param resourcePaths the resource paths of the Entity without the $ref
+     * segment
+     * @return response that contains data for the reference response
+     * @throws ODataApplicationException
+     */
+    public abstract ReferenceResponse handleReferenceRequest(List<UriResource> resourcePaths) throws ODataApplicationException;
+
 }
@@ -15,13 +15,19 @@ import org.apache.olingo.server.api.uri.UriResource;
 import org.apache.olingo.server.api.uri.UriResourceEntitySet;
 import org.apache.olingo.server.api.uri.queryoption.SystemQueryOptionKind;
 import org.n52.sta.data.service.AbstractSensorThingsEntityService;
+import org.n52.sta.data.service.CountExecutor;
+import org.n52.sta.data.service.CountExecutor.PendingCount;
 import org.n52.sta.data.service.EntityServiceRepository;
+import org.n52.sta.metrics.PipelineMetrics;
+import org.n52.sta.metrics.PipelineStage;
 import org.n52.sta.service.query.QueryOptions;
 import org.n52.sta.service.response.EntityCollectionResponse;
+import org.n52.sta.service.response.ReferenceCollectionResponse;
 import org.n52.sta.utils.EntityQueryParams;
 import org.n52.sta.utils.UriResourceNavigationResolver;
 import org.springframework.beans.factory.annotation.Autowired;
 import org.springframework.stereotype.Component;
+import org.springframework.transaction.annotation.Transactional;
 
 /**
  * Implementation for handling EntityCollection requests
@@ -29,6 +35,7 @@ import org.springframework.stereotype.Component;
  * @author <a href="mailto:s.drost@52north.org">Sebastian Drost</a>
  */
 @Component
+@Transactional(readOnly = true)
 public class EntityCollectionRequestHandlerImpl implements AbstractEntityCollectionRequestHandler {
 
     @Autowired
@@ -37,6 +44,9 @@ public class EntityCollectionRequestHandlerImpl implements AbstractEntityCollect
     @Autowired
     private UriResourceNavigationResolver navigationResolver;
 
+    @Autowired
+    private CountExecutor countExecutor;
+
     @Override
     public EntityCollectionResponse handleEntityCollectionRequest(List<UriResource> resourcePaths, QueryOptions queryOptions) throws ODataApplicationException {
         EntityCollectionResponse response = null;
@@ -65,9 +75,11 @@ public class EntityCollectionRequestHandlerImpl implements AbstractEntityCollect
         // deliver as EntityCollection
         AbstractSensorThingsEntityService<?> responseService =
                 serviceRepository.getEntityService(uriResourceEntitySet.getEntityType().getName());
-        EntityCollection responseEntityCollection = responseService.getEntityCollection(queryOptions);
+        PendingCount pendingCount = countExecutor.submit(responseService::getCount);
+        EntityCollection responseEntityCollection = PipelineMetrics.time(PipelineStage.QUERY,
+                () -> responseService.getEntityCollection(queryOptions));
         
-        long count = responseService.getCount();
+        long count = pendingCount.get();
         
         if (queryOptions.hasCountOption()) {
             responseEntityCollection.setCount(Long.valueOf(count).intValue());
@@ -89,10 +101,14 @@ public class EntityCollectionRequestHandlerImpl implements AbstractEntityCollect
         EntityQueryParams queryParams = navigationResolver.resolveUriResourceNavigationPaths(resourcePaths);
 
         AbstractSensorThingsEntityService<?> entityService = serviceRepository.getEntityService(queryParams.getTargetEntitySet().getEntityType().getName());
-        EntityCollection responseEntityCollection = entityService
-                .getRelatedEntityCollection(queryParams.getSourceId(), queryParams.getSourceEntityType(), queryOptions);
+        PendingCount pendingCount = countExecutor.submit(
+                () -> entityService.getRelatedEntityCollectionCount(queryParams.getSourceId(),
+                        queryParams.getSourceEntityType()));
+        EntityCollection responseEntityCollection = PipelineMetrics.time(PipelineStage.QUERY,
+                () -> entityService.getRelatedEntityCollection(queryParams.getSourceId(),
+                        queryParams.getSourceEntityType(), queryOptions));
         
-        long count = entityService.getRelatedEntityCollectionCount(queryParams.getSourceId(), queryParams.getSourceEntityType());
+        long count = pendingCount.get();
         
         responseEntityCollection.setNext(createNext(count, queryOptions, queryParams));
         // set EntityCollection response information
@@ -102,6 +118,50 @@ public class EntityCollectionRequestHandlerImpl implements AbstractEntityCollect
         return response;
     }
 
+    @Override
+    public ReferenceCollectionResponse handleReferenceCollectionRequest(List<UriResource> resourcePaths,
+            QueryOptions queryOptions) throws ODataApplicationException {
+        EdmEntitySet responseEntitySet;
+        AbstractSensorThingsEntityService<?> responseService;
+        PendingCount pendingCount;
+        long[] ids;
+        EntityQueryParams queryParams = null;
+
+        // only the IDs are queried, the entities are neither mapped nor
+        // annotated
+        // e.g the case: sta/Things/$ref
+        if (resourcePaths.size() == 1) {
+            UriResourceEntitySet uriResourceEntitySet = navigationResolver.resolveRootUriResource(resourcePaths.get(0));
+            responseEntitySet = uriResourceEntitySet.getEntitySet();
+            responseService = serviceRepository.getEntityService(uriResourceEntitySet.getEntityType().getName());
+            pendingCount = countExecutor.submit(responseService::getCount);
+            ids = PipelineMetrics.time(PipelineStage.QUERY,
+                    () -> responseService.getEntityCollectionIds(queryOptions));
+
+            // e.g. the case: sta/Things(id)/Locations/$ref
+        } else {
+            EntityQueryParams params = navigationResolver.resolveUriResourceNavigationPaths(resourcePaths);
+            responseEntitySet = params.getTargetEntitySet();
+            responseService = serviceRepository.getEntityService(responseEntitySet.getEntityType().getName());
+            pendingCount = countExecutor.submit(() -> responseService
+                    .getRelatedEntityCollectionCount(params.getSourceId(), params.getSourceEntityType()));
+            ids = PipelineMetrics.time(PipelineStage.QUERY, () -> responseService
+                    .getRelatedEntityCollectionIds(params.getSourceId(), params.getSourceEntityType(), queryOptions));
+            queryParams = params;
+        }
+
+        long count = pendingCount.get();
+
+        ReferenceCollectionResponse response = new ReferenceCollectionResponse();
+        response.setEntitySet(responseEntitySet);
+        response.setIds(ids);
+        if (queryOptions.hasCountOption()) {
+            response.setCount(Long.valueOf(count).intValue());
+        }
+        response.setNext(createNext(count, queryOptions, queryParams));
+        return response;
+    }
+
     private URI createNext(long maxCount, QueryOptions queryOptions, EntityQueryParams queryParams) {
         int currentCount = queryOptions.hasSkipOption()
                 ? queryOptions.getSkipOption().getValue() + queryOptions.getTopOption().getValue()
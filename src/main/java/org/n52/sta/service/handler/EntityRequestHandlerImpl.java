@@ -7,6 +7,7 @@ package org.n52.sta.service.handler;
 
 import java.util.List;
 import java.util.Locale;
+import java.util.OptionalLong;
 import org.apache.olingo.commons.api.data.Entity;
 import org.apache.olingo.commons.api.edm.EdmEntitySet;
 import org.apache.olingo.commons.api.http.HttpStatusCode;
@@ -18,11 +19,16 @@ import org.apache.olingo.server.api.uri.UriResourceEntitySet;
 import org.apache.olingo.server.api.uri.UriResourceNavigation;
 import org.n52.sta.data.service.AbstractSensorThingsEntityService;
 import org.n52.sta.data.service.EntityServiceRepository;
+import org.n52.sta.data.service.MissingEntityCache;
+import org.n52.sta.metrics.PipelineMetrics;
+import org.n52.sta.metrics.PipelineStage;
 import org.n52.sta.service.response.EntityResponse;
+import org.n52.sta.service.response.ReferenceResponse;
 import org.n52.sta.utils.EntityQueryParams;
 import org.n52.sta.utils.UriResourceNavigationResolver;
 import org.springframework.beans.factory.annotation.Autowired;
 import org.springframework.stereotype.Component;
+import org.springframework.transaction.annotation.Transactional;
 
 /**
  * Implementation for handling Entity requests
@@ -30,6 +36,7 @@ import org.springframework.stereotype.Component;
  * @author <a href="mailto:s.drost@52north.org">Sebastian Drost</a>
  */
 @Component
+@Transactional(readOnly = true)
 public class EntityRequestHandlerImpl implements AbstractEntityRequestHandler {
 
     @Autowired
@@ -38,6 +45,9 @@ public class EntityRequestHandlerImpl implements AbstractEntityRequestHandler {
     @Autowired
     private UriResourceNavigationResolver navigationResolver;
 
+    @Autowired
+    private MissingEntityCache missingEntityCache;
+
     @Override
     public EntityResponse handleEntityCollectionRequest(List<UriResource> resourcePaths) throws ODataApplicationException {
         EntityResponse response = null;
@@ -55,6 +65,56 @@ public class EntityRequestHandlerImpl implements AbstractEntityRequestHandler {
         return response;
     }
 
+    @Override
+    public ReferenceResponse handleReferenceRequest(List<UriResource> resourcePaths) throws ODataApplicationException {
+        EdmEntitySet responseEntitySet;
+        OptionalLong responseId;
+
+        // only the ID is resolved, the entity is neither mapped nor annotated
+        // e.g the case: sta/Things(id)/$ref
+        if (resourcePaths.size() == 1) {
+            UriResourceEntitySet uriResourceEntitySet = navigationResolver.resolveRootUriResource(resourcePaths.get(0));
+            responseEntitySet = uriResourceEntitySet.getEntitySet();
+            AbstractSensorThingsEntityService<?> responseService = serviceRepository.getEntityService(uriResourceEntitySet.getEntityType().getName());
+            Long entityId = navigationResolver.getEntityIdFromKeyParams(uriResourceEntitySet.getKeyPredicates());
+            String entityType = uriResourceEntitySet.getEntityType().getName();
+            responseId = PipelineMetrics.time(PipelineStage.QUERY,
+                    () -> missingEntityCache.exists(entityType, entityId, () -> responseService.existsEntity(entityId)))
+                    ? OptionalLong.of(entityId)
+                    : OptionalLong.empty();
+
+            // e.g. the case: sta/Things(id)/Locations(id)/$ref
+        } else {
+            EntityQueryParams requestParams = navigationResolver.resolveUriResourceNavigationPaths(resourcePaths);
+            responseEntitySet = requestParams.getTargetEntitySet();
+            AbstractSensorThingsEntityService<?> responseService = serviceRepository
+                    .getEntityService(responseEntitySet.getEntityType().getName());
+            UriResource lastSegment = resourcePaths.get(resourcePaths.size() - 1);
+            List<UriParameter> navKeyPredicates = lastSegment instanceof UriResourceNavigation
+                    ? ((UriResourceNavigation) lastSegment).getKeyPredicates()
+                    : null;
+
+            if (navKeyPredicates == null || navKeyPredicates.isEmpty()) {
+                responseId = PipelineMetrics.time(PipelineStage.QUERY, () -> responseService
+                        .getIdForRelatedEntity(requestParams.getSourceId(), requestParams.getSourceEntityType()));
+            } else {
+                Long targetId = navigationResolver.getEntityIdFromKeyParams(navKeyPredicates);
+                responseId = PipelineMetrics.time(PipelineStage.QUERY, () -> responseService
+                        .getIdForRelatedEntity(requestParams.getSourceId(), requestParams.getSourceEntityType(), targetId));
+            }
+        }
+
+        if (!responseId.isPresent()) {
+            throw new ODataApplicationException("Entity not found.",
+                    HttpStatusCode.NOT_FOUND.getStatusCode(), Locale.ROOT);
+        }
+
+        ReferenceResponse response = new ReferenceResponse();
+        response.setEntitySet(responseEntitySet);
+        response.setId(responseId.getAsLong());
+        return response;
+    }
+
     private EntityResponse createResponseForEntity(List<UriResource> resourcePaths) throws ODataApplicationException {
 
         // determine the response EntitySet
@@ -64,7 +124,10 @@ public class EntityRequestHandlerImpl implements AbstractEntityRequestHandler {
         // fetch the data from backend for this requested Entity and deliver as Entity
         List<UriParameter> keyPredicates = uriResourceEntitySet.getKeyPredicates();
         AbstractSensorThingsEntityService<?> responseService = serviceRepository.getEntityService(uriResourceEntitySet.getEntityType().getName());
-        Entity responseEntity = responseService.getEntity(navigationResolver.getEntityIdFromKeyParams(keyPredicates));
+        Long entityId = navigationResolver.getEntityIdFromKeyParams(keyPredicates);
+        String entityType = uriResourceEntitySet.getEntityType().getName();
+        Entity responseEntity = PipelineMetrics.time(PipelineStage.QUERY,
+                () -> missingEntityCache.get(entityType, entityId, () -> responseService.getEntity(entityId)));
 
         if (responseEntity == null) {
             throw new ODataApplicationException("Entity not found.",
@@ -91,13 +154,16 @@ public class EntityRequestHandlerImpl implements AbstractEntityRequestHandler {
             List<UriParameter> navKeyPredicates = ((UriResourceNavigation) lastSegment).getKeyPredicates();
 
             // e.g. /Things(1)/Location
+            AbstractSensorThingsEntityService<?> responseService = serviceRepository
+                    .getEntityService(requestParams.getTargetEntitySet().getEntityType().getName());
             if (navKeyPredicates.isEmpty()) {
-                responseEntity = serviceRepository.getEntityService(requestParams.getTargetEntitySet().getEntityType().getName())
-                        .getRelatedEntity(requestParams.getSourceId(), requestParams.getSourceEntityType());
+                responseEntity = PipelineMetrics.time(PipelineStage.QUERY, () -> responseService
+                        .getRelatedEntity(requestParams.getSourceId(), requestParams.getSourceEntityType()));
 
             } else { // e.g. /Things(1)/Locations(1)
-                responseEntity = serviceRepository.getEntityService(requestParams.getTargetEntitySet().getEntityType().getName())
-                        .getRelatedEntity(requestParams.getSourceId(), requestParams.getSourceEntityType(), navigationResolver.getEntityIdFromKeyParams(navKeyPredicates));
+                Long targetId = navigationResolver.getEntityIdFromKeyParams(navKeyPredicates);
+                responseEntity = PipelineMetrics.time(PipelineStage.QUERY, () -> responseService
+                        .getRelatedEntity(requestParams.getSourceId(), requestParams.getSourceEntityType(), targetId));
             }
             if (responseEntity == null) {
                 throw new ODataApplicationException("Entity not found.",
@@ -5,12 +5,18 @@
  */
 package org.n52.sta.service.handler;
 
+import java.util.ArrayList;
+import java.util.Collections;
 import java.util.List;
 import java.util.Locale;
 import java.util.Optional;
+import java.util.OptionalLong;
+import java.util.stream.Collectors;
 import org.apache.olingo.commons.api.data.ComplexValue;
 import org.apache.olingo.commons.api.data.Entity;
 import org.apache.olingo.commons.api.data.Property;
+import org.apache.olingo.commons.api.data.ValueType;
+import org.apache.olingo.commons.api.edm.EdmComplexType;
 import org.apache.olingo.commons.api.edm.EdmEntitySet;
 import org.apache.olingo.commons.api.edm.EdmProperty;
 import org.apache.olingo.commons.api.http.HttpStatusCode;
@@ -23,13 +29,17 @@ import org.apache.olingo.server.api.uri.UriResourceEntitySet;
 import org.apache.olingo.server.api.uri.UriResourceNavigation;
 import org.apache.olingo.server.api.uri.UriResourceProperty;
 import org.apache.olingo.server.api.uri.UriResourceValue;
+import org.n52.sta.data.repositories.PropertyProjection;
 import org.n52.sta.data.service.AbstractSensorThingsEntityService;
 import org.n52.sta.data.service.EntityServiceRepository;
+import org.n52.sta.metrics.PipelineMetrics;
+import org.n52.sta.metrics.PipelineStage;
 import org.n52.sta.service.response.PropertyResponse;
 import org.n52.sta.utils.EntityQueryParams;
 import org.n52.sta.utils.UriResourceNavigationResolver;
 import org.springframework.beans.factory.annotation.Autowired;
 import org.springframework.stereotype.Component;
+import org.springframework.transaction.annotation.Transactional;
 
 /**
  ** Implementation for handling property requests
@@ -37,6 +47,7 @@ import org.springframework.stereotype.Component;
  * @author <a href="mailto:s.drost@52north.org">Sebastian Drost</a>
  */
 @Component
+@Transactional(readOnly = true)
 public class PropertyRequestHandlerImpl implements AbstractPropertyRequestHandler {
 
     @Autowired
@@ -72,7 +83,20 @@ public class PropertyRequestHandlerImpl implements AbstractPropertyRequestHandle
         // fetch the data from backend for this requested Entity and deliver as Entity
         List<UriParameter> keyPredicates = uriResourceEntitySet.getKeyPredicates();
         AbstractSensorThingsEntityService responseService = serviceRepository.getEntityService(uriResourceEntitySet.getEntityType().getName());
-        Entity targetEntity = responseService.getEntity(navigationResolver.getEntityIdFromKeyParams(keyPredicates));
+        Long entityId = navigationResolver.getEntityIdFromKeyParams(keyPredicates);
+
+        // read only the database attributes of the property if possible
+        List<UriResource> propertyPaths = resourcePaths.subList(1, resourcePaths.size());
+        List<String> projectedProperties = getProjectedProperties(responseService, propertyPaths);
+        if (projectedProperties != null) {
+            PropertyResponse response = resolveProjectedProperty(responseService, entityId, projectedProperties,
+                    propertyPaths, responseEntitySet);
+            if (response != null) {
+                return response;
+            }
+        }
+
+        Entity targetEntity = PipelineMetrics.time(PipelineStage.QUERY, () -> responseService.getEntity(entityId));
 
         if (targetEntity == null) {
             throw new ODataApplicationException("Entity not found.",
@@ -102,13 +126,36 @@ public class PropertyRequestHandlerImpl implements AbstractPropertyRequestHandle
             List<UriParameter> navKeyPredicates = ((UriResourceNavigation) lastEntitySegment).getKeyPredicates();
 
             // e.g. /HistoricalLocations(id)/Thing/description
+            AbstractSensorThingsEntityService<?> responseService = serviceRepository
+                    .getEntityService(queryParams.getTargetEntitySet().getEntityType().getName());
+
+            // read only the database attributes of the property if possible
+            List<UriResource> propertyPaths = resourcePaths.subList(i, resourcePaths.size());
+            List<String> projectedProperties = getProjectedProperties(responseService, propertyPaths);
+            if (projectedProperties != null) {
+                OptionalLong targetId = PipelineMetrics.time(PipelineStage.QUERY, () -> navKeyPredicates.isEmpty()
+                        ? responseService.getIdForRelatedEntity(queryParams.getSourceId(), queryParams.getSourceEntityType())
+                        : responseService.getIdForRelatedEntity(queryParams.getSourceId(), queryParams.getSourceEntityType(),
+                                navigationResolver.getEntityIdFromKeyParams(navKeyPredicates)));
+                if (!targetId.isPresent()) {
+                    throw new ODataApplicationException("Entity not found.",
+                            HttpStatusCode.NOT_FOUND.getStatusCode(), Locale.ROOT);
+                }
+                response = resolveProjectedProperty(responseService, targetId.getAsLong(), projectedProperties,
+                        propertyPaths, queryParams.getTargetEntitySet());
+                if (response != null) {
+                    return response;
+                }
+            }
+
             if (navKeyPredicates.isEmpty()) {
-                targetEntity = serviceRepository.getEntityService(queryParams.getTargetEntitySet().getEntityType().getName())
-                        .getRelatedEntity(queryParams.getSourceId(), queryParams.getSourceEntityType());
+                targetEntity = PipelineMetrics.time(PipelineStage.QUERY, () -> responseService
+                        .getRelatedEntity(queryParams.getSourceId(), queryParams.getSourceEntityType()));
 
             } else { // e.g. /Things(id)/Locations(id)/description
-                targetEntity = serviceRepository.getEntityService(queryParams.getTargetEntitySet().getEntityType().getName())
-                        .getRelatedEntity(queryParams.getSourceId(), queryParams.getSourceEntityType(), navigationResolver.getEntityIdFromKeyParams(navKeyPredicates));
+                Long targetId = navigationResolver.getEntityIdFromKeyParams(navKeyPredicates);
+                targetEntity = PipelineMetrics.time(PipelineStage.QUERY, () -> responseService
+                        .getRelatedEntity(queryParams.getSourceId(), queryParams.getSourceEntityType(), targetId));
             }
             if (targetEntity == null) {
                 throw new ODataApplicationException("Entity not found.",
@@ -157,4 +204,75 @@ public class PropertyRequestHandlerImpl implements AbstractPropertyRequestHandle
 
         return response;
     }
+
+    /**
+     * Determines the paths of the properties that have to be selected to
+     * resolve the requested property without loading the Entity. For a
+     * complex property all of its members are selected.
+     *
+     * @param service
+     *            the service of the Entity
+     * @param propertyPaths
+     *            the resource paths of the property
+     * @return the property paths or <code>null</code> if the property has to
+     *         be resolved from the mapped Entity
+     */
+    private List<String> getProjectedProperties(AbstractSensorThingsEntityService<?> service,
+            List<UriResource> propertyPaths) {
+        List<String> segments = new ArrayList<>();
+        EdmProperty edmProperty = null;
+        for (UriResource resource : propertyPaths) {
+            if (resource instanceof UriResourceProperty) {
+                edmProperty = ((UriResourceProperty) resource).getProperty();
+                segments.add(edmProperty.getName());
+            }
+        }
+        if (edmProperty == null) {
+            return null;
+        }
+        String path = String.join(PropertyProjection.PATH_SEPARATOR, segments);
+        List<String> projectedProperties = edmProperty.getType() instanceof EdmComplexType
+                ? ((EdmComplexType) edmProperty.getType()).getPropertyNames().stream()
+                        .map(name -> String.join(PropertyProjection.PATH_SEPARATOR, path, name))
+                        .collect(Collectors.toList())
+                : Collections.singletonList(path);
+        return service.supportsPropertyProjection(projectedProperties) ? projectedProperties : null;
+    }
+
+    private PropertyResponse resolveProjectedProperty(AbstractSensorThingsEntityService<?> service, Long entityId,
+            List<String> projectedProperties, List<UriResource> propertyPaths, EdmEntitySet targetEntitySet) {
+        Optional<Object[]> values = PipelineMetrics.time(PipelineStage.QUERY,
+                () -> service.getEntityPropertyValues(entityId, projectedProperties));
+        if (!values.isPresent()) {
+            // either the Entity does not exist or an association of the
+            // property is not set, both is handled by the mapped Entity
+            return null;
+        }
+
+        EdmProperty edmProperty = null;
+        for (UriResource resource : propertyPaths) {
+            if (resource instanceof UriResourceProperty) {
+                edmProperty = ((UriResourceProperty) resource).getProperty();
+            }
+        }
+
+        Property property;
+        if (edmProperty.getType() instanceof EdmComplexType) {
+            ComplexValue complexValue = new ComplexValue();
+            List<String> names = ((EdmComplexType) edmProperty.getType()).getPropertyNames();
+            for (int j = 0; j < names.size(); j++) {
+                complexValue.getValue().add(new Property(null, names.get(j), ValueType.PRIMITIVE, values.get()[j]));
+            }
+            property = new Property(null, edmProperty.getName(), ValueType.COMPLEX, complexValue);
+        } else {
+            property = new Property(null, edmProperty.getName(), ValueType.PRIMITIVE, values.get()[0]);
+        }
+
+        // set Entity response information
+        PropertyResponse response = new PropertyResponse();
+        response.setEdmPropertyType(edmProperty.getType());
+        response.setProperty(property);
+        response.setResponseEdmEntitySet(targetEntitySet);
+        return response;
+    }
 }
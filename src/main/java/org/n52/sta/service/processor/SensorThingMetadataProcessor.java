@@ -6,7 +6,6 @@
 package org.n52.sta.service.processor;
 
 import java.io.InputStream;
-import java.util.List;
 import org.apache.olingo.commons.api.format.ContentType;
 import org.apache.olingo.commons.api.http.HttpHeader;
 import org.apache.olingo.commons.api.http.HttpStatusCode;
@@ -20,7 +19,11 @@ import org.apache.olingo.server.api.processor.MetadataProcessor;
 import org.apache.olingo.server.api.serializer.ODataSerializer;
 import org.apache.olingo.server.api.serializer.SerializerResult;
 import org.apache.olingo.server.api.uri.UriInfo;
-import org.apache.olingo.server.api.uri.UriResource;
+import org.n52.sta.metrics.PipelineMetrics;
+import org.n52.sta.service.SensorThingsServiceMetadata;
+import org.n52.sta.service.compression.PrecompressedDocument;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.http.HttpHeaders;
 import org.springframework.stereotype.Component;
 
 /**
@@ -30,11 +33,22 @@ import org.springframework.stereotype.Component;
 @Component
 public class SensorThingMetadataProcessor implements MetadataProcessor {
 
+    @Autowired
+    SensorThingsServiceMetadata sensorThingsServiceMetadata;
+
     private OData odata;
     private ServiceMetadata serviceMetadata;
 
     @Override
     public void readMetadata(ODataRequest request, ODataResponse response, UriInfo uriInfo, ContentType ct) throws ODataApplicationException, ODataLibraryException {
+        PipelineMetrics.describe(uriInfo, "metadata");
+
+        // the XML document is rendered at startup
+        PrecompressedDocument metadataDocument = sensorThingsServiceMetadata.getMetadataDocument(ct);
+        if (metadataDocument != null) {
+            metadataDocument.write(request, response);
+            return;
+        }
 
         ODataSerializer serializer = odata.createSerializer(ct);
 
@@ -44,6 +58,7 @@ public class SensorThingMetadataProcessor implements MetadataProcessor {
         response.setContent(serializedContent);
         response.setStatusCode(HttpStatusCode.OK.getStatusCode());
         response.setHeader(HttpHeader.CONTENT_TYPE, ct.toContentTypeString());
+        response.setHeader(HttpHeaders.VARY, HttpHeaders.ACCEPT);
     }
 
     @Override
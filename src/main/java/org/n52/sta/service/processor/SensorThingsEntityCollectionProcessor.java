@@ -5,32 +5,32 @@
  */
 package org.n52.sta.service.processor;
 
-import java.io.InputStream;
-
 import org.apache.olingo.commons.api.data.ContextURL;
 import org.apache.olingo.commons.api.data.Entity;
 import org.apache.olingo.commons.api.edm.EdmEntityType;
 import org.apache.olingo.commons.api.format.ContentType;
-import org.apache.olingo.commons.api.http.HttpHeader;
 import org.apache.olingo.commons.api.http.HttpStatusCode;
 import org.apache.olingo.server.api.OData;
 import org.apache.olingo.server.api.ODataApplicationException;
+import org.apache.olingo.server.api.ODataContent;
 import org.apache.olingo.server.api.ODataLibraryException;
 import org.apache.olingo.server.api.ODataRequest;
 import org.apache.olingo.server.api.ODataResponse;
 import org.apache.olingo.server.api.ServiceMetadata;
 import org.apache.olingo.server.api.processor.EntityCollectionProcessor;
 import org.apache.olingo.server.api.serializer.EntityCollectionSerializerOptions;
-import org.apache.olingo.server.api.serializer.ODataSerializer;
 import org.apache.olingo.server.api.serializer.SerializerException;
-import org.apache.olingo.server.api.serializer.SerializerResult;
 import org.apache.olingo.server.api.uri.UriInfo;
+import org.n52.sta.metrics.PipelineMetrics;
+import org.n52.sta.metrics.PipelineStage;
 import org.n52.sta.service.handler.AbstractEntityCollectionRequestHandler;
 import org.n52.sta.service.query.QueryOptions;
 import org.n52.sta.service.query.handler.AbstractQueryOptionHandler;
 import org.n52.sta.service.query.handler.CountOptions;
 import org.n52.sta.service.query.handler.PropertySelectionOptions;
 import org.n52.sta.service.response.EntityCollectionResponse;
+import org.n52.sta.service.serializer.ResponseBufferPool;
+import org.n52.sta.service.serializer.ResponseEncoding;
 import org.n52.sta.service.serializer.SensorThingsSerializer;
 import org.n52.sta.utils.EntityAnnotator;
 import org.springframework.beans.factory.annotation.Autowired;
@@ -43,8 +43,6 @@ import org.springframework.stereotype.Component;
 @Component
 public class SensorThingsEntityCollectionProcessor implements EntityCollectionProcessor {
 
-    private static final ContentType ET_COLLECTION_PROCESSOR_CONTENT_TYPE = ContentType.JSON_NO_METADATA;
-
     @Autowired
     AbstractEntityCollectionRequestHandler requestHandler;
 
@@ -54,22 +52,27 @@ public class SensorThingsEntityCollectionProcessor implements EntityCollectionPr
     @Autowired
     EntityAnnotator entityAnnotator;
 
+    @Autowired
+    ResponseBufferPool bufferPool;
+
     private OData odata;
     private ServiceMetadata serviceMetadata;
 
     @Override
     public void readEntityCollection(ODataRequest request, ODataResponse response, UriInfo uriInfo,
             ContentType contentType) throws ODataApplicationException, ODataLibraryException {
+        PipelineMetrics.describe(uriInfo, uriInfo.getUriResourceParts().size() > 1 ? "related_collection" : "collection");
         EntityCollectionResponse entityCollectionResponse = requestHandler.handleEntityCollectionRequest(
                 uriInfo.getUriResourceParts(), new QueryOptions(uriInfo, request.getRawBaseUri()));
 
-        InputStream serializedContent =
-                createResponseContent(entityCollectionResponse, uriInfo, request.getRawBaseUri());
+        ResponseEncoding encoding = ResponseEncoding.of(contentType);
+        ODataContent serializedContent =
+                createResponseContent(entityCollectionResponse, uriInfo, request.getRawBaseUri(), encoding);
 
         // configure the response object: set the body, headers and status code
-        response.setContent(serializedContent);
+        response.setODataContent(serializedContent);
         response.setStatusCode(HttpStatusCode.OK.getStatusCode());
-        response.setHeader(HttpHeader.CONTENT_TYPE, ET_COLLECTION_PROCESSOR_CONTENT_TYPE.toContentTypeString());
+        encoding.setHeaders(response);
     }
 
     @Override
@@ -80,15 +83,15 @@ public class SensorThingsEntityCollectionProcessor implements EntityCollectionPr
 
     }
 
-    private InputStream createResponseContent(EntityCollectionResponse response, UriInfo uriInfo, String rawBaseUri) throws SerializerException {
+    private ODataContent createResponseContent(EntityCollectionResponse response, UriInfo uriInfo, String rawBaseUri,
+            ResponseEncoding encoding) throws SerializerException {
         // annotate the entities
         for (Entity e : response.getEntityCollection().getEntities()) {
             entityAnnotator.annotateEntity(e, response.getEntitySet().getEntityType(), rawBaseUri);
         }
 
-        // create a serializer based on JSON format
-//        ODataSerializer serializer = odata.createSerializer(ET_COLLECTION_PROCESSOR_CONTENT_TYPE);
-        ODataSerializer serializer = new SensorThingsSerializer(ET_COLLECTION_PROCESSOR_CONTENT_TYPE);
+        // create a serializer based on the negotiated encoding
+        SensorThingsSerializer serializer = encoding.createSerializer();
 
         EdmEntityType edmEntityType = response.getEntitySet().getEntityType();
 
@@ -98,7 +101,7 @@ public class SensorThingsEntityCollectionProcessor implements EntityCollectionPr
         //evaluate count options
         CountOptions countOptions = propertySelectionHandler.evaluateCountOptions(uriInfo, response.getEntityCollection());
 
-        // serialize the content: transform from the EntitySet object to InputStream
+        // serialize the content: transform from the EntitySet object to the response stream
         ContextURL contextUrl = ContextURL.with()
                 .entitySet(response.getEntitySet())
                 .selectList(selectOptions.getSelectionList())
@@ -113,10 +116,16 @@ public class SensorThingsEntityCollectionProcessor implements EntityCollectionPr
                         .select(selectOptions.getSelectOption())
                         .count(countOptions.getCountOption())
                         .build();
-        SerializerResult serializerResult = serializer.entityCollection(serviceMetadata, edmEntityType, response.getEntityCollection(), opts);
-        InputStream serializedContent = serializerResult.getContent();
-
-        return serializedContent;
+        // the content is written when Olingo writes the response
+        return bufferPool.content(outputStream -> {
+            PipelineMetrics.enter(PipelineStage.SERIALIZATION);
+            try {
+                serializer.entityCollectionIntoStream(serviceMetadata, edmEntityType,
+                        response.getEntityCollection(), opts, outputStream);
+            } finally {
+                PipelineMetrics.exit();
+            }
+        });
     }
 
 }
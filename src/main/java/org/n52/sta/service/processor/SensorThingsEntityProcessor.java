@@ -5,32 +5,33 @@
  */
 package org.n52.sta.service.processor;
 
-import java.io.InputStream;
 import java.util.Locale;
 import org.apache.olingo.commons.api.data.ContextURL;
 import org.apache.olingo.commons.api.data.Entity;
 import org.apache.olingo.commons.api.edm.EdmEntitySet;
 import org.apache.olingo.commons.api.edm.EdmEntityType;
 import org.apache.olingo.commons.api.format.ContentType;
-import org.apache.olingo.commons.api.http.HttpHeader;
 import org.apache.olingo.commons.api.http.HttpStatusCode;
 import org.apache.olingo.server.api.OData;
 import org.apache.olingo.server.api.ODataApplicationException;
+import org.apache.olingo.server.api.ODataContent;
 import org.apache.olingo.server.api.ODataLibraryException;
 import org.apache.olingo.server.api.ODataRequest;
 import org.apache.olingo.server.api.ODataResponse;
 import org.apache.olingo.server.api.ServiceMetadata;
 import org.apache.olingo.server.api.processor.EntityProcessor;
 import org.apache.olingo.server.api.serializer.EntitySerializerOptions;
-import org.apache.olingo.server.api.serializer.ODataSerializer;
 import org.apache.olingo.server.api.serializer.SerializerException;
-import org.apache.olingo.server.api.serializer.SerializerResult;
 import org.apache.olingo.server.api.uri.UriInfo;
+import org.n52.sta.metrics.PipelineMetrics;
+import org.n52.sta.metrics.PipelineStage;
 import org.n52.sta.service.handler.AbstractEntityRequestHandler;
 import org.n52.sta.service.handler.EntityRequestHandlerImpl;
 import org.n52.sta.service.query.handler.AbstractQueryOptionHandler;
 import org.n52.sta.service.query.handler.PropertySelectionOptions;
 import org.n52.sta.service.response.EntityResponse;
+import org.n52.sta.service.serializer.ResponseBufferPool;
+import org.n52.sta.service.serializer.ResponseEncoding;
 import org.n52.sta.service.serializer.SensorThingsSerializer;
 import org.n52.sta.utils.EntityAnnotator;
 import org.springframework.beans.factory.annotation.Autowired;
@@ -43,8 +44,6 @@ import org.springframework.stereotype.Component;
 @Component
 public class SensorThingsEntityProcessor implements EntityProcessor {
 
-    private static final ContentType ET_PROCESSOR_CONTENT_TYPE = ContentType.JSON_NO_METADATA;
-
     @Autowired
     AbstractEntityRequestHandler requestHandler;
 
@@ -54,19 +53,24 @@ public class SensorThingsEntityProcessor implements EntityProcessor {
     @Autowired
     EntityAnnotator entityAnnotator;
 
+    @Autowired
+    ResponseBufferPool bufferPool;
+
     private OData odata;
     private ServiceMetadata serviceMetadata;
 
     @Override
     public void readEntity(ODataRequest request, ODataResponse response, UriInfo uriInfo, ContentType responseFormat) throws ODataApplicationException, ODataLibraryException {
+        PipelineMetrics.describe(uriInfo, "entity");
         EntityResponse entityResponse = requestHandler.handleEntityCollectionRequest(uriInfo.getUriResourceParts());
 
-        InputStream serializedContent = createResponseContent(entityResponse, request.getRawBaseUri(), uriInfo);
+        ResponseEncoding encoding = ResponseEncoding.of(responseFormat);
+        ODataContent serializedContent = createResponseContent(entityResponse, request.getRawBaseUri(), uriInfo, encoding);
 
         // configure the response object: set the body, headers and status code
-        response.setContent(serializedContent);
+        response.setODataContent(serializedContent);
         response.setStatusCode(HttpStatusCode.OK.getStatusCode());
-        response.setHeader(HttpHeader.CONTENT_TYPE, ET_PROCESSOR_CONTENT_TYPE.toContentTypeString());
+        encoding.setHeaders(response);
     }
 
     @Override
@@ -87,25 +91,25 @@ public class SensorThingsEntityProcessor implements EntityProcessor {
     @Override
     public void init(OData odata, ServiceMetadata sm) {
         this.odata = odata;
-        this.serviceMetadata = serviceMetadata;
+        this.serviceMetadata = sm;
         this.propertySelectionHandler.setUriHelper(odata.createUriHelper());
     }
 
-    private InputStream createResponseContent(EntityResponse response, String rawBaseUri, UriInfo uriInfo) throws SerializerException {
+    private ODataContent createResponseContent(EntityResponse response, String rawBaseUri, UriInfo uriInfo,
+            ResponseEncoding encoding) throws SerializerException {
 
         // annotate the entity
         entityAnnotator.annotateEntity(response.getEntity(),
                 response.getEntitySet().getEntityType(), rawBaseUri);
 
-        // 3rd: create a serializer based on the requested format (json)
-//        ODataSerializer serializer = odata.createSerializer(ET_PROCESSOR_CONTENT_TYPE);
-        ODataSerializer serializer = new SensorThingsSerializer(ET_PROCESSOR_CONTENT_TYPE);
+        // 3rd: create a serializer based on the negotiated encoding
+        SensorThingsSerializer serializer = encoding.createSerializer();
 
         //determine property selections
         PropertySelectionOptions selectOptions = propertySelectionHandler
                 .evaluatePropertySelectionOptions(uriInfo, response.getEntitySet().getEntityType());
 
-        // and serialize the content: transform from the EntitySet object to InputStream
+        // and serialize the content: transform from the EntitySet object to the response stream
         ContextURL contextUrl = ContextURL.with()
                 .entitySet(response.getEntitySet())
                 .suffix(ContextURL.Suffix.ENTITY)
@@ -117,10 +121,16 @@ public class SensorThingsEntityProcessor implements EntityProcessor {
                 .select(selectOptions.getSelectOption())
                 .build();
 
-        SerializerResult serializerResult = serializer.entity(serviceMetadata, response.getEntitySet().getEntityType(), response.getEntity(), opts);
-        InputStream serializedContent = serializerResult.getContent();
-
-        return serializedContent;
+        // the content is written when Olingo writes the response
+        return bufferPool.content(outputStream -> {
+            PipelineMetrics.enter(PipelineStage.SERIALIZATION);
+            try {
+                serializer.entityIntoStream(serviceMetadata, response.getEntitySet().getEntityType(),
+                        response.getEntity(), opts, outputStream);
+            } finally {
+                PipelineMetrics.exit();
+            }
+        });
     }
 
 }
@@ -16,6 +16,7 @@ import org.apache.olingo.commons.api.http.HttpHeader;
 import org.apache.olingo.commons.api.http.HttpStatusCode;
 import org.apache.olingo.server.api.OData;
 import org.apache.olingo.server.api.ODataApplicationException;
+import org.apache.olingo.server.api.ODataContent;
 import org.apache.olingo.server.api.ODataLibraryException;
 import org.apache.olingo.server.api.ODataRequest;
 import org.apache.olingo.server.api.ODataResponse;
@@ -23,14 +24,16 @@ import org.apache.olingo.server.api.ServiceMetadata;
 import org.apache.olingo.server.api.processor.PrimitiveValueProcessor;
 import org.apache.olingo.server.api.serializer.ComplexSerializerOptions;
 import org.apache.olingo.server.api.serializer.FixedFormatSerializer;
-import org.apache.olingo.server.api.serializer.ODataSerializer;
 import org.apache.olingo.server.api.serializer.PrimitiveSerializerOptions;
 import org.apache.olingo.server.api.serializer.PrimitiveValueSerializerOptions;
 import org.apache.olingo.server.api.serializer.SerializerException;
-import org.apache.olingo.server.api.serializer.SerializerResult;
 import org.apache.olingo.server.api.uri.UriInfo;
+import org.n52.sta.metrics.PipelineMetrics;
+import org.n52.sta.metrics.PipelineStage;
 import org.n52.sta.service.handler.AbstractPropertyRequestHandler;
 import org.n52.sta.service.response.PropertyResponse;
+import org.n52.sta.service.serializer.ResponseBufferPool;
+import org.n52.sta.service.serializer.ResponseEncoding;
 import org.n52.sta.service.serializer.SensorThingsSerializer;
 import org.springframework.beans.factory.annotation.Autowired;
 import org.springframework.stereotype.Component;
@@ -48,11 +51,15 @@ public class SensorThingsPropertyValueProcessor implements PrimitiveValueProcess
     @Autowired
     AbstractPropertyRequestHandler requestHandler;
 
+    @Autowired
+    ResponseBufferPool bufferPool;
+
     private OData odata;
     private ServiceMetadata serviceMetadata;
 
     @Override
     public void readPrimitiveValue(ODataRequest request, ODataResponse response, UriInfo uriInfo, ContentType responseFormat) throws ODataApplicationException, ODataLibraryException {
+        PipelineMetrics.describe(uriInfo, "value");
         PropertyResponse propertyValueReponse = requestHandler.handlePropertyRequest(uriInfo);
 
         // serialize
@@ -78,10 +85,17 @@ public class SensorThingsPropertyValueProcessor implements PrimitiveValueProcess
         ComplexSerializerOptions options = ComplexSerializerOptions.with().contextURL(contextUrl).build();
 
         // serialize
-        SerializerResult serializerResult = serializer.complexValue(serviceMetadata, (EdmComplexType) complexResponse.getEdmPropertyType(), complexResponse.getProperty(), options);
-        InputStream serializedContent = serializerResult.getContent();
+        ODataContent serializedContent = bufferPool.content(outputStream -> {
+            PipelineMetrics.enter(PipelineStage.SERIALIZATION);
+            try {
+                serializer.complexValueIntoStream(serviceMetadata, (EdmComplexType) complexResponse.getEdmPropertyType(),
+                        complexResponse.getProperty(), options, outputStream);
+            } finally {
+                PipelineMetrics.exit();
+            }
+        });
 
-        response.setContent(serializedContent);
+        response.setODataContent(serializedContent);
         response.setStatusCode(HttpStatusCode.OK.getStatusCode());
         response.setHeader(HttpHeader.CONTENT_TYPE, ContentType.JSON_NO_METADATA.toContentTypeString());
     }
@@ -89,7 +103,13 @@ public class SensorThingsPropertyValueProcessor implements PrimitiveValueProcess
     private void createPrimitiveValueResponse(ODataResponse response, PropertyResponse primitiveResponse) throws SerializerException {
         final FixedFormatSerializer serializer = odata.createFixedFormatSerializer();
         PrimitiveValueSerializerOptions options = PrimitiveValueSerializerOptions.with().build();
-        InputStream serializedContent = serializer.primitiveValue((EdmPrimitiveType) primitiveResponse.getEdmPropertyType(), primitiveResponse.getProperty().getValue(), options);
+        InputStream serializedContent;
+        PipelineMetrics.enter(PipelineStage.SERIALIZATION);
+        try {
+            serializedContent = serializer.primitiveValue((EdmPrimitiveType) primitiveResponse.getEdmPropertyType(), primitiveResponse.getProperty().getValue(), options);
+        } finally {
+            PipelineMetrics.exit();
+        }
         response.setContent(serializedContent);
         response.setStatusCode(HttpStatusCode.OK.getStatusCode());
         response.setHeader(HttpHeader.CONTENT_TYPE, ContentType.TEXT_PLAIN.toContentTypeString());
@@ -108,19 +128,21 @@ public class SensorThingsPropertyValueProcessor implements PrimitiveValueProcess
 
     @Override
     public void readPrimitive(ODataRequest request, ODataResponse response, UriInfo uriInfo, ContentType responseFormat) throws ODataApplicationException, ODataLibraryException {
+        PipelineMetrics.describe(uriInfo, "property");
         PropertyResponse primitiveResponse = requestHandler.handlePropertyRequest(uriInfo);
 
         // serialize
         Object value = primitiveResponse.getProperty().getValue();
         if (value != null) {
             //TODO: check for other than primitive types for the property
-            InputStream serializedContent = createReponseContent(primitiveResponse.getProperty(),
+            ResponseEncoding encoding = ResponseEncoding.of(responseFormat);
+            ODataContent serializedContent = createReponseContent(primitiveResponse.getProperty(),
                     (EdmPrimitiveType) primitiveResponse.getEdmPropertyType(),
-                    primitiveResponse.getResponseEdmEntitySet());
+                    primitiveResponse.getResponseEdmEntitySet(), encoding);
 
-            response.setContent(serializedContent);
+            response.setODataContent(serializedContent);
             response.setStatusCode(HttpStatusCode.OK.getStatusCode());
-            response.setHeader(HttpHeader.CONTENT_TYPE, ContentType.JSON_NO_METADATA.toContentTypeString());
+            encoding.setHeaders(response);
         } else {
             // in case there's no value for the property, we can skip the serialization
             response.setStatusCode(HttpStatusCode.NO_CONTENT.getStatusCode());
@@ -143,17 +165,23 @@ public class SensorThingsPropertyValueProcessor implements PrimitiveValueProcess
         this.serviceMetadata = serviceMetadata;
     }
 
-    private InputStream createReponseContent(Property property, EdmPrimitiveType edmPropertyType, EdmEntitySet responseEdmEntitySet) throws SerializerException {
+    private ODataContent createReponseContent(Property property, EdmPrimitiveType edmPropertyType, EdmEntitySet responseEdmEntitySet,
+            ResponseEncoding encoding) throws SerializerException {
 
-        ODataSerializer serializer = new SensorThingsSerializer(ET_PROPERTY_PROCESSOR_CONTENT_TYPE);
+        SensorThingsSerializer serializer = encoding.createSerializer();
 
         ContextURL contextUrl = ContextURL.with().entitySet(responseEdmEntitySet).navOrPropertyPath(property.getName()).build();
         PrimitiveSerializerOptions options = PrimitiveSerializerOptions.with().contextURL(contextUrl).build();
 
         // serialize
-        SerializerResult serializerResult = serializer.primitive(serviceMetadata, edmPropertyType, property, options);
-        InputStream propertyStream = serializerResult.getContent();
-        return propertyStream;
+        return bufferPool.content(outputStream -> {
+            PipelineMetrics.enter(PipelineStage.SERIALIZATION);
+            try {
+                serializer.primitiveIntoStream(serviceMetadata, edmPropertyType, property, options, outputStream);
+            } finally {
+                PipelineMetrics.exit();
+            }
+        });
 
     }
 
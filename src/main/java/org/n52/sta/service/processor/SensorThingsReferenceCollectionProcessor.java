@@ -5,32 +5,31 @@
  */
 package org.n52.sta.service.processor;
 
-import java.io.InputStream;
 import java.util.List;
 import org.apache.olingo.commons.api.data.ContextURL;
-import org.apache.olingo.commons.api.data.Entity;
 import org.apache.olingo.commons.api.edm.EdmEntityType;
 import org.apache.olingo.commons.api.format.ContentType;
-import org.apache.olingo.commons.api.http.HttpHeader;
 import org.apache.olingo.commons.api.http.HttpStatusCode;
 import org.apache.olingo.server.api.OData;
 import org.apache.olingo.server.api.ODataApplicationException;
+import org.apache.olingo.server.api.ODataContent;
 import org.apache.olingo.server.api.ODataLibraryException;
 import org.apache.olingo.server.api.ODataRequest;
 import org.apache.olingo.server.api.ODataResponse;
 import org.apache.olingo.server.api.ServiceMetadata;
 import org.apache.olingo.server.api.processor.ReferenceCollectionProcessor;
-import org.apache.olingo.server.api.serializer.ODataSerializer;
 import org.apache.olingo.server.api.serializer.ReferenceCollectionSerializerOptions;
 import org.apache.olingo.server.api.serializer.SerializerException;
-import org.apache.olingo.server.api.serializer.SerializerResult;
 import org.apache.olingo.server.api.uri.UriInfo;
 import org.apache.olingo.server.api.uri.UriResource;
+import org.n52.sta.metrics.PipelineMetrics;
+import org.n52.sta.metrics.PipelineStage;
 import org.n52.sta.service.handler.AbstractEntityCollectionRequestHandler;
 import org.n52.sta.service.query.QueryOptions;
-import org.n52.sta.service.response.EntityCollectionResponse;
+import org.n52.sta.service.response.ReferenceCollectionResponse;
+import org.n52.sta.service.serializer.ResponseBufferPool;
+import org.n52.sta.service.serializer.ResponseEncoding;
 import org.n52.sta.service.serializer.SensorThingsSerializer;
-import org.n52.sta.utils.EntityAnnotator;
 import org.springframework.beans.factory.annotation.Autowired;
 import org.springframework.stereotype.Component;
 
@@ -41,42 +40,38 @@ import org.springframework.stereotype.Component;
 @Component
 public class SensorThingsReferenceCollectionProcessor implements ReferenceCollectionProcessor {
 
-    private static final ContentType ET_REFERENCE_COLLECTION_PROCESSOR_CONTENT_TYPE = ContentType.JSON_NO_METADATA;
-
     @Autowired
     AbstractEntityCollectionRequestHandler requestHandler;
 
     @Autowired
-    EntityAnnotator entityAnnotator;
+    ResponseBufferPool bufferPool;
 
     private OData odata;
     private ServiceMetadata serviceMetadata;
 
     @Override
     public void readReferenceCollection(ODataRequest request, ODataResponse response, UriInfo uriInfo, ContentType responseFormat) throws ODataApplicationException, ODataLibraryException {
+        PipelineMetrics.describe(uriInfo, "reference_collection");
         List<UriResource> resourcePaths = uriInfo.getUriResourceParts();
-        EntityCollectionResponse entityCollectionResponse =
-                requestHandler.handleEntityCollectionRequest(resourcePaths.subList(0, resourcePaths.size() - 1),
+        ReferenceCollectionResponse referenceCollectionResponse =
+                requestHandler.handleReferenceCollectionRequest(resourcePaths.subList(0, resourcePaths.size() - 1),
                         new QueryOptions(uriInfo, request.getRawBaseUri()));
 
-        InputStream serializedContent = createResponseContent(entityCollectionResponse, uriInfo, request.getRawBaseUri());
+        ResponseEncoding encoding = ResponseEncoding.of(responseFormat);
+        ODataContent serializedContent = createResponseContent(referenceCollectionResponse, request.getRawBaseUri(), encoding);
 
         // configure the response object: set the body, headers and status code
-        response.setContent(serializedContent);
+        response.setODataContent(serializedContent);
         response.setStatusCode(HttpStatusCode.OK.getStatusCode());
-        response.setHeader(HttpHeader.CONTENT_TYPE, ET_REFERENCE_COLLECTION_PROCESSOR_CONTENT_TYPE.toContentTypeString());
+        encoding.setHeaders(response);
     }
 
-    private InputStream createResponseContent(EntityCollectionResponse response, UriInfo uriInfo, String rawBaseUri) throws SerializerException {
-        // annotate the entities
-        for (Entity e : response.getEntityCollection().getEntities()) {
-            entityAnnotator.annotateEntity(e, response.getEntitySet().getEntityType(), rawBaseUri);
-        }
-
-        // create a serializer based on JSON format
-        ODataSerializer serializer = new SensorThingsSerializer(ET_REFERENCE_COLLECTION_PROCESSOR_CONTENT_TYPE);
+    private ODataContent createResponseContent(ReferenceCollectionResponse response, String rawBaseUri,
+            ResponseEncoding encoding) throws SerializerException {
+        // create a serializer based on the negotiated encoding
+        SensorThingsSerializer serializer = encoding.createSerializer();
 
-        // serialize the content: transform from the EntitySet object to InputStream
+        // serialize the content: transform from the EntitySet object to the response stream
         ContextURL contextUrl = ContextURL.with()
                 .entitySet(response.getEntitySet())
                 .build();
@@ -86,10 +81,15 @@ public class SensorThingsReferenceCollectionProcessor implements ReferenceCollec
                         .with()
                         .contextURL(contextUrl)
                         .build();
-        SerializerResult serializerResult = serializer.referenceCollection(serviceMetadata, response.getEntitySet(), response.getEntityCollection(), opts);
-        InputStream serializedContent = serializerResult.getContent();
-
-        return serializedContent;
+        return bufferPool.content(outputStream -> {
+            PipelineMetrics.enter(PipelineStage.SERIALIZATION);
+            try {
+                serializer.referenceCollectionIntoStream(response.getEntitySet(), response.getIds(),
+                        response.getCount(), response.getNext(), rawBaseUri, opts, outputStream);
+            } finally {
+                PipelineMetrics.exit();
+            }
+        });
     }
 
     @Override
@@ -5,30 +5,30 @@
  */
 package org.n52.sta.service.processor;
 
-import java.io.InputStream;
 import java.util.List;
 import org.apache.olingo.commons.api.data.ContextURL;
 import org.apache.olingo.commons.api.format.ContentType;
-import org.apache.olingo.commons.api.http.HttpHeader;
 import org.apache.olingo.commons.api.http.HttpStatusCode;
 import org.apache.olingo.server.api.OData;
 import org.apache.olingo.server.api.ODataApplicationException;
+import org.apache.olingo.server.api.ODataContent;
 import org.apache.olingo.server.api.ODataLibraryException;
 import org.apache.olingo.server.api.ODataRequest;
 import org.apache.olingo.server.api.ODataResponse;
 import org.apache.olingo.server.api.ServiceMetadata;
 import org.apache.olingo.server.api.processor.ReferenceProcessor;
-import org.apache.olingo.server.api.serializer.ODataSerializer;
 import org.apache.olingo.server.api.serializer.ReferenceSerializerOptions;
 import org.apache.olingo.server.api.serializer.SerializerException;
-import org.apache.olingo.server.api.serializer.SerializerResult;
 import org.apache.olingo.server.api.uri.UriInfo;
 import org.apache.olingo.server.api.uri.UriResource;
+import org.n52.sta.metrics.PipelineMetrics;
+import org.n52.sta.metrics.PipelineStage;
 import org.n52.sta.service.handler.AbstractEntityRequestHandler;
 import org.n52.sta.service.query.handler.AbstractQueryOptionHandler;
-import org.n52.sta.service.response.EntityResponse;
+import org.n52.sta.service.response.ReferenceResponse;
+import org.n52.sta.service.serializer.ResponseBufferPool;
+import org.n52.sta.service.serializer.ResponseEncoding;
 import org.n52.sta.service.serializer.SensorThingsSerializer;
-import org.n52.sta.utils.EntityAnnotator;
 import org.springframework.beans.factory.annotation.Autowired;
 import org.springframework.stereotype.Component;
 
@@ -39,8 +39,6 @@ import org.springframework.stereotype.Component;
 @Component
 public class SensorThingsReferenceProcessor implements ReferenceProcessor {
 
-    private static final ContentType ET_REFERENCE_PROCESSOR_CONTENT_TYPE = ContentType.JSON_NO_METADATA;
-
     private OData odata;
     private ServiceMetadata serviceMetadata;
 
@@ -51,19 +49,21 @@ public class SensorThingsReferenceProcessor implements ReferenceProcessor {
     AbstractQueryOptionHandler propertySelectionHandler;
 
     @Autowired
-    EntityAnnotator entityAnnotator;
+    ResponseBufferPool bufferPool;
 
     @Override
     public void readReference(ODataRequest request, ODataResponse response, UriInfo uriInfo, ContentType responseFormat) throws ODataApplicationException, ODataLibraryException {
+        PipelineMetrics.describe(uriInfo, "reference");
         List<UriResource> resourcePaths = uriInfo.getUriResourceParts();
-        EntityResponse entityResponse = requestHandler.handleEntityCollectionRequest(resourcePaths.subList(0, resourcePaths.size() - 1));
+        ReferenceResponse referenceResponse = requestHandler.handleReferenceRequest(resourcePaths.subList(0, resourcePaths.size() - 1));
 
-        InputStream serializedContent = createResponseContent(entityResponse, request.getRawBaseUri());
+        ResponseEncoding encoding = ResponseEncoding.of(responseFormat);
+        ODataContent serializedContent = createResponseContent(referenceResponse, request.getRawBaseUri(), encoding);
 
         // configure the response object: set the body, headers and status code
-        response.setContent(serializedContent);
+        response.setODataContent(serializedContent);
         response.setStatusCode(HttpStatusCode.OK.getStatusCode());
-        response.setHeader(HttpHeader.CONTENT_TYPE, ET_REFERENCE_PROCESSOR_CONTENT_TYPE.toContentTypeString());
+        encoding.setHeaders(response);
     }
 
     @Override
@@ -87,15 +87,12 @@ public class SensorThingsReferenceProcessor implements ReferenceProcessor {
         this.serviceMetadata = serviceMetadata;
     }
 
-    private InputStream createResponseContent(EntityResponse response, String rawBaseUri) throws SerializerException {
-
-        // annotate the entity
-        entityAnnotator.annotateEntity(response.getEntity(),
-                response.getEntitySet().getEntityType(), rawBaseUri);
+    private ODataContent createResponseContent(ReferenceResponse response, String rawBaseUri,
+            ResponseEncoding encoding) throws SerializerException {
 
-        ODataSerializer serializer = new SensorThingsSerializer(ET_REFERENCE_PROCESSOR_CONTENT_TYPE);
+        SensorThingsSerializer serializer = encoding.createSerializer();
 
-        // and serialize the content: transform from the EntitySet object to InputStream
+        // and serialize the content: transform from the EntitySet object to the response stream
         ContextURL contextUrl = ContextURL.with()
                 .entitySet(response.getEntitySet())
                 .suffix(ContextURL.Suffix.ENTITY)
@@ -105,9 +102,14 @@ public class SensorThingsReferenceProcessor implements ReferenceProcessor {
                 .contextURL(contextUrl)
                 .build();
 
-        SerializerResult serializerResult = serializer.reference(serviceMetadata, response.getEntitySet(), response.getEntity(), opts);
-        InputStream serializedContent = serializerResult.getContent();
-
-        return serializedContent;
+        return bufferPool.content(outputStream -> {
+            PipelineMetrics.enter(PipelineStage.SERIALIZATION);
+            try {
+                serializer.referenceIntoStream(response.getEntitySet(), response.getId(), rawBaseUri, opts,
+                        outputStream);
+            } finally {
+                PipelineMetrics.exit();
+            }
+        });
     }
 }
@@ -5,10 +5,7 @@
  */
 package org.n52.sta.service.processor;
 
-import java.io.InputStream;
 import org.apache.olingo.commons.api.format.ContentType;
-import org.apache.olingo.commons.api.http.HttpHeader;
-import org.apache.olingo.commons.api.http.HttpStatusCode;
 import org.apache.olingo.server.api.OData;
 import org.apache.olingo.server.api.ODataApplicationException;
 import org.apache.olingo.server.api.ODataLibraryException;
@@ -16,10 +13,12 @@ import org.apache.olingo.server.api.ODataRequest;
 import org.apache.olingo.server.api.ODataResponse;
 import org.apache.olingo.server.api.ServiceMetadata;
 import org.apache.olingo.server.api.processor.ServiceDocumentProcessor;
-import org.apache.olingo.server.api.serializer.ODataSerializer;
-import org.apache.olingo.server.api.serializer.SerializerResult;
 import org.apache.olingo.server.api.uri.UriInfo;
-import org.n52.sta.service.serializer.SensorThingsSerializer;
+import org.n52.sta.metrics.PipelineMetrics;
+import org.n52.sta.metrics.PipelineStage;
+import org.n52.sta.service.SensorThingsServiceMetadata;
+import org.n52.sta.service.compression.PrecompressedDocument;
+import org.springframework.beans.factory.annotation.Autowired;
 import org.springframework.stereotype.Component;
 
 /**
@@ -29,24 +28,25 @@ import org.springframework.stereotype.Component;
 @Component
 public class SensorThingsServiceDocumentProcessor implements ServiceDocumentProcessor {
 
-    private static final ContentType ET_SERVICE_DOCUMENT_PROCESSOR_CONTENT_TYPE = ContentType.JSON_FULL_METADATA;
+    @Autowired
+    SensorThingsServiceMetadata sensorThingsServiceMetadata;
 
     private OData odata;
     private ServiceMetadata serviceMetadata;
 
     @Override
     public void readServiceDocument(ODataRequest request, ODataResponse response, UriInfo uriInfo, ContentType contentType) throws ODataApplicationException, ODataLibraryException {
-        // create a serializer based on json format
-//        ODataSerializer serializer = odata.createSerializer(ET_SERVICE_DOCUMENT_PROCESSOR_CONTENT_TYPE);
-        ODataSerializer serializer = new SensorThingsSerializer(contentType);
-
-        SerializerResult serializerResult = serializer.serviceDocument(serviceMetadata, request.getRawBaseUri());
-        InputStream serializedContent = serializerResult.getContent();
-
-        // Finally: configure the response object: set the body, headers and status code
-        response.setContent(serializedContent);
-        response.setStatusCode(HttpStatusCode.OK.getStatusCode());
-        response.setHeader(HttpHeader.CONTENT_TYPE, ET_SERVICE_DOCUMENT_PROCESSOR_CONTENT_TYPE.toContentTypeString());
+        PipelineMetrics.describe(uriInfo, "service_document");
+        // the document only depends on the EDM and the base URI, so it is
+        // rendered once and served with its compressed variants
+        PrecompressedDocument serviceDocument;
+        PipelineMetrics.enter(PipelineStage.SERIALIZATION);
+        try {
+            serviceDocument = sensorThingsServiceMetadata.getServiceDocument(contentType, request.getRawBaseUri());
+        } finally {
+            PipelineMetrics.exit();
+        }
+        serviceDocument.write(request, response);
     }
 
     @Override
@@ -3,6 +3,7 @@ package org.n52.sta.service.query;
 import org.apache.olingo.server.api.uri.UriInfo;
 import org.apache.olingo.server.api.uri.queryoption.CountOption;
 import org.apache.olingo.server.api.uri.queryoption.OrderByOption;
+import org.apache.olingo.server.api.uri.queryoption.SelectOption;
 import org.apache.olingo.server.api.uri.queryoption.SkipOption;
 import org.apache.olingo.server.api.uri.queryoption.SystemQueryOption;
 import org.apache.olingo.server.api.uri.queryoption.TopOption;
@@ -129,4 +130,23 @@ public class QueryOptions {
         return getUriInfo().getOrderByOption();
     }
 
+    /**
+     * Check if the {@link UriInfo} holds {@link SelectOption}
+     * 
+     * @return <code>true</code>, if the {@link UriInfo} holds
+     *         {@link SelectOption}
+     */
+    public boolean hasSelectOption() {
+        return getUriInfo().getSelectOption() != null;
+    }
+
+    /**
+     * Get the {@link SelectOption} from {@link UriInfo}
+     * 
+     * @return the {@link SelectOption}
+     */
+    public SelectOption getSelectOption() {
+        return getUriInfo().getSelectOption();
+    }
+
 }
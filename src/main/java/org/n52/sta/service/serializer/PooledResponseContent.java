@@ -0,0 +1,210 @@
+/*
+ * Copyright (C) 2012-2018 52°North Initiative for Geospatial Open Source
+ * Software GmbH
+ *
+ * This program is free software; you can redistribute it and/or modify it
+ * under the terms of the GNU General Public License version 2 as published
+ * by the Free Software Foundation.
+ *
+ * If the program is linked with libraries which are licensed under one of
+ * the following licenses, the combination of the program with the linked
+ * library is not considered a "derivative work" of the program:
+ *
+ *     - Apache License, version 2.0
+ *     - Apache Software License, version 1.0
+ *     - GNU Lesser General Public License, version 3
+ *     - Mozilla Public License, versions 1.0, 1.1 and 2.0
+ *     - Common Development and Distribution License (CDDL), version 1.0
+ *
+ * Therefore the distribution of the program linked with libraries licensed
+ * under the aforementioned licenses, is permitted by the copyright holders
+ * if the distribution is compliant with both the GNU General Public
+ * License version 2 and the aforementioned licenses.
+ *
+ * This program is distributed in the hope that it will be useful, but
+ * WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the GNU General
+ * Public License for more details.
+ */
+package org.n52.sta.service.serializer;
+
+import java.io.IOException;
+import java.io.OutputStream;
+import java.nio.ByteBuffer;
+import java.nio.channels.Channels;
+import java.nio.channels.WritableByteChannel;
+
+import org.apache.olingo.commons.api.ex.ODataRuntimeException;
+import org.apache.olingo.server.api.ODataContent;
+import org.apache.olingo.server.api.serializer.SerializerException;
+
+/**
+ * Content of a response that is serialized through a buffer of the
+ * {@link ResponseBufferPool}. The document is serialized into the buffer
+ * when the content is created, before Olingo commits the status, so errors
+ * of documents fitting into a single buffer still lead to an error response.
+ * Larger documents are serialized again when Olingo writes the response,
+ * directly to the response channel.
+ *
+ * @since 1.0.0
+ */
+public class PooledResponseContent implements ODataContent {
+
+    private final ResponseBufferPool pool;
+
+    private final ContentWriter writer;
+
+    private ByteBuffer prepared;
+
+    PooledResponseContent(ResponseBufferPool pool, ContentWriter writer) {
+        this.pool = pool;
+        this.writer = writer;
+    }
+
+    /**
+     * Serializes the document into a pooled buffer. If the document does not
+     * fit it is written by {@link #write(WritableByteChannel)} instead.
+     *
+     * @throws SerializerException
+     *             if the document could not be serialized
+     */
+    void prepare() throws SerializerException {
+        ByteBuffer buffer = pool.acquire();
+        BoundedOutputStream outputStream = new BoundedOutputStream(buffer);
+        try {
+            writer.write(outputStream);
+            buffer.flip();
+            prepared = buffer;
+        } catch (SerializerException | RuntimeException e) {
+            pool.release(buffer);
+            if (!outputStream.overflowed) {
+                throw e;
+            }
+        }
+    }
+
+    @Override
+    public void write(WritableByteChannel channel) {
+        if (prepared != null) {
+            try {
+                while (prepared.hasRemaining()) {
+                    channel.write(prepared);
+                }
+            } catch (IOException e) {
+                throw new ODataRuntimeException("Failed to write the response content", e);
+            } finally {
+                pool.release(prepared);
+                prepared = null;
+            }
+            return;
+        }
+        ByteBuffer buffer = pool.acquire();
+        try (ChannelOutputStream outputStream = new ChannelOutputStream(buffer, channel)) {
+            writer.write(outputStream);
+        } catch (SerializerException | IOException e) {
+            throw new ODataRuntimeException("Failed to write the response content", e);
+        } finally {
+            pool.release(buffer);
+        }
+    }
+
+    @Override
+    public void write(OutputStream stream) {
+        write(Channels.newChannel(stream));
+    }
+
+    /**
+     * Collects the written bytes in the buffer and fails once the buffer is
+     * full. The serializers wrap the failure, so it is remembered here to
+     * tell it apart from serialization errors.
+     */
+    private static final class BoundedOutputStream extends OutputStream {
+
+        private final ByteBuffer buffer;
+
+        private boolean overflowed;
+
+        BoundedOutputStream(ByteBuffer buffer) {
+            this.buffer = buffer;
+        }
+
+        @Override
+        public void write(int b) throws IOException {
+            ensureRemaining(1);
+            buffer.put((byte) b);
+        }
+
+        @Override
+        public void write(byte[] b, int off, int len) throws IOException {
+            ensureRemaining(len);
+            buffer.put(b, off, len);
+        }
+
+        private void ensureRemaining(int length) throws IOException {
+            if (overflowed || buffer.remaining() < length) {
+                overflowed = true;
+                throw new IOException("The document exceeds the response buffer");
+            }
+        }
+    }
+
+    /**
+     * Collects the written bytes in the buffer and drains it to the channel
+     * whenever it is full. Flushes of the generators are ignored, so the
+     * channel only receives chunks of the buffer size. The channel is not
+     * closed, it belongs to the servlet container.
+     */
+    private static final class ChannelOutputStream extends OutputStream {
+
+        private final ByteBuffer buffer;
+
+        private final WritableByteChannel channel;
+
+        private boolean closed;
+
+        ChannelOutputStream(ByteBuffer buffer, WritableByteChannel channel) {
+            this.buffer = buffer;
+            this.channel = channel;
+        }
+
+        @Override
+        public void write(int b) throws IOException {
+            if (!buffer.hasRemaining()) {
+                drain();
+            }
+            buffer.put((byte) b);
+        }
+
+        @Override
+        public void write(byte[] b, int off, int len) throws IOException {
+            int offset = off;
+            int remaining = len;
+            while (remaining > 0) {
+                if (!buffer.hasRemaining()) {
+                    drain();
+                }
+                int chunk = Math.min(remaining, buffer.remaining());
+                buffer.put(b, offset, chunk);
+                offset += chunk;
+                remaining -= chunk;
+            }
+        }
+
+        @Override
+        public void close() throws IOException {
+            if (!closed) {
+                closed = true;
+                drain();
+            }
+        }
+
+        private void drain() throws IOException {
+            buffer.flip();
+            while (buffer.hasRemaining()) {
+                channel.write(buffer);
+            }
+            buffer.clear();
+        }
+    }
+
+}
@@ -0,0 +1,179 @@
+/*
+ * Copyright (C) 2012-2018 52°North Initiative for Geospatial Open Source
+ * Software GmbH
+ *
+ * This program is free software; you can redistribute it and/or modify it
+ * under the terms of the GNU General Public License version 2 as published
+ * by the Free Software Foundation.
+ *
+ * If the program is linked with libraries which are licensed under one of
+ * the following licenses, the combination of the program with the linked
+ * library is not considered a "derivative work" of the program:
+ *
+ *     - Apache License, version 2.0
+ *     - Apache Software License, version 1.0
+ *     - GNU Lesser General Public License, version 3
+ *     - Mozilla Public License, versions 1.0, 1.1 and 2.0
+ *     - Common Development and Distribution License (CDDL), version 1.0
+ *
+ * Therefore the distribution of the program linked with libraries licensed
+ * under the aforementioned licenses, is permitted by the copyright holders
+ * if the distribution is compliant with both the GNU General Public
+ * License version 2 and the aforementioned licenses.
+ *
+ * This program is distributed in the hope that it will be useful, but
+ * WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the GNU General
+ * Public License for more details.
+ */
+package org.n52.sta.service.serializer;
+
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.TreeSet;
+import java.util.concurrent.ConcurrentHashMap;
+
+import org.apache.olingo.commons.api.data.Property;
+import org.apache.olingo.commons.api.edm.EdmProperty;
+import org.apache.olingo.commons.api.edm.EdmStructuredType;
+
+import com.fasterxml.jackson.core.SerializableString;
+import com.fasterxml.jackson.core.io.SerializedString;
+
+/**
+ * The structural properties of an {@link EdmStructuredType} that are written
+ * for a set of selected property names. A plan is compiled once per type and
+ * selection and is shared by all serializers, so the property order, the
+ * {@link EdmProperty} lookups and the encoded JSON field names are resolved
+ * only once instead of for every written entity.
+ * <p>
+ * The mappers add the properties of an entity always in the same order, so the
+ * position of a property in the entity is remembered and checked first before
+ * the properties are scanned.
+ *
+ * @since 1.0.0
+ */
+final class PropertyWriterPlan {
+
+    /**
+     * Upper bound of cached plans. The selections are controlled by the
+     * clients, so plans of further selections are compiled per request.
+     */
+    private static final int MAX_CACHED_PLANS = 1024;
+
+    private static final Map<String, PropertyWriterPlan> PLANS = new ConcurrentHashMap<>();
+
+    private final EdmProperty[] properties;
+
+    private final SerializableString[] names;
+
+    private final int[] positions;
+
+    private PropertyWriterPlan(EdmStructuredType type, Set<String> selected) {
+        List<String> propertyNames = type.getPropertyNames();
+        this.properties = propertyNames.stream()
+                .filter(name -> selected == null || selected.contains(name))
+                .map(type::getStructuralProperty)
+                .toArray(EdmProperty[]::new);
+        this.names = new SerializableString[properties.length];
+        this.positions = new int[properties.length];
+        for (int i = 0; i < properties.length; i++) {
+            names[i] = new SerializedString(properties[i].getName());
+            positions[i] = propertyNames.indexOf(properties[i].getName());
+        }
+    }
+
+    /**
+     * Get the plan for the given type and selected property names
+     *
+     * @param type
+     *            the structured type
+     * @param selected
+     *            the selected property names or <code>null</code> if all
+     *            properties are written
+     * @return the compiled plan
+     */
+    static PropertyWriterPlan of(EdmStructuredType type, Set<String> selected) {
+        String key = createKey(type, selected);
+        PropertyWriterPlan plan = PLANS.get(key);
+        if (plan == null) {
+            plan = new PropertyWriterPlan(type, selected);
+            if (PLANS.size() < MAX_CACHED_PLANS) {
+                PLANS.putIfAbsent(key, plan);
+            }
+        }
+        return plan;
+    }
+
+    private static String createKey(EdmStructuredType type, Set<String> selected) {
+        String typeName = type.getFullQualifiedName().getFullQualifiedNameAsString();
+        if (selected == null) {
+            return typeName;
+        }
+        // the selection is normalized as the order of $select is irrelevant
+        return typeName + "?" + String.join(",", new TreeSet<>(selected));
+    }
+
+    /**
+     * Get the number of written properties
+     *
+     * @return the number of properties
+     */
+    int size() {
+        return properties.length;
+    }
+
+    /**
+     * Get the written property
+     *
+     * @param index
+     *            the index of the property in the plan
+     * @return the property
+     */
+    EdmProperty getProperty(int index) {
+        return properties[index];
+    }
+
+    /**
+     * Get the pre-encoded JSON field name of the written property
+     *
+     * @param index
+     *            the index of the property in the plan
+     * @return the encoded name
+     */
+    SerializableString getName(int index) {
+        return names[index];
+    }
+
+    /**
+     * Finds the value of the written property in the properties of an entity
+     *
+     * @param index
+     *            the index of the property in the plan
+     * @param values
+     *            the properties of the entity
+     * @return the property or <code>null</code> if the entity has no value for
+     *         the property
+     */
+    Property findValue(int index, List<Property> values) {
+        String name = properties[index].getName();
+        int position = positions[index];
+        if (position < values.size()) {
+            Property candidate = values.get(position);
+            if (name.equals(candidate.getName())) {
+                return candidate;
+            }
+        }
+        for (int i = 0; i < values.size(); i++) {
+            Property candidate = values.get(i);
+            if (name.equals(candidate.getName())) {
+                // concurrent updates are harmless, the position is only a hint
+                positions[index] = i;
+                return candidate;
+            }
+        }
+        return null;
+    }
+
+}
@@ -0,0 +1,157 @@
+/*
+ * Copyright (C) 2012-2018 52°North Initiative for Geospatial Open Source
+ * Software GmbH
+ *
+ * This program is free software; you can redistribute it and/or modify it
+ * under the terms of the GNU General Public License version 2 as published
+ * by the Free Software Foundation.
+ *
+ * If the program is linked with libraries which are licensed under one of
+ * the following licenses, the combination of the program with the linked
+ * library is not considered a "derivative work" of the program:
+ *
+ *     - Apache License, version 2.0
+ *     - Apache Software License, version 1.0
+ *     - GNU Lesser General Public License, version 3
+ *     - Mozilla Public License, versions 1.0, 1.1 and 2.0
+ *     - Common Development and Distribution License (CDDL), version 1.0
+ *
+ * Therefore the distribution of the program linked with libraries licensed
+ * under the aforementioned licenses, is permitted by the copyright holders
+ * if the distribution is compliant with both the GNU General Public
+ * License version 2 and the aforementioned licenses.
+ *
+ * This program is distributed in the hope that it will be useful, but
+ * WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the GNU General
+ * Public License for more details.
+ */
+package org.n52.sta.service.serializer;
+
+import java.nio.ByteBuffer;
+import java.util.Queue;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import org.apache.olingo.server.api.ODataContent;
+import org.apache.olingo.server.api.serializer.SerializerException;
+import org.springframework.beans.factory.InitializingBean;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.stereotype.Component;
+
+import io.micrometer.core.instrument.Counter;
+import io.micrometer.core.instrument.Gauge;
+import io.micrometer.core.instrument.MeterRegistry;
+
+/**
+ * Pool of the buffers the responses are written through. Instead of writing
+ * the whole document into a {@link org.apache.olingo.server.core.serializer.utils.CircleStreamBuffer}
+ * that Olingo copies to the servlet response afterwards, the processors hand
+ * a {@link PooledResponseContent} to Olingo. Documents fitting into a single
+ * pooled buffer are serialized before the status is committed and written
+ * with a single write, larger ones are serialized directly to the response
+ * channel once the headers are written, in chunks of the buffer size.
+ * <p>
+ * The memory of the pool is bounded: buffers released while the pool holds
+ * <code>http.response.buffer.pool-limit</code> bytes are dropped. Jackson
+ * recycles the internal buffers of the generators on its own.
+ *
+ * @since 1.0.0
+ */
+@Component
+public class ResponseBufferPool implements InitializingBean {
+
+    public static final String ACQUIRED_COUNTER = "sta.response.buffer.acquired";
+
+    public static final String DISCARDED_COUNTER = "sta.response.buffer.discarded";
+
+    public static final String POOLED_GAUGE = "sta.response.buffer.pooled";
+
+    private static final String TAG_RESULT = "result";
+
+    @Value("${http.response.buffer.size:32768}")
+    private int bufferSize;
+
+    @Value("${http.response.buffer.pool-limit:8388608}")
+    private long poolLimit;
+
+    @Value("${http.response.buffer.direct:false}")
+    private boolean direct;
+
+    @Autowired
+    private MeterRegistry registry;
+
+    private final Queue<ByteBuffer> buffers = new ConcurrentLinkedQueue<>();
+
+    private final AtomicInteger pooled = new AtomicInteger();
+
+    private int maxPooled;
+
+    private Counter hits;
+
+    private Counter misses;
+
+    private Counter discarded;
+
+    @Override
+    public void afterPropertiesSet() {
+        maxPooled = (int) Math.min(Integer.MAX_VALUE, poolLimit / bufferSize);
+        hits = registry.counter(ACQUIRED_COUNTER, TAG_RESULT, "hit");
+        misses = registry.counter(ACQUIRED_COUNTER, TAG_RESULT, "miss");
+        discarded = registry.counter(DISCARDED_COUNTER);
+        Gauge.builder(POOLED_GAUGE, pooled, AtomicInteger::get)
+                .description("Response buffers held by the pool")
+                .register(registry);
+    }
+
+    /**
+     * Creates the content of a response that is written by the given writer
+     * through a pooled buffer. Documents fitting into a buffer are serialized
+     * at once, so their errors are thrown here.
+     *
+     * @param writer
+     *            the writer of the document
+     * @return the content to set to the response
+     * @throws SerializerException
+     *             if the document could not be serialized
+     */
+    public ODataContent content(ContentWriter writer) throws SerializerException {
+        PooledResponseContent content = new PooledResponseContent(this, writer);
+        content.prepare();
+        return content;
+    }
+
+    /**
+     * Takes a buffer from the pool or allocates a new one if the pool is empty
+     *
+     * @return an empty buffer
+     */
+    ByteBuffer acquire() {
+        ByteBuffer buffer = buffers.poll();
+        if (buffer != null) {
+            pooled.decrementAndGet();
+            hits.increment();
+            return buffer;
+        }
+        misses.increment();
+        return direct ? ByteBuffer.allocateDirect(bufferSize) : ByteBuffer.allocate(bufferSize);
+    }
+
+    /**
+     * Returns a buffer to the pool. The buffer is dropped if the pool is full.
+     *
+     * @param buffer
+     *            the buffer, must not be used after it was released
+     */
+    void release(ByteBuffer buffer) {
+        if (pooled.incrementAndGet() > maxPooled) {
+            pooled.decrementAndGet();
+            discarded.increment();
+            return;
+        }
+        buffer.clear();
+        buffers.offer(buffer);
+    }
+
+}
@@ -0,0 +1,124 @@
+/*
+ * Copyright (C) 2012-2018 52°North Initiative for Geospatial Open Source
+ * Software GmbH
+ *
+ * This program is free software; you can redistribute it and/or modify it
+ * under the terms of the GNU General Public License version 2 as published
+ * by the Free Software Foundation.
+ *
+ * If the program is linked with libraries which are licensed under one of
+ * the following licenses, the combination of the program with the linked
+ * library is not considered a "derivative work" of the program:
+ *
+ *     - Apache License, version 2.0
+ *     - Apache Software License, version 1.0
+ *     - GNU Lesser General Public License, version 3
+ *     - Mozilla Public License, versions 1.0, 1.1 and 2.0
+ *     - Common Development and Distribution License (CDDL), version 1.0
+ *
+ * Therefore the distribution of the program linked with libraries licensed
+ * under the aforementioned licenses, is permitted by the copyright holders
+ * if the distribution is compliant with both the GNU General Public
+ * License version 2 and the aforementioned licenses.
+ *
+ * This program is distributed in the hope that it will be useful, but
+ * WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the GNU General
+ * Public License for more details.
+ */
+package org.n52.sta.service.serializer;
+
+import org.apache.olingo.commons.api.format.ContentType;
+import org.apache.olingo.commons.api.http.HttpHeader;
+import org.apache.olingo.server.api.ODataResponse;
+import org.springframework.http.HttpHeaders;
+
+import com.fasterxml.jackson.core.JsonFactory;
+import com.fasterxml.jackson.dataformat.cbor.CBORFactory;
+import com.fasterxml.jackson.dataformat.smile.SmileFactory;
+
+/**
+ * The encodings of the JSON responses. The binary encodings write the same
+ * document structure as JSON with a binary Jackson format, so all of them are
+ * written by the {@link SensorThingsSerializer}. The factories are configured
+ * once and are shared by all requests, as Jackson factories are thread safe.
+ *
+ * @since 1.0.0
+ */
+public enum ResponseEncoding {
+
+    JSON(ContentType.JSON_NO_METADATA, new JsonFactory()),
+
+    CBOR(ContentType.create("application/cbor"), new CBORFactory()),
+
+    SMILE(ContentType.create("application/x-jackson-smile"), new SmileFactory());
+
+    private final ContentType contentType;
+
+    private final JsonFactory factory;
+
+    ResponseEncoding(ContentType contentType, JsonFactory factory) {
+        this.contentType = contentType;
+        this.factory = factory;
+    }
+
+    /**
+     * Get the content type of the responses
+     *
+     * @return the content type
+     */
+    public ContentType getContentType() {
+        return contentType;
+    }
+
+    /**
+     * Get the shared factory for the generators
+     *
+     * @return the factory
+     */
+    public JsonFactory getFactory() {
+        return factory;
+    }
+
+    /**
+     * Sets the content type of this encoding. The body depends on the
+     * negotiated encoding, so caches have to key it by the
+     * <code>Accept</code> header.
+     *
+     * @param response
+     *            the response written in this encoding
+     */
+    public void setHeaders(ODataResponse response) {
+        response.setHeader(HttpHeader.CONTENT_TYPE, contentType.toContentTypeString());
+        response.setHeader(HttpHeaders.VARY, HttpHeaders.ACCEPT);
+    }
+
+    /**
+     * Creates a serializer that writes the responses in this encoding
+     *
+     * @return the serializer
+     */
+    public SensorThingsSerializer createSerializer() {
+        return new SensorThingsSerializer(ContentType.JSON_NO_METADATA, factory, true);
+    }
+
+    /**
+     * Determines the encoding of the negotiated response format
+     *
+     * @param responseFormat
+     *            the response format negotiated by Olingo, may be
+     *            <code>null</code>
+     * @return the matching encoding, {@link #JSON} for all other formats
+     */
+    public static ResponseEncoding of(ContentType responseFormat) {
+        if (responseFormat != null) {
+            for (ResponseEncoding encoding : values()) {
+                if (encoding != JSON && encoding.contentType.isCompatible(responseFormat)) {
+                    return encoding;
+                }
+            }
+        }
+        return JSON;
+    }
+
+}
@@ -93,6 +93,8 @@ import org.apache.olingo.server.core.uri.queryoption.ExpandOptionImpl;
 
 import com.fasterxml.jackson.core.JsonFactory;
 import com.fasterxml.jackson.core.JsonGenerator;
+import com.fasterxml.jackson.core.SerializableString;
+import com.fasterxml.jackson.databind.ObjectMapper;
 import com.fasterxml.jackson.databind.node.ObjectNode;
 import org.apache.olingo.server.core.serializer.json.ODataErrorSerializer;
 import static org.n52.sta.edm.provider.entities.AbstractSensorThingsEntityProvider.CONTROL_ANNOTATION_PREFIX;
@@ -103,6 +105,8 @@ public class SensorThingsSerializer extends AbstractODataSerializer {
 
     private static final Map<Geospatial.Type, String> geoValueTypeToJsonName;
 
+    private static final ObjectMapper TREE_MAPPER = new ObjectMapper();
+
     static {
         Map<Geospatial.Type, String> temp = new EnumMap<Geospatial.Type, String>(Geospatial.Type.class);
         temp.put(Geospatial.Type.POINT, Constants.ELEM_POINT);
@@ -118,8 +122,40 @@ public class SensorThingsSerializer extends AbstractODataSerializer {
     private final boolean isIEEE754Compatible;
     private final boolean isODataMetadataNone;
     private final boolean isODataMetadataFull;
+    private final boolean compiledWriters;
+    private final JsonFactory jsonFactory;
 
     public SensorThingsSerializer(final ContentType contentType) {
+        this(contentType, true);
+    }
+
+    /**
+     * @param contentType
+     *            the content type of the response
+     * @param compiledWriters
+     *            if the properties are written with a {@link PropertyWriterPlan}
+     *            per type and selection instead of resolving the properties
+     *            for every entity
+     */
+    public SensorThingsSerializer(final ContentType contentType, final boolean compiledWriters) {
+        this(contentType, ResponseEncoding.JSON.getFactory(), compiledWriters);
+    }
+
+    /**
+     * @param contentType
+     *            the content type determining the written metadata
+     * @param jsonFactory
+     *            the shared factory of the generators, determines the
+     *            encoding of the document
+     * @param compiledWriters
+     *            if the properties are written with a {@link PropertyWriterPlan}
+     *            per type and selection instead of resolving the properties
+     *            for every entity
+     */
+    public SensorThingsSerializer(final ContentType contentType, final JsonFactory jsonFactory,
+            final boolean compiledWriters) {
+        this.compiledWriters = compiledWriters;
+        this.jsonFactory = jsonFactory;
         isIEEE754Compatible = ContentTypeHelper.isODataIEEE754Compatible(contentType);
         isODataMetadataNone = ContentTypeHelper.isODataMetadataNone(contentType);
         isODataMetadataFull = ContentTypeHelper.isODataMetadataFull(contentType);
@@ -134,7 +170,7 @@ public class SensorThingsSerializer extends AbstractODataSerializer {
         try {
             CircleStreamBuffer buffer = new CircleStreamBuffer();
             outputStream = buffer.getOutputStream();
-            JsonGenerator json = new JsonFactory().createGenerator(outputStream);
+            JsonGenerator json = jsonFactory.createGenerator(outputStream);
             new SensorThingsServiceDocumentSerializer(metadata, serviceRoot, isODataMetadataNone).writeServiceDocument(json);
 
             json.close();
@@ -162,7 +198,7 @@ public class SensorThingsSerializer extends AbstractODataSerializer {
         try {
             CircleStreamBuffer buffer = new CircleStreamBuffer();
             outputStream = buffer.getOutputStream();
-            JsonGenerator json = new JsonFactory().createGenerator(outputStream);
+            JsonGenerator json = jsonFactory.createGenerator(outputStream);
             new ODataErrorSerializer().writeErrorDocument(json, error);
 
             json.close();
@@ -181,13 +217,17 @@ public class SensorThingsSerializer extends AbstractODataSerializer {
     public SerializerResult entityCollection(final ServiceMetadata metadata,
             final EdmEntityType entityType, final AbstractEntityCollection entitySet,
             final EntityCollectionSerializerOptions options) throws SerializerException {
-        OutputStream outputStream = null;
-        SerializerException cachedException = null;
+        return buffered(outputStream -> entityCollectionIntoStream(metadata, entityType, entitySet, options,
+                outputStream));
+    }
+
+    public void entityCollectionIntoStream(final ServiceMetadata metadata,
+            final EdmEntityType entityType, final AbstractEntityCollection entitySet,
+            final EntityCollectionSerializerOptions options, final OutputStream outputStream)
+            throws SerializerException {
         boolean pagination = false;
         try {
-            CircleStreamBuffer buffer = new CircleStreamBuffer();
-            outputStream = buffer.getOutputStream();
-            JsonGenerator json = new JsonFactory().createGenerator(outputStream);
+            JsonGenerator json = jsonFactory.createGenerator(outputStream);
             json.writeStartObject();
 
             final ContextURL contextURL = checkContextURL(options == null ? null : options.getContextURL());
@@ -211,14 +251,8 @@ public class SensorThingsSerializer extends AbstractODataSerializer {
             writeDeltaLink(entitySet, json, pagination);
 
             json.close();
-            outputStream.close();
-            return SerializerResultImpl.with().content(buffer.getInputStream()).build();
         } catch (final IOException e) {
-            cachedException
-                    = new SerializerException(IO_EXCEPTION_TEXT, e, SerializerException.MessageKeys.IO_EXCEPTION);
-            throw cachedException;
-        } finally {
-            closeCircleStreamBufferOutput(outputStream, cachedException);
+            throw new SerializerException(IO_EXCEPTION_TEXT, e, SerializerException.MessageKeys.IO_EXCEPTION);
         }
     }
 
@@ -237,7 +271,7 @@ public class SensorThingsSerializer extends AbstractODataSerializer {
         SerializerException cachedException;
         boolean pagination = false;
         try {
-            JsonGenerator json = new JsonFactory().createGenerator(outputStream);
+            JsonGenerator json = jsonFactory.createGenerator(outputStream);
             json.writeStartObject();
 
             final ContextURL contextURL = checkContextURL(options == null ? null : options.getContextURL());
@@ -270,13 +304,15 @@ public class SensorThingsSerializer extends AbstractODataSerializer {
     @Override
     public SerializerResult entity(final ServiceMetadata metadata, final EdmEntityType entityType,
             final Entity entity, final EntitySerializerOptions options) throws SerializerException {
-        OutputStream outputStream = null;
-        SerializerException cachedException = null;
+        return buffered(outputStream -> entityIntoStream(metadata, entityType, entity, options, outputStream));
+    }
+
+    public void entityIntoStream(final ServiceMetadata metadata, final EdmEntityType entityType,
+            final Entity entity, final EntitySerializerOptions options, final OutputStream outputStream)
+            throws SerializerException {
         try {
             final ContextURL contextURL = checkContextURL(options == null ? null : options.getContextURL());
-            CircleStreamBuffer buffer = new CircleStreamBuffer();
-            outputStream = buffer.getOutputStream();
-            JsonGenerator json = new JsonFactory().createGenerator(outputStream);
+            JsonGenerator json = jsonFactory.createGenerator(outputStream);
             String name = contextURL == null ? null : contextURL.getEntitySetOrSingletonOrType();
             writeEntity(metadata, entityType, entity, contextURL,
                     options == null ? null : options.getExpand(),
@@ -287,8 +323,34 @@ public class SensorThingsSerializer extends AbstractODataSerializer {
                     json);
 
             json.close();
+        } catch (final IOException e) {
+            throw new SerializerException(IO_EXCEPTION_TEXT, e, SerializerException.MessageKeys.IO_EXCEPTION);
+        }
+    }
+
+    /**
+     * Writes a document into a {@link CircleStreamBuffer} to return it as
+     * {@link SerializerResult}. Responses are written by the
+     * <code>...IntoStream</code> methods directly to the response stream, see
+     * {@link ResponseBufferPool}.
+     *
+     * @param writer
+     *            the writer of the document
+     * @return the serialized document
+     * @throws SerializerException
+     *             if the document could not be written
+     */
+    private SerializerResult buffered(ContentWriter writer) throws SerializerException {
+        CircleStreamBuffer buffer = new CircleStreamBuffer();
+        OutputStream outputStream = buffer.getOutputStream();
+        SerializerException cachedException = null;
+        try {
+            writer.write(outputStream);
             outputStream.close();
             return SerializerResultImpl.with().content(buffer.getInputStream()).build();
+        } catch (final SerializerException e) {
+            cachedException = e;
+            throw cachedException;
         } catch (final IOException e) {
             cachedException
                     = new SerializerException(IO_EXCEPTION_TEXT, e, SerializerException.MessageKeys.IO_EXCEPTION);
@@ -496,6 +558,17 @@ public class SensorThingsSerializer extends AbstractODataSerializer {
         final boolean all = ExpandSelectHelper.isAll(select);
         final Set<String> selected = all ? new HashSet<String>()
                 : ExpandSelectHelper.getSelectedPropertyNames(select.getSelectItems());
+        if (compiledWriters) {
+            final PropertyWriterPlan plan = PropertyWriterPlan.of(type, all ? null : selected);
+            for (int i = 0; i < plan.size(); i++) {
+                final EdmProperty edmProperty = plan.getProperty(i);
+                final Set<List<String>> selectedPaths = all || edmProperty.isPrimitive() ? null
+                        : ExpandSelectHelper.getSelectedPaths(select.getSelectItems(), edmProperty.getName());
+                writeProperty(metadata, edmProperty, plan.getName(i), plan.findValue(i, properties), selectedPaths,
+                        json);
+            }
+            return;
+        }
         for (final String propertyName : type.getPropertyNames()) {
             if (all || selected.contains(propertyName)) {
                 final EdmProperty edmProperty = type.getStructuralProperty(propertyName);
@@ -615,10 +688,21 @@ public class SensorThingsSerializer extends AbstractODataSerializer {
             final EdmProperty edmProperty, final Property property,
             final Set<List<String>> selectedPaths, final JsonGenerator json)
             throws IOException, SerializerException {
+        writeProperty(metadata, edmProperty, null, property, selectedPaths, json);
+    }
+
+    private void writeProperty(final ServiceMetadata metadata,
+            final EdmProperty edmProperty, final SerializableString encodedName, final Property property,
+            final Set<List<String>> selectedPaths, final JsonGenerator json)
+            throws IOException, SerializerException {
         boolean isStreamProperty = isStreamProperty(edmProperty);
         writePropertyType(edmProperty, json);
         if (!isStreamProperty) {
-            json.writeFieldName(edmProperty.getName());
+            if (encodedName != null) {
+                json.writeFieldName(encodedName);
+            } else {
+                json.writeFieldName(edmProperty.getName());
+            }
         }
         if (property == null || property.isNull()) {
             if (edmProperty.isNullable() == Boolean.FALSE) {
@@ -767,7 +851,12 @@ public class SensorThingsSerializer extends AbstractODataSerializer {
     private void writeOpenTypeComplexValue(Property property, JsonGenerator json) throws SerializerException, IOException {
         if (property.getValue() instanceof ObjectNode) {
             ObjectNode value = (ObjectNode) property.getValue();
-            json.writeRawValue(value.toString());
+            if (jsonFactory.canHandleBinaryNatively()) {
+                // binary encodings can not embed raw JSON text
+                TREE_MAPPER.writeTree(json, value);
+            } else {
+                json.writeRawValue(value.toString());
+            }
         } else {
             throw new SerializerException("Property type value not yet supported!",
                     SerializerException.MessageKeys.UNSUPPORTED_PROPERTY_TYPE, property.getName());
@@ -1001,6 +1090,14 @@ public class SensorThingsSerializer extends AbstractODataSerializer {
             final Set<List<String>> selectedPaths, final JsonGenerator json)
             throws IOException, SerializerException {
 
+        if (compiledWriters && selectedPaths == null) {
+            final PropertyWriterPlan plan = PropertyWriterPlan.of(type, null);
+            for (int i = 0; i < plan.size(); i++) {
+                writeProperty(metadata, plan.getProperty(i), plan.getName(i), plan.findValue(i, properties), null,
+                        json);
+            }
+            return;
+        }
         for (final String propertyName : type.getPropertyNames()) {
             final Property property = findProperty(propertyName, properties);
             if (selectedPaths == null || ExpandSelectHelper.isSelected(selectedPaths, propertyName)) {
@@ -1023,13 +1120,15 @@ public class SensorThingsSerializer extends AbstractODataSerializer {
     @Override
     public SerializerResult primitive(final ServiceMetadata metadata, final EdmPrimitiveType type,
             final Property property, final PrimitiveSerializerOptions options) throws SerializerException {
-        OutputStream outputStream = null;
-        SerializerException cachedException = null;
+        return buffered(outputStream -> primitiveIntoStream(metadata, type, property, options, outputStream));
+    }
+
+    public void primitiveIntoStream(final ServiceMetadata metadata, final EdmPrimitiveType type,
+            final Property property, final PrimitiveSerializerOptions options, final OutputStream outputStream)
+            throws SerializerException {
         try {
             final ContextURL contextURL = checkContextURL(options == null ? null : options.getContextURL());
-            CircleStreamBuffer buffer = new CircleStreamBuffer();
-            outputStream = buffer.getOutputStream();
-            JsonGenerator json = new JsonFactory().createGenerator(outputStream);
+            JsonGenerator json = jsonFactory.createGenerator(outputStream);
             json.writeStartObject();
             writeContextURL(contextURL, json);
             writeMetadataETag(metadata, json);
@@ -1048,33 +1147,28 @@ public class SensorThingsSerializer extends AbstractODataSerializer {
             json.writeEndObject();
 
             json.close();
-            outputStream.close();
-            return SerializerResultImpl.with().content(buffer.getInputStream()).build();
         } catch (final IOException e) {
-            cachedException
-                    = new SerializerException(IO_EXCEPTION_TEXT, e, SerializerException.MessageKeys.IO_EXCEPTION);
-            throw cachedException;
+            throw new SerializerException(IO_EXCEPTION_TEXT, e, SerializerException.MessageKeys.IO_EXCEPTION);
         } catch (final EdmPrimitiveTypeException e) {
-            cachedException = new SerializerException("Wrong value for property!", e,
+            throw new SerializerException("Wrong value for property!", e,
                     SerializerException.MessageKeys.WRONG_PROPERTY_VALUE,
                     property.getName(), property.getValue().toString());
-            throw cachedException;
-        } finally {
-            closeCircleStreamBufferOutput(outputStream, cachedException);
         }
     }
 
     public SerializerResult complexValue(final ServiceMetadata metadata, final EdmComplexType type,
             final Property property, final ComplexSerializerOptions options) throws SerializerException {
-        OutputStream outputStream = null;
-        SerializerException cachedException = null;
+        return buffered(outputStream -> complexValueIntoStream(metadata, type, property, options, outputStream));
+    }
+
+    public void complexValueIntoStream(final ServiceMetadata metadata, final EdmComplexType type,
+            final Property property, final ComplexSerializerOptions options, final OutputStream outputStream)
+            throws SerializerException {
         try {
             final ContextURL contextURL = checkContextURL(options == null ? null : options.getContextURL());
             final String name = contextURL == null ? null
                     : contextURL.getEntitySetOrSingletonOrType();
-            CircleStreamBuffer buffer = new CircleStreamBuffer();
-            outputStream = buffer.getOutputStream();
-            JsonGenerator json = new JsonFactory().createGenerator(outputStream);
+            JsonGenerator json = jsonFactory.createGenerator(outputStream);
 
             if (((EdmComplexType) type).isOpenType()
                     && (((EdmComplexType) type).getPropertyNames() == null
@@ -1117,29 +1211,25 @@ public class SensorThingsSerializer extends AbstractODataSerializer {
             }
 
             json.close();
-            outputStream.close();
-            return SerializerResultImpl.with().content(buffer.getInputStream()).build();
         } catch (final IOException e) {
-            cachedException
-                    = new SerializerException(IO_EXCEPTION_TEXT, e, SerializerException.MessageKeys.IO_EXCEPTION);
-            throw cachedException;
-        } finally {
-            closeCircleStreamBufferOutput(outputStream, cachedException);
+            throw new SerializerException(IO_EXCEPTION_TEXT, e, SerializerException.MessageKeys.IO_EXCEPTION);
         }
     }
 
     @Override
     public SerializerResult complex(final ServiceMetadata metadata, final EdmComplexType type,
             final Property property, final ComplexSerializerOptions options) throws SerializerException {
-        OutputStream outputStream = null;
-        SerializerException cachedException = null;
+        return buffered(outputStream -> complexIntoStream(metadata, type, property, options, outputStream));
+    }
+
+    public void complexIntoStream(final ServiceMetadata metadata, final EdmComplexType type,
+            final Property property, final ComplexSerializerOptions options, final OutputStream outputStream)
+            throws SerializerException {
         try {
             final ContextURL contextURL = checkContextURL(options == null ? null : options.getContextURL());
             final String name = contextURL == null ? null
                     : contextURL.getEntitySetOrSingletonOrType();
-            CircleStreamBuffer buffer = new CircleStreamBuffer();
-            outputStream = buffer.getOutputStream();
-            JsonGenerator json = new JsonFactory().createGenerator(outputStream);
+            JsonGenerator json = jsonFactory.createGenerator(outputStream);
 
             json.writeStartObject();
             writeContextURL(contextURL, json);
@@ -1186,14 +1276,8 @@ public class SensorThingsSerializer extends AbstractODataSerializer {
             json.writeEndObject();
 
             json.close();
-            outputStream.close();
-            return SerializerResultImpl.with().content(buffer.getInputStream()).build();
         } catch (final IOException e) {
-            cachedException
-                    = new SerializerException(IO_EXCEPTION_TEXT, e, SerializerException.MessageKeys.IO_EXCEPTION);
-            throw cachedException;
-        } finally {
-            closeCircleStreamBufferOutput(outputStream, cachedException);
+            throw new SerializerException(IO_EXCEPTION_TEXT, e, SerializerException.MessageKeys.IO_EXCEPTION);
         }
     }
 
@@ -1206,7 +1290,7 @@ public class SensorThingsSerializer extends AbstractODataSerializer {
             final ContextURL contextURL = checkContextURL(options == null ? null : options.getContextURL());
             CircleStreamBuffer buffer = new CircleStreamBuffer();
             outputStream = buffer.getOutputStream();
-            JsonGenerator json = new JsonFactory().createGenerator(outputStream);
+            JsonGenerator json = jsonFactory.createGenerator(outputStream);
             json.writeStartObject();
             writeContextURL(contextURL, json);
             writeMetadataETag(metadata, json);
@@ -1244,7 +1328,7 @@ public class SensorThingsSerializer extends AbstractODataSerializer {
             final ContextURL contextURL = checkContextURL(options == null ? null : options.getContextURL());
             CircleStreamBuffer buffer = new CircleStreamBuffer();
             outputStream = buffer.getOutputStream();
-            JsonGenerator json = new JsonFactory().createGenerator(outputStream);
+            JsonGenerator json = jsonFactory.createGenerator(outputStream);
             json.writeStartObject();
             writeContextURL(contextURL, json);
             writeMetadataETag(metadata, json);
@@ -1272,48 +1356,21 @@ public class SensorThingsSerializer extends AbstractODataSerializer {
     @Override
     public SerializerResult reference(final ServiceMetadata metadata, final EdmEntitySet edmEntitySet,
             final Entity entity, final ReferenceSerializerOptions options) throws SerializerException {
-        OutputStream outputStream = null;
-        SerializerException cachedException = null;
-
-        try {
-            final ContextURL contextURL = checkContextURL(options == null ? null : options.getContextURL());
-            CircleStreamBuffer buffer = new CircleStreamBuffer();
-            final UriHelper uriHelper = new UriHelperImpl();
-            outputStream = buffer.getOutputStream();
-            final JsonGenerator json = new JsonFactory().createGenerator(outputStream);
-
+        final ContextURL contextURL = checkContextURL(options == null ? null : options.getContextURL());
+        return buffered(outputStream -> writeJson(outputStream, json -> {
             json.writeStartObject();
             writeContextURL(contextURL, json);
-//            json.writeStringField(Constants.JSON_ID, uriHelper.buildCanonicalURL(edmEntitySet, entity));
             json.writeStringField(SELF_LINK_ANNOTATION, String.valueOf(entity.getProperty(SELF_LINK_ANNOTATION).getValue()));
             json.writeEndObject();
-
-            json.close();
-            outputStream.close();
-            return SerializerResultImpl.with().content(buffer.getInputStream()).build();
-        } catch (final IOException e) {
-            cachedException
-                    = new SerializerException(IO_EXCEPTION_TEXT, e, SerializerException.MessageKeys.IO_EXCEPTION);
-            throw cachedException;
-        } finally {
-            closeCircleStreamBufferOutput(outputStream, cachedException);
-        }
+        }));
     }
 
     @Override
     public SerializerResult referenceCollection(final ServiceMetadata metadata, final EdmEntitySet edmEntitySet,
             final AbstractEntityCollection entityCollection, final ReferenceCollectionSerializerOptions options)
             throws SerializerException {
-        OutputStream outputStream = null;
-        SerializerException cachedException = null;
-        boolean pagination = false;
-
-        try {
-            final ContextURL contextURL = checkContextURL(options == null ? null : options.getContextURL());
-            CircleStreamBuffer buffer = new CircleStreamBuffer();
-            final UriHelper uriHelper = new UriHelperImpl();
-            outputStream = buffer.getOutputStream();
-            final JsonGenerator json = new JsonFactory().createGenerator(outputStream);
+        final ContextURL contextURL = checkContextURL(options == null ? null : options.getContextURL());
+        return buffered(outputStream -> writeJson(outputStream, json -> {
             json.writeStartObject();
 
             writeContextURL(contextURL, json);
@@ -1324,28 +1381,137 @@ public class SensorThingsSerializer extends AbstractODataSerializer {
             json.writeArrayFieldStart(Constants.VALUE);
             for (final Entity entity : entityCollection) {
                 json.writeStartObject();
-//                json.writeStringField(Constants.JSON_ID, uriHelper.buildCanonicalURL(edmEntitySet, entity));
-                uriHelper.buildCanonicalURL(edmEntitySet, entity);
                 json.writeStringField(SELF_LINK_ANNOTATION, String.valueOf(entity.getProperty(SELF_LINK_ANNOTATION).getValue()));
                 json.writeEndObject();
             }
             json.writeEndArray();
 
-            writeNextLink(entityCollection, json, pagination);
+            writeNextLink(entityCollection, json, false);
 
             json.writeEndObject();
+        }));
+    }
 
-            json.close();
-            outputStream.close();
-            return SerializerResultImpl.with().content(buffer.getInputStream()).build();
+    /**
+     * Serializes the reference of an entity that is only known by its ID
+     *
+     * @param edmEntitySet
+     *            the entity set of the referenced entity
+     * @param id
+     *            the ID of the referenced entity
+     * @param baseUri
+     *            the base URI of the service to build the self link
+     * @param options
+     *            the serializer options
+     * @return the serialized reference
+     * @throws SerializerException
+     *             if the reference could not be written
+     */
+    public SerializerResult reference(final EdmEntitySet edmEntitySet, final long id, final String baseUri,
+            final ReferenceSerializerOptions options) throws SerializerException {
+        return buffered(outputStream -> referenceIntoStream(edmEntitySet, id, baseUri, options, outputStream));
+    }
+
+    /**
+     * Writes the reference of an entity that is only known by its ID to the
+     * given stream
+     *
+     * @see #reference(EdmEntitySet, long, String, ReferenceSerializerOptions)
+     */
+    public void referenceIntoStream(final EdmEntitySet edmEntitySet, final long id, final String baseUri,
+            final ReferenceSerializerOptions options, final OutputStream outputStream)
+            throws SerializerException {
+        final ContextURL contextURL = checkContextURL(options == null ? null : options.getContextURL());
+        writeJson(outputStream, json -> {
+            json.writeStartObject();
+            writeContextURL(contextURL, json);
+            json.writeStringField(SELF_LINK_ANNOTATION, createSelfLinkPrefix(baseUri, edmEntitySet) + id + ")");
+            json.writeEndObject();
+        });
+    }
+
+    /**
+     * Serializes the references of entities that are only known by their IDs
+     *
+     * @param edmEntitySet
+     *            the entity set of the referenced entities
+     * @param ids
+     *            the IDs of the referenced entities
+     * @param count
+     *            the total count of the references, may be <code>null</code>
+     * @param next
+     *            the link to the next page, may be <code>null</code>
+     * @param baseUri
+     *            the base URI of the service to build the self links
+     * @param options
+     *            the serializer options
+     * @return the serialized references
+     * @throws SerializerException
+     *             if the references could not be written
+     */
+    public SerializerResult referenceCollection(final EdmEntitySet edmEntitySet, final long[] ids,
+            final Integer count, final URI next, final String baseUri,
+            final ReferenceCollectionSerializerOptions options) throws SerializerException {
+        return buffered(outputStream -> referenceCollectionIntoStream(edmEntitySet, ids, count, next, baseUri,
+                options, outputStream));
+    }
+
+    /**
+     * Writes the references of entities that are only known by their IDs to
+     * the given stream
+     *
+     * @see #referenceCollection(EdmEntitySet, long[], Integer, URI, String,
+     *      ReferenceCollectionSerializerOptions)
+     */
+    public void referenceCollectionIntoStream(final EdmEntitySet edmEntitySet, final long[] ids,
+            final Integer count, final URI next, final String baseUri,
+            final ReferenceCollectionSerializerOptions options, final OutputStream outputStream)
+            throws SerializerException {
+        final ContextURL contextURL = checkContextURL(options == null ? null : options.getContextURL());
+        writeJson(outputStream, json -> {
+            json.writeStartObject();
+            writeContextURL(contextURL, json);
+            writeInlineCount("", count, json);
+
+            // the self links only differ in the ID, so the prefix is built once
+            String prefix = createSelfLinkPrefix(baseUri, edmEntitySet);
+            json.writeArrayFieldStart(Constants.VALUE);
+            for (final long id : ids) {
+                json.writeStartObject();
+                json.writeStringField(SELF_LINK_ANNOTATION, prefix + id + ")");
+                json.writeEndObject();
+            }
+            json.writeEndArray();
+
+            if (next != null) {
+                json.writeStringField(replaceOdataIot(Constants.JSON_NEXT_LINK), next.toASCIIString());
+            }
+
+            json.writeEndObject();
+        });
+    }
+
+    /**
+     * Writes a JSON document with a generator of the shared factory to the
+     * given stream
+     *
+     * @param outputStream
+     *            the target stream
+     * @param writer
+     *            the writer of the document
+     * @throws SerializerException
+     *             if the document could not be written
+     */
+    private void writeJson(OutputStream outputStream, JsonDocumentWriter writer) throws SerializerException {
+        try (JsonGenerator json = jsonFactory.createGenerator(outputStream)) {
+            writer.write(json);
         } catch (final IOException e) {
-            cachedException
-                    = new SerializerException(IO_EXCEPTION_TEXT, e, SerializerException.MessageKeys.IO_EXCEPTION);
-            throw cachedException;
-        } finally {
-            closeCircleStreamBufferOutput(outputStream, cachedException);
+            throw new SerializerException(IO_EXCEPTION_TEXT, e, SerializerException.MessageKeys.IO_EXCEPTION);
         }
+    }
 
+    private String createSelfLinkPrefix(String baseUri, EdmEntitySet edmEntitySet) {
+        return String.join("/", baseUri, edmEntitySet.getName()) + "(";
     }
 
     void writeContextURL(final ContextURL contextURL, final JsonGenerator json) throws IOException {
@@ -1395,4 +1561,15 @@ public class SensorThingsSerializer extends AbstractODataSerializer {
     private String replaceOdataIot(String s) {
         return s.replace("odata", "iot");
     }
+
+    /**
+     * Writes the content of a JSON document
+     */
+    @FunctionalInterface
+    private interface JsonDocumentWriter {
+
+        void write(JsonGenerator json) throws IOException, SerializerException;
+
+    }
+
 }
@@ -12,6 +12,8 @@ import org.apache.olingo.commons.api.edm.EdmEntityType;
 import org.apache.olingo.commons.api.edm.EdmNavigationProperty;
 import static org.n52.sta.edm.provider.entities.AbstractSensorThingsEntityProvider.NAVIGATION_LINK_ANNOTATION;
 import static org.n52.sta.edm.provider.entities.AbstractSensorThingsEntityProvider.SELF_LINK_ANNOTATION;
+import org.n52.sta.metrics.PipelineMetrics;
+import org.n52.sta.metrics.PipelineStage;
 import org.springframework.stereotype.Component;
 
 /**
@@ -31,6 +33,15 @@ public class EntityAnnotator {
      * @return the annotated Entity
      */
     public Entity annotateEntity(Entity entity, EdmEntityType entityType, String baseUri) {
+        PipelineMetrics.enter(PipelineStage.ANNOTATION);
+        try {
+            return addAnnotations(entity, entityType, baseUri);
+        } finally {
+            PipelineMetrics.exit();
+        }
+    }
+
+    private Entity addAnnotations(Entity entity, EdmEntityType entityType, String baseUri) {
         String selfLink = String.join("/", baseUri, entity.getId().getPath());
         entity.addProperty(new Property(null, SELF_LINK_ANNOTATION, ValueType.PRIMITIVE, selfLink));
 
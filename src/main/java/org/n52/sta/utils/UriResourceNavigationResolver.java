@@ -20,6 +20,9 @@ import org.apache.olingo.server.api.uri.UriResource;
 import org.apache.olingo.server.api.uri.UriResourceEntitySet;
 import org.apache.olingo.server.api.uri.UriResourceNavigation;
 import org.n52.sta.data.service.EntityServiceRepository;
+import org.n52.sta.data.service.MissingEntityCache;
+import org.n52.sta.metrics.PipelineMetrics;
+import org.n52.sta.metrics.PipelineStage;
 import org.springframework.beans.factory.annotation.Autowired;
 import org.springframework.stereotype.Component;
 
@@ -34,6 +37,9 @@ public class UriResourceNavigationResolver {
     @Autowired
     private EntityServiceRepository serviceRepository;
 
+    @Autowired
+    private MissingEntityCache missingEntityCache;
+
     /**
      * Resolves the root URI resource as UriResourceEntitySet
      *
@@ -61,6 +67,15 @@ public class UriResourceNavigationResolver {
      * @throws ODataApplicationException
      */
     public EntityQueryParams resolveUriResourceNavigationPaths(List<UriResource> navigationResourcePaths) throws ODataApplicationException {
+        PipelineMetrics.enter(PipelineStage.NAVIGATION);
+        try {
+            return resolveNavigationPaths(navigationResourcePaths);
+        } finally {
+            PipelineMetrics.exit();
+        }
+    }
+
+    private EntityQueryParams resolveNavigationPaths(List<UriResource> navigationResourcePaths) throws ODataApplicationException {
         UriResourceEntitySet uriResourceEntitySet = resolveRootUriResource(navigationResourcePaths.get(0));
         EdmEntitySet targetEntitySet = uriResourceEntitySet.getEntitySet();
 
@@ -68,8 +83,9 @@ public class UriResourceNavigationResolver {
         EdmEntityType sourceEntityType = uriResourceEntitySet.getEntityType();
 
         Long sourceEntityId = getEntityIdFromKeyParams(sourceKeyPredicates);
-        boolean entityExists = serviceRepository.getEntityService(uriResourceEntitySet.getEntityType().getName())
-                .existsEntity(sourceEntityId);
+        String sourceEntityTypeName = uriResourceEntitySet.getEntityType().getName();
+        boolean entityExists = missingEntityCache.exists(sourceEntityTypeName, sourceEntityId,
+                () -> serviceRepository.getEntityService(sourceEntityTypeName).existsEntity(sourceEntityId));
 
         if (!entityExists) {
             throw new ODataApplicationException("Entity not found.",
@@ -0,0 +1,67 @@
+--
+-- Converts the observation table into a table partitioned by the month of the
+-- phenomenonTime start (PostgreSQL 11 or later). Run it in a maintenance
+-- window with the application stopped, then set
+--
+--   database.partitioning.enabled: true
+--   spring.jpa.properties.hibernate.hbm2ddl.auto: validate
+--
+-- and the application creates the partitions of the coming months itself.
+--
+-- Primary keys of partitioned tables have to contain the partition key, so the
+-- key becomes (observation_id, sampling_time_start) and sampling_time_start has
+-- to be set for every observation. Other unique indexes are not copied for the
+-- same reason. The check constraints, the remaining indexes (e.g. on
+-- dataset_id) and the foreign keys of the table are recreated. Foreign keys
+-- referencing the observation table (e.g. of the observation parameters) are
+-- not supported by PostgreSQL 11 and have to be dropped before.
+--
+DO $$
+DECLARE
+    tbl     text := 'observation';
+    id_col  text := 'observation_id';
+    col     text := 'sampling_time_start';
+    old     text := tbl || '_unpartitioned';
+    first   date;
+    month   date;
+    def     record;
+BEGIN
+    EXECUTE format('ALTER TABLE %I RENAME TO %I', tbl, old);
+    EXECUTE format('CREATE TABLE %I (LIKE %I INCLUDING DEFAULTS INCLUDING CONSTRAINTS INCLUDING STORAGE'
+                   ' INCLUDING COMMENTS) PARTITION BY RANGE (%I)', tbl, old, col);
+    EXECUTE format('ALTER TABLE %I ALTER COLUMN %I SET NOT NULL', tbl, col);
+    EXECUTE format('ALTER TABLE %I ADD PRIMARY KEY (%I, %I)', tbl, id_col, col);
+    -- rows of months without a partition, e.g. far in the future
+    EXECUTE format('CREATE TABLE %I PARTITION OF %I DEFAULT', tbl || '_default', tbl);
+
+    EXECUTE format('SELECT date_trunc(''month'', min(%I))::date FROM %I', col, old) INTO first;
+    month := coalesce(first, date_trunc('month', now())::date);
+    WHILE month <= date_trunc('month', now())::date LOOP
+        EXECUTE format('CREATE TABLE %I PARTITION OF %I FOR VALUES FROM (%L) TO (%L)',
+                       tbl || to_char(month, '"_p"YYYY_MM'), tbl, month, (month + interval '1 month')::date);
+        month := (month + interval '1 month')::date;
+    END LOOP;
+
+    EXECUTE format('INSERT INTO %I SELECT * FROM %I', tbl, old);
+
+    -- BRIN keeps the time index small as observations are appended in time order
+    EXECUTE format('CREATE INDEX %I ON %I USING brin (%I)', tbl || '_time_brin', tbl, col);
+    EXECUTE format('CREATE INDEX %I ON %I (%I)', tbl || '_id_idx', tbl, id_col);
+
+    FOR def IN SELECT pg_get_indexdef(i.indexrelid) AS ddl, i.indisunique AS is_unique
+               FROM pg_index i WHERE i.indrelid = old::regclass AND NOT i.indisprimary LOOP
+        IF def.is_unique THEN
+            RAISE NOTICE 'Unique index not copied: %', def.ddl;
+        ELSE
+            EXECUTE format('CREATE INDEX ON %I %s', tbl, substring(def.ddl FROM ' USING .*$'));
+        END IF;
+    END LOOP;
+    FOR def IN SELECT c.conname AS name, pg_get_constraintdef(c.oid) AS ddl
+               FROM pg_constraint c WHERE c.conrelid = old::regclass AND c.contype = 'f' LOOP
+        EXECUTE format('ALTER TABLE %I ADD CONSTRAINT %I %s', tbl, def.name, def.ddl);
+    END LOOP;
+END
+$$;
+
+-- Check the data before removing the old table:
+-- DROP TABLE observation_unpartitioned;
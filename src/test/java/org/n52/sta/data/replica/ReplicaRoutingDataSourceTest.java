@@ -0,0 +1,193 @@
+/*
+ * Copyright (C) 2012-2018 52°North Initiative for Geospatial Open Source
+ * Software GmbH
+ *
+ * This program is free software; you can redistribute it and/or modify it
+ * under the terms of the GNU General Public License version 2 as published
+ * by the Free Software Foundation.
+ *
+ * If the program is linked with libraries which are licensed under one of
+ * the following licenses, the combination of the program with the linked
+ * library is not considered a "derivative work" of the program:
+ *
+ *     - Apache License, version 2.0
+ *     - Apache Software License, version 1.0
+ *     - GNU Lesser General Public License, version 3
+ *     - Mozilla Public License, versions 1.0, 1.1 and 2.0
+ *     - Common Development and Distribution License (CDDL), version 1.0
+ *
+ * Therefore the distribution of the program linked with libraries licensed
+ * under the aforementioned licenses, is permitted by the copyright holders
+ * if the distribution is compliant with both the GNU General Public
+ * License version 2 and the aforementioned licenses.
+ *
+ * This program is distributed in the hope that it will be useful, but
+ * WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the GNU General
+ * Public License for more details.
+ */
+package org.n52.sta.data.replica;
+
+import static org.hamcrest.core.Is.is;
+import static org.junit.Assert.assertThat;
+
+import java.sql.Connection;
+import java.sql.ResultSet;
+import java.sql.SQLException;
+import java.sql.Statement;
+import java.util.LinkedHashMap;
+import java.util.Map;
+
+import javax.sql.DataSource;
+
+import org.h2.jdbcx.JdbcDataSource;
+import org.junit.Before;
+import org.junit.Test;
+import org.n52.sta.data.replica.ReplicaRoutingDataSource.Selection;
+import org.springframework.jdbc.core.JdbcTemplate;
+import org.springframework.jdbc.datasource.DataSourceTransactionManager;
+import org.springframework.transaction.support.TransactionSynchronizationManager;
+import org.springframework.transaction.support.TransactionTemplate;
+
+/**
+ * Routes between embedded databases standing in for the primary and two
+ * replicas, each of them knows its own name.
+ *
+ * @since 1.0.0
+ */
+public class ReplicaRoutingDataSourceTest {
+
+    private static final String LAG_QUERY = "SELECT lag FROM replication";
+
+    private static final long MAX_LAG = 1000;
+
+    private ReplicaRoutingDataSource routing;
+
+    private JdbcTemplate jdbc;
+
+    private TransactionTemplate readOnly;
+
+    private TransactionTemplate readWrite;
+
+    @Before
+    public void setUp() {
+        Map<String, DataSource> replicas = new LinkedHashMap<>();
+        replicas.put("replica1", createDatabase("replica1"));
+        replicas.put("replica2", createDatabase("replica2"));
+        routing = new ReplicaRoutingDataSource(createDatabase("primary"), replicas, Selection.ROUND_ROBIN);
+        DataSource dataSource = routing.lazy();
+        jdbc = new JdbcTemplate(dataSource);
+        DataSourceTransactionManager transactionManager = new DataSourceTransactionManager(dataSource);
+        readOnly = new TransactionTemplate(transactionManager);
+        readOnly.setReadOnly(true);
+        readWrite = new TransactionTemplate(transactionManager);
+        routing.checkLag(LAG_QUERY, MAX_LAG);
+    }
+
+    @Test
+    public void test_read_only_transactions_alternate_between_replicas() {
+        assertThat(read(), is("replica1"));
+        assertThat(read(), is("replica2"));
+        assertThat(read(), is("replica1"));
+    }
+
+    @Test
+    public void test_writes_go_to_primary() {
+        assertThat(readWrite.execute(status -> name()), is("primary"));
+    }
+
+    @Test
+    public void test_pinned_reads_go_to_primary() {
+        assertThat(ReplicaRoutingDataSource.onPrimary(this::read), is("primary"));
+        assertThat(read(), is("replica1"));
+    }
+
+    @Test
+    public void test_pinned_writes_are_read_from_replicas_that_replayed_them() {
+        routing.pin(60000);
+        assertThat(read(), is("primary"));
+
+        setLag("replica1", MAX_LAG / 2);
+        routing.checkLag(LAG_QUERY, MAX_LAG);
+        assertThat(read(), is("replica2"));
+        assertThat(read(), is("replica2"));
+    }
+
+    @Test
+    public void test_lagging_replica_is_ejected() {
+        setLag("replica1", MAX_LAG + 1);
+        routing.checkLag(LAG_QUERY, MAX_LAG);
+        assertThat(read(), is("replica2"));
+        assertThat(read(), is("replica2"));
+
+        setLag("replica1", 0);
+        routing.checkLag(LAG_QUERY, MAX_LAG);
+        assertThat(read(), is("replica1"));
+    }
+
+    @Test
+    public void test_primary_is_used_without_available_replica() {
+        setLag("replica1", MAX_LAG + 1);
+        setLag("replica2", MAX_LAG + 1);
+        routing.checkLag(LAG_QUERY, MAX_LAG);
+        assertThat(read(), is("primary"));
+    }
+
+    @Test
+    public void test_least_loaded_replica_is_selected() throws SQLException {
+        Map<String, DataSource> replicas = new LinkedHashMap<>();
+        routing.getReplicas().forEach(replica -> replicas.put(replica.getName(), replica.getDataSource()));
+        routing = new ReplicaRoutingDataSource(createDatabase("primary"), replicas, Selection.LEAST_LOADED);
+        routing.checkLag(LAG_QUERY, MAX_LAG);
+
+        TransactionSynchronizationManager.setCurrentTransactionReadOnly(true);
+        try {
+            try (Connection first = routing.getConnection(); Connection second = routing.getConnection()) {
+                assertThat(name(first), is("replica1"));
+                assertThat(name(second), is("replica2"));
+            }
+            assertThat(routing.getReplicas().get(0).getActiveConnections(), is(0));
+            try (Connection third = routing.getConnection()) {
+                assertThat(name(third), is("replica1"));
+            }
+        } finally {
+            TransactionSynchronizationManager.setCurrentTransactionReadOnly(false);
+        }
+    }
+
+    private String read() {
+        return readOnly.execute(status -> name());
+    }
+
+    private String name() {
+        return jdbc.queryForObject("SELECT name FROM node", String.class);
+    }
+
+    private String name(Connection connection) throws SQLException {
+        try (Statement statement = connection.createStatement();
+                ResultSet result = statement.executeQuery("SELECT name FROM node")) {
+            result.next();
+            return result.getString(1);
+        }
+    }
+
+    private void setLag(String replica, long lag) {
+        routing.getReplicas().stream()
+                .filter(r -> r.getName().equals(replica))
+                .forEach(r -> new JdbcTemplate(r.getDataSource()).update("UPDATE replication SET lag = ?", lag));
+    }
+
+    private static DataSource createDatabase(String name) {
+        JdbcDataSource dataSource = new JdbcDataSource();
+        dataSource.setURL("jdbc:h2:mem:" + name + ";DB_CLOSE_DELAY=-1");
+        JdbcTemplate jdbc = new JdbcTemplate(dataSource);
+        jdbc.execute("DROP TABLE IF EXISTS node");
+        jdbc.execute("DROP TABLE IF EXISTS replication");
+        jdbc.execute("CREATE TABLE node (name VARCHAR(32))");
+        jdbc.execute("CREATE TABLE replication (lag BIGINT)");
+        jdbc.update("INSERT INTO node VALUES (?)", name);
+        jdbc.update("INSERT INTO replication VALUES (0)");
+        return dataSource;
+    }
+
+}
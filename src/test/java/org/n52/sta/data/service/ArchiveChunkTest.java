@@ -0,0 +1,130 @@
+/*
+ * Copyright (C) 2012-2018 52°North Initiative for Geospatial Open Source
+ * Software GmbH
+ *
+ * This program is free software; you can redistribute it and/or modify it
+ * under the terms of the GNU General Public License version 2 as published
+ * by the Free Software Foundation.
+ *
+ * If the program is linked with libraries which are licensed under one of
+ * the following licenses, the combination of the program with the linked
+ * library is not considered a "derivative work" of the program:
+ *
+ *     - Apache License, version 2.0
+ *     - Apache Software License, version 1.0
+ *     - GNU Lesser General Public License, version 3
+ *     - Mozilla Public License, versions 1.0, 1.1 and 2.0
+ *     - Common Development and Distribution License (CDDL), version 1.0
+ *
+ * Therefore the distribution of the program linked with libraries licensed
+ * under the aforementioned licenses, is permitted by the copyright holders
+ * if the distribution is compliant with both the GNU General Public
+ * License version 2 and the aforementioned licenses.
+ *
+ * This program is distributed in the hope that it will be useful, but
+ * WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the GNU General
+ * Public License for more details.
+ */
+package org.n52.sta.data.service;
+
+import static org.hamcrest.core.Is.is;
+import static org.hamcrest.core.IsNull.nullValue;
+import static org.junit.Assert.assertThat;
+
+import java.io.IOException;
+import java.math.BigDecimal;
+import java.nio.file.Path;
+import java.time.YearMonth;
+
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+import org.n52.series.db.beans.DataEntity;
+import org.n52.series.db.beans.QuantityDataEntity;
+
+/**
+ * Writes chunks and reads them back.
+ *
+ * @since 1.0.0
+ */
+public class ArchiveChunkTest {
+
+    private static final long MINUTE = 60 * 1000;
+
+    private static final long START = 1514764800000L;
+
+    @Rule
+    public TemporaryFolder folder = new TemporaryFolder();
+
+    @Test
+    public void test_observations_are_restored_exactly() throws IOException {
+        ArchiveChunk.Writer writer = new ArchiveChunk.Writer(7, YearMonth.of(2018, 1));
+        writer.add(START, START, 100, 2150, 2);
+        writer.add(START + MINUTE, ObservationRingBuffer.NO_TIME, 101, 2150, 2);
+        writer.add(START + 2 * MINUTE, START + 3 * MINUTE, 105, -4, 0);
+        writer.add(START + 2 * MINUTE + 1, START + 2 * MINUTE, 106, Long.MAX_VALUE, -3);
+        ArchiveChunk chunk = write(writer);
+
+        assertThat(chunk.getDatasetId(), is(7L));
+        assertThat(chunk.getMonth(), is(YearMonth.of(2018, 1)));
+        assertThat(chunk.getCount(), is(4));
+
+        ArchiveChunk.Columns columns = chunk.decode();
+        assertThat(columns.size(), is(4));
+        assertObservation(columns.toObservation(0), 100, START, START, new BigDecimal("21.50"));
+        assertObservation(columns.toObservation(1), 101, START + MINUTE, null, new BigDecimal("21.50"));
+        assertObservation(columns.toObservation(2), 105, START + 2 * MINUTE, START + 3 * MINUTE, new BigDecimal("-4"));
+        assertObservation(columns.toObservation(3), 106, START + 2 * MINUTE + 1, START + 2 * MINUTE,
+                new BigDecimal(BigDecimal.valueOf(Long.MAX_VALUE).unscaledValue(), -3));
+        assertThat(columns.indexOf(105), is(2));
+        assertThat(columns.indexOf(104), is(-1));
+        assertThat(chunk.contains(105), is(true));
+        assertThat(chunk.contains(104), is(false));
+    }
+
+    @Test
+    public void test_regular_series_is_compressed() throws IOException {
+        ArchiveChunk.Writer writer = new ArchiveChunk.Writer(1, YearMonth.of(2018, 1));
+        for (int i = 0; i < 10000; i++) {
+            writer.add(START + i * MINUTE, START + i * MINUTE, 1000 + i, 2000 + i % 3, 1);
+        }
+        ArchiveChunk chunk = write(writer);
+
+        assertThat(chunk.getCount(), is(10000));
+        assertThat(chunk.getPath().toFile().length() < 10000 * 2, is(true));
+        assertThat(chunk.decode().toObservation(9999).getId(), is(10999L));
+    }
+
+    @Test
+    public void test_bounds_order_missing_times_last() throws IOException {
+        ArchiveChunk.Writer writer = new ArchiveChunk.Writer(1, YearMonth.of(2018, 1));
+        writer.add(START, ObservationRingBuffer.NO_TIME, 10, 1, 0);
+        writer.add(START + MINUTE, START + MINUTE, 12, 1, 0);
+        ArchiveChunk chunk = write(writer);
+
+        assertThat(ArchiveChunk.Key.PHENOMENON_TIME.min(chunk), is(START));
+        assertThat(ArchiveChunk.Key.PHENOMENON_TIME.max(chunk), is(START + MINUTE));
+        assertThat(ArchiveChunk.Key.RESULT_TIME.min(chunk), is(START + MINUTE));
+        assertThat(ArchiveChunk.Key.RESULT_TIME.max(chunk), is(Long.MAX_VALUE));
+        assertThat(ArchiveChunk.Key.ID.min(chunk), is(10L));
+        assertThat(chunk.mayContain(11), is(true));
+        assertThat(chunk.mayContain(13), is(false));
+        assertThat(ArchiveChunk.Key.of(DataEntity.PROPERTY_SAMPLING_TIME_START), is(ArchiveChunk.Key.PHENOMENON_TIME));
+        assertThat(ArchiveChunk.Key.of("result"), is(nullValue()));
+    }
+
+    private ArchiveChunk write(ArchiveChunk.Writer writer) throws IOException {
+        Path path = folder.newFile("chunk" + ArchiveChunk.SUFFIX).toPath();
+        writer.write(path);
+        return ArchiveChunk.open(path);
+    }
+
+    private static void assertObservation(DataEntity<?> observation, long id, long phenomenonTime, Long resultTime,
+            BigDecimal value) {
+        assertThat(observation.getId(), is(id));
+        assertThat(observation.getSamplingTimeStart().getTime(), is(phenomenonTime));
+        assertThat(observation.getResultTime() != null ? observation.getResultTime().getTime() : null, is(resultTime));
+        assertThat(((QuantityDataEntity) observation).getValue(), is(value));
+    }
+}
@@ -0,0 +1,169 @@
+/*
+ * Copyright (C) 2012-2018 52°North Initiative for Geospatial Open Source
+ * Software GmbH
+ *
+ * This program is free software; you can redistribute it and/or modify it
+ * under the terms of the GNU General Public License version 2 as published
+ * by the Free Software Foundation.
+ *
+ * If the program is linked with libraries which are licensed under one of
+ * the following licenses, the combination of the program with the linked
+ * library is not considered a "derivative work" of the program:
+ *
+ *     - Apache License, version 2.0
+ *     - Apache Software License, version 1.0
+ *     - GNU Lesser General Public License, version 3
+ *     - Mozilla Public License, versions 1.0, 1.1 and 2.0
+ *     - Common Development and Distribution License (CDDL), version 1.0
+ *
+ * Therefore the distribution of the program linked with libraries licensed
+ * under the aforementioned licenses, is permitted by the copyright holders
+ * if the distribution is compliant with both the GNU General Public
+ * License version 2 and the aforementioned licenses.
+ *
+ * This program is distributed in the hope that it will be useful, but
+ * WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the GNU General
+ * Public License for more details.
+ */
+package org.n52.sta.data.service;
+
+import static org.hamcrest.core.Is.is;
+import static org.junit.Assert.assertThat;
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.when;
+
+import java.util.Collections;
+import java.util.Date;
+
+import javax.persistence.EntityManager;
+import javax.persistence.EntityManagerFactory;
+
+import org.apache.olingo.commons.api.data.EntityCollection;
+import org.apache.olingo.server.api.uri.UriInfo;
+import org.apache.olingo.server.api.uri.UriInfoResource;
+import org.apache.olingo.server.api.uri.UriResource;
+import org.apache.olingo.server.api.uri.queryoption.SelectItem;
+import org.apache.olingo.server.api.uri.queryoption.SelectOption;
+import org.hibernate.SessionFactory;
+import org.hibernate.stat.Statistics;
+import org.junit.Before;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.n52.series.db.beans.FormatEntity;
+import org.n52.series.db.beans.PhenomenonEntity;
+import org.n52.series.db.beans.ProcedureEntity;
+import org.n52.series.db.beans.UnitEntity;
+import org.n52.series.db.beans.sta.DatastreamEntity;
+import org.n52.series.db.beans.sta.ThingEntity;
+import org.n52.sta.service.query.QueryOptions;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.boot.test.context.SpringBootTest;
+import org.springframework.boot.test.context.SpringBootTest.WebEnvironment;
+import org.springframework.test.context.ActiveProfiles;
+import org.springframework.test.context.junit4.SpringRunner;
+import org.springframework.transaction.annotation.Transactional;
+
+/**
+ * Checks that a page of Datastreams is read with a single statement and the
+ * mapper does not lazy load the unit and observation type of each row.
+ *
+ * @since 1.0.0
+ */
+@RunWith(SpringRunner.class)
+@SpringBootTest(webEnvironment = WebEnvironment.NONE)
+@ActiveProfiles("test")
+@Transactional
+public class DatastreamServiceStatementCountTest {
+
+    private static final int DATASTREAMS = 10;
+
+    @Autowired
+    private DatastreamService service;
+
+    @Autowired
+    private EntityManager entityManager;
+
+    @Autowired
+    private EntityManagerFactory entityManagerFactory;
+
+    private Statistics statistics;
+
+    @Before
+    public void setUp() {
+        ThingEntity thing = new ThingEntity();
+        thing.setName("thing");
+        thing.setDescription("thing");
+        entityManager.persist(thing);
+
+        FormatEntity sensorFormat = new FormatEntity().setFormat("application/pdf");
+        entityManager.persist(sensorFormat);
+        ProcedureEntity sensor = new ProcedureEntity();
+        sensor.setIdentifier("sensor");
+        sensor.setFormat(sensorFormat);
+        entityManager.persist(sensor);
+
+        PhenomenonEntity observedProperty = new PhenomenonEntity();
+        observedProperty.setIdentifier("property");
+        entityManager.persist(observedProperty);
+
+        // distinct unit and type per row, so lazy loading would need one select each
+        for (int i = 0; i < DATASTREAMS; i++) {
+            FormatEntity observationType = new FormatEntity().setFormat("type_" + i);
+            entityManager.persist(observationType);
+            UnitEntity unit = new UnitEntity();
+            unit.setUnit("unit_" + i);
+            entityManager.persist(unit);
+
+            DatastreamEntity datastream = new DatastreamEntity();
+            datastream.setName("datastream_" + i);
+            datastream.setDescription("datastream " + i);
+            datastream.setObservationType(observationType);
+            datastream.setUnitOfMeasurement(unit);
+            datastream.setThing(thing);
+            datastream.setProcedure(sensor);
+            datastream.setObservableProperty(observedProperty);
+            datastream.setSamplingTimeStart(new Date(0));
+            datastream.setSamplingTimeEnd(new Date(0));
+            datastream.setResultTimeStart(new Date(0));
+            datastream.setResultTimeEnd(new Date(0));
+            entityManager.persist(datastream);
+        }
+        entityManager.flush();
+        entityManager.clear();
+
+        statistics = entityManagerFactory.unwrap(SessionFactory.class).getStatistics();
+        statistics.clear();
+    }
+
+    @Test
+    public void test_collection_is_read_with_one_statement() {
+        EntityCollection collection = service.getEntityCollection(new QueryOptions(mock(UriInfo.class), ""));
+
+        assertThat(collection.getEntities().size(), is(DATASTREAMS));
+        assertThat(statistics.getPrepareStatementCount(), is(1L));
+    }
+
+    @Test
+    public void test_selected_collection_is_read_with_one_statement() {
+        EntityCollection collection = service.getEntityCollection(new QueryOptions(selecting("name"), ""));
+
+        assertThat(collection.getEntities().size(), is(DATASTREAMS));
+        assertThat(statistics.getPrepareStatementCount(), is(1L));
+    }
+
+    private static UriInfo selecting(String property) {
+        UriResource segment = mock(UriResource.class);
+        when(segment.getSegmentValue()).thenReturn(property);
+        UriInfoResource path = mock(UriInfoResource.class);
+        when(path.getUriResourceParts()).thenReturn(Collections.singletonList(segment));
+        SelectItem item = mock(SelectItem.class);
+        when(item.getResourcePath()).thenReturn(path);
+        SelectOption select = mock(SelectOption.class);
+        when(select.getSelectItems()).thenReturn(Collections.singletonList(item));
+        UriInfo uriInfo = mock(UriInfo.class);
+        when(uriInfo.getSelectOption()).thenReturn(select);
+        return uriInfo;
+    }
+
+}
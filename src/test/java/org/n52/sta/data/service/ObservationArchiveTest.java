@@ -0,0 +1,240 @@
+/*
+ * Copyright (C) 2012-2018 52°North Initiative for Geospatial Open Source
+ * Software GmbH
+ *
+ * This program is free software; you can redistribute it and/or modify it
+ * under the terms of the GNU General Public License version 2 as published
+ * by the Free Software Foundation.
+ *
+ * If the program is linked with libraries which are licensed under one of
+ * the following licenses, the combination of the program with the linked
+ * library is not considered a "derivative work" of the program:
+ *
+ *     - Apache License, version 2.0
+ *     - Apache Software License, version 1.0
+ *     - GNU Lesser General Public License, version 3
+ *     - Mozilla Public License, versions 1.0, 1.1 and 2.0
+ *     - Common Development and Distribution License (CDDL), version 1.0
+ *
+ * Therefore the distribution of the program linked with libraries licensed
+ * under the aforementioned licenses, is permitted by the copyright holders
+ * if the distribution is compliant with both the GNU General Public
+ * License version 2 and the aforementioned licenses.
+ *
+ * This program is distributed in the hope that it will be useful, but
+ * WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the GNU General
+ * Public License for more details.
+ */
+package org.n52.sta.data.service;
+
+import static org.hamcrest.core.Is.is;
+import static org.junit.Assert.assertThat;
+
+import java.io.IOException;
+import java.math.BigDecimal;
+import java.nio.file.Path;
+import java.time.YearMonth;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Comparator;
+import java.util.Date;
+import java.util.List;
+import java.util.function.Function;
+import java.util.stream.Collectors;
+
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+import org.n52.series.db.beans.DataEntity;
+import org.n52.series.db.beans.QDataEntity;
+import org.n52.series.db.beans.QuantityDataEntity;
+import org.n52.sta.data.OffsetLimitBasedPageRequest;
+import org.springframework.data.domain.Pageable;
+import org.springframework.data.domain.Sort;
+import org.springframework.data.domain.Sort.Direction;
+
+/**
+ * Merges pages of a table held in memory with archived chunks and compares
+ * them to the pages of all Observations.
+ *
+ * @since 1.0.0
+ */
+public class ObservationArchiveTest {
+
+    private static final long MINUTE = 60 * 1000;
+
+    private static final long START = 1514764800000L;
+
+    private static final String ID = QDataEntity.dataEntity.id.getMetadata().getName();
+
+    private static final String PHENOMENON_TIME = QDataEntity.dataEntity.samplingTimeStart.getMetadata().getName();
+
+    private static final String RESULT_TIME = QDataEntity.dataEntity.resultTime.getMetadata().getName();
+
+    @Rule
+    public TemporaryFolder folder = new TemporaryFolder();
+
+    private final ObservationArchive archive = new ObservationArchive();
+
+    @Test
+    public void test_pages_are_merged_at_every_offset() throws IOException {
+        List<DataEntity<?>> archived = new ArrayList<>();
+        List<ArchiveChunk> chunks = Arrays.asList(
+                // two overlapping Datasets and a chunk ordered before both
+                write(archived, 1, YearMonth.of(2018, 2), 40, 42, 44, 46, 48),
+                write(archived, 2, YearMonth.of(2018, 2), 41, 45, 49),
+                write(archived, 1, YearMonth.of(2018, 1), 2, 3, 5));
+        List<DataEntity<?>> table = createObservations(1, 4, 43, 47, 50, 51, 52);
+        for (String property : Arrays.asList(ID, PHENOMENON_TIME, RESULT_TIME)) {
+            for (Direction direction : Direction.values()) {
+                Sort sort = Sort.by(direction, property);
+                List<DataEntity<?>> all = sort(concat(archived, table), sort);
+                for (int offset = 0; offset <= all.size(); offset++) {
+                    List<DataEntity<?>> page = archive.find(chunks, new OffsetLimitBasedPageRequest(offset, 3, sort),
+                            query(table, new ArrayList<>()));
+                    assertThat(sort + " at " + offset, ids(page),
+                            is(ids(all.subList(offset, Math.min(offset + 3, all.size())))));
+                }
+            }
+        }
+    }
+
+    @Test
+    public void test_deep_pages_query_single_rows_of_the_table() throws IOException {
+        List<DataEntity<?>> archived = new ArrayList<>();
+        long[] ids = new long[1000];
+        Arrays.setAll(ids, i -> i + 1);
+        List<ArchiveChunk> chunks = Arrays.asList(write(archived, 1, YearMonth.of(2018, 1), ids));
+        List<DataEntity<?>> table = createObservations(1001, 1002, 1003, 1004, 1005);
+        List<Pageable> requests = new ArrayList<>();
+        Sort sort = Sort.by(Direction.ASC, PHENOMENON_TIME);
+
+        List<DataEntity<?>> page = archive.find(chunks, new OffsetLimitBasedPageRequest(1001, 2, sort),
+                query(table, requests));
+
+        assertThat(ids(page), is(Arrays.asList(1002L, 1003L)));
+        assertThat(requests.stream().allMatch(request -> request.getPageSize() <= 2), is(true));
+        assertThat(requests.size() <= 3, is(true));
+    }
+
+    @Test
+    public void test_observations_in_the_table_and_the_archive_are_merged_once() throws IOException {
+        List<DataEntity<?>> archived = new ArrayList<>();
+        List<ArchiveChunk> chunks = Arrays.asList(write(archived, 1, YearMonth.of(2018, 1), 1, 2, 3));
+        List<DataEntity<?>> table = createObservations(3, 4);
+
+        List<DataEntity<?>> page = archive.find(chunks,
+                new OffsetLimitBasedPageRequest(0, 4, Sort.by(Direction.ASC, ID)), query(table, new ArrayList<>()));
+
+        assertThat(ids(page), is(Arrays.asList(1L, 2L, 3L, 4L)));
+    }
+
+    @Test
+    public void test_pending_observations_are_only_taken_from_the_table() throws IOException {
+        List<DataEntity<?>> archived = new ArrayList<>();
+        ArchiveChunk written = write(archived, 1, YearMonth.of(2018, 1), 1, 2, 3, 5);
+        // the deletion of 3 from the table was not committed, 9 was not archived
+        ArchiveChunk.writePending(written.getPath(), new long[] { 3, 9 });
+        List<ArchiveChunk> chunks = Arrays.asList(ArchiveChunk.open(written.getPath()));
+        List<DataEntity<?>> table = createObservations(3, 4);
+
+        assertThat(chunks.get(0).getCount(), is(3));
+        assertThat(archive.count(chunks), is(3L));
+        assertThat(chunks.get(0).getPendingIds(), is(new long[] { 3 }));
+        assertThat(archive.findById(chunks, 3L).isPresent(), is(false));
+        assertThat(archive.findById(chunks, 2L).isPresent(), is(true));
+        Sort sort = Sort.by(Direction.DESC, PHENOMENON_TIME);
+        for (int offset = 0; offset < 5; offset++) {
+            List<DataEntity<?>> page = archive.find(chunks, new OffsetLimitBasedPageRequest(offset, 1, sort),
+                    query(table, new ArrayList<>()));
+            assertThat("offset " + offset, ids(page),
+                    is(Arrays.asList(5L, 4L, 3L, 2L, 1L).subList(offset, offset + 1)));
+        }
+    }
+
+    @Test
+    public void test_table_observations_are_merged_into_the_chunk() throws IOException {
+        ArchiveChunk existing = write(new ArrayList<>(), 1, YearMonth.of(2018, 1), 1, 3, 5);
+        ArchiveChunk.Writer writer = new ArchiveChunk.Writer(1, YearMonth.of(2018, 1));
+        ObservationArchive.ChunkMerge merge = new ObservationArchive.ChunkMerge(existing.decode(), writer);
+        // 3 is still in the table after a failed commit
+        for (long id : new long[] { 2, 3, 6 }) {
+            merge.add(START + id * MINUTE, START + id * MINUTE, id, id, 0);
+        }
+
+        assertThat(merge.finish(), is(new long[] { 2, 3, 6 }));
+        Path path = folder.newFile("merged" + ArchiveChunk.SUFFIX).toPath();
+        writer.write(path);
+        ArchiveChunk.Columns columns = ArchiveChunk.open(path).decode();
+        List<Long> ids = new ArrayList<>();
+        for (int row = 0; row < columns.size(); row++) {
+            ids.add(columns.getId(row));
+        }
+        assertThat(ids, is(Arrays.asList(1L, 2L, 3L, 5L, 6L)));
+    }
+
+    private ArchiveChunk write(List<DataEntity<?>> archived, long datasetId, YearMonth month, long... ids)
+            throws IOException {
+        ArchiveChunk.Writer writer = new ArchiveChunk.Writer(datasetId, month);
+        for (DataEntity<?> observation : createObservations(ids)) {
+            QuantityDataEntity quantity = (QuantityDataEntity) observation;
+            writer.add(quantity.getSamplingTimeStart().getTime(),
+                    quantity.getResultTime() != null ? quantity.getResultTime().getTime()
+                            : ObservationRingBuffer.NO_TIME,
+                    quantity.getId(), quantity.getValue().unscaledValue().longValue(), quantity.getValue().scale());
+            archived.add(observation);
+        }
+        Path path = folder.newFolder().toPath().resolve(month + ArchiveChunk.SUFFIX);
+        writer.write(path);
+        return ArchiveChunk.open(path);
+    }
+
+    /**
+     * Observations with a phenomenonTime in minutes of the id and a
+     * resultTime in reverse order, missing for every fifth id.
+     */
+    private static List<DataEntity<?>> createObservations(long... ids) {
+        List<DataEntity<?>> observations = new ArrayList<>();
+        for (long id : ids) {
+            QuantityDataEntity observation = new QuantityDataEntity();
+            observation.setId(id);
+            observation.setSamplingTimeStart(new Date(START + id * MINUTE));
+            observation.setResultTime(id % 5 == 0 ? null : new Date(START + (100 - id) * MINUTE));
+            observation.setValue(BigDecimal.valueOf(id));
+            observations.add(observation);
+        }
+        return observations;
+    }
+
+    private static Function<Pageable, List<DataEntity<?>>> query(List<DataEntity<?>> table,
+            List<Pageable> requests) {
+        return pageable -> {
+            requests.add(pageable);
+            List<DataEntity<?>> sorted = sort(table, pageable.getSort());
+            int from = (int) Math.min(pageable.getOffset(), sorted.size());
+            return sorted.subList(from, Math.min(from + pageable.getPageSize(), sorted.size()));
+        };
+    }
+
+    private static List<DataEntity<?>> sort(List<DataEntity<?>> observations, Sort sort) {
+        Sort.Order order = sort.iterator().next();
+        ArchiveChunk.Key key = ArchiveChunk.Key.of(order.getProperty());
+        Comparator<DataEntity<?>> comparator = Comparator.comparingLong((DataEntity<?> o) -> key.of(o))
+                .thenComparingLong(o -> o.getId());
+        return observations.stream()
+                .sorted(order.isDescending() ? comparator.reversed() : comparator)
+                .collect(Collectors.toList());
+    }
+
+    private static List<DataEntity<?>> concat(List<DataEntity<?>> first, List<DataEntity<?>> second) {
+        List<DataEntity<?>> all = new ArrayList<>(first);
+        all.addAll(second);
+        return all;
+    }
+
+    private static List<Long> ids(List<DataEntity<?>> observations) {
+        return observations.stream().map(DataEntity::getId).collect(Collectors.toList());
+    }
+
+}
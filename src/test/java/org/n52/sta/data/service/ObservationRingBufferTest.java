@@ -0,0 +1,181 @@
+/*
+ * Copyright (C) 2012-2018 52°North Initiative for Geospatial Open Source
+ * Software GmbH
+ *
+ * This program is free software; you can redistribute it and/or modify it
+ * under the terms of the GNU General Public License version 2 as published
+ * by the Free Software Foundation.
+ *
+ * If the program is linked with libraries which are licensed under one of
+ * the following licenses, the combination of the program with the linked
+ * library is not considered a "derivative work" of the program:
+ *
+ *     - Apache License, version 2.0
+ *     - Apache Software License, version 1.0
+ *     - GNU Lesser General Public License, version 3
+ *     - Mozilla Public License, versions 1.0, 1.1 and 2.0
+ *     - Common Development and Distribution License (CDDL), version 1.0
+ *
+ * Therefore the distribution of the program linked with libraries licensed
+ * under the aforementioned licenses, is permitted by the copyright holders
+ * if the distribution is compliant with both the GNU General Public
+ * License version 2 and the aforementioned licenses.
+ *
+ * This program is distributed in the hope that it will be useful, but
+ * WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the GNU General
+ * Public License for more details.
+ */
+package org.n52.sta.data.service;
+
+import static org.hamcrest.core.Is.is;
+import static org.hamcrest.core.IsNull.nullValue;
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertThat;
+
+import java.math.BigDecimal;
+import java.util.Date;
+import java.util.HashSet;
+import java.util.List;
+
+import org.junit.Test;
+import org.n52.series.db.beans.DataEntity;
+import org.n52.series.db.beans.QuantityDataEntity;
+import org.n52.series.db.beans.TextDataEntity;
+import org.n52.sta.data.service.ObservationRingBuffer.Append;
+
+/**
+ * Appends and reads Observations with ids and phenomenonTimes in seconds of
+ * the same number.
+ *
+ * @since 1.0.0
+ */
+public class ObservationRingBufferTest {
+
+    private static final long SECOND = 1000;
+
+    @Test
+    public void test_descending_pages_are_read_from_the_newest() {
+        ObservationRingBuffer buffer = createBuffer(8, 0, 1, 2, 3, 4, 5);
+        assertArrayEquals(new long[] { 5, 4 }, buffer.readIds(true, 0, 2));
+        assertArrayEquals(new long[] { 3, 2 }, buffer.readIds(true, 2, 2));
+        assertThat(buffer.readIds(true, 4, 2), is(nullValue()));
+    }
+
+    @Test
+    public void test_complete_buffer_covers_all_pages() {
+        ObservationRingBuffer buffer = createBuffer(8, 0, 1, 2, 3);
+        assertThat(buffer.readIds(false, 0, 2), is(nullValue()));
+        assertThat(buffer.count(), is(-1L));
+
+        buffer.markComplete();
+        assertArrayEquals(new long[] { 1, 2 }, buffer.readIds(false, 0, 2));
+        assertArrayEquals(new long[] { 3 }, buffer.readIds(false, 2, 2));
+        assertArrayEquals(new long[] {}, buffer.readIds(true, 3, 2));
+        assertThat(buffer.count(), is(3L));
+    }
+
+    @Test
+    public void test_full_buffer_overwrites_the_oldest() {
+        ObservationRingBuffer buffer = createBuffer(3, 0, 1, 2, 3);
+        buffer.markComplete();
+        assertThat(buffer.append(createObservation(4), false), is(Append.FULL));
+        assertThat(buffer.append(createObservation(4), true), is(Append.APPENDED));
+        assertArrayEquals(new long[] { 4, 3, 2 }, buffer.readIds(true, 0, 3));
+        assertThat(buffer.count(), is(-1L));
+    }
+
+    @Test
+    public void test_grown_buffer_keeps_the_order() {
+        ObservationRingBuffer buffer = createBuffer(3, 0, 1, 2, 3);
+        buffer.append(createObservation(4), true);
+        buffer.grow(6);
+        buffer.append(createObservation(5), false);
+        assertThat(buffer.getCapacity(), is(6));
+        assertArrayEquals(new long[] { 5, 4, 3, 2 }, buffer.readIds(true, 0, 4));
+    }
+
+    @Test
+    public void test_observations_beyond_the_retention_are_removed() {
+        ObservationRingBuffer buffer = createBuffer(8, 2 * SECOND, 1, 2, 3, 4, 5);
+        assertThat(buffer.size(), is(3));
+        assertArrayEquals(new long[] { 5, 4, 3 }, buffer.readIds(true, 0, 3));
+    }
+
+    @Test
+    public void test_older_observations_are_rejected() {
+        ObservationRingBuffer buffer = createBuffer(8, 0, 1, 3);
+        assertThat(buffer.append(createObservation(3), false), is(Append.DUPLICATE));
+        assertThat(buffer.append(createObservation(2), false), is(Append.OUT_OF_ORDER));
+        assertThat(buffer.getLastId(), is(3L));
+    }
+
+    @Test
+    public void test_observations_committed_out_of_order_are_missing() {
+        ObservationRingBuffer buffer = createBuffer(8, 0, 2, 4, 6);
+        assertThat(buffer.isMissing(createObservation(4)), is(false));
+        assertThat(buffer.isMissing(createObservation(5)), is(true));
+        assertThat(buffer.isMissing(createObservation(7)), is(true));
+        assertThat(buffer.isMissing(createObservation(1)), is(false));
+
+        buffer.markComplete();
+        assertThat(buffer.isMissing(createObservation(1)), is(true));
+    }
+
+    @Test
+    public void test_observations_are_restored() {
+        QuantityDataEntity observation = createObservation(1);
+        observation.setValue(new BigDecimal("21.50"));
+        observation.setResultTime(null);
+        ObservationRingBuffer buffer = new ObservationRingBuffer(4, 0);
+        buffer.append(observation, false);
+
+        List<DataEntity<?>> page = buffer.read(true, 0, 1);
+        QuantityDataEntity restored = (QuantityDataEntity) page.get(0);
+        assertThat(restored.getId(), is(1L));
+        assertThat(restored.getValue().toString(), is("21.50"));
+        assertThat(restored.getSamplingTimeStart(), is(new Date(SECOND)));
+        assertThat(restored.getSamplingTimeEnd(), is(new Date(SECOND)));
+        assertThat(restored.getResultTime(), is(nullValue()));
+        assertThat(restored.getParameters().isEmpty(), is(true));
+    }
+
+    @Test
+    public void test_only_quantity_instants_are_supported() {
+        assertThat(ObservationRingBuffer.isSupported(createObservation(1)), is(true));
+
+        QuantityDataEntity interval = createObservation(1);
+        interval.setSamplingTimeEnd(new Date(2 * SECOND));
+        assertThat(ObservationRingBuffer.isSupported(interval), is(false));
+
+        QuantityDataEntity large = createObservation(1);
+        large.setValue(new BigDecimal("1e30").setScale(0));
+        assertThat(ObservationRingBuffer.isSupported(large), is(false));
+
+        TextDataEntity text = new TextDataEntity();
+        text.setId(1L);
+        text.setSamplingTimeStart(new Date(SECOND));
+        text.setValue("text");
+        text.setParameters(new HashSet<>());
+        assertThat(ObservationRingBuffer.isSupported(text), is(false));
+    }
+
+    private static ObservationRingBuffer createBuffer(int capacity, long retention, long... ids) {
+        ObservationRingBuffer buffer = new ObservationRingBuffer(capacity, retention);
+        for (long id : ids) {
+            buffer.append(createObservation(id), true);
+        }
+        return buffer;
+    }
+
+    private static QuantityDataEntity createObservation(long id) {
+        QuantityDataEntity observation = new QuantityDataEntity();
+        observation.setId(id);
+        observation.setSamplingTimeStart(new Date(id * SECOND));
+        observation.setResultTime(new Date(id * SECOND));
+        observation.setValue(BigDecimal.valueOf(id));
+        observation.setParameters(new HashSet<>());
+        return observation;
+    }
+
+}
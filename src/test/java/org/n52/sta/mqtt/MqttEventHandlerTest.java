@@ -0,0 +1,144 @@
+/*
+ * Copyright (C) 2012-2018 52°North Initiative for Geospatial Open Source
+ * Software GmbH
+ *
+ * This program is free software; you can redistribute it and/or modify it
+ * under the terms of the GNU General Public License version 2 as published
+ * by the Free Software Foundation.
+ *
+ * If the program is linked with libraries which are licensed under one of
+ * the following licenses, the combination of the program with the linked
+ * library is not considered a "derivative work" of the program:
+ *
+ *     - Apache License, version 2.0
+ *     - Apache Software License, version 1.0
+ *     - GNU Lesser General Public License, version 3
+ *     - Mozilla Public License, versions 1.0, 1.1 and 2.0
+ *     - Common Development and Distribution License (CDDL), version 1.0
+ *
+ * Therefore the distribution of the program linked with libraries licensed
+ * under the aforementioned licenses, is permitted by the copyright holders
+ * if the distribution is compliant with both the GNU General Public
+ * License version 2 and the aforementioned licenses.
+ *
+ * This program is distributed in the hope that it will be useful, but
+ * WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the GNU General
+ * Public License for more details.
+ */
+package org.n52.sta.mqtt;
+
+import static org.hamcrest.core.Is.is;
+import static org.hamcrest.core.IsNull.nullValue;
+import static org.junit.Assert.assertThat;
+
+import java.io.IOException;
+import java.math.BigDecimal;
+
+import org.joda.time.DateTime;
+import org.junit.Test;
+import org.n52.series.db.beans.BooleanDataEntity;
+import org.n52.series.db.beans.CategoryDataEntity;
+import org.n52.series.db.beans.CountDataEntity;
+import org.n52.series.db.beans.DataEntity;
+import org.n52.series.db.beans.QuantityDataEntity;
+import org.n52.series.db.beans.TextDataEntity;
+
+import com.fasterxml.jackson.databind.JsonNode;
+import com.fasterxml.jackson.databind.ObjectMapper;
+
+/**
+ * Matches topics and parses published Observations.
+ *
+ * @since 1.0.0
+ */
+public class MqttEventHandlerTest {
+
+    private final ObjectMapper mapper = new ObjectMapper();
+
+    @Test
+    public void test_topic_filters_with_wildcards() {
+        assertThat(MqttEventHandler.matches("v1.0/Observations", "v1.0/Observations"), is(true));
+        assertThat(MqttEventHandler.matches("v1.0/#", "v1.0/Datastreams(1)/Observations"), is(true));
+        assertThat(MqttEventHandler.matches("v1.0/+/Observations", "v1.0/Datastreams(1)/Observations"), is(true));
+        assertThat(MqttEventHandler.matches("v1.0/+", "v1.0/Datastreams(1)/Observations"), is(false));
+        assertThat(MqttEventHandler.matches("v1.0/Observations/#", "v1.0/Datastreams(1)/Observations"), is(false));
+        assertThat(MqttEventHandler.matches("v1.0/Datastreams(1)/Observations", "v1.0/Datastreams(2)/Observations"),
+                is(false));
+    }
+
+    @Test
+    public void test_ingest_topics() {
+        assertThat(MqttEventHandler.isIngestTopic("v1.0/Observations"), is(true));
+        assertThat(MqttEventHandler.isIngestTopic("v1.0/Datastreams(12)/Observations"), is(true));
+        assertThat(MqttEventHandler.isIngestTopic("v1.0/Datastreams(x)/Observations"), is(false));
+        assertThat(MqttEventHandler.isIngestTopic("v1.0/Things"), is(false));
+        assertThat(MqttEventHandler.isIngestTopic("v1.0/Observations/extra"), is(false));
+    }
+
+    @Test
+    public void test_datastream_from_topic_or_payload() throws IOException {
+        JsonNode payload = json("{\"result\": 1, \"Datastream\": {\"@iot.id\": 7}, \"FeatureOfInterest\": {\"@iot.id\": \"3\"}}");
+        assertThat(MqttEventHandler.getDatastreamId("v1.0/Datastreams(12)/Observations", payload), is(12L));
+        assertThat(MqttEventHandler.getDatastreamId("v1.0/Observations", payload), is(7L));
+        assertThat(MqttEventHandler.getDatastreamId("v1.0/Observations", json("{\"result\": 1}")), is(nullValue()));
+        assertThat(MqttEventHandler.getFeatureId(payload), is(3L));
+        assertThat(MqttEventHandler.getFeatureId(json("{\"FeatureOfInterest\": {\"@iot.id\": \"a\"}}")),
+                is(nullValue()));
+    }
+
+    @Test
+    public void test_results_are_converted_to_the_value_type() throws IOException {
+        DataEntity<?> quantity = MqttEventHandler.createObservation(json("{\"result\": 21.5}"), "quantity");
+        assertThat(((QuantityDataEntity) quantity).getValue().compareTo(new BigDecimal("21.5")), is(0));
+        quantity = MqttEventHandler.createObservation(json("{\"result\": \"21.5\"}"), "quantity");
+        assertThat(((QuantityDataEntity) quantity).getValue().compareTo(new BigDecimal("21.5")), is(0));
+        DataEntity<?> count = MqttEventHandler.createObservation(json("{\"result\": 3}"), "count");
+        assertThat(((CountDataEntity) count).getValue(), is(3));
+        DataEntity<?> bool = MqttEventHandler.createObservation(json("{\"result\": true}"), "boolean");
+        assertThat(((BooleanDataEntity) bool).getValue(), is(true));
+        DataEntity<?> category = MqttEventHandler.createObservation(json("{\"result\": 2}"), "category");
+        assertThat(((CategoryDataEntity) category).getValue(), is("2"));
+        DataEntity<?> text = MqttEventHandler.createObservation(json("{\"result\": 21.5}"), "text");
+        assertThat(((TextDataEntity) text).getValue(), is("21.5"));
+    }
+
+    @Test(expected = IllegalArgumentException.class)
+    public void test_text_result_of_a_quantity_is_rejected() throws IOException {
+        MqttEventHandler.createObservation(json("{\"result\": \"on\"}"), "quantity");
+    }
+
+    @Test(expected = IllegalArgumentException.class)
+    public void test_fractional_count_is_rejected() throws IOException {
+        MqttEventHandler.createObservation(json("{\"result\": 1.5}"), "count");
+    }
+
+    @Test(expected = IllegalArgumentException.class)
+    public void test_unsupported_value_type_is_rejected() throws IOException {
+        MqttEventHandler.createObservation(json("{\"result\": 1}"), "geometry");
+    }
+
+    @Test
+    public void test_times_are_parsed() throws IOException {
+        DataEntity<?> observation = MqttEventHandler.createObservation(json("{\"result\": 1, "
+                + "\"phenomenonTime\": \"2018-01-01T00:00:00Z/2018-01-01T01:00:00Z\"}"), "quantity");
+        assertThat(observation.getSamplingTimeStart(), is(DateTime.parse("2018-01-01T00:00:00Z").toDate()));
+        assertThat(observation.getSamplingTimeEnd(), is(DateTime.parse("2018-01-01T01:00:00Z").toDate()));
+        assertThat(observation.getResultTime(), is(observation.getSamplingTimeEnd()));
+        assertThat(observation.getValidTimeStart(), is(nullValue()));
+    }
+
+    @Test(expected = IllegalArgumentException.class)
+    public void test_observation_without_result_is_rejected() throws IOException {
+        MqttEventHandler.createObservation(json("{\"phenomenonTime\": \"2018-01-01T00:00:00Z\"}"), "quantity");
+    }
+
+    @Test(expected = IllegalArgumentException.class)
+    public void test_invalid_time_is_rejected() throws IOException {
+        MqttEventHandler.createObservation(json("{\"result\": 1, \"phenomenonTime\": \"yesterday\"}"), "quantity");
+    }
+
+    private JsonNode json(String json) throws IOException {
+        return mapper.readTree(json);
+    }
+}
@@ -0,0 +1,135 @@
+/*
+ * Copyright (C) 2012-2018 52°North Initiative for Geospatial Open Source
+ * Software GmbH
+ *
+ * This program is free software; you can redistribute it and/or modify it
+ * under the terms of the GNU General Public License version 2 as published
+ * by the Free Software Foundation.
+ *
+ * If the program is linked with libraries which are licensed under one of
+ * the following licenses, the combination of the program with the linked
+ * library is not considered a "derivative work" of the program:
+ *
+ *     - Apache License, version 2.0
+ *     - Apache Software License, version 1.0
+ *     - GNU Lesser General Public License, version 3
+ *     - Mozilla Public License, versions 1.0, 1.1 and 2.0
+ *     - Common Development and Distribution License (CDDL), version 1.0
+ *
+ * Therefore the distribution of the program linked with libraries licensed
+ * under the aforementioned licenses, is permitted by the copyright holders
+ * if the distribution is compliant with both the GNU General Public
+ * License version 2 and the aforementioned licenses.
+ *
+ * This program is distributed in the hope that it will be useful, but
+ * WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the GNU General
+ * Public License for more details.
+ */
+package org.n52.sta.service.async;
+
+import static org.hamcrest.core.Is.is;
+import static org.junit.Assert.assertThat;
+
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import org.junit.After;
+import org.junit.Test;
+
+/**
+ * Selects bulkheads by the requested resource and rejects requests beyond
+ * their capacity.
+ *
+ * @since 1.0.0
+ */
+public class BulkheadTest {
+
+    // unbounded like virtual threads, the bulkhead has to limit the concurrency
+    private final ExecutorService executor = Executors.newCachedThreadPool();
+
+    @After
+    public void shutdown() {
+        executor.shutdownNow();
+    }
+
+    @Test
+    public void test_pool_sizes_are_limited_by_the_connections() {
+        assertThat(BulkheadRegistry.getPoolSize("Observations", 0, 10, 2), is(5));
+        assertThat(BulkheadRegistry.getPoolSize("Things", 0, 10, 4), is(2));
+        assertThat(BulkheadRegistry.getPoolSize("Things", 0, 2, 4), is(1));
+        assertThat(BulkheadRegistry.getPoolSize("Things", 8, 10, 4), is(8));
+        assertThat(BulkheadRegistry.getPoolSize("Observations", 16, 10, 2), is(10));
+    }
+
+    @Test
+    public void test_bulkhead_of_the_last_entity_set_segment() {
+        BulkheadRegistry registry = new BulkheadRegistry();
+        assertThat(registry.resolveBulkheadName("/Things"), is("Things"));
+        assertThat(registry.resolveBulkheadName("/Things(1)/Datastreams"), is("Datastreams"));
+        assertThat(registry.resolveBulkheadName("/Datastreams(1)/Observations"), is("Observations"));
+        assertThat(registry.resolveBulkheadName("/Observations(1)/FeatureOfInterest"), is("FeaturesOfInterest"));
+        assertThat(registry.resolveBulkheadName("/$metadata"), is(BulkheadRegistry.METADATA_BULKHEAD));
+        assertThat(registry.resolveBulkheadName(""), is(BulkheadRegistry.METADATA_BULKHEAD));
+        assertThat(registry.resolveBulkheadName(null), is(BulkheadRegistry.METADATA_BULKHEAD));
+    }
+
+    @Test
+    public void test_requests_beyond_the_queue_are_rejected() throws InterruptedException {
+        Bulkhead bulkhead = new Bulkhead("test", executor, 1, 1);
+        CountDownLatch release = new CountDownLatch(1);
+        CountDownLatch done = new CountDownLatch(2);
+        Runnable blocking = () -> {
+            await(release);
+            done.countDown();
+        };
+
+        assertThat(bulkhead.tryExecute(blocking), is(true));
+        assertThat(bulkhead.tryExecute(blocking), is(true));
+        assertThat(bulkhead.tryExecute(blocking), is(false));
+        assertThat(bulkhead.getActiveCount(), is(2));
+
+        release.countDown();
+        assertThat(done.await(5, TimeUnit.SECONDS), is(true));
+        CountDownLatch next = new CountDownLatch(1);
+        assertThat(bulkhead.tryExecute(next::countDown), is(true));
+        assertThat(next.await(5, TimeUnit.SECONDS), is(true));
+    }
+
+    @Test
+    public void test_admitted_requests_run_up_to_the_pool_size() throws InterruptedException {
+        Bulkhead bulkhead = new Bulkhead("test", executor, 2, 8);
+        AtomicInteger running = new AtomicInteger();
+        AtomicInteger maxRunning = new AtomicInteger();
+        CountDownLatch done = new CountDownLatch(10);
+        for (int i = 0; i < 10; i++) {
+            assertThat(bulkhead.tryExecute(() -> {
+                maxRunning.accumulateAndGet(running.incrementAndGet(), Math::max);
+                sleep(20);
+                running.decrementAndGet();
+                done.countDown();
+            }), is(true));
+        }
+        assertThat(done.await(5, TimeUnit.SECONDS), is(true));
+        assertThat(maxRunning.get(), is(2));
+    }
+
+    private static void await(CountDownLatch latch) {
+        try {
+            latch.await(5, TimeUnit.SECONDS);
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+    }
+
+    private static void sleep(long millis) {
+        try {
+            Thread.sleep(millis);
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+    }
+}